@@ -29,9 +29,13 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 
 import com.truebanana.cache.AbstractDiskLruCache;
+import com.truebanana.cache.DiskLruCache;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * A {@link AbstractDiskLruCache} for {@link Bitmap}s with a default max size of 10MB if not specified.
@@ -55,14 +59,26 @@ public class BitmapDiskCache extends AbstractDiskLruCache<Bitmap> {
 
     @Override
     public Bitmap get(String key) {
-        byte[] data = getData(key);
-        return BitmapFactory.decodeByteArray(data, 0, data.length);
+        InputStream is = getInputStream(key);
+        if (is == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(new BufferedInputStream(is)); // Decoded as it's read, without a copy of the file in memory
+        } finally {
+            DiskLruCache.closeQuietly(is);
+        }
     }
 
     @Override
-    public void put(String key, Bitmap item) {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        item.compress(Bitmap.CompressFormat.PNG, 100, os);
-        putData(key, os.toByteArray());
+    public void put(String key, final Bitmap item) {
+        putData(key, new DataWriter() {
+            @Override
+            public void write(OutputStream os) throws IOException {
+                if (!item.compress(Bitmap.CompressFormat.PNG, 100, os)) {
+                    throw new IOException("Bitmap could not be compressed");
+                }
+            }
+        });
     }
 }
\ No newline at end of file
@@ -30,8 +30,10 @@ import android.widget.ImageView;
 
 import com.truebanana.async.Async;
 import com.truebanana.async.BackgroundTask;
+import com.truebanana.cache.TinyLfuPolicy;
 import com.truebanana.http.BitmapResponseListener;
 import com.truebanana.http.HTTPRequest;
+import com.truebanana.http.NetworkPolicy;
 import com.truebanana.log.Log;
 
 import java.io.File;
@@ -50,12 +52,13 @@ public class BitmapLoader {
 
     private static void initializeCacheAsNeeded() {
         if (memCache == null) {
-            memCache = new BitmapMemCache();
+            memCache = new BitmapMemCache(10 * 1024 * 1024, new TinyLfuPolicy<String>()); // Scrolling through a list doesn't evict the images shown repeatedly
         }
     }
 
     public static void enableDiskCache(Context context) {
         diskCache = new BitmapDiskCache(new File(context.getCacheDir(), "images"));
+        diskCache.setEvictionPolicy(new TinyLfuPolicy<String>());
         Log.d("BitmapLoader", "Disk cache enabled");
     }
 
@@ -112,11 +115,37 @@ public class BitmapLoader {
      * @param imageView The {@link ImageView} where the {@link Bitmap} will be displayed
      * @param options   The {@link RequestOptions} to use for this request
      */
-    public static void displayBitmap(final String url, int width, int height, final ImageView imageView, RequestOptions options) {
+    public static void displayBitmap(String url, int width, int height, ImageView imageView, RequestOptions options) {
         initializeCacheAsNeeded();
+        if (displayCachedBitmap(url, imageView)) {
+            return;
+        }
+
+        // Ask for a smaller image on a slow network
+        NetworkPolicy networkPolicy = HTTPRequest.getDefaultDispatcher().getNetworkPolicy();
+        float scale = networkPolicy != null ? networkPolicy.getImageScale() : 1;
+        if (scale < 1 && width > 0 && height > 0 && options.resizedURLBuilder != null) {
+            width = Math.max(1, Math.round(width * scale));
+            height = Math.max(1, Math.round(height * scale));
+            url = options.resizedURLBuilder.getResizedURL(url, width, height);
+            Log.d("BitmapLoader", "Slow network, requesting a smaller image...");
+            if (displayCachedBitmap(url, imageView)) {
+                return;
+            }
+        }
+        retrieveBitmap(url, width, height, imageView, options);
+    }
+
+    /**
+     * Displays a {@link Bitmap} from the memory or disk cache.
+     *
+     * @return <strong>true</strong> if the {@link Bitmap} is cached.
+     */
+    private static boolean displayCachedBitmap(final String url, final ImageView imageView) {
         if (memCache.contains(url)) {
             Log.d("BitmapLoader", "Image in mem cache, loading from memory...");
             imageView.setImageBitmap(memCache.get(url));
+            return true;
         } else if (diskCache != null && diskCache.contains(url)) {
             Log.d("BitmapLoader", "Image in disk cache, loading from disk...");
             Async.executeAsync(new BackgroundTask<Bitmap>() {
@@ -131,35 +160,40 @@ public class BitmapLoader {
                     memCache.put(url, result);
                 }
             }, true);
-        } else {
-            Log.d("BitmapLoader", "Image not cached, retrieving...");
-            HTTPRequest.create(url)
-                    .addHeaders(options.headers)
-                    .setConnectTimeout(options.connectTimeout)
-                    .setReadTimeout(options.readTimeout)
-                    .setSSLVerificationEnabled(options.sslVerification)
-                    .setLogTag("BitmapLoader")
-                    .setHTTPResponseListener(new BitmapResponseListener(width, height) {
-                        @Override
-                        public void onDecodingSuccessful(Bitmap bitmap) {
-                            imageView.setImageBitmap(bitmap);
-                            memCache.put(url, bitmap);
-                            if (diskCache != null) {
-                                diskCache.put(url, bitmap);
-                            }
-                        }
+            return true;
+        }
+        return false;
+    }
 
-                        @Override
-                        public void onDecodingFailed() {
+    private static void retrieveBitmap(final String url, int width, int height, final ImageView imageView, RequestOptions options) {
+        Log.d("BitmapLoader", "Image not cached, retrieving...");
+        HTTPRequest.create(url)
+                .addHeaders(options.headers)
+                .setConnectTimeout(options.connectTimeout)
+                .setReadTimeout(options.readTimeout)
+                .setSSLVerificationEnabled(options.sslVerification)
+                .setLogTag("BitmapLoader")
+                .setHTTPResponseListener(new BitmapResponseListener(width, height) {
+                    @Override
+                    public void onDecodingSuccessful(Bitmap bitmap) {
+                        imageView.setImageBitmap(bitmap);
+                        memCache.put(url, bitmap);
+                        if (diskCache != null) {
+                            diskCache.put(url, bitmap);
                         }
-                    })
-                    .executeAsync();
-        }
+                    }
+
+                    @Override
+                    public void onDecodingFailed() {
+                    }
+                })
+                .executeAsync();
     }
 
     public static class RequestOptions {
         Map<String, String> headers = new HashMap<>();
         boolean sslVerification = false;
+        ResizedURLBuilder resizedURLBuilder;
         private int readTimeout = 10000;
         private int connectTimeout = 10000;
 
@@ -211,5 +245,36 @@ public class BitmapLoader {
             this.connectTimeout = connectTimeout;
             return this;
         }
+
+        public ResizedURLBuilder getResizedURLBuilder() {
+            return resizedURLBuilder;
+        }
+
+        /**
+         * Sets how to ask the server for a smaller image. When the {@link NetworkPolicy} of the default {@link com.truebanana.http.HTTPDispatcher} scales images down on the current network,
+         * images displayed with a size are requested from the URL built by it instead, and cached under that URL.
+         *
+         * @param resizedURLBuilder The {@link ResizedURLBuilder}, or <strong>null</strong> to always request images at their full size.
+         * @return This {@link RequestOptions} for chaining and convenience.
+         */
+        public RequestOptions setResizedURLBuilder(ResizedURLBuilder resizedURLBuilder) {
+            this.resizedURLBuilder = resizedURLBuilder;
+            return this;
+        }
+    }
+
+    /**
+     * Builds the URL of a smaller version of an image, for servers which can resize images.
+     */
+    public interface ResizedURLBuilder {
+        /**
+         * Returns the URL of the image at a smaller size.
+         *
+         * @param url    The URL of the image.
+         * @param width  The width needed, in pixels.
+         * @param height The height needed, in pixels.
+         * @return The URL of the image resized to at least the specified size.
+         */
+        String getResizedURL(String url, int width, int height);
     }
 }
\ No newline at end of file
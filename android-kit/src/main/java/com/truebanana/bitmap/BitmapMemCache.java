@@ -25,12 +25,14 @@
 package com.truebanana.bitmap;
 
 import android.graphics.Bitmap;
-import android.util.LruCache;
+
+import com.truebanana.cache.EvictionPolicy;
+import com.truebanana.cache.MemoryCache;
 
 /**
- * An {@link LruCache} for {@link Bitmap}s with a default max size of 10MB if not specified.
+ * A {@link MemoryCache} for {@link Bitmap}s with a default max size of 10MB if not specified. Least recently used {@link Bitmap}s are evicted unless another {@link EvictionPolicy} is specified.
  */
-public class BitmapMemCache extends LruCache<String, Bitmap> {
+public class BitmapMemCache extends MemoryCache<String, Bitmap> {
     public BitmapMemCache() {
         this(10 * 1024 * 1024); // 10MB
     }
@@ -39,12 +41,12 @@ public class BitmapMemCache extends LruCache<String, Bitmap> {
         super(maxSize);
     }
 
-    public boolean contains(String key) {
-        return get(key) != null;
+    public BitmapMemCache(long maxSize, EvictionPolicy<String> policy) {
+        super(maxSize, policy);
     }
 
     @Override
-    protected int sizeOf(String key, Bitmap value) {
+    protected long sizeOf(String key, Bitmap value) {
         return value.getRowBytes() * value.getHeight();
     }
-}
\ No newline at end of file
+}
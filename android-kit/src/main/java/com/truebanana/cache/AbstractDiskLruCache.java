@@ -31,18 +31,25 @@ import com.truebanana.log.Log;
 
 import org.apache.commons.io.IOUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 /**
  * Extend this class and implement {@link AbstractDiskLruCache#get(String)} and {@link AbstractDiskLruCache#put(String, Object)}
  * which should respectively call {@link AbstractDiskLruCache#getData(String)} to retrieve raw data from the cache for processing and
- * {@link AbstractDiskLruCache#putData(String, byte[])} to store your data.
+ * {@link AbstractDiskLruCache#putData(String, byte[])} to store your data.<br />
+ * <br />
+ * To avoid holding a whole entry in memory, read it with {@link AbstractDiskLruCache#getInputStream(String)} or {@link AbstractDiskLruCache#getChannel(String)}
+ * and write it with {@link AbstractDiskLruCache#putData(String, DataWriter)} instead.
  */
 public abstract class AbstractDiskLruCache<T> {
-    private DiskLruCache cache;
+    private volatile ConcurrentDiskLruCache cache;
+    private EvictionPolicy<String> evictionPolicy;
+    private volatile long timeToLive;
 
     public AbstractDiskLruCache(Context context) {
         this(context, 10 * 1024 * 1024);
@@ -57,24 +64,33 @@ public abstract class AbstractDiskLruCache<T> {
     }
 
     public AbstractDiskLruCache(File directory, long maxSize) {
-        try {
-            cache = DiskLruCache.open(directory, 1, 1, maxSize);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        cache = ConcurrentDiskLruCache.openInBackground(directory, 1, 1, maxSize); // The first calls wait until the index is read
     }
 
-    private boolean writeToFile(byte[] data, OutputStream os) {
-        try {
-            IOUtils.write(data, os);
-            os.flush();
-            os.close();
-            Log.d("AbstractDiskLruCache", "Write file to disk successful");
-            return true;
-        } catch (IOException e) {
-            Log.d("AbstractDiskLruCache", "Write file to disk failed");
-            return false;
+    /**
+     * Sets how the cache chooses the entries to evict when it's full. The default is an {@link LruPolicy}.
+     *
+     * @param evictionPolicy A new {@link EvictionPolicy}, such as a {@link TinyLfuPolicy} for entries used repeatedly among many used once.
+     * @return This {@link AbstractDiskLruCache} for chaining and convenience.
+     */
+    public synchronized AbstractDiskLruCache<T> setEvictionPolicy(EvictionPolicy<String> evictionPolicy) {
+        cache.setEvictionPolicy(evictionPolicy);
+        this.evictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    /**
+     * Makes the entries put from now on expire after some time, after which they are treated as missing. Entries never expire by default.
+     *
+     * @param timeToLive The number of milliseconds, or 0 if entries never expire.
+     * @return This {@link AbstractDiskLruCache} for chaining and convenience.
+     */
+    public AbstractDiskLruCache<T> setTimeToLive(long timeToLive) {
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("timeToLive must not be negative.");
         }
+        this.timeToLive = timeToLive;
+        return this;
     }
 
     public File getDirectory() {
@@ -91,62 +107,140 @@ public abstract class AbstractDiskLruCache<T> {
 
     public boolean contains(String key) {
         key = Crypto.SHA1(key);
-        boolean contains = false;
-        DiskLruCache.Snapshot snapshot = null;
         try {
-            snapshot = cache.get(key);
-            contains = snapshot != null;
+            return cache.contains(key);
         } catch (IOException e) {
             Log.d("AbstractDiskLruCache", "Cache entry check failed");
-        } finally {
-            if (snapshot != null) {
-                snapshot.close();
-            }
+            return false;
         }
-        return contains;
     }
 
-    public void clear() {
+    public boolean remove(String key) {
+        key = Crypto.SHA1(key);
+        try {
+            return cache.remove(key);
+        } catch (IOException e) {
+            Log.d("AbstractDiskLruCache", "Remove data from cache failed");
+            return false;
+        }
+    }
+
+    public synchronized void clear() {
+        File directory = getDirectory();
+        long maxSize = getMaxSize();
         try {
             cache.delete();
+            cache = ConcurrentDiskLruCache.openInBackground(directory, 1, 1, maxSize); // Reopen so the cache can still be used
+            if (evictionPolicy != null) {
+                evictionPolicy.clear();
+                cache.setEvictionPolicy(evictionPolicy);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     protected byte[] getData(String key) {
-        key = Crypto.SHA1(key);
-        byte[] data = null;
-        DiskLruCache.Snapshot snapshot = null;
+        InputStream is = getInputStream(key);
+        if (is == null) {
+            return null;
+        }
         try {
-            snapshot = cache.get(key);
-            if (snapshot != null) {
-                InputStream is = snapshot.getInputStream(0);
-                data = IOUtils.toByteArray(is);
-            }
+            return IOUtils.toByteArray(is);
         } catch (IOException e) {
             Log.d("AbstractDiskLruCache", "Get data from cache failed");
+            return null;
         } finally {
-            if (snapshot != null) {
-                snapshot.close();
-            }
+            DiskLruCache.closeQuietly(is);
         }
-        return data;
     }
 
-    protected void putData(String key, byte[] data) {
+    /**
+     * Opens an entry for reading without loading it into memory. The stream reads the entry as it was when opened, even if it's replaced or evicted meanwhile.
+     *
+     * @param key The key.
+     * @return An unbuffered {@link InputStream} which must be closed, or <strong>null</strong> if the cache doesn't have the entry.
+     */
+    protected InputStream getInputStream(String key) {
+        ConcurrentDiskLruCache.Snapshot snapshot = getSnapshot(key);
+        return snapshot != null ? snapshot.getInputStream(0) : null;
+    }
+
+    /**
+     * Opens an entry as a {@link FileChannel}, such as to map it into memory with {@link FileChannel#map(FileChannel.MapMode, long, long)}.
+     * Like the stream of {@link AbstractDiskLruCache#getInputStream(String)}, the channel and its mappings keep reading the entry as it was when opened.
+     *
+     * @param key The key.
+     * @return A {@link FileChannel} which must be closed, or <strong>null</strong> if the cache doesn't have the entry.
+     */
+    protected FileChannel getChannel(String key) {
+        ConcurrentDiskLruCache.Snapshot snapshot = getSnapshot(key);
+        return snapshot != null ? snapshot.getChannel(0) : null;
+    }
+
+    /**
+     * Returns the file of an entry, for APIs which need a path. The file is replaced when the entry is put again and deleted when it's removed or evicted,
+     * so prefer {@link AbstractDiskLruCache#getChannel(String)} where an open file will do.
+     *
+     * @param key The key.
+     * @return The {@link File}, or <strong>null</strong> if the cache doesn't have the entry.
+     */
+    protected File getFile(String key) {
+        ConcurrentDiskLruCache.Snapshot snapshot = getSnapshot(key);
+        if (snapshot == null) {
+            return null;
+        }
+        snapshot.close();
+        return snapshot.getFile(0);
+    }
+
+    private ConcurrentDiskLruCache.Snapshot getSnapshot(String key) {
         key = Crypto.SHA1(key);
-        DiskLruCache.Editor editor = null;
+        try {
+            return cache.get(key);
+        } catch (IOException e) {
+            Log.d("AbstractDiskLruCache", "Get data from cache failed");
+            return null;
+        }
+    }
+
+    protected void putData(String key, final byte[] data) {
+        putData(key, new DataWriter() {
+            @Override
+            public void write(OutputStream os) throws IOException {
+                os.write(data);
+            }
+        });
+    }
+
+    /**
+     * Writes an entry as it's produced, such as while it's downloaded or encoded, without holding all of it in memory. The entry is only replaced if the {@link DataWriter} returns normally.
+     *
+     * @param key    The key.
+     * @param writer The {@link DataWriter} which writes the entry.
+     * @return <strong>true</strong> if the entry was written.
+     */
+    protected boolean putData(String key, DataWriter writer) {
+        key = Crypto.SHA1(key);
+        ConcurrentDiskLruCache.Editor editor = null;
         boolean success = false;
         try {
             editor = cache.edit(key);
-            if (writeToFile(data, editor.newOutputStream(0))) {
-                cache.flush();
-                editor.commit();
-                success = true;
-                cache.close(); // Close cache so everything is written to disk
-                cache = DiskLruCache.open(getDirectory(), 1, 1, getMaxSize()); // Reopen for other transactions
+            if (editor == null) {
+                Log.d("AbstractDiskLruCache", "Entry is being written by another thread");
+                return false;
             }
+            editor.setTimeToLive(timeToLive);
+            OutputStream os = new BufferedOutputStream(editor.newOutputStream(0));
+            try {
+                writer.write(os);
+                os.flush();
+            } finally {
+                os.close();
+            }
+            editor.commit(); // The journal is written in the background along with other commits
+            success = true;
+            Log.d("AbstractDiskLruCache", "Write file to disk successful");
         } catch (IOException e) {
             Log.d("AbstractDiskLruCache", "Put data in cache failed");
         } finally {
@@ -157,9 +251,35 @@ public abstract class AbstractDiskLruCache<T> {
                 }
             }
         }
+        return success;
+    }
+
+    /**
+     * Blocks until everything put in the cache so far would survive a power loss. Entries are already safe from the app being killed as soon as they are put,
+     * so only call this where losing the most recent entries to a crash of the device matters, and preferably after putting a batch of entries.
+     */
+    public void sync() {
+        try {
+            cache.sync();
+        } catch (IOException e) {
+            Log.d("AbstractDiskLruCache", "Sync cache failed");
+        }
     }
 
     public abstract T get(String key);
 
     public abstract void put(String key, T item);
+
+    /**
+     * Writes the data of an entry for {@link AbstractDiskLruCache#putData(String, DataWriter)}.
+     */
+    public interface DataWriter {
+        /**
+         * Writes the data. Throw to leave the entry as it was.
+         *
+         * @param os The stream to write to, which is buffered and closed afterwards.
+         * @throws IOException If the data couldn't be written.
+         */
+        void write(OutputStream os) throws IOException;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,1707 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link DiskLruCache} which many threads can read from at the same time, such as the decoders of a list of thumbnails, and which opens quickly however many entries it holds.<br />
+ * <br />
+ * The index of entries is split into segments by the hash of the key, and each segment has its own lock, so edits of unrelated keys don't wait for each other.
+ * Reading an entry takes no lock at all: the files of the entry are opened directly, and a stamp on the entry tells the reader to try again if a commit replaced the files in the meantime, so a snapshot never mixes values of different commits.<br />
+ * <br />
+ * Reads are not written to the journal one by one. The time of the last access of each entry is kept in memory and decides the order of the checkpoint, and a read is recorded in the journal at most once every few seconds per entry, in batches written by the background thread.<br />
+ * <br />
+ * The entries to evict are chosen by an {@link EvictionPolicy}, least recently used by default. Lookups reach the policy through a buffer drained by the background thread, so reads still don't wait for a lock.
+ * Entries can also expire, see {@link Editor#setTimeToLive(long)}.<br />
+ * <br />
+ * The index is stored in binary: a checkpoint of all entries in access order, rewritten every few thousand changes, followed by a journal of the changes since.
+ * Both are memory-mapped and read in one pass when opening, and {@link ConcurrentDiskLruCache#openInBackground(File, int, int, long)} even returns before that, making everything but {@link ConcurrentDiskLruCache#isLoaded()} wait until the index is ready.
+ * A directory written by {@link DiskLruCache} is converted when opened. The API is the same except for the class names of the snapshots and editors.
+ */
+public final class ConcurrentDiskLruCache implements Closeable {
+    static final String CHECKPOINT_FILE = "checkpoint";
+    static final String CHECKPOINT_FILE_TMP = "checkpoint.tmp";
+    static final String JOURNAL_FILE = "journal.bin";
+    static final String JOURNAL_FILE_TMP = "journal.bin.tmp";
+    static final String LEGACY_JOURNAL_FILE = "journal";
+    static final String LEGACY_JOURNAL_FILE_TMP = "journal.tmp";
+    static final String LEGACY_MAGIC = "libcore.io.DiskLruCache";
+    static final String LEGACY_VERSION_1 = "1";
+    static final int CHECKPOINT_MAGIC = 0x444c5243; // "DLRC"
+    static final int JOURNAL_MAGIC = 0x444c524a; // "DLRJ"
+    static final int VERSION_1 = 1;
+    static final long ANY_SEQUENCE_NUMBER = -1;
+    private static final int HEADER_SIZE = 24;
+    private static final int CLEAN = 1;
+    private static final int DIRTY = 2;
+    private static final int REMOVE = 3;
+    private static final int READ = 4;
+    private static final int EXPIRING_CLEAN = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int IO_BUFFER_SIZE = 8 * 1024;
+    private static final int SEGMENT_COUNT = 16; // A power of two
+    private static final int READ_BATCH_SIZE = 128;
+    private static final int ACCESS_BUFFER_SIZE = 1024;
+    private static final long READ_RECORD_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    private static final int MAX_UNSYNCED_FILES = 1024;
+
+    private final File directory;
+    private final File checkpointFile;
+    private final File checkpointFileTmp;
+    private final File journalFile;
+    private final File journalFileTmp;
+    private final int appVersion;
+    private final long maxSize;
+    private final int valueCount;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong nextSequenceNumber = new AtomicLong();
+    private final AtomicInteger redundantOpCount = new AtomicInteger();
+
+    private final ConcurrentLinkedQueue<String> pendingReads = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingReadCount = new AtomicInteger();
+
+    private final Object policyLock = new Object(); // Taken after the segment locks, never before
+    private EvictionPolicy<String> policy = new LruPolicy<>();
+    private boolean policyLoaded;
+    private final ConcurrentLinkedQueue<String> accessBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger accessCount = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicLong nextExpiry = new AtomicLong(Long.MAX_VALUE);
+
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private volatile IOException loadFailure;
+
+    private final Object journalLock = new Object(); // Taken after the segment locks, never before
+    private volatile OutputStream journalOut;
+    private FileOutputStream journalStream;
+    private long generation; // Of the checkpoint, which the journal must match
+    private long journalLength; // Of the valid records while opening, or -1 if the journal must be created
+    private boolean flushScheduled;
+    private final List<File> unsyncedFiles = new ArrayList<>();
+
+    /**
+     * This cache uses a single background thread to open the cache, evict entries and write the journal.
+     */
+    private final ExecutorService executorService = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private final Callable<Void> cleanupCallable = new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+            if (isClosed()) {
+                return null;
+            }
+            trimToSize();
+            if (journalRebuildRequired()) {
+                rebuildJournal();
+            }
+            return null;
+        }
+    };
+
+    /**
+     * Writes the buffered journal records of all edits completed since it was scheduled, so a burst of edits costs one write.
+     */
+    private final Callable<Void> flushCallable = new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+            synchronized (journalLock) {
+                flushScheduled = false;
+                if (journalOut != null) {
+                    journalOut.flush();
+                }
+            }
+            return null;
+        }
+    };
+
+    private final Callable<Void> recordReadsCallable = new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+            recordReads();
+            return null;
+        }
+    };
+
+    private final Callable<Void> loadPolicyCallable = new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+            loadPolicy();
+            return null;
+        }
+    };
+
+    private final Callable<Void> drainAccessesCallable = new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+            drainScheduled.set(false);
+            synchronized (policyLock) {
+                drainAccesses();
+            }
+            return null;
+        }
+    };
+
+    private final Callable<Void> syncCallable = new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+            if (!isClosed()) {
+                sync();
+            }
+            return null;
+        }
+    };
+
+    private ConcurrentDiskLruCache(File directory, int appVersion, int valueCount, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (valueCount <= 0) {
+            throw new IllegalArgumentException("valueCount <= 0");
+        }
+        this.directory = directory;
+        this.appVersion = appVersion;
+        this.checkpointFile = new File(directory, CHECKPOINT_FILE);
+        this.checkpointFileTmp = new File(directory, CHECKPOINT_FILE_TMP);
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.journalFileTmp = new File(directory, JOURNAL_FILE_TMP);
+        this.valueCount = valueCount;
+        this.maxSize = maxSize;
+        this.policy.setMaximumWeight(maxSize);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Opens the cache in a directory, creating a cache if none exists there.
+     *
+     * @param directory  A writable directory.
+     * @param appVersion The version of the data. The cache is cleared when it changes.
+     * @param valueCount The number of values per cache entry. Must be positive.
+     * @param maxSize    The maximum number of bytes this cache should use to store its data.
+     * @return The {@link ConcurrentDiskLruCache}.
+     * @throws IOException If reading or writing the cache directory fails.
+     */
+    public static ConcurrentDiskLruCache open(File directory, int appVersion, int valueCount, long maxSize) throws IOException {
+        ConcurrentDiskLruCache cache = new ConcurrentDiskLruCache(directory, appVersion, valueCount, maxSize);
+        cache.load();
+        return cache;
+    }
+
+    /**
+     * Opens the cache in a directory like {@link ConcurrentDiskLruCache#open(File, int, int, long)}, but reads the index on the background thread of the cache and returns right away.
+     * Calls made before the index is ready wait for it, and those that throw {@link IOException} throw one if the cache could not be opened.
+     * Use this on the main thread.
+     *
+     * @param directory  A writable directory.
+     * @param appVersion The version of the data. The cache is cleared when it changes.
+     * @param valueCount The number of values per cache entry. Must be positive.
+     * @param maxSize    The maximum number of bytes this cache should use to store its data.
+     * @return The {@link ConcurrentDiskLruCache}.
+     */
+    public static ConcurrentDiskLruCache openInBackground(File directory, int appVersion, int valueCount, long maxSize) {
+        final ConcurrentDiskLruCache cache = new ConcurrentDiskLruCache(directory, appVersion, valueCount, maxSize);
+        cache.executorService.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                cache.load();
+                return null;
+            }
+        });
+        return cache;
+    }
+
+    private void load() throws IOException {
+        try {
+            // Prefer to pick up where we left off
+            if (checkpointFile.exists()) {
+                try {
+                    long clock = System.nanoTime() - checkpointFile.length() - journalFile.length() - 1;
+                    clock = readCheckpoint(clock);
+                    readJournal(clock);
+                    processJournal();
+                    openJournalWriter();
+                    onLoaded();
+                    return;
+                } catch (IOException indexIsCorrupt) {
+                    indexIsCorrupt.printStackTrace();
+                    clearIndex();
+                    DiskLruCache.deleteContents(directory);
+                }
+            } else if (new File(directory, LEGACY_JOURNAL_FILE).exists()) {
+                try {
+                    readLegacyJournal();
+                    processJournal();
+                    rebuildJournal();
+                    deleteIfExists(new File(directory, LEGACY_JOURNAL_FILE));
+                    onLoaded();
+                    return;
+                } catch (IOException journalIsCorrupt) {
+                    journalIsCorrupt.printStackTrace();
+                    clearIndex();
+                    DiskLruCache.deleteContents(directory);
+                }
+            }
+
+            // Create a new empty cache
+            directory.mkdirs();
+            rebuildJournal();
+            onLoaded();
+        } catch (IOException e) {
+            loadFailure = e;
+            throw e;
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    /**
+     * Tells the {@link EvictionPolicy} about the entries in the background, as sorting them would take longer than reading the index, and evicts what is expired or over the max size.
+     */
+    private void onLoaded() {
+        executorService.submit(loadPolicyCallable);
+        if (nextExpiry.get() <= System.currentTimeMillis() || size.get() > maxSize) {
+            executorService.submit(cleanupCallable);
+        }
+    }
+
+    private void loadPolicy() {
+        synchronized (policyLock) {
+            if (!policyLoaded) {
+                addEntries(policy);
+                policyLoaded = true;
+            }
+        }
+    }
+
+    /**
+     * Returns true once the index has been read, so the other methods won't wait for it.
+     *
+     * @return <strong>true</strong> if loaded.
+     */
+    public boolean isLoaded() {
+        return loaded.getCount() == 0;
+    }
+
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void clearIndex() {
+        for (Segment segment : segments) {
+            segment.entries.clear();
+        }
+        size.set(0);
+    }
+
+    // Journal
+    // *********************************************************************************************
+
+    /**
+     * Reads the entries of the checkpoint.
+     *
+     * @return The clock for the first record of the journal.
+     */
+    private long readCheckpoint(long clock) throws IOException {
+        FileInputStream in = new FileInputStream(checkpointFile);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            generation = readHeader(buffer, CHECKPOINT_MAGIC, checkpointFile);
+            int count = buffer.getInt();
+            byte[] keyBuffer = new byte[64];
+            for (int i = 0; i < count; i++) {
+                int op = buffer.get();
+                int keyLength = (int) readVarLong(buffer);
+                if (keyLength > keyBuffer.length) {
+                    keyBuffer = new byte[keyLength];
+                }
+                buffer.get(keyBuffer, 0, keyLength);
+                String key = new String(keyBuffer, 0, keyLength, UTF_8);
+                if (op != CLEAN && op != EXPIRING_CLEAN && op != DIRTY) {
+                    throw new IOException("unexpected checkpoint record: " + op);
+                }
+                long[] lengths = op != DIRTY ? readLengths(buffer) : null;
+                long expiresAt = op == EXPIRING_CLEAN ? readVarLong(buffer) : 0;
+                applyRecord(op, key, lengths, expiresAt, clock++);
+            }
+            if (buffer.hasRemaining()) {
+                throw new IOException("unexpected checkpoint length");
+            }
+            return clock;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated checkpoint");
+        } finally {
+            DiskLruCache.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Replays the changes made since the checkpoint. A record cut off by a crash ends the journal.
+     */
+    private void readJournal(long clock) throws IOException {
+        journalLength = -1;
+        if (!journalFile.exists()) {
+            return;
+        }
+        FileInputStream in = new FileInputStream(journalFile);
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            long journalGeneration;
+            try {
+                journalGeneration = readHeader(buffer, JOURNAL_MAGIC, journalFile);
+            } catch (BufferUnderflowException e) {
+                return; // Cut off while being created, the checkpoint has everything
+            }
+            if (journalGeneration < generation) {
+                return; // The checkpoint was written but the journal was not reset yet, so it has everything
+            } else if (journalGeneration > generation) {
+                throw new IOException("journal newer than checkpoint");
+            }
+
+            byte[] keyBuffer = new byte[64];
+            journalLength = buffer.position();
+            try {
+                while (buffer.hasRemaining()) {
+                    int op = buffer.get();
+                    if (op < CLEAN || op > EXPIRING_CLEAN) {
+                        break; // Garbage left by a crash
+                    }
+                    int keyLength = (int) readVarLong(buffer);
+                    if (keyLength > keyBuffer.length) {
+                        keyBuffer = new byte[keyLength];
+                    }
+                    buffer.get(keyBuffer, 0, keyLength);
+                    long[] lengths = op == CLEAN || op == EXPIRING_CLEAN ? readLengths(buffer) : null;
+                    long expiresAt = op == EXPIRING_CLEAN ? readVarLong(buffer) : 0;
+                    applyRecord(op, new String(keyBuffer, 0, keyLength, UTF_8), lengths, expiresAt, clock++);
+                    journalLength = buffer.position();
+                    redundantOpCount.incrementAndGet();
+                }
+            } catch (BufferUnderflowException endOfJournal) {
+                // Cut off by a crash
+            }
+        } finally {
+            DiskLruCache.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Reads the text journal of a {@link DiskLruCache}.
+     */
+    private void readLegacyJournal() throws IOException {
+        File legacyJournalFile = new File(directory, LEGACY_JOURNAL_FILE);
+        InputStream in = new BufferedInputStream(new FileInputStream(legacyJournalFile), IO_BUFFER_SIZE);
+        try {
+            String magic = DiskLruCache.readAsciiLine(in);
+            String version = DiskLruCache.readAsciiLine(in);
+            String appVersionString = DiskLruCache.readAsciiLine(in);
+            String valueCountString = DiskLruCache.readAsciiLine(in);
+            String blank = DiskLruCache.readAsciiLine(in);
+            if (!LEGACY_MAGIC.equals(magic)
+                    || !LEGACY_VERSION_1.equals(version)
+                    || !Integer.toString(appVersion).equals(appVersionString)
+                    || !Integer.toString(valueCount).equals(valueCountString)
+                    || !"".equals(blank)) {
+                throw new IOException("unexpected journal header: [" + magic + ", " + version + ", " + valueCountString + ", " + blank + "]");
+            }
+
+            // Entries read later were used more recently, and all of them before anything used from now on
+            long clock = System.nanoTime() - legacyJournalFile.length() - 1;
+            while (true) {
+                String line;
+                try {
+                    line = DiskLruCache.readAsciiLine(in);
+                } catch (EOFException endOfJournal) {
+                    break;
+                }
+                readLegacyJournalLine(line, clock++);
+            }
+        } finally {
+            DiskLruCache.closeQuietly(in);
+        }
+        deleteIfExists(new File(directory, LEGACY_JOURNAL_FILE_TMP));
+    }
+
+    private void readLegacyJournalLine(String line, long clock) throws IOException {
+        String[] parts = line.split(" ");
+        if (parts.length < 2) {
+            throw new IOException("unexpected journal line: " + line);
+        }
+
+        if (parts[0].equals("CLEAN") && parts.length == 2 + valueCount) {
+            long[] lengths = new long[valueCount];
+            try {
+                for (int i = 0; i < valueCount; i++) {
+                    lengths[i] = Long.parseLong(parts[2 + i]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("unexpected journal line: " + line);
+            }
+            applyRecord(CLEAN, parts[1], lengths, 0, clock);
+        } else if (parts[0].equals("DIRTY") && parts.length == 2) {
+            applyRecord(DIRTY, parts[1], null, 0, clock);
+        } else if (parts[0].equals("REMOVE") && parts.length == 2) {
+            applyRecord(REMOVE, parts[1], null, 0, clock);
+        } else if (parts[0].equals("READ") && parts.length == 2) {
+            applyRecord(READ, parts[1], null, 0, clock);
+        } else {
+            throw new IOException("unexpected journal line: " + line);
+        }
+    }
+
+    private void applyRecord(int op, String key, long[] lengths, long expiresAt, long clock) {
+        Segment segment = segmentFor(key);
+        Entry entry = segment.entries.get(key);
+        if (op == REMOVE) {
+            segment.entries.remove(key);
+        } else if (op == READ) {
+            if (entry != null) {
+                entry.lastAccess = clock;
+            }
+        } else {
+            if (entry == null) {
+                entry = new Entry(key, clock);
+                segment.entries.put(key, entry);
+            }
+            if (op == DIRTY) {
+                entry.dirty = true;
+            } else {
+                entry.version = new Version(lengths, nextSequenceNumber.getAndIncrement(), expiresAt);
+                entry.dirty = false;
+            }
+            entry.lastAccess = clock;
+        }
+    }
+
+    /**
+     * Computes the initial size and collects garbage as a part of opening the cache. Dirty entries are assumed to be inconsistent and will be deleted.
+     */
+    private void processJournal() throws IOException {
+        deleteIfExists(checkpointFileTmp);
+        deleteIfExists(journalFileTmp);
+        long total = 0;
+        for (Segment segment : segments) {
+            for (Iterator<Entry> i = segment.entries.values().iterator(); i.hasNext(); ) {
+                Entry entry = i.next();
+                if (!entry.dirty) {
+                    total += entry.version.getWeight();
+                    updateNextExpiry(entry.version.expiresAt);
+                } else {
+                    entry.dirty = false;
+                    for (int t = 0; t < valueCount; t++) {
+                        deleteIfExists(entry.getCleanFile(t));
+                        deleteIfExists(entry.getDirtyFile(t));
+                    }
+                    i.remove();
+                }
+            }
+        }
+        size.set(total);
+    }
+
+    /**
+     * Opens the journal for appending after its last valid record, or creates it.
+     */
+    private void openJournalWriter() throws IOException {
+        if (journalLength < 0) {
+            createJournal();
+            journalLength = HEADER_SIZE;
+        }
+        journalStream = new FileOutputStream(journalFile, true);
+        journalStream.getChannel().truncate(journalLength); // Drop a record cut off by a crash
+        journalOut = new BufferedOutputStream(journalStream, IO_BUFFER_SIZE);
+    }
+
+    /**
+     * Replaces the journal with an empty one for the current checkpoint.
+     */
+    private void createJournal() throws IOException {
+        FileOutputStream out = new FileOutputStream(journalFileTmp);
+        try {
+            DataOutputStream header = new DataOutputStream(out);
+            writeHeader(header, JOURNAL_MAGIC, generation);
+            header.flush();
+            out.getFD().sync();
+        } finally {
+            DiskLruCache.closeQuietly(out);
+        }
+        if (!journalFileTmp.renameTo(journalFile)) {
+            throw new IOException("failed to rename " + journalFileTmp);
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the index with the entries in access order, and starts a new empty journal.
+     */
+    private void rebuildJournal() throws IOException {
+        rebuildJournal(0);
+    }
+
+    /**
+     * Takes the segment locks one after another so the checkpoint is written while nothing can be edited.
+     */
+    private void rebuildJournal(int segmentIndex) throws IOException {
+        if (segmentIndex < SEGMENT_COUNT) {
+            synchronized (segments[segmentIndex]) {
+                rebuildJournal(segmentIndex + 1);
+            }
+            return;
+        }
+
+        synchronized (journalLock) {
+            // Drop the pending reads, the order of the checkpoint includes them
+            while (pendingReads.poll() != null) {
+                pendingReadCount.decrementAndGet();
+            }
+
+            List<Entry> entries = new ArrayList<>();
+            for (Entry entry : getEntriesByAccess()) {
+                if (entry.currentEditor != null || entry.version != null) {
+                    entries.add(entry);
+                }
+            }
+
+            FileOutputStream out = new FileOutputStream(checkpointFileTmp);
+            try {
+                DataOutputStream writer = new DataOutputStream(new BufferedOutputStream(out, IO_BUFFER_SIZE));
+                writeHeader(writer, CHECKPOINT_MAGIC, generation + 1);
+                writer.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    if (entry.currentEditor != null) {
+                        writeRecord(writer, DIRTY, entry.key, null);
+                    } else {
+                        writeRecord(writer, CLEAN, entry.key, entry.version);
+                    }
+                }
+                writer.flush();
+                out.getFD().sync(); // The new checkpoint must be complete before it replaces the old one
+            } finally {
+                DiskLruCache.closeQuietly(out);
+            }
+            if (!checkpointFileTmp.renameTo(checkpointFile)) {
+                throw new IOException("failed to rename " + checkpointFileTmp);
+            }
+            generation++;
+
+            // From here on the old journal is ignored when opening, even if replacing it fails
+            if (journalOut != null) {
+                DiskLruCache.closeQuietly(journalOut);
+            }
+            journalLength = -1;
+            openJournalWriter();
+            redundantOpCount.set(0);
+        }
+    }
+
+    /**
+     * Appends a record to the journal.
+     *
+     * @param flush <strong>true</strong> to write it right away, otherwise it is written with the next group of records.
+     */
+    private void writeJournal(int op, String key, Version version, boolean flush) throws IOException {
+        synchronized (journalLock) {
+            OutputStream out = journalOut;
+            if (out == null) {
+                throw new IllegalStateException("cache is closed");
+            }
+            writeRecord(out, op, key, version);
+            if (flush) {
+                out.flush();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                executorService.submit(flushCallable);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending read records to the journal.
+     */
+    private void recordReads() throws IOException {
+        synchronized (journalLock) {
+            OutputStream out = journalOut;
+            String key;
+            int count = 0;
+            while ((key = pendingReads.poll()) != null) {
+                count++;
+                if (out != null) {
+                    writeRecord(out, READ, key, null);
+                }
+            }
+            pendingReadCount.addAndGet(-count);
+            redundantOpCount.addAndGet(count);
+        }
+    }
+
+    /**
+     * Checkpoints once the journal has a quarter as many redundant records as there are entries, so it replays quickly.
+     */
+    private boolean journalRebuildRequired() {
+        int count = redundantOpCount.get();
+        return count >= REDUNDANT_OP_COMPACT_THRESHOLD && count >= getEntryCount() / 4;
+    }
+
+    private void writeHeader(DataOutputStream out, int magic, long generation) throws IOException {
+        out.writeInt(magic);
+        out.writeInt(VERSION_1);
+        out.writeInt(appVersion);
+        out.writeInt(valueCount);
+        out.writeLong(generation);
+    }
+
+    /**
+     * Checks the header of the checkpoint or the journal.
+     *
+     * @return The generation.
+     */
+    private long readHeader(ByteBuffer buffer, int magic, File file) throws IOException {
+        int fileMagic = buffer.getInt();
+        int version = buffer.getInt();
+        int fileAppVersion = buffer.getInt();
+        int fileValueCount = buffer.getInt();
+        long fileGeneration = buffer.getLong();
+        if (fileMagic != magic || version != VERSION_1 || fileAppVersion != appVersion || fileValueCount != valueCount) {
+            throw new IOException("unexpected header in " + file + ": [" + fileMagic + ", " + version + ", " + fileAppVersion + ", " + fileValueCount + "]");
+        }
+        return fileGeneration;
+    }
+
+    /**
+     * Writes a record as its type, the length and UTF-8 bytes of the key and, for {@link ConcurrentDiskLruCache#CLEAN}, the lengths of the values and the expiry time if any. Numbers are stored in 7 bits per byte.
+     */
+    private static void writeRecord(OutputStream out, int op, String key, Version version) throws IOException {
+        if (op == CLEAN && version.expiresAt != 0) {
+            op = EXPIRING_CLEAN;
+        }
+        byte[] keyBytes = key.getBytes(UTF_8);
+        out.write(op);
+        writeVarLong(out, keyBytes.length);
+        out.write(keyBytes);
+        if (op == CLEAN || op == EXPIRING_CLEAN) {
+            for (long length : version.lengths) {
+                writeVarLong(out, length);
+            }
+        }
+        if (op == EXPIRING_CLEAN) {
+            writeVarLong(out, version.expiresAt);
+        }
+    }
+
+    private long[] readLengths(ByteBuffer buffer) {
+        long[] lengths = new long[valueCount];
+        for (int i = 0; i < valueCount; i++) {
+            lengths[i] = readVarLong(buffer);
+        }
+        return lengths;
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            result |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    // Reading
+    // *********************************************************************************************
+
+    /**
+     * Returns true if an entry exists and is readable, without opening its files or making it the most recently used one.
+     *
+     * @param key The key.
+     * @return <strong>true</strong> if the entry exists.
+     * @throws IOException If the cache could not be opened.
+     */
+    public boolean contains(String key) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        Entry entry = segmentFor(key).entries.get(key);
+        Version version = entry != null ? entry.version : null;
+        return version != null && !version.isExpired();
+    }
+
+    /**
+     * Returns a snapshot of an entry without taking any lock. The lookup is passed on to the {@link EvictionPolicy}.
+     *
+     * @param key The key.
+     * @return The {@link Snapshot}, or <strong>null</strong> if the entry doesn't exist, has expired or is not readable yet.
+     * @throws IOException If the files of the entry could not be opened.
+     */
+    public Snapshot get(String key) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        recordAccess(key);
+        Entry entry = segmentFor(key).entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        while (true) {
+            int stamp = entry.stamp;
+            if ((stamp & 1) != 0) {
+                Thread.yield(); // A commit is replacing the files
+                continue;
+            }
+            Version version = entry.version;
+            if (version == null) {
+                return null;
+            } else if (version.isExpired()) {
+                removeEntry(key, true);
+                return null;
+            }
+
+            // Open all streams eagerly to guarantee that we see a single published snapshot
+            InputStream[] ins = new InputStream[valueCount];
+            try {
+                for (int i = 0; i < valueCount; i++) {
+                    ins[i] = new FileInputStream(entry.getCleanFile(i));
+                }
+            } catch (FileNotFoundException e) {
+                closeAll(ins);
+                if (entry.stamp != stamp) {
+                    continue; // Removed or replaced while opening
+                }
+                return null; // A file must have been deleted manually
+            }
+            if (entry.stamp != stamp) {
+                closeAll(ins);
+                continue; // Some of the files may be from the next commit
+            }
+
+            onRead(entry);
+            return new Snapshot(key, version, ins);
+        }
+    }
+
+    /**
+     * Marks an entry as used and records the read in the journal if it hasn't been recorded for a while.
+     */
+    private void onRead(Entry entry) {
+        long now = System.nanoTime();
+        entry.lastAccess = now;
+        if (now - entry.lastRecordedRead < READ_RECORD_INTERVAL) {
+            return;
+        }
+        entry.lastRecordedRead = now;
+        pendingReads.add(entry.key);
+        if (pendingReadCount.incrementAndGet() % READ_BATCH_SIZE == 0) {
+            executorService.submit(recordReadsCallable);
+        }
+    }
+
+    /**
+     * Buffers a lookup for the {@link EvictionPolicy}, which is told about them on the background thread or before evicting.
+     * Lookups are dropped while the buffer is full, which only makes the policy see a sample of them.
+     */
+    private void recordAccess(String key) {
+        if (accessCount.get() >= ACCESS_BUFFER_SIZE) {
+            return;
+        }
+        accessBuffer.add(key);
+        if (accessCount.incrementAndGet() >= ACCESS_BUFFER_SIZE / 2 && drainScheduled.compareAndSet(false, true)) {
+            executorService.submit(drainAccessesCallable);
+        }
+    }
+
+    /**
+     * Passes the buffered lookups to the {@link EvictionPolicy}. Must hold the policy lock.
+     */
+    private void drainAccesses() {
+        String key;
+        while ((key = accessBuffer.poll()) != null) {
+            accessCount.decrementAndGet();
+            policy.onAccess(key);
+        }
+    }
+
+    /**
+     * Replaces the {@link EvictionPolicy}, which gets the current entries, or those read from the index if it is still being read. The default is an {@link LruPolicy}.
+     *
+     * @param policy A new {@link EvictionPolicy}.
+     */
+    public void setEvictionPolicy(EvictionPolicy<String> policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy must not be null.");
+        }
+        synchronized (policyLock) {
+            drainAccesses();
+            policy.setMaximumWeight(maxSize);
+            if (policyLoaded) {
+                addEntries(policy);
+            }
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * Tells a policy about the readable entries, from the least to the most recently used.
+     */
+    private void addEntries(EvictionPolicy<String> policy) {
+        for (Entry entry : getEntriesByAccess()) {
+            Version version = entry.version;
+            if (version != null) {
+                policy.onWrite(entry.key, version.getWeight());
+            }
+        }
+    }
+
+    // Writing
+    // *********************************************************************************************
+
+    /**
+     * Returns an editor for an entry.
+     *
+     * @param key The key.
+     * @return The {@link Editor}, or <strong>null</strong> if another edit of the entry is in progress.
+     * @throws IOException If the journal could not be written.
+     */
+    public Editor edit(String key) throws IOException {
+        return edit(key, ANY_SEQUENCE_NUMBER);
+    }
+
+    private Editor edit(String key, long expectedSequenceNumber) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(key);
+            if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER
+                    && (entry == null || entry.version == null || entry.version.sequenceNumber != expectedSequenceNumber)) {
+                return null; // Snapshot is stale
+            }
+            if (entry == null) {
+                entry = new Entry(key, System.nanoTime());
+                segment.entries.put(key, entry);
+            } else if (entry.currentEditor != null) {
+                return null; // Another edit is in progress
+            }
+
+            Editor editor = new Editor(entry);
+            entry.currentEditor = editor;
+
+            // Flush the journal before creating files to prevent file leaks
+            writeJournal(DIRTY, key, null, true);
+            return editor;
+        }
+    }
+
+    private void completeEdit(Editor editor, boolean success) throws IOException {
+        Entry entry = editor.entry;
+        Segment segment = segmentFor(entry.key);
+        synchronized (segment) {
+            if (entry.currentEditor != editor) {
+                throw new IllegalStateException();
+            }
+            Version previous = entry.version;
+
+            // If this edit is creating the entry for the first time, every index must have a value
+            if (success && previous == null) {
+                for (int i = 0; i < valueCount; i++) {
+                    if (!entry.getDirtyFile(i).exists()) {
+                        editor.abort();
+                        throw new IllegalStateException("edit didn't create file " + i);
+                    }
+                }
+            }
+
+            long[] lengths = previous != null ? previous.lengths.clone() : new long[valueCount];
+            entry.stamp++; // Readers retry until the files and the version match again
+            try {
+                for (int i = 0; i < valueCount; i++) {
+                    File dirty = entry.getDirtyFile(i);
+                    if (success) {
+                        if (dirty.exists()) {
+                            File clean = entry.getCleanFile(i);
+                            dirty.renameTo(clean);
+                            long newLength = clean.length();
+                            size.addAndGet(newLength - lengths[i]);
+                            lengths[i] = newLength;
+                            addUnsyncedFile(clean);
+                        }
+                    } else {
+                        deleteIfExists(dirty);
+                    }
+                }
+
+                entry.currentEditor = null;
+                if (previous != null || success) {
+                    Version version = previous;
+                    if (success) {
+                        long expiresAt = editor.timeToLive > 0 ? System.currentTimeMillis() + editor.timeToLive : 0;
+                        version = new Version(lengths, nextSequenceNumber.getAndIncrement(), expiresAt);
+                        updateNextExpiry(expiresAt);
+                        synchronized (policyLock) {
+                            policy.onWrite(entry.key, version.getWeight());
+                        }
+                    }
+                    entry.version = version;
+                    entry.lastAccess = System.nanoTime();
+                    writeJournal(CLEAN, entry.key, version, false);
+                } else {
+                    segment.entries.remove(entry.key);
+                    writeJournal(REMOVE, entry.key, null, false);
+                }
+            } finally {
+                entry.stamp++;
+            }
+        }
+        redundantOpCount.incrementAndGet();
+        if (size.get() > maxSize || journalRebuildRequired() || nextExpiry.get() <= System.currentTimeMillis()) {
+            executorService.submit(cleanupCallable);
+        }
+    }
+
+    /**
+     * Drops an entry if it exists and can be removed. Entries actively being edited cannot be removed.
+     * Snapshots of the entry which are already open can still be read.
+     *
+     * @param key The key.
+     * @return <strong>true</strong> if an entry was removed.
+     * @throws IOException If a file of the entry could not be deleted.
+     */
+    public boolean remove(String key) throws IOException {
+        checkNotClosed();
+        validateKey(key);
+        return removeEntry(key, false);
+    }
+
+    /**
+     * Removes an entry, or only if it has expired.
+     */
+    private boolean removeEntry(String key, boolean expiredOnly) throws IOException {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(key);
+            if (entry == null || entry.currentEditor != null || entry.version == null) {
+                return false;
+            }
+
+            Version version = entry.version;
+            if (expiredOnly && !version.isExpired()) {
+                return false; // Replaced meanwhile
+            }
+            entry.stamp++;
+            try {
+                for (int i = 0; i < valueCount; i++) {
+                    File file = entry.getCleanFile(i);
+                    if (!file.delete() && file.exists()) {
+                        throw new IOException("failed to delete " + file);
+                    }
+                    size.addAndGet(-version.lengths[i]);
+                }
+                entry.version = null;
+                segment.entries.remove(key);
+                synchronized (policyLock) {
+                    policy.onRemove(key);
+                }
+                writeJournal(REMOVE, key, null, false);
+            } finally {
+                entry.stamp++;
+            }
+        }
+
+        redundantOpCount.incrementAndGet();
+        if (journalRebuildRequired()) {
+            executorService.submit(cleanupCallable);
+        }
+        return true;
+    }
+
+    private void addUnsyncedFile(File file) {
+        synchronized (journalLock) {
+            unsyncedFiles.add(file);
+            if (unsyncedFiles.size() == MAX_UNSYNCED_FILES) {
+                executorService.submit(syncCallable); // Don't let the list grow if sync() is never called
+            }
+        }
+    }
+
+    // Size
+    // *********************************************************************************************
+
+    /**
+     * Returns the directory where this cache stores its data.
+     *
+     * @return The directory.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the maximum number of bytes that this cache should use to store its data.
+     *
+     * @return The maximum size.
+     */
+    public long maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the number of bytes currently being used to store the values in this cache. This may be greater than the max size if a background deletion is pending.
+     *
+     * @return The size.
+     */
+    public long size() {
+        awaitLoaded();
+        return size.get();
+    }
+
+    private int getEntryCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.entries.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the entries from the least to the most recently used.
+     */
+    private List<Entry> getEntriesByAccess() {
+        List<Entry> entries = new ArrayList<>();
+        for (Segment segment : segments) {
+            entries.addAll(segment.entries.values());
+        }
+        // Compare the differences since the clock may wrap
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                long difference = a.lastAccess - b.lastAccess;
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is below its max size.
+     */
+    private void trimToSize() throws IOException {
+        loadPolicy();
+        evictExpired();
+        int failures = 0;
+        while (size.get() > maxSize) {
+            String victim;
+            synchronized (policyLock) {
+                drainAccesses();
+                victim = policy.nextVictim();
+            }
+            if (victim == null) {
+                break;
+            }
+            if (!removeEntry(victim, false)) {
+                // Being edited, so keep it and try the next one
+                Entry entry = segmentFor(victim).entries.get(victim);
+                synchronized (policyLock) {
+                    if (entry == null || entry.version == null) {
+                        policy.onRemove(victim);
+                    } else {
+                        policy.onAccess(victim);
+                    }
+                }
+                if (++failures > getEntryCount()) {
+                    break; // Everything left is being edited
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the expired entries, if any is due.
+     */
+    private void evictExpired() throws IOException {
+        long now = System.currentTimeMillis();
+        if (nextExpiry.get() > now) {
+            return;
+        }
+        nextExpiry.set(Long.MAX_VALUE);
+        for (Segment segment : segments) {
+            for (Entry entry : segment.entries.values()) {
+                Version version = entry.version;
+                if (version == null || version.expiresAt == 0) {
+                    continue;
+                }
+                if (version.expiresAt > now || !removeEntry(entry.key, true)) {
+                    updateNextExpiry(version.expiresAt);
+                }
+            }
+        }
+    }
+
+    private void updateNextExpiry(long expiresAt) {
+        if (expiresAt == 0) {
+            return;
+        }
+        long next;
+        while (expiresAt < (next = nextExpiry.get()) && !nextExpiry.compareAndSet(next, expiresAt)) {
+        }
+    }
+
+    // Lifecycle
+    // *********************************************************************************************
+
+    /**
+     * Returns true if this cache has been closed.
+     *
+     * @return <strong>true</strong> if closed.
+     */
+    public boolean isClosed() {
+        return isLoaded() && journalOut == null;
+    }
+
+    private void checkNotClosed() throws IOException {
+        awaitLoaded();
+        if (loadFailure != null) {
+            throw new IOException("cache could not be opened", loadFailure);
+        }
+        if (journalOut == null) {
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    /**
+     * Forces buffered operations to the filesystem.
+     *
+     * @throws IOException If the journal could not be written.
+     */
+    public void flush() throws IOException {
+        checkNotClosed();
+        trimToSize();
+        recordReads();
+        synchronized (journalLock) {
+            checkNotClosed();
+            journalOut.flush();
+        }
+    }
+
+    /**
+     * Blocks until every edit committed so far would survive a crash or a power loss. The values written since the last sync and the journal are forced to the storage device, all at once.
+     *
+     * @throws IOException If a file could not be synced.
+     */
+    public void sync() throws IOException {
+        File[] files;
+        FileOutputStream journal;
+        checkNotClosed();
+        synchronized (journalLock) {
+            checkNotClosed();
+            journalOut.flush();
+            files = unsyncedFiles.toArray(new File[unsyncedFiles.size()]);
+            unsyncedFiles.clear();
+            journal = journalStream;
+        }
+
+        // Sync outside of the lock so readers and writers can go on meanwhile
+        for (File file : files) {
+            FileInputStream in;
+            try {
+                in = new FileInputStream(file); // Read-only, so a file deleted meanwhile isn't created again
+            } catch (FileNotFoundException e) {
+                continue; // Evicted or replaced since, nothing to keep
+            }
+            try {
+                in.getFD().sync();
+            } finally {
+                DiskLruCache.closeQuietly(in);
+            }
+        }
+        try {
+            journal.getFD().sync();
+        } catch (IOException e) {
+            synchronized (journalLock) {
+                if (journal == journalStream) {
+                    throw e;
+                }
+            }
+            // The journal was rebuilt meanwhile, and the new one was synced when written
+        }
+    }
+
+    /**
+     * Closes this cache. Stored values will remain on the filesystem.
+     *
+     * @throws IOException If the journal could not be written.
+     */
+    public void close() throws IOException {
+        awaitLoaded();
+        if (journalOut == null) {
+            return; // Already closed
+        }
+        for (Segment segment : segments) {
+            List<Editor> editors = new ArrayList<>();
+            synchronized (segment) {
+                for (Entry entry : segment.entries.values()) {
+                    if (entry.currentEditor != null) {
+                        editors.add(entry.currentEditor);
+                    }
+                }
+            }
+            for (Editor editor : editors) {
+                try {
+                    editor.abort();
+                } catch (IllegalStateException e) {
+                    // Completed meanwhile
+                }
+            }
+        }
+        trimToSize();
+        recordReads();
+        synchronized (journalLock) {
+            if (journalOut == null) {
+                return;
+            }
+            journalOut.close();
+            journalOut = null;
+            journalStream = null;
+            unsyncedFiles.clear();
+        }
+    }
+
+    /**
+     * Closes the cache and deletes all of its stored values. This will delete all files in the cache directory including files that weren't created by the cache.
+     *
+     * @throws IOException If a file could not be deleted.
+     */
+    public void delete() throws IOException {
+        close();
+        DiskLruCache.deleteContents(directory);
+    }
+
+    // Helpers
+    // *********************************************************************************************
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return segments[hash & (SEGMENT_COUNT - 1)];
+    }
+
+    private void validateKey(String key) {
+        if (key.contains(" ") || key.contains("\n") || key.contains("\r")) {
+            throw new IllegalArgumentException("keys must not contain spaces or newlines: \"" + key + "\"");
+        }
+    }
+
+    private static void deleteIfExists(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("failed to delete " + file);
+        }
+    }
+
+    private static void closeAll(InputStream[] ins) {
+        for (InputStream in : ins) {
+            DiskLruCache.closeQuietly(in);
+        }
+    }
+
+    private static String inputStreamToString(InputStream in) throws IOException {
+        return DiskLruCache.readFully(new InputStreamReader(in, UTF_8));
+    }
+
+    /**
+     * A snapshot of the values for an entry.
+     */
+    public final class Snapshot implements Closeable {
+        private final String key;
+        private final Version version;
+        private final InputStream[] ins;
+
+        private Snapshot(String key, Version version, InputStream[] ins) {
+            this.key = key;
+            this.version = version;
+            this.ins = ins;
+        }
+
+        /**
+         * Returns an editor for this snapshot's entry, or null if either the entry has changed since this snapshot was created or if another edit is in progress.
+         *
+         * @return The {@link Editor}.
+         * @throws IOException If the journal could not be written.
+         */
+        public Editor edit() throws IOException {
+            return ConcurrentDiskLruCache.this.edit(key, version.sequenceNumber);
+        }
+
+        /**
+         * Returns the unbuffered stream with the value for an index.
+         *
+         * @param index The index of the value.
+         * @return The {@link InputStream}.
+         */
+        public InputStream getInputStream(int index) {
+            return ins[index];
+        }
+
+        /**
+         * Returns the channel of the stream with the value for an index, such as to map the value into memory. Closing it closes the stream.
+         *
+         * @param index The index of the value.
+         * @return The {@link FileChannel}.
+         */
+        public FileChannel getChannel(int index) {
+            return ((FileInputStream) ins[index]).getChannel();
+        }
+
+        /**
+         * Returns the file with the value for an index, for APIs which need a path. Unlike the stream and the channel, which keep reading this snapshot,
+         * the file is replaced by the next commit of the entry and deleted when the entry is removed or evicted.
+         *
+         * @param index The index of the value.
+         * @return The {@link File}.
+         */
+        public File getFile(int index) {
+            return new File(directory, key + "." + index);
+        }
+
+        /**
+         * Returns the string value for an index.
+         *
+         * @param index The index of the value.
+         * @return The value.
+         * @throws IOException If the value could not be read.
+         */
+        public String getString(int index) throws IOException {
+            return inputStreamToString(getInputStream(index));
+        }
+
+        /**
+         * Returns the length in bytes of the value for an index.
+         *
+         * @param index The index of the value.
+         * @return The length.
+         */
+        public long getLength(int index) {
+            return version.lengths[index];
+        }
+
+        @Override
+        public void close() {
+            closeAll(ins);
+        }
+    }
+
+    /**
+     * Edits the values for an entry.
+     */
+    public final class Editor {
+        private final Entry entry;
+        private boolean hasErrors;
+        private long timeToLive;
+
+        private Editor(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * Makes the values expire some time after they are committed, after which the entry is treated as missing and removed. Values never expire by default.
+         *
+         * @param timeToLive The number of milliseconds, or 0 if the values never expire.
+         */
+        public void setTimeToLive(long timeToLive) {
+            if (timeToLive < 0) {
+                throw new IllegalArgumentException("timeToLive must not be negative.");
+            }
+            this.timeToLive = timeToLive;
+        }
+
+        /**
+         * Returns an unbuffered input stream to read the last committed value, or null if no value has been committed.
+         *
+         * @param index The index of the value.
+         * @return The {@link InputStream}.
+         * @throws IOException If the value could not be opened.
+         */
+        public InputStream newInputStream(int index) throws IOException {
+            synchronized (segmentFor(entry.key)) {
+                if (entry.currentEditor != this) {
+                    throw new IllegalStateException();
+                }
+                if (entry.version == null) {
+                    return null;
+                }
+                return new FileInputStream(entry.getCleanFile(index));
+            }
+        }
+
+        /**
+         * Returns the last committed value as a string, or null if no value has been committed.
+         *
+         * @param index The index of the value.
+         * @return The value.
+         * @throws IOException If the value could not be read.
+         */
+        public String getString(int index) throws IOException {
+            InputStream in = newInputStream(index);
+            return in != null ? inputStreamToString(in) : null;
+        }
+
+        /**
+         * Returns a new unbuffered output stream to write the value at an index. If the underlying output stream encounters errors when writing to the filesystem,
+         * this edit will be aborted when {@link #commit} is called. The returned output stream does not throw IOExceptions.
+         *
+         * @param index The index of the value.
+         * @return The {@link OutputStream}.
+         * @throws IOException If the file could not be created.
+         */
+        public OutputStream newOutputStream(int index) throws IOException {
+            synchronized (segmentFor(entry.key)) {
+                if (entry.currentEditor != this) {
+                    throw new IllegalStateException();
+                }
+                return new FaultHidingOutputStream(new FileOutputStream(entry.getDirtyFile(index)));
+            }
+        }
+
+        /**
+         * Sets the value at an index.
+         *
+         * @param index The index of the value.
+         * @param value The value.
+         * @throws IOException If the value could not be written.
+         */
+        public void set(int index, String value) throws IOException {
+            Writer writer = null;
+            try {
+                writer = new OutputStreamWriter(newOutputStream(index), UTF_8);
+                writer.write(value);
+            } finally {
+                DiskLruCache.closeQuietly(writer);
+            }
+        }
+
+        /**
+         * Commits this edit so it is visible to readers. This releases the edit lock so another edit may be started on the same key.
+         *
+         * @throws IOException If the journal could not be written.
+         */
+        public void commit() throws IOException {
+            if (hasErrors) {
+                completeEdit(this, false);
+                remove(entry.key); // The previous entry is stale
+            } else {
+                completeEdit(this, true);
+            }
+        }
+
+        /**
+         * Aborts this edit. This releases the edit lock so another edit may be started on the same key.
+         *
+         * @throws IOException If the journal could not be written.
+         */
+        public void abort() throws IOException {
+            completeEdit(this, false);
+        }
+
+        private class FaultHidingOutputStream extends FilterOutputStream {
+            private FaultHidingOutputStream(OutputStream out) {
+                super(out);
+            }
+
+            @Override
+            public void write(int oneByte) {
+                try {
+                    out.write(oneByte);
+                } catch (IOException e) {
+                    hasErrors = true;
+                }
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                try {
+                    out.write(buffer, offset, length);
+                } catch (IOException e) {
+                    hasErrors = true;
+                }
+            }
+
+            @Override
+            public void close() {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    hasErrors = true;
+                }
+            }
+
+            @Override
+            public void flush() {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    hasErrors = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * A stripe of the index. Lookups don't lock it, changes to its entries do.
+     */
+    private static final class Segment {
+        final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>(16, 0.75f, 1);
+    }
+
+    /**
+     * A published set of values of an entry. Never changes, so readers can use it without a lock.
+     */
+    private static final class Version {
+        final long[] lengths;
+        final long sequenceNumber;
+
+        /**
+         * The time in milliseconds since the epoch after which the values are stale, or 0 if they never are.
+         */
+        final long expiresAt;
+
+        Version(long[] lengths, long sequenceNumber, long expiresAt) {
+            this.lengths = lengths;
+            this.sequenceNumber = sequenceNumber;
+            this.expiresAt = expiresAt;
+        }
+
+        long getWeight() {
+            long weight = 0;
+            for (long length : lengths) {
+                weight += length;
+            }
+            return weight;
+        }
+
+        boolean isExpired() {
+            return expiresAt != 0 && System.currentTimeMillis() >= expiresAt;
+        }
+    }
+
+    private final class Entry {
+        final String key;
+
+        /**
+         * The published values, or null if the entry has never been published or has been removed.
+         */
+        volatile Version version;
+
+        /**
+         * Odd while a commit or removal is replacing the files, and changed by each of them.
+         */
+        volatile int stamp;
+
+        volatile long lastAccess;
+        volatile long lastRecordedRead;
+
+        /**
+         * The ongoing edit or null if this entry is not being edited. Guarded by the segment.
+         */
+        Editor currentEditor;
+
+        /**
+         * True while opening if the last record of the entry is DIRTY.
+         */
+        boolean dirty;
+
+        Entry(String key, long clock) {
+            this.key = key;
+            this.lastAccess = clock;
+            this.lastRecordedRead = clock;
+        }
+
+        File getCleanFile(int i) {
+            return new File(directory, key + "." + i);
+        }
+
+        File getDirtyFile(int i) {
+            return new File(directory, key + "." + i + ".tmp");
+        }
+    }
+}
@@ -24,7 +24,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -109,7 +108,9 @@ public final class DiskLruCache implements Closeable {
     private static final String READ = "READ";
 
     private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
     private static final int IO_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_UNSYNCED_FILES = 1024;
 
     /*
      * This cache uses a journal file named "journal". A typical journal file
@@ -159,6 +160,9 @@ public final class DiskLruCache implements Closeable {
     private final int valueCount;
     private long size = 0;
     private Writer journalWriter;
+    private FileOutputStream journalStream;
+    private boolean flushScheduled;
+    private final ArrayList<File> unsyncedFiles = new ArrayList<File>();
     private final LinkedHashMap<String, Entry> lruEntries
             = new LinkedHashMap<String, Entry>(0, 0.75f, true);
     private int redundantOpCount;
@@ -285,6 +289,33 @@ public final class DiskLruCache implements Closeable {
         }
     };
 
+    /**
+     * Writes the buffered journal records of all edits completed since it was
+     * scheduled. Edits completing while it waits for the lock share the same
+     * write, so a burst of puts costs one write instead of one per put.
+     */
+    private final Callable<Void> flushCallable = new Callable<Void>() {
+        @Override public Void call() throws Exception {
+            synchronized (DiskLruCache.this) {
+                flushScheduled = false;
+                if (journalWriter == null) {
+                    return null; // closed
+                }
+                journalWriter.flush();
+            }
+            return null;
+        }
+    };
+
+    private final Callable<Void> syncCallable = new Callable<Void>() {
+        @Override public Void call() throws Exception {
+            if (!isClosed()) {
+                sync();
+            }
+            return null;
+        }
+    };
+
     private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize) {
         this.directory = directory;
         this.appVersion = appVersion;
@@ -319,8 +350,7 @@ public final class DiskLruCache implements Closeable {
             try {
                 cache.readJournal();
                 cache.processJournal();
-                cache.journalWriter = new BufferedWriter(new FileWriter(cache.journalFile, true),
-                        IO_BUFFER_SIZE);
+                cache.openJournalWriter();
                 return cache;
             } catch (IOException journalIsCorrupt) {
 //                System.logW("DiskLruCache " + directory + " is corrupt: "
@@ -428,7 +458,8 @@ public final class DiskLruCache implements Closeable {
             journalWriter.close();
         }
 
-        Writer writer = new BufferedWriter(new FileWriter(journalFileTmp), IO_BUFFER_SIZE);
+        FileOutputStream out = new FileOutputStream(journalFileTmp);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, US_ASCII), IO_BUFFER_SIZE);
         writer.write(MAGIC);
         writer.write("\n");
         writer.write(VERSION_1);
@@ -447,9 +478,17 @@ public final class DiskLruCache implements Closeable {
             }
         }
 
+        writer.flush();
+        out.getFD().sync(); // the new journal must be complete before it replaces the old one
         writer.close();
         journalFileTmp.renameTo(journalFile);
-        journalWriter = new BufferedWriter(new FileWriter(journalFile, true), IO_BUFFER_SIZE);
+        openJournalWriter();
+    }
+
+    private void openJournalWriter() throws IOException {
+        journalStream = new FileOutputStream(journalFile, true);
+        journalWriter = new BufferedWriter(new OutputStreamWriter(journalStream, US_ASCII),
+                IO_BUFFER_SIZE);
     }
 
     private static void deleteIfExists(File file) throws IOException {
@@ -584,6 +623,7 @@ public final class DiskLruCache implements Closeable {
                 if (dirty.exists()) {
                     File clean = entry.getCleanFile(i);
                     dirty.renameTo(clean);
+                    unsyncedFiles.add(clean);
                     long oldLength = entry.lengths[i];
                     long newLength = clean.length();
                     entry.lengths[i] = newLength;
@@ -610,6 +650,13 @@ public final class DiskLruCache implements Closeable {
         if (size > maxSize || journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
         }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            executorService.submit(flushCallable);
+        }
+        if (unsyncedFiles.size() == MAX_UNSYNCED_FILES) {
+            executorService.submit(syncCallable); // don't let the list grow if sync() is never called
+        }
     }
 
     /**
@@ -678,6 +725,52 @@ public final class DiskLruCache implements Closeable {
         journalWriter.flush();
     }
 
+    /**
+     * Blocks until every edit committed so far would survive a crash or a
+     * power loss. The values written since the last sync and the journal are
+     * forced to the storage device, all at once.
+     *
+     * <p>Commits only hand their data to the filesystem, which is enough to
+     * survive the app being killed, so call this only where losing recent
+     * entries to a power loss matters, such as after a batch of downloads.
+     */
+    public void sync() throws IOException {
+        File[] files;
+        FileOutputStream journal;
+        synchronized (this) {
+            checkNotClosed();
+            journalWriter.flush();
+            files = unsyncedFiles.toArray(new File[unsyncedFiles.size()]);
+            unsyncedFiles.clear();
+            journal = journalStream;
+        }
+
+        // Sync outside of the lock so readers and writers can go on meanwhile
+        for (File file : files) {
+            FileInputStream in;
+            try {
+                in = new FileInputStream(file); // read-only, so a file deleted meanwhile isn't created again
+            } catch (FileNotFoundException e) {
+                continue; // evicted or replaced since, nothing to keep
+            }
+            try {
+                in.getFD().sync();
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        try {
+            journal.getFD().sync();
+        } catch (IOException e) {
+            synchronized (this) {
+                if (journal == journalStream) {
+                    throw e;
+                }
+            }
+            // the journal was rebuilt meanwhile, and the new one was synced when written
+        }
+    }
+
     /**
      * Closes this cache. Stored values will remain on the filesystem.
      */
@@ -693,6 +786,8 @@ public final class DiskLruCache implements Closeable {
         trimToSize();
         journalWriter.close();
         journalWriter = null;
+        journalStream = null;
+        unsyncedFiles.clear();
     }
 
     private void trimToSize() throws IOException {
@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.cache;
+
+/**
+ * Decides which entry a cache evicts when it is full. The same policies work with {@link MemoryCache} and {@link ConcurrentDiskLruCache}, and {@link EvictionSimulator} replays recorded accesses against them to compare their hit ratios.<br />
+ * <br />
+ * A cache tells its policy about every lookup, write and removal, and asks it for a victim while it is over its maximum size. Sizes are weights in whatever unit the cache uses, such as bytes.
+ * Caches call their policy with a lock held, so implementations don't need to be thread-safe. A policy keeps track of the keys of a single cache and must not be shared.<br />
+ * <br />
+ * Available policies:
+ * <ul>
+ * <li>{@link LruPolicy} evicts the least recently used entry.</li>
+ * <li>{@link SegmentedLruPolicy} protects entries used more than once from entries used only once, such as those of a single scroll through a long list.</li>
+ * <li>{@link TinyLfuPolicy} only lets a new entry in if it is used more often than the entry it would replace, so a hot working set survives scans, while a small window still catches bursts.</li>
+ * </ul>
+ *
+ * @param <K> The type of the keys.
+ */
+public abstract class EvictionPolicy<K> {
+    private long maximumWeight;
+
+    /**
+     * Called by the cache with its maximum size before anything else.
+     *
+     * @param maximumWeight The maximum total weight of the entries.
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Returns the maximum total weight of the entries of the cache.
+     *
+     * @return The maximum weight.
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Called for every lookup, whether the cache has the entry or not.
+     *
+     * @param key The key looked up.
+     */
+    public abstract void onAccess(K key);
+
+    /**
+     * Called when an entry is added or replaced.
+     *
+     * @param key    The key of the entry.
+     * @param weight The weight of the new value.
+     */
+    public abstract void onWrite(K key, long weight);
+
+    /**
+     * Called when an entry is removed, evicted or expired.
+     *
+     * @param key The key of the entry.
+     */
+    public abstract void onRemove(K key);
+
+    /**
+     * Returns the entry to evict next. The entry remains tracked until {@link EvictionPolicy#onRemove(Object)} is called.
+     * If the cache can't evict it, for example because it is being written, it calls {@link EvictionPolicy#onAccess(Object)} so it isn't picked again right away.
+     *
+     * @return The key of the entry, or <strong>null</strong> if there are none.
+     */
+    public abstract K nextVictim();
+
+    /**
+     * Forgets all entries, when the cache is cleared.
+     */
+    public abstract void clear();
+}
@@ -0,0 +1,174 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.cache;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Replays a trace of cache accesses against an {@link EvictionPolicy} and reports the hit ratio, to pick the policy and size which suit the accesses of an app.<br />
+ * <br />
+ * A trace has one access per line, either as a key optionally followed by the size of its value, or as the text journal of a {@link DiskLruCache}, where READ and DIRTY lines are accesses and CLEAN lines give the sizes.
+ * An access which misses adds the entry with the size last seen for its key, or 1.<br />
+ * <br />
+ * To compare the policies of this package on a trace file from a computer, run {@code com.truebanana.cache.tools.EvictionSimulatorMain} from the test classes, such as:
+ * <pre>
+ * {@code
+ * java com.truebanana.cache.tools.EvictionSimulatorMain journal 10485760
+ * }
+ * </pre>
+ */
+public class EvictionSimulator {
+    private static final String JOURNAL_MAGIC = "libcore.io.DiskLruCache";
+
+    /**
+     * Replays a trace.
+     *
+     * @param trace         The trace.
+     * @param policy        A new {@link EvictionPolicy}.
+     * @param maximumWeight The size of the simulated cache, in the unit of the sizes in the trace.
+     * @return The {@link Result}.
+     * @throws IOException If the trace can't be read.
+     */
+    public static Result simulate(Reader trace, EvictionPolicy<String> policy, long maximumWeight) throws IOException {
+        final HashMap<String, Long> sizes = new HashMap<>();
+        MemoryCache<String, Long> cache = new MemoryCache<String, Long>(maximumWeight, policy) {
+            @Override
+            protected long sizeOf(String key, Long value) {
+                return value;
+            }
+        };
+        Result result = new Result(policy.getClass().getSimpleName(), maximumWeight);
+
+        BufferedReader reader = new BufferedReader(trace);
+        String line = reader.readLine();
+        if (JOURNAL_MAGIC.equals(line)) {
+            for (int i = 0; i < 4; i++) {
+                reader.readLine(); // Rest of the header
+            }
+            line = reader.readLine();
+        }
+        for (; line != null; line = reader.readLine()) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts[0].isEmpty()) {
+                continue;
+            }
+
+            String key;
+            switch (parts[0]) {
+                case "CLEAN":
+                    long size = 0;
+                    for (int i = 2; i < parts.length; i++) {
+                        size += Long.parseLong(parts[i]);
+                    }
+                    sizes.put(parts[1], Math.max(size, 1));
+                    if (cache.contains(parts[1])) {
+                        cache.put(parts[1], Math.max(size, 1)); // The value was replaced
+                    }
+                    continue;
+                case "REMOVE":
+                    cache.remove(parts[1]);
+                    continue;
+                case "READ":
+                case "DIRTY":
+                    key = parts[1];
+                    break;
+                default:
+                    key = parts[0];
+                    if (parts.length > 1) {
+                        sizes.put(key, Math.max(Long.parseLong(parts[1]), 1));
+                    }
+            }
+
+            Long size = sizes.get(key);
+            long weight = size != null ? size : 1;
+            result.requests++;
+            result.requestedWeight += weight;
+            if (cache.get(key) != null) {
+                result.hits++;
+                result.hitWeight += weight;
+            } else {
+                cache.put(key, weight);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The outcome of a simulation.
+     */
+    public static class Result {
+        private final String policy;
+        private final long maximumWeight;
+        private long requests;
+        private long hits;
+        private long requestedWeight;
+        private long hitWeight;
+
+        private Result(String policy, long maximumWeight) {
+            this.policy = policy;
+            this.maximumWeight = maximumWeight;
+        }
+
+        public String getPolicy() {
+            return policy;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns the share of accesses which hit.
+         *
+         * @return The hit ratio, from 0 to 1.
+         */
+        public double getHitRatio() {
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        /**
+         * Returns the share of the accessed sizes which hit, which is the share of bytes not downloaded again when sizes are bytes.
+         *
+         * @return The byte hit ratio, from 0 to 1.
+         */
+        public double getByteHitRatio() {
+            return requestedWeight == 0 ? 0 : (double) hitWeight / requestedWeight;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-20s size %d: %d requests, hit ratio %.2f%%, byte hit ratio %.2f%%",
+                    policy, maximumWeight, requests, getHitRatio() * 100, getByteHitRatio() * 100);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.cache;
+
+import java.util.LinkedHashMap;
+
+/**
+ * An {@link EvictionPolicy} which evicts the least recently used entry.
+ *
+ * @param <K> The type of the keys.
+ */
+public class LruPolicy<K> extends EvictionPolicy<K> {
+    private final LinkedHashMap<K, Boolean> keys = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public void onAccess(K key) {
+        keys.get(key); // Moves it to the end
+    }
+
+    @Override
+    public void onWrite(K key, long weight) {
+        keys.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void onRemove(K key) {
+        keys.remove(key);
+    }
+
+    @Override
+    public K nextVictim() {
+        return keys.isEmpty() ? null : keys.keySet().iterator().next();
+    }
+
+    @Override
+    public void clear() {
+        keys.clear();
+    }
+}
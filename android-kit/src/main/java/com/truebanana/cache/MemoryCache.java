@@ -0,0 +1,253 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe in-memory cache with a pluggable {@link EvictionPolicy} and optional expiry of entries. An {@link LruPolicy} is used if none is specified.<br />
+ * <br />
+ * Like {@link android.util.LruCache}, the size of an entry is 1 unless {@link MemoryCache#sizeOf(Object, Object)} is overridden, such as to return the number of bytes of the value.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ */
+public class MemoryCache<K, V> {
+    private final HashMap<K, Entry<V>> map = new HashMap<>();
+    private final long maxSize;
+    private EvictionPolicy<K> policy;
+    private long size;
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * Creates a {@link MemoryCache} which evicts the least recently used entries.
+     *
+     * @param maxSize The maximum total size of the entries.
+     */
+    public MemoryCache(long maxSize) {
+        this(maxSize, new LruPolicy<K>());
+    }
+
+    /**
+     * Creates a {@link MemoryCache}.
+     *
+     * @param maxSize The maximum total size of the entries.
+     * @param policy  A new {@link EvictionPolicy} which decides which entries to evict.
+     */
+    public MemoryCache(long maxSize, EvictionPolicy<K> policy) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive.");
+        }
+        this.maxSize = maxSize;
+        setEvictionPolicy(policy);
+    }
+
+    /**
+     * Replaces the {@link EvictionPolicy}, which gets the current entries.
+     *
+     * @param policy A new {@link EvictionPolicy}.
+     */
+    public synchronized void setEvictionPolicy(EvictionPolicy<K> policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Policy must not be null.");
+        }
+        policy.setMaximumWeight(maxSize);
+        for (Map.Entry<K, Entry<V>> entry : map.entrySet()) {
+            policy.onWrite(entry.getKey(), entry.getValue().size);
+        }
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the value of an entry.
+     *
+     * @param key The key.
+     * @return The value, or <strong>null</strong> if the cache doesn't have it or it has expired.
+     */
+    public synchronized V get(K key) {
+        if (key == null) {
+            throw new IllegalArgumentException("Key must not be null.");
+        }
+        policy.onAccess(key);
+        Entry<V> entry = map.get(key);
+        if (entry != null && entry.isExpired(System.nanoTime())) {
+            removeEntry(key);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Returns true if the cache has an unexpired entry, without counting it as a use.
+     *
+     * @param key The key.
+     * @return <strong>true</strong> if the cache has it.
+     */
+    public synchronized boolean contains(K key) {
+        Entry<V> entry = map.get(key);
+        return entry != null && !entry.isExpired(System.nanoTime());
+    }
+
+    /**
+     * Adds or replaces an entry which never expires, evicting other entries if the cache becomes too large.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @return The previous value, or <strong>null</strong>.
+     */
+    public V put(K key, V value) {
+        return put(key, value, 0);
+    }
+
+    /**
+     * Adds or replaces an entry, evicting other entries if the cache becomes too large.
+     *
+     * @param key        The key.
+     * @param value      The value.
+     * @param timeToLive The number of milliseconds after which the entry expires, or 0 if it never does.
+     * @return The previous value, or <strong>null</strong>.
+     */
+    public synchronized V put(K key, V value, long timeToLive) {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Key and value must not be null.");
+        }
+        long expiresAt = timeToLive > 0 ? System.nanoTime() + timeToLive * 1000000L : 0;
+        Entry<V> entry = new Entry<>(value, sizeOf(key, value), expiresAt);
+        Entry<V> previous = map.put(key, entry);
+        size += entry.size;
+        if (previous != null) {
+            size -= previous.size;
+        }
+        policy.onWrite(key, entry.size);
+        trimToSize(maxSize);
+        return previous != null ? previous.value : null;
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key The key.
+     * @return The removed value, or <strong>null</strong>.
+     */
+    public synchronized V remove(K key) {
+        Entry<V> entry = removeEntry(key);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Removes all expired entries. Otherwise they are removed when looked up or evicted.
+     */
+    public synchronized void evictExpired() {
+        long now = System.nanoTime();
+        for (K key : new ArrayList<>(map.keySet())) {
+            if (map.get(key).isExpired(now)) {
+                removeEntry(key);
+            }
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void evictAll() {
+        map.clear();
+        policy.clear();
+        size = 0;
+    }
+
+    /**
+     * Evicts entries chosen by the {@link EvictionPolicy} until the total size is at most the given size.
+     *
+     * @param maxSize The size.
+     */
+    public synchronized void trimToSize(long maxSize) {
+        while (size > maxSize) {
+            K victim = policy.nextVictim();
+            if (victim == null || removeEntry(victim) == null) {
+                break;
+            }
+        }
+    }
+
+    private Entry<V> removeEntry(K key) {
+        Entry<V> entry = map.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+            policy.onRemove(key);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the size of an entry. The default is 1, override this to use another unit.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @return The size, which must not change while the entry is cached.
+     */
+    protected long sizeOf(K key, V value) {
+        return 1;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public long maxSize() {
+        return maxSize;
+    }
+
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long size;
+        final long expiresAt;
+
+        Entry(V value, long size, long expiresAt) {
+            this.value = value;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != 0 && now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An {@link EvictionPolicy} with two LRU segments. New entries start on probation and are moved to the protected segment when used again.
+ * Entries are evicted from probation first, so entries used only once, such as those of a single scroll through a long list, replace each other instead of the entries used repeatedly.
+ * When the protected segment outgrows its share of the cache, its least recently used entries go back to probation.
+ *
+ * @param <K> The type of the keys.
+ */
+public class SegmentedLruPolicy<K> extends EvictionPolicy<K> {
+    private final float protectedShare;
+    private final LinkedHashMap<K, Long> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Long> protect = new LinkedHashMap<>();
+    private long protectedWeight;
+
+    /**
+     * Creates a {@link SegmentedLruPolicy} with 80% of the cache protected.
+     */
+    public SegmentedLruPolicy() {
+        this(0.8f);
+    }
+
+    /**
+     * Creates a {@link SegmentedLruPolicy}.
+     *
+     * @param protectedShare The share of the maximum weight for entries used more than once, from 0 to 1.
+     */
+    public SegmentedLruPolicy(float protectedShare) {
+        if (protectedShare < 0 || protectedShare > 1) {
+            throw new IllegalArgumentException("protectedShare must be from 0 to 1.");
+        }
+        this.protectedShare = protectedShare;
+    }
+
+    @Override
+    public void onAccess(K key) {
+        Long weight = probation.remove(key);
+        if (weight != null) {
+            protect.put(key, weight);
+            protectedWeight += weight;
+            demote();
+        } else if ((weight = protect.remove(key)) != null) {
+            protect.put(key, weight);
+        }
+    }
+
+    @Override
+    public void onWrite(K key, long weight) {
+        Long previous = protect.remove(key);
+        if (previous != null) {
+            protectedWeight -= previous;
+        } else {
+            previous = probation.remove(key);
+        }
+        if (previous != null) {
+            protect.put(key, weight);
+            protectedWeight += weight;
+            demote();
+        } else {
+            probation.put(key, weight);
+        }
+    }
+
+    @Override
+    public void onRemove(K key) {
+        Long weight = protect.remove(key);
+        if (weight != null) {
+            protectedWeight -= weight;
+        } else {
+            probation.remove(key);
+        }
+    }
+
+    @Override
+    public K nextVictim() {
+        if (!probation.isEmpty()) {
+            return probation.keySet().iterator().next();
+        }
+        return protect.isEmpty() ? null : protect.keySet().iterator().next();
+    }
+
+    @Override
+    public void clear() {
+        probation.clear();
+        protect.clear();
+        protectedWeight = 0;
+    }
+
+    /**
+     * Moves the least recently used protected entries back to probation until the protected segment fits its share.
+     */
+    private void demote() {
+        long maximum = (long) (getMaximumWeight() * protectedShare);
+        while (protectedWeight > maximum && protect.size() > 1) {
+            Map.Entry<K, Long> eldest = protect.entrySet().iterator().next();
+            protect.remove(eldest.getKey());
+            protectedWeight -= eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An {@link EvictionPolicy} which keeps the entries used most often, known as W-TinyLFU.<br />
+ * <br />
+ * New entries go to a small LRU window, 1% of the cache by default, which catches bursts of accesses to new keys. The rest of the cache is a {@link SegmentedLruPolicy}.
+ * An entry leaving the window only gets into the main segments if a {@link FrequencySketch} has seen it used more often than the entry it would replace, otherwise it is evicted itself.
+ * The sketch counts lookups of keys the cache doesn't have too, and forgets old counts over time, so a new favorite still gets in.<br />
+ * <br />
+ * This makes the cache resist scans: a scroll through a long list passes through the window without evicting the images shown over and over.
+ * Weights are taken into account, so a large entry has to be popular to replace several small ones.
+ *
+ * @param <K> The type of the keys.
+ */
+public class TinyLfuPolicy<K> extends EvictionPolicy<K> {
+    private static final float PROTECTED_SHARE = 0.8f;
+
+    private final float windowShare;
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final LinkedHashMap<K, Long> window = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Long> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Long> protect = new LinkedHashMap<>();
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    /**
+     * Creates a {@link TinyLfuPolicy} with a window of 1% of the cache.
+     */
+    public TinyLfuPolicy() {
+        this(0.01f);
+    }
+
+    /**
+     * Creates a {@link TinyLfuPolicy}.
+     *
+     * @param windowShare The share of the maximum weight for the window of new entries, from 0 to 1. A larger window suits accesses which favor recent keys over frequent ones.
+     */
+    public TinyLfuPolicy(float windowShare) {
+        if (windowShare < 0 || windowShare > 1) {
+            throw new IllegalArgumentException("windowShare must be from 0 to 1.");
+        }
+        this.windowShare = windowShare;
+    }
+
+    @Override
+    public void onAccess(K key) {
+        sketch.increment(key);
+        Long weight = window.remove(key);
+        if (weight != null) {
+            window.put(key, weight);
+        } else if ((weight = probation.remove(key)) != null) {
+            probationWeight -= weight;
+            protect.put(key, weight);
+            protectedWeight += weight;
+            demote();
+        } else if ((weight = protect.remove(key)) != null) {
+            protect.put(key, weight);
+        }
+    }
+
+    @Override
+    public void onWrite(K key, long weight) {
+        sketch.increment(key);
+        Long previous;
+        if ((previous = window.remove(key)) != null) {
+            windowWeight += weight - previous;
+            window.put(key, weight);
+        } else if ((previous = probation.remove(key)) != null) {
+            probationWeight -= previous;
+            protect.put(key, weight);
+            protectedWeight += weight;
+            demote();
+        } else if ((previous = protect.remove(key)) != null) {
+            protectedWeight += weight - previous;
+            protect.put(key, weight);
+            demote();
+        } else {
+            window.put(key, weight);
+            windowWeight += weight;
+            int size = window.size() + probation.size() + protect.size();
+            if (size > sketch.getCapacity()) {
+                sketch.ensureCapacity(size);
+            }
+        }
+        moveFromWindow();
+    }
+
+    @Override
+    public void onRemove(K key) {
+        Long weight;
+        if ((weight = window.remove(key)) != null) {
+            windowWeight -= weight;
+        } else if ((weight = probation.remove(key)) != null) {
+            probationWeight -= weight;
+        } else if ((weight = protect.remove(key)) != null) {
+            protectedWeight -= weight;
+        }
+    }
+
+    @Override
+    public K nextVictim() {
+        moveFromWindow();
+        K candidate = windowWeight > getWindowMaximum() ? first(window) : null;
+        K victim = !probation.isEmpty() ? first(probation) : first(protect);
+        if (candidate == null) {
+            return victim != null ? victim : first(window);
+        } else if (victim == null) {
+            return candidate;
+        }
+
+        // Admit the candidate only if it is more popular than the entry it replaces
+        if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+            long weight = window.remove(candidate);
+            windowWeight -= weight;
+            probation.put(candidate, weight);
+            probationWeight += weight;
+            return victim;
+        }
+        return candidate;
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protect.clear();
+        windowWeight = 0;
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+
+    private long getWindowMaximum() {
+        return (long) (getMaximumWeight() * windowShare);
+    }
+
+    /**
+     * Moves entries over the share of the window to probation, without competing, while the main segments have room, such as while the cache fills up.
+     */
+    private void moveFromWindow() {
+        long mainMaximum = getMaximumWeight() - getWindowMaximum();
+        while (windowWeight > getWindowMaximum() && !window.isEmpty()) {
+            Map.Entry<K, Long> eldest = window.entrySet().iterator().next();
+            long weight = eldest.getValue();
+            if (probationWeight + protectedWeight + weight > mainMaximum) {
+                break;
+            }
+            window.remove(eldest.getKey());
+            windowWeight -= weight;
+            probation.put(eldest.getKey(), weight);
+            probationWeight += weight;
+        }
+    }
+
+    /**
+     * Moves the least recently used protected entries back to probation until the protected segment fits its share.
+     */
+    private void demote() {
+        long maximum = (long) ((getMaximumWeight() - getWindowMaximum()) * PROTECTED_SHARE);
+        while (protectedWeight > maximum && protect.size() > 1) {
+            Map.Entry<K, Long> eldest = protect.entrySet().iterator().next();
+            protect.remove(eldest.getKey());
+            protectedWeight -= eldest.getValue();
+            probation.put(eldest.getKey(), eldest.getValue());
+            probationWeight += eldest.getValue();
+        }
+    }
+
+    private static <K> K first(LinkedHashMap<K, Long> queue) {
+        return queue.isEmpty() ? null : queue.keySet().iterator().next();
+    }
+}
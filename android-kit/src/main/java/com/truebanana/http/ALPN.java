@@ -0,0 +1,111 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Application-Layer Protocol Negotiation (RFC 7301) for {@link SSLSocket}s, used to agree on HTTP/2 during the TLS handshake.<br />
+ * <br />
+ * There is no public API for this before Android 10, so the methods are looked up at runtime: {@link SSLParameters} on Android 10 and Java 9 and later,
+ * and the ALPN methods of the platform's Conscrypt sockets on Android 5 and later. On older platforms nothing is negotiated and HTTP/1.1 is used.
+ */
+final class ALPN {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private ALPN() {
+    }
+
+    /**
+     * Offers the protocols in order of preference. Must be called before the handshake.
+     *
+     * @return Whether the platform supports ALPN.
+     */
+    static boolean setProtocols(SSLSocket socket, String... protocols) {
+        try {
+            Method setApplicationProtocols = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+            SSLParameters parameters = socket.getSSLParameters();
+            setApplicationProtocols.invoke(parameters, (Object) protocols);
+            socket.setSSLParameters(parameters);
+            return true;
+        } catch (NoSuchMethodException e) {
+            // Not available before Android 10 and Java 9
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        try {
+            Method setAlpnProtocols = socket.getClass().getMethod("setAlpnProtocols", byte[].class);
+            ByteArrayOutputStream wireFormat = new ByteArrayOutputStream();
+            for (String protocol : protocols) {
+                byte[] bytes = protocol.getBytes(ISO_8859_1);
+                wireFormat.write(bytes.length);
+                wireFormat.write(bytes, 0, bytes.length);
+            }
+            setAlpnProtocols.invoke(socket, (Object) wireFormat.toByteArray());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the protocol selected by the server during the handshake.
+     *
+     * @return The protocol, or <strong>null</strong> if none was negotiated.
+     */
+    static String getSelectedProtocol(SSLSocket socket) {
+        try {
+            Method getApplicationProtocol = SSLSocket.class.getMethod("getApplicationProtocol");
+            String protocol = (String) getApplicationProtocol.invoke(socket);
+            return protocol != null && !protocol.isEmpty() ? protocol : null;
+        } catch (NoSuchMethodException e) {
+            // Not available before Android 10 and Java 9
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        try {
+            Method getAlpnSelectedProtocol = socket.getClass().getMethod("getAlpnSelectedProtocol");
+            byte[] protocol = (byte[]) getAlpnSelectedProtocol.invoke(socket);
+            return protocol != null ? new String(protocol, ISO_8859_1) : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * A response stored in an {@link HTTPCache} along with what is needed to compute its freshness (RFC 7234) and to revalidate it.
+ */
+class CachedResponse {
+    private static final int FORMAT_VERSION = 1;
+
+    private static final ThreadLocal<SimpleDateFormat> dateFormat = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setLenient(false);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    };
+
+    final String url;
+    final int statusCode;
+    final String responseMessage;
+    final Map<String, List<String>> headers;
+    final Map<String, String> varyHeaders;
+    final long requestTime;
+    final long responseTime;
+    final byte[] content;
+
+    private CachedResponse(String url, int statusCode, String responseMessage, Map<String, List<String>> headers, Map<String, String> varyHeaders, long requestTime, long responseTime, byte[] content) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.responseMessage = responseMessage;
+        this.headers = headers;
+        this.varyHeaders = varyHeaders;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+        this.content = content;
+    }
+
+    /**
+     * Creates an entry from a network response or returns <strong>null</strong> if the response must not be stored.
+     */
+    static CachedResponse from(HTTPResponse response, Map<String, String> requestHeaders, long requestTime, long responseTime) {
+        if (!isCacheable(response.getStatusCode()) || response.getHeaders() == null || response.getContent() == null) {
+            return null; // Without its body, an entry would break the size of the memory cache and the disk format
+        }
+
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : response.getHeaders().entrySet()) {
+            // The content has already been decompressed and its length is known
+            String key = header.getKey();
+            if (key != null && !key.equalsIgnoreCase("Content-Encoding") && !key.equalsIgnoreCase("Content-Length") && !key.equalsIgnoreCase("Transfer-Encoding")) {
+                headers.put(key, header.getValue());
+            }
+        }
+
+        Map<String, String> responseCacheControl = parseCacheControl(headers.get("Cache-Control"));
+        if (responseCacheControl.containsKey("no-store") || parseCacheControl(requestHeaders).containsKey("no-store")) {
+            return null;
+        }
+        if (!responseCacheControl.containsKey("max-age") && !headers.containsKey("Expires") && !headers.containsKey("ETag") && !headers.containsKey("Last-Modified")) {
+            return null; // Would be stale right away with nothing to revalidate with
+        }
+
+        Map<String, String> varyHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<String> vary = headers.get("Vary");
+        if (vary != null) {
+            for (String value : vary) {
+                for (String field : value.split(",")) {
+                    field = field.trim();
+                    if (field.equals("*")) {
+                        return null;
+                    }
+                    if (field.length() > 0) {
+                        varyHeaders.put(field, getHeader(requestHeaders, field));
+                    }
+                }
+            }
+        }
+
+        int separator = response.getResponseMessage().indexOf(' ');
+        String message = separator != -1 ? response.getResponseMessage().substring(separator + 1) : null;
+        return new CachedResponse(response.getRequestURL(), response.getStatusCode(), message, headers, varyHeaders, requestTime, responseTime, response.getContent());
+    }
+
+    /**
+     * Returns a copy of this entry updated with the headers of a 304 Not Modified response.
+     */
+    CachedResponse revalidated(HTTPResponse notModified, long requestTime, long responseTime) {
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(this.headers);
+        for (Map.Entry<String, List<String>> header : notModified.getHeaders().entrySet()) {
+            String key = header.getKey();
+            if (key != null && !key.equalsIgnoreCase("Content-Encoding") && !key.equalsIgnoreCase("Content-Length") && !key.equalsIgnoreCase("Transfer-Encoding")) {
+                headers.put(key, header.getValue());
+            }
+        }
+        return new CachedResponse(url, statusCode, responseMessage, headers, varyHeaders, requestTime, responseTime, content);
+    }
+
+    private static boolean isCacheable(int statusCode) {
+        // Cacheable by default (RFC 7231 section 6.1)
+        switch (statusCode) {
+            case 200:
+            case 203:
+            case 204:
+            case 300:
+            case 301:
+            case 404:
+            case 405:
+            case 410:
+            case 414:
+            case 501:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks that the request sends the same values for the headers the response varies on.
+     */
+    boolean matches(Map<String, String> requestHeaders) {
+        for (Map.Entry<String, String> header : varyHeaders.entrySet()) {
+            String value = getHeader(requestHeaders, header.getKey());
+            if (value == null ? header.getValue() != null : !value.equals(header.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current age of the response in milliseconds (RFC 7234 section 4.2.3).
+     */
+    long getAge(long now) {
+        long apparentAge = 0;
+        Date date = parseDate(getHeader("Date"));
+        if (date != null) {
+            apparentAge = Math.max(0, responseTime - date.getTime());
+        }
+        long ageValue = parseSeconds(getHeader("Age")) * 1000;
+        long correctedInitialAge = Math.max(apparentAge, ageValue) + (responseTime - requestTime);
+        return correctedInitialAge + Math.max(0, now - responseTime);
+    }
+
+    /**
+     * Returns how long the response is fresh for in milliseconds (RFC 7234 section 4.2.1).
+     */
+    long getFreshnessLifetime() {
+        Map<String, String> cacheControl = parseCacheControl(headers.get("Cache-Control"));
+        if (cacheControl.containsKey("max-age")) {
+            return parseSeconds(cacheControl.get("max-age")) * 1000;
+        }
+
+        Date date = parseDate(getHeader("Date"));
+        long servedTime = date != null ? date.getTime() : responseTime;
+        String expiresHeader = getHeader("Expires");
+        if (expiresHeader != null) {
+            Date expires = parseDate(expiresHeader);
+            return expires != null ? Math.max(0, expires.getTime() - servedTime) : 0; // Invalid dates mean already expired
+        }
+
+        // Heuristic freshness of 10% of the time since the last modification, but not for URLs with a query
+        Date lastModified = parseDate(getHeader("Last-Modified"));
+        if (lastModified != null && url != null && url.indexOf('?') == -1) {
+            return Math.max(0, (servedTime - lastModified.getTime()) / 10);
+        }
+        return 0;
+    }
+
+    /**
+     * Checks if the response can be used without revalidation for a request with the given headers.
+     */
+    boolean isFresh(long now, Map<String, String> requestHeaders) {
+        Map<String, String> responseCacheControl = parseCacheControl(headers.get("Cache-Control"));
+        Map<String, String> requestCacheControl = parseCacheControl(requestHeaders);
+        if (responseCacheControl.containsKey("no-cache") || requestCacheControl.containsKey("no-cache") || getHeader(requestHeaders, "Pragma") != null) {
+            return false;
+        }
+
+        long age = getAge(now);
+        long lifetime = getFreshnessLifetime();
+        if (requestCacheControl.containsKey("max-age")) {
+            lifetime = Math.min(lifetime, parseSeconds(requestCacheControl.get("max-age")) * 1000);
+        }
+        if (requestCacheControl.containsKey("min-fresh")) {
+            age += parseSeconds(requestCacheControl.get("min-fresh")) * 1000;
+        }
+        long maxStale = 0;
+        if (requestCacheControl.containsKey("max-stale") && !responseCacheControl.containsKey("must-revalidate")) {
+            String value = requestCacheControl.get("max-stale");
+            maxStale = value != null ? parseSeconds(value) * 1000 : Long.MAX_VALUE / 2;
+        }
+        return age < lifetime + maxStale;
+    }
+
+    /**
+     * Checks if the response is stale but still within the stale-while-revalidate window given by the server (RFC 5861).
+     */
+    boolean isWithinStaleWhileRevalidate(long now) {
+        Map<String, String> cacheControl = parseCacheControl(headers.get("Cache-Control"));
+        if (!cacheControl.containsKey("stale-while-revalidate") || cacheControl.containsKey("must-revalidate") || cacheControl.containsKey("no-cache")) {
+            return false;
+        }
+        long window = parseSeconds(cacheControl.get("stale-while-revalidate")) * 1000;
+        return getAge(now) < getFreshnessLifetime() + window;
+    }
+
+    /**
+     * Checks if the request asks to only be served from the cache.
+     */
+    static boolean isOnlyIfCached(Map<String, String> requestHeaders) {
+        return parseCacheControl(requestHeaders).containsKey("only-if-cached");
+    }
+
+    /**
+     * Checks if the request forbids using the cache.
+     */
+    static boolean isNoStore(Map<String, String> requestHeaders) {
+        return parseCacheControl(requestHeaders).containsKey("no-store");
+    }
+
+    String getETag() {
+        return getHeader("ETag");
+    }
+
+    String getLastModified() {
+        return getHeader("Last-Modified");
+    }
+
+    HTTPResponse toResponse(HTTPRequest request) {
+        HTTPResponse response = new HTTPResponse();
+        response.originalRequest = request;
+        response.statusCode = statusCode;
+        response.responseMessage = statusCode + (responseMessage != null ? " " + responseMessage : "");
+        response.headers = Collections.unmodifiableMap(headers);
+        response.requestURL = url;
+        response.content = content;
+        response.fromCache = true;
+        return response;
+    }
+
+    /**
+     * Returns the 504 response for a request which may only be served from the cache but has no cached response (RFC 7234 section 5.2.1.7).
+     */
+    static HTTPResponse unsatisfiable(HTTPRequest request, String url) {
+        HTTPResponse response = new HTTPResponse();
+        response.originalRequest = request;
+        response.statusCode = 504;
+        response.responseMessage = "504 Unsatisfiable Request (only-if-cached)";
+        response.headers = Collections.emptyMap();
+        response.requestURL = url;
+        response.fromCache = true;
+        return response;
+    }
+
+    int getSize() {
+        return content.length + 512; // Rough overhead for the headers
+    }
+
+    private String getHeader(String key) {
+        List<String> values = headers.get(key);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    private static String getHeader(Map<String, String> headers, String key) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(key)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> parseCacheControl(Map<String, String> requestHeaders) {
+        String value = getHeader(requestHeaders, "Cache-Control");
+        return parseCacheControl(value != null ? Collections.singletonList(value) : null);
+    }
+
+    /**
+     * Parses Cache-Control directives into a map of lowercase names to their values, or <strong>null</strong> values for directives without one.
+     */
+    private static Map<String, String> parseCacheControl(List<String> values) {
+        Map<String, String> directives = new HashMap<>();
+        if (values == null) {
+            return directives;
+        }
+        for (String value : values) {
+            for (String directive : value.split(",")) {
+                int equals = directive.indexOf('=');
+                String name = (equals != -1 ? directive.substring(0, equals) : directive).trim().toLowerCase(Locale.US);
+                String argument = equals != -1 ? directive.substring(equals + 1).trim().replace("\"", "") : null;
+                if (name.length() > 0) {
+                    directives.put(name, argument);
+                }
+            }
+        }
+        return directives;
+    }
+
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static Date parseDate(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return dateFormat.get().parse(value.trim());
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    void writeTo(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(url);
+        out.writeInt(statusCode);
+        out.writeBoolean(responseMessage != null);
+        if (responseMessage != null) {
+            out.writeUTF(responseMessage);
+        }
+        out.writeLong(requestTime);
+        out.writeLong(responseTime);
+
+        out.writeInt(headers.size());
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeInt(header.getValue().size());
+            for (String value : header.getValue()) {
+                out.writeUTF(value);
+            }
+        }
+
+        out.writeInt(varyHeaders.size());
+        for (Map.Entry<String, String> header : varyHeaders.entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeBoolean(header.getValue() != null);
+            if (header.getValue() != null) {
+                out.writeUTF(header.getValue());
+            }
+        }
+
+        out.writeInt(content.length);
+        out.write(content);
+        out.flush();
+    }
+
+    static CachedResponse readFrom(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported cache entry version");
+        }
+        String url = in.readUTF();
+        int statusCode = in.readInt();
+        String responseMessage = in.readBoolean() ? in.readUTF() : null;
+        long requestTime = in.readLong();
+        long responseTime = in.readLong();
+
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int headerCount = in.readInt();
+        for (int i = 0; i < headerCount; i++) {
+            String key = in.readUTF();
+            int valueCount = in.readInt();
+            List<String> values = new ArrayList<>(valueCount);
+            for (int j = 0; j < valueCount; j++) {
+                values.add(in.readUTF());
+            }
+            headers.put(key, values);
+        }
+
+        Map<String, String> varyHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int varyCount = in.readInt();
+        for (int i = 0; i < varyCount; i++) {
+            String key = in.readUTF();
+            varyHeaders.put(key, in.readBoolean() ? in.readUTF() : null);
+        }
+
+        byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+        return new CachedResponse(url, statusCode, responseMessage, headers, varyHeaders, requestTime, responseTime, content);
+    }
+}
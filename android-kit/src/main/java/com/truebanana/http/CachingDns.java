@@ -0,0 +1,226 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link HTTPDns} which keeps the addresses resolved by another {@link HTTPDns} in memory, so only the first request to a host in a session waits for a DNS lookup.<br />
+ * <br />
+ * Addresses are fresh for the time to live given to the constructor. For another time to live after that, stale addresses are still returned right away while they are refreshed in the background.
+ * Concurrent lookups of the same host share one lookup. Hosts which will be needed soon can be resolved ahead of time using {@link CachingDns#prefetch(String...)}.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * CachingDns dns = new CachingDns();
+ * dns.prefetch("api.example.com", "images.example.com");
+ * HTTPRequest.setDefaultHTTPEngine(new PooledHTTPEngine(5, 30 * 1000, dns));
+ * }
+ * </pre>
+ */
+public class CachingDns implements HTTPDns {
+    private static final Executor executor = new ThreadPoolExecutor(0, 4, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "CachingDns");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final HTTPDns delegate;
+    private final long timeToLive;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * Creates a {@link CachingDns} which keeps the addresses resolved by the system for 5 minutes.
+     */
+    public CachingDns() {
+        this(HTTPDns.SYSTEM, 5 * 60 * 1000);
+    }
+
+    /**
+     * Creates a {@link CachingDns}.
+     *
+     * @param delegate   The {@link HTTPDns} which does the actual lookups.
+     * @param timeToLive How long resolved addresses are fresh, in milliseconds.
+     */
+    public CachingDns(HTTPDns delegate, long timeToLive) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate must not be null.");
+        }
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("timeToLive <= 0");
+        }
+        this.delegate = delegate;
+        this.timeToLive = timeToLive;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        if (hostname == null) {
+            throw new UnknownHostException("hostname == null");
+        }
+        final String host = hostname.toLowerCase();
+        Entry entry;
+        synchronized (this) {
+            entry = getEntry(host);
+            long age = System.currentTimeMillis() - entry.resolvedAt;
+            if (entry.addresses != null && age < timeToLive) {
+                hitCount++;
+                return entry.addresses;
+            }
+            if (entry.addresses != null && age < 2 * timeToLive) {
+                hitCount++;
+                refreshInBackground(host, entry);
+                return entry.addresses;
+            }
+            missCount++;
+        }
+        return resolve(host, entry);
+    }
+
+    /**
+     * Resolves the host names in the background so later lookups don't have to wait. Hosts whose addresses are still fresh are skipped.
+     *
+     * @param hostnames The host names.
+     */
+    public void prefetch(String... hostnames) {
+        for (String hostname : hostnames) {
+            String host = hostname.toLowerCase();
+            synchronized (this) {
+                Entry entry = getEntry(host);
+                if (entry.addresses == null || System.currentTimeMillis() - entry.resolvedAt >= timeToLive) {
+                    refreshInBackground(host, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all resolved addresses, such as after switching networks.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the number of lookups answered from memory, including stale answers refreshed in the background.
+     *
+     * @return The hit count.
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups which had to wait for the underlying {@link HTTPDns}.
+     *
+     * @return The miss count.
+     */
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    private Entry getEntry(String host) {
+        Entry entry = entries.get(host);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(host, entry);
+        }
+        return entry;
+    }
+
+    private void refreshInBackground(final String host, final Entry entry) {
+        if (entry.refreshing) {
+            return;
+        }
+        entry.refreshing = true;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        resolve(host, entry);
+                    } catch (UnknownHostException e) {
+                        // Keep the stale addresses, the next lookup tries again
+                    } finally {
+                        synchronized (CachingDns.this) {
+                            entry.refreshing = false;
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing = false; // Too many lookups running, the next lookup tries again
+        }
+    }
+
+    /**
+     * Looks the host up unless another thread did while this one waited for the lock of the entry.
+     */
+    private List<InetAddress> resolve(String host, Entry entry) throws UnknownHostException {
+        long requestedAt = System.currentTimeMillis();
+        synchronized (entry) {
+            synchronized (this) {
+                if (entry.addresses != null && entry.resolvedAt >= requestedAt) {
+                    return entry.addresses;
+                }
+            }
+            List<InetAddress> addresses = delegate.lookup(host);
+            if (addresses == null || addresses.isEmpty()) {
+                throw new UnknownHostException("No addresses for " + host);
+            }
+            addresses = Collections.unmodifiableList(new ArrayList<>(addresses));
+            synchronized (this) {
+                entry.addresses = addresses;
+                entry.resolvedAt = System.currentTimeMillis();
+            }
+            return addresses;
+        }
+    }
+
+    private static final class Entry {
+        List<InetAddress> addresses;
+        long resolvedAt;
+        boolean refreshing;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stops sending requests to a host which keeps failing, so requests fail fast with {@link HTTPRequestError#CIRCUIT_OPEN} instead of waiting for timeouts while the backend is down, and the backend gets time to recover.<br />
+ * <br />
+ * The circuit of a host opens after a number of failures in a row. Failures are network failures such as timeouts and refused connections, and 5xx responses. After the open duration, one request is let through as a probe.
+ * The circuit closes if the probe succeeds and opens again if it fails. Responses served from an {@link HTTPCache} don't go through the circuit.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPRequest.setDefaultCircuitBreaker(new CircuitBreaker(5, 30000));
+ * }
+ * </pre>
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openDuration;
+    private final Map<String, Circuit> circuits = new HashMap<>();
+
+    /**
+     * Creates a {@link CircuitBreaker} which opens after 5 failures in a row and stays open for 30 seconds.
+     */
+    public CircuitBreaker() {
+        this(5, 30000);
+    }
+
+    /**
+     * Creates a {@link CircuitBreaker}.
+     *
+     * @param failureThreshold The number of failures in a row which open the circuit of a host.
+     * @param openDuration     The time the circuit stays open before a probe is let through, in milliseconds.
+     */
+    public CircuitBreaker(int failureThreshold, long openDuration) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold < 1");
+        }
+        if (openDuration < 0) {
+            throw new IllegalArgumentException("openDuration < 0");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Checks if a request to the host may be sent, letting it through as the probe if the circuit has been open long enough.
+     */
+    synchronized boolean allowRequest(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null || circuit.openedAt < 0) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now - circuit.openedAt < openDuration) {
+            return false;
+        }
+        // Let one probe through, or another one if the last probe never reported back
+        if (circuit.probeStartedAt < 0 || now - circuit.probeStartedAt >= openDuration) {
+            circuit.probeStartedAt = now;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void recordSuccess(String host) {
+        circuits.remove(host);
+    }
+
+    synchronized void recordFailure(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits.put(host, circuit);
+        }
+        circuit.failureCount++;
+        if (circuit.probeStartedAt >= 0 || circuit.failureCount >= failureThreshold) {
+            circuit.openedAt = System.currentTimeMillis();
+            circuit.probeStartedAt = -1;
+        }
+    }
+
+    /**
+     * Checks if the circuit of a host is open, meaning requests to it currently fail fast.
+     *
+     * @param host The host name.
+     * @return <strong>true</strong> if the circuit is open or <strong>false</strong> otherwise.
+     */
+    public synchronized boolean isOpen(String host) {
+        Circuit circuit = circuits.get(host.toLowerCase());
+        return circuit != null && circuit.openedAt >= 0;
+    }
+
+    /**
+     * Closes the circuits of all hosts.
+     */
+    public synchronized void reset() {
+        circuits.clear();
+    }
+
+    private static final class Circuit {
+        int failureCount;
+        long openedAt = -1;
+        long probeStartedAt = -1;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A {@link RetryPolicy} which waits exponentially longer between attempts, with full jitter so that clients which failed at the same time don't retry at the same time.
+ * The delay before retry n is a random value between 0 and the smaller of the maximum delay and baseDelay * 2^(n - 1).<br />
+ * <br />
+ * Connection failures ({@link HTTPRequestError#DNS} and {@link HTTPRequestError#CONNECT}) are retried for any request since nothing has been sent.
+ * Timeouts, broken connections and 408, 500, 502, 503 and 504 responses are only retried if the request is idempotent, see {@link HTTPRequest#isIdempotent()}, since the server may have processed it.
+ * 429 and 503 responses are retried for any request after the delay given by their Retry-After header, unless it is longer than the maximum delay.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPRequest.setDefaultRetryPolicy(new ExponentialBackoffRetryPolicy(3, 500, 30000));
+ * }
+ * </pre>
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final Random random = new Random();
+
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /**
+     * Creates an {@link ExponentialBackoffRetryPolicy} which retries up to 3 times, starting with a delay of up to 500ms and waiting at most 30 seconds.
+     */
+    public ExponentialBackoffRetryPolicy() {
+        this(3, 500, 30000);
+    }
+
+    /**
+     * Creates an {@link ExponentialBackoffRetryPolicy}.
+     *
+     * @param maxRetries The maximum number of retries after the first attempt.
+     * @param baseDelay  The maximum delay before the first retry in milliseconds, doubled for every retry after it.
+     * @param maxDelay   The maximum delay before any retry in milliseconds.
+     */
+    public ExponentialBackoffRetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries < 0");
+        }
+        if (baseDelay < 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Delays must satisfy 0 <= baseDelay <= maxDelay.");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    @Override
+    public long getRetryDelay(HTTPRequest request, int attempt, HTTPRequestError error) {
+        if (attempt > maxRetries) {
+            return -1;
+        }
+        switch (error) {
+            case DNS:
+            case CONNECT:
+                return getBackoffDelay(attempt);
+            case TIMEOUT:
+            case READ:
+                return request.isIdempotent() ? getBackoffDelay(attempt) : -1;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public long getRetryDelay(HTTPRequest request, int attempt, HTTPResponse response) {
+        if (attempt > maxRetries) {
+            return -1;
+        }
+        int statusCode = response.getStatusCode();
+        if (statusCode == HTTP_TOO_MANY_REQUESTS || statusCode == 503) {
+            long retryAfter = getRetryAfter(response);
+            if (retryAfter >= 0) {
+                return retryAfter <= maxDelay ? retryAfter : -1;
+            }
+        }
+        switch (statusCode) {
+            case 408:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return request.isIdempotent() ? getBackoffDelay(attempt) : -1;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns a random delay up to the exponential backoff cap of the attempt.
+     *
+     * @param attempt The number of the attempt which failed, starting at 1.
+     * @return The delay in milliseconds.
+     */
+    protected long getBackoffDelay(int attempt) {
+        long cap = baseDelay << Math.min(attempt - 1, 30);
+        if (cap > maxDelay || cap < 0) {
+            cap = maxDelay;
+        }
+        return (long) (random.nextDouble() * cap);
+    }
+
+    /**
+     * Returns the delay requested by the Retry-After header of the response, which is either a number of seconds or an HTTP date.
+     *
+     * @return The delay in milliseconds or -1 if there is no valid Retry-After header.
+     */
+    static long getRetryAfter(HTTPResponse response) {
+        String value = null;
+        for (Map.Entry<String, List<String>> header : response.getHeaders().entrySet()) {
+            if ("Retry-After".equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                value = header.getValue().get(0).trim();
+                break;
+            }
+        }
+        if (value == null) {
+            return -1;
+        }
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        } catch (NumberFormatException e) {
+            Date date = CachedResponse.parseDate(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * An {@link SSLSocketFactory} backed by an {@link SSLContext} from {@link SSLContextCache} which also enables some legacy cipher suites.
+ */
+class FlexibleSSLSocketFactory extends SSLSocketFactory {
+    private final SSLContext sslContext;
+
+    FlexibleSSLSocketFactory(SSLContext sslContext) {
+        super();
+        this.sslContext = sslContext;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return sslContext.getSocketFactory().getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return sslContext.getSocketFactory().getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket socket, String host, int port,
+                               boolean autoClose) throws IOException {
+        return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(socket, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket());
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost,
+                               int localPort) throws IOException {
+        return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                               int localPort) throws IOException {
+        return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(address, port, localAddress, localPort));
+    }
+
+    private SSLSocket processSocket(SSLSocket socket) {
+        List<String> cipherSuites = new ArrayList<>(Arrays.asList(socket.getEnabledCipherSuites()));
+        cipherSuites.add("SSL_RSA_WITH_3DES_EDE_CBC_SHA");
+
+        String[] modifiedSuites = new String[cipherSuites.size()];
+        socket.setEnabledCipherSuites(cipherSuites.toArray(modifiedSuites));
+        return socket;
+    }
+}
@@ -0,0 +1,709 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * A single HTTP/2 connection (RFC 7540) which multiplexes any number of concurrent {@link HTTP2Stream}s over one socket.<br />
+ * <br />
+ * Frames are read by a dedicated thread and handed to their streams. Frames are written by the threads running the requests, one frame at a time, so a large upload can't hold up the other streams.
+ */
+final class HTTP2Connection {
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Charset.forName("ISO-8859-1"));
+
+    static final int TYPE_DATA = 0x0;
+    static final int TYPE_HEADERS = 0x1;
+    static final int TYPE_PRIORITY = 0x2;
+    static final int TYPE_RST_STREAM = 0x3;
+    static final int TYPE_SETTINGS = 0x4;
+    static final int TYPE_PUSH_PROMISE = 0x5;
+    static final int TYPE_PING = 0x6;
+    static final int TYPE_GOAWAY = 0x7;
+    static final int TYPE_WINDOW_UPDATE = 0x8;
+    static final int TYPE_CONTINUATION = 0x9;
+
+    static final int FLAG_END_STREAM = 0x1;
+    static final int FLAG_ACK = 0x1;
+    static final int FLAG_END_HEADERS = 0x4;
+    static final int FLAG_PADDED = 0x8;
+    static final int FLAG_PRIORITY = 0x20;
+
+    static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    static final int SETTINGS_ENABLE_PUSH = 0x2;
+    static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    static final int ERROR_NO_ERROR = 0x0;
+    static final int ERROR_PROTOCOL_ERROR = 0x1;
+    static final int ERROR_FLOW_CONTROL_ERROR = 0x3;
+    static final int ERROR_REFUSED_STREAM = 0x7;
+    static final int ERROR_CANCEL = 0x8;
+    static final int ERROR_COMPRESSION_ERROR = 0x9;
+
+    static final int DEFAULT_WINDOW_SIZE = 65535;
+    static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+
+    /**
+     * How much response data each stream may buffer before the server has to wait for it to be read.
+     */
+    static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+
+    /**
+     * How much response data all streams together may buffer.
+     */
+    static final int CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private static final int MAX_HEADER_LIST_SIZE = 256 * 1024;
+
+    final PooledHTTPEngine.Address address;
+    final SSLSession session;
+
+    private final PooledHTTPEngine.PooledSocket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final Object writeLock = new Object();
+    private final Hpack.Encoder encoder = new Hpack.Encoder(); // Guarded by writeLock, frames must be written in the order they were encoded
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+
+    private final Map<Integer, HTTP2Stream> streams = new HashMap<>();
+    private int nextStreamId = 1;
+    private int reservedStreams;
+    private boolean shutdown;
+    private IOException failure;
+    private long idleSince = System.currentTimeMillis();
+
+    // The peer's settings
+    private int maxConcurrentStreams = Integer.MAX_VALUE;
+    private int initialWindowSize = DEFAULT_WINDOW_SIZE;
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    private long sendWindow = DEFAULT_WINDOW_SIZE;
+    private int unacknowledgedBytes;
+
+    HTTP2Connection(PooledHTTPEngine.PooledSocket socket) {
+        this.address = socket.address;
+        this.session = socket.session;
+        this.socket = socket;
+        this.in = socket.in;
+        this.out = socket.out;
+    }
+
+    /**
+     * Sends the connection preface and starts reading frames.
+     */
+    void start() throws IOException {
+        socket.socket.setSoTimeout(0); // The reader waits for frames for as long as the connection is open
+        synchronized (writeLock) {
+            out.write(PREFACE);
+            writeFrameHeader(18, TYPE_SETTINGS, 0, 0);
+            writeSetting(SETTINGS_ENABLE_PUSH, 0);
+            writeSetting(SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW_SIZE);
+            writeSetting(SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+            writeFrameHeader(4, TYPE_WINDOW_UPDATE, 0, 0);
+            writeInt(CONNECTION_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+            out.flush();
+        }
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readFrames();
+            }
+        }, "HTTP2Connection " + address.host);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Returns whether new streams can be opened on this connection, which is not the case after it failed, after the server sent a GOAWAY or after it has been idle for too long.
+     */
+    synchronized boolean isUsable(long keepAliveDuration) {
+        if (shutdown) {
+            return false;
+        }
+        return !streams.isEmpty() || reservedStreams > 0 || System.currentTimeMillis() - idleSince <= keepAliveDuration;
+    }
+
+    synchronized int getStreamCount() {
+        return streams.size();
+    }
+
+    /**
+     * Sends a GOAWAY and closes the socket. Open streams fail.
+     */
+    void close() {
+        try {
+            synchronized (writeLock) {
+                writeFrameHeader(8, TYPE_GOAWAY, 0, 0);
+                writeInt(0); // The last stream started by the server, which never starts any
+                writeInt(ERROR_NO_ERROR);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        fail(new IOException("Connection closed"));
+    }
+
+    // Streams
+    // *********************************************************************************************
+
+    /**
+     * Opens a stream by sending its request headers. Waits for a free stream if the server limits the number of concurrent streams.
+     *
+     * @param headers   The request headers, starting with the pseudo-headers.
+     * @param endStream Whether the request has no body.
+     * @param weight    The priority weight from 1 to 256.
+     * @param timeout   How long to wait for a free stream, in milliseconds, or 0 to wait indefinitely.
+     */
+    HTTP2Stream newStream(List<String> headers, boolean endStream, int weight, int timeout) throws IOException {
+        synchronized (this) {
+            long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+            while (!shutdown && streams.size() + reservedStreams >= maxConcurrentStreams) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for a free HTTP/2 stream");
+                }
+                waitQuietly(remaining);
+            }
+            checkNotShutdown();
+            reservedStreams++;
+        }
+
+        HTTP2Stream stream = null;
+        try {
+            synchronized (writeLock) {
+                synchronized (this) {
+                    checkNotShutdown();
+                    if (nextStreamId < 0) {
+                        shutdown = true; // Stream identifiers exhausted, a new connection has to be made
+                        throw new RefusedStreamException("Stream identifiers exhausted");
+                    }
+                    stream = new HTTP2Stream(this, nextStreamId, initialWindowSize);
+                    nextStreamId += 2;
+                    streams.put(stream.id, stream);
+                    reservedStreams--;
+                }
+                if (endStream) {
+                    stream.finishSending();
+                }
+                writeHeaders(stream.id, headers, endStream, weight);
+            }
+            return stream;
+        } catch (IOException e) {
+            if (stream != null) {
+                fail(e);
+            }
+            throw e;
+        } finally {
+            if (stream == null) {
+                synchronized (this) {
+                    reservedStreams--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private void checkNotShutdown() throws IOException {
+        if (failure != null) {
+            throw new RefusedStreamException("Connection failed: " + failure.getMessage());
+        }
+        if (shutdown) {
+            throw new RefusedStreamException("Connection shut down");
+        }
+    }
+
+    private synchronized HTTP2Stream getStream(int id) {
+        return streams.get(id);
+    }
+
+    /**
+     * Forgets a stream once both sides are done with it, freeing its slot for another stream.
+     */
+    synchronized void removeStream(HTTP2Stream stream) {
+        if (streams.remove(stream.id) != null) {
+            if (streams.isEmpty()) {
+                idleSince = System.currentTimeMillis();
+            }
+            notifyAll();
+        }
+    }
+
+    private void waitQuietly(long timeout) throws IOException {
+        try {
+            wait(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketTimeoutException("Interrupted");
+        }
+    }
+
+    // Writing
+    // *********************************************************************************************
+
+    private void writeHeaders(int streamId, List<String> headers, boolean endStream, int weight) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+        encoder.encode(headers, block);
+        byte[] bytes = block.toByteArray();
+
+        int frameSize;
+        synchronized (this) {
+            frameSize = maxFrameSize;
+        }
+        int length = Math.min(bytes.length, frameSize - 5);
+        int flags = FLAG_PRIORITY | (endStream ? FLAG_END_STREAM : 0) | (length == bytes.length ? FLAG_END_HEADERS : 0);
+        writeFrameHeader(length + 5, TYPE_HEADERS, flags, streamId);
+        writeInt(0); // Depends on no other stream
+        out.write(weight - 1);
+        out.write(bytes, 0, length);
+        for (int offset = length; offset < bytes.length; offset += length) {
+            length = Math.min(bytes.length - offset, frameSize);
+            writeFrameHeader(length, TYPE_CONTINUATION, offset + length == bytes.length ? FLAG_END_HEADERS : 0, streamId);
+            out.write(bytes, offset, length);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes request body data, waiting for the server to open the flow control windows as needed.
+     *
+     * @param timeout How long to wait for the window to open, in milliseconds, or 0 to wait indefinitely.
+     */
+    void writeData(HTTP2Stream stream, byte[] buffer, int offset, int count, boolean endStream, int timeout) throws IOException {
+        if (count == 0) {
+            synchronized (writeLock) {
+                writeFrameHeader(0, TYPE_DATA, endStream ? FLAG_END_STREAM : 0, stream.id);
+                out.flush();
+            }
+            return;
+        }
+        while (count > 0) {
+            int length;
+            synchronized (this) {
+                long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+                while (stream.sendWindow <= 0 || sendWindow <= 0) {
+                    stream.checkWritable();
+                    checkNotShutdown();
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Timed out waiting for the HTTP/2 flow control window");
+                    }
+                    waitQuietly(remaining);
+                }
+                stream.checkWritable();
+                length = (int) Math.min(Math.min(count, maxFrameSize), Math.min(stream.sendWindow, sendWindow));
+                stream.sendWindow -= length;
+                sendWindow -= length;
+            }
+            count -= length;
+            try {
+                synchronized (writeLock) {
+                    writeFrameHeader(length, TYPE_DATA, endStream && count == 0 ? FLAG_END_STREAM : 0, stream.id);
+                    out.write(buffer, offset, length);
+                    if (count == 0) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            offset += length;
+        }
+    }
+
+    void writeRstStream(int streamId, int errorCode) {
+        try {
+            synchronized (writeLock) {
+                writeFrameHeader(4, TYPE_RST_STREAM, 0, streamId);
+                writeInt(errorCode);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) {
+        try {
+            synchronized (writeLock) {
+                writeFrameHeader(4, TYPE_WINDOW_UPDATE, 0, streamId);
+                writeInt(increment);
+                out.flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Called when response data has been read or discarded, so the server may send more.
+     */
+    void dataConsumed(HTTP2Stream stream, int count, boolean streamOpen) {
+        if (streamOpen && stream.acknowledge(count)) {
+            writeWindowUpdate(stream.id, stream.takeUnacknowledged());
+        }
+        int increment = 0;
+        synchronized (this) {
+            unacknowledgedBytes += count;
+            if (unacknowledgedBytes >= CONNECTION_WINDOW_SIZE / 2) {
+                increment = unacknowledgedBytes;
+                unacknowledgedBytes = 0;
+            }
+        }
+        if (increment > 0) {
+            writeWindowUpdate(0, increment);
+        }
+    }
+
+    private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        out.write((length >>> 16) & 0xff);
+        out.write((length >>> 8) & 0xff);
+        out.write(length & 0xff);
+        out.write(type);
+        out.write(flags);
+        writeInt(streamId & 0x7fffffff);
+    }
+
+    private void writeSetting(int id, int value) throws IOException {
+        out.write((id >>> 8) & 0xff);
+        out.write(id & 0xff);
+        writeInt(value);
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write((value >>> 24) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write(value & 0xff);
+    }
+
+    // Reading
+    // *********************************************************************************************
+
+    private void readFrames() {
+        try {
+            byte[] header = new byte[9];
+            while (true) {
+                readFully(header, 9);
+                int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+                int type = header[3] & 0xff;
+                int flags = header[4] & 0xff;
+                int streamId = readInt(header, 5) & 0x7fffffff;
+                if (length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw new ProtocolException("Frame too large: " + length);
+                }
+                byte[] payload = new byte[length];
+                readFully(payload, length);
+                readFrame(type, flags, streamId, payload);
+            }
+        } catch (ProtocolException e) {
+            e.printStackTrace();
+            goAway(ERROR_PROTOCOL_ERROR);
+            fail(e);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void readFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        switch (type) {
+            case TYPE_DATA:
+                readData(flags, streamId, payload);
+                break;
+            case TYPE_HEADERS:
+                readHeaders(flags, streamId, payload);
+                break;
+            case TYPE_RST_STREAM: {
+                if (payload.length != 4) {
+                    throw new ProtocolException("Invalid RST_STREAM length: " + payload.length);
+                }
+                HTTP2Stream stream = getStream(streamId);
+                if (stream != null) {
+                    stream.receiveReset(readInt(payload, 0));
+                }
+                break;
+            }
+            case TYPE_SETTINGS:
+                readSettings(flags, payload);
+                break;
+            case TYPE_PUSH_PROMISE:
+                throw new ProtocolException("PUSH_PROMISE received although push is disabled");
+            case TYPE_PING:
+                if (payload.length != 8) {
+                    throw new ProtocolException("Invalid PING length: " + payload.length);
+                }
+                if ((flags & FLAG_ACK) == 0) {
+                    synchronized (writeLock) {
+                        writeFrameHeader(8, TYPE_PING, FLAG_ACK, 0);
+                        out.write(payload);
+                        out.flush();
+                    }
+                }
+                break;
+            case TYPE_GOAWAY:
+                readGoAway(payload);
+                break;
+            case TYPE_WINDOW_UPDATE: {
+                if (payload.length != 4) {
+                    throw new ProtocolException("Invalid WINDOW_UPDATE length: " + payload.length);
+                }
+                int increment = readInt(payload, 0) & 0x7fffffff;
+                synchronized (this) {
+                    if (streamId == 0) {
+                        sendWindow += increment;
+                    } else {
+                        HTTP2Stream stream = streams.get(streamId);
+                        if (stream != null) {
+                            stream.sendWindow += increment;
+                        }
+                    }
+                    notifyAll();
+                }
+                break;
+            }
+            case TYPE_PRIORITY:
+            default:
+                break; // Priorities from the server and unknown frame types are ignored
+        }
+    }
+
+    private void readData(int flags, int streamId, byte[] payload) throws IOException {
+        int offset = 0;
+        int length = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            int padding = payload.length > 0 ? payload[0] & 0xff : 0;
+            if (padding >= payload.length) {
+                throw new ProtocolException("Invalid DATA padding");
+            }
+            offset = 1;
+            length = payload.length - 1 - padding;
+        }
+
+        HTTP2Stream stream = getStream(streamId);
+        boolean accepted = stream != null && stream.receiveData(payload, offset, length, (flags & FLAG_END_STREAM) != 0);
+        // Padding counts towards flow control but is never read, and neither is data for streams we are done with
+        dataConsumed(stream, accepted ? payload.length - length : payload.length, false);
+    }
+
+    private void readHeaders(int flags, int streamId, byte[] payload) throws IOException {
+        int offset = 0;
+        int end = payload.length;
+        if ((flags & FLAG_PADDED) != 0) {
+            int padding = payload.length > 0 ? payload[0] & 0xff : 0;
+            offset = 1;
+            end -= padding;
+        }
+        if ((flags & FLAG_PRIORITY) != 0) {
+            offset += 5;
+        }
+        if (offset > end) {
+            throw new ProtocolException("Invalid HEADERS padding");
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(end - offset);
+        block.write(payload, offset, end - offset);
+        boolean endHeaders = (flags & FLAG_END_HEADERS) != 0;
+        byte[] header = new byte[9];
+        while (!endHeaders) {
+            readFully(header, 9);
+            int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+            if (header[3] != TYPE_CONTINUATION || (readInt(header, 5) & 0x7fffffff) != streamId) {
+                throw new ProtocolException("Expected CONTINUATION for stream " + streamId);
+            }
+            if (length > DEFAULT_MAX_FRAME_SIZE || block.size() + length > MAX_HEADER_LIST_SIZE) {
+                throw new ProtocolException("Header block too large");
+            }
+            byte[] continuation = new byte[length];
+            readFully(continuation, length);
+            block.write(continuation, 0, length);
+            endHeaders = (header[4] & FLAG_END_HEADERS) != 0;
+        }
+
+        // Always decode so the table stays in sync, even for streams we no longer care about
+        List<String> headers;
+        try {
+            headers = decoder.decode(block.toByteArray());
+        } catch (ProtocolException e) {
+            goAway(ERROR_COMPRESSION_ERROR);
+            throw e;
+        }
+        HTTP2Stream stream = getStream(streamId);
+        if (stream != null) {
+            stream.receiveHeaders(headers, (flags & FLAG_END_STREAM) != 0);
+        }
+    }
+
+    private void readSettings(int flags, byte[] payload) throws IOException {
+        if ((flags & FLAG_ACK) != 0) {
+            return;
+        }
+        if (payload.length % 6 != 0) {
+            throw new ProtocolException("Invalid SETTINGS length: " + payload.length);
+        }
+        for (int i = 0; i < payload.length; i += 6) {
+            int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+            int value = readInt(payload, i + 2);
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    synchronized (writeLock) {
+                        encoder.setMaxTableSize(value);
+                    }
+                    break;
+                case SETTINGS_MAX_CONCURRENT_STREAMS:
+                    synchronized (this) {
+                        maxConcurrentStreams = value;
+                        notifyAll();
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value < 0) {
+                        throw new ProtocolException("Invalid initial window size: " + value);
+                    }
+                    synchronized (this) {
+                        int delta = value - initialWindowSize;
+                        initialWindowSize = value;
+                        for (HTTP2Stream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                        }
+                        notifyAll();
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff) {
+                        throw new ProtocolException("Invalid max frame size: " + value);
+                    }
+                    synchronized (this) {
+                        maxFrameSize = value;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        synchronized (writeLock) {
+            writeFrameHeader(0, TYPE_SETTINGS, FLAG_ACK, 0);
+            out.flush();
+        }
+    }
+
+    private void readGoAway(byte[] payload) throws IOException {
+        if (payload.length < 8) {
+            throw new ProtocolException("Invalid GOAWAY length: " + payload.length);
+        }
+        int lastStreamId = readInt(payload, 0) & 0x7fffffff;
+        int errorCode = readInt(payload, 4);
+        List<HTTP2Stream> refused = new ArrayList<>();
+        synchronized (this) {
+            shutdown = true;
+            for (HTTP2Stream stream : streams.values()) {
+                if (stream.id > lastStreamId) {
+                    refused.add(stream);
+                }
+            }
+            notifyAll();
+        }
+        // Streams the server never processed can safely be retried on a new connection
+        for (HTTP2Stream stream : refused) {
+            stream.receiveFailure(new RefusedStreamException("Connection shut down by the server, error " + errorCode));
+        }
+    }
+
+    private void goAway(int errorCode) {
+        try {
+            synchronized (writeLock) {
+                writeFrameHeader(8, TYPE_GOAWAY, 0, 0);
+                writeInt(0);
+                writeInt(errorCode);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // Failing anyway
+        }
+    }
+
+    /**
+     * Fails all open streams and closes the socket.
+     */
+    private void fail(IOException e) {
+        List<HTTP2Stream> failed;
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+            shutdown = true;
+            failed = new ArrayList<>(streams.values());
+            streams.clear();
+            notifyAll();
+        }
+        for (HTTP2Stream stream : failed) {
+            stream.receiveFailure(e);
+        }
+        socket.close();
+    }
+
+    private void readFully(byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException("Connection closed by the server");
+            }
+            offset += read;
+        }
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16) | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    /**
+     * Thrown for streams the server did not process, such as those refused with REFUSED_STREAM or beyond the last stream of a GOAWAY. Such requests can be retried.
+     */
+    static class RefusedStreamException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RefusedStreamException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An {@link HTTPEngine} which sends requests over HTTP/2 (RFC 7540), multiplexing all concurrent requests to the same origin over a single TLS connection.
+ * Headers are compressed with HPACK and each stream carries the weight of its {@link HTTPRequestPriority}, so the server can send the responses the user is waiting on first.<br />
+ * <br />
+ * HTTP/2 is negotiated using ALPN during the TLS handshake, which needs Android 5 or later. Servers and platforms which don't support it get HTTP/1.1 through the connection pool of the {@link PooledHTTPEngine} this engine extends.
+ * Plain HTTP URLs also use HTTP/1.1 unless the engine is created with prior knowledge that the server speaks cleartext HTTP/2, such as a local test server.<br />
+ * <br />
+ * Many parallel requests to one host, such as images loaded by {@link com.truebanana.bitmap.BitmapLoader}, benefit the most. Raise {@link HTTPDispatcher#setMaxRequestsPerHost(int)} so they actually run in parallel.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPRequest.setDefaultHTTPEngine(new HTTP2Engine());
+ * HTTPRequest.getDefaultDispatcher().setMaxRequestsPerHost(32);
+ * }
+ * </pre>
+ */
+public class HTTP2Engine extends PooledHTTPEngine {
+    private static final String[] PROTOCOLS = {"h2", "http/1.1"};
+
+    private final boolean priorKnowledge;
+    private final Map<Address, HTTP2Connection> connections = new HashMap<>();
+    private final Map<Address, Object> connectLocks = new HashMap<>();
+    private final Set<Address> http1Addresses = new HashSet<>();
+
+    /**
+     * Creates an {@link HTTP2Engine} which keeps HTTP/1.1 fallback connections and idle HTTP/2 connections for up to 30 seconds.
+     */
+    public HTTP2Engine() {
+        this(5, PooledHTTPEngine.DEFAULT_KEEP_ALIVE_DURATION, HTTPDns.SYSTEM, false);
+    }
+
+    /**
+     * Creates an {@link HTTP2Engine}.
+     *
+     * @param maxIdleConnectionsPerHost The maximum number of idle HTTP/1.1 connections to keep for each host.
+     * @param keepAliveDuration         How long an idle connection is kept, in milliseconds.
+     * @param dns                       The {@link HTTPDns}.
+     * @param priorKnowledge            Whether to use cleartext HTTP/2 for plain HTTP URLs, without first checking that the server supports it.
+     */
+    public HTTP2Engine(int maxIdleConnectionsPerHost, long keepAliveDuration, HTTPDns dns, boolean priorKnowledge) {
+        super(maxIdleConnectionsPerHost, keepAliveDuration, dns);
+        this.priorKnowledge = priorKnowledge;
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        String protocol = url.getProtocol();
+        if (URLConnectionEngine.getSystemProxy() != Proxy.NO_PROXY
+                || !("https".equalsIgnoreCase(protocol) || (priorKnowledge && "http".equalsIgnoreCase(protocol)))) {
+            return super.open(url);
+        }
+        return new HTTP2URLConnection(this, url);
+    }
+
+    @Override
+    public void release(HttpURLConnection connection) {
+        if (connection instanceof HTTP2URLConnection) {
+            ((HTTP2URLConnection) connection).release();
+        } else {
+            super.release(connection);
+        }
+    }
+
+    /**
+     * Closes all idle connections, including HTTP/2 connections without open streams, and forgets which servers only support HTTP/1.1.
+     */
+    @Override
+    public void evictAll() {
+        super.evictAll();
+        List<HTTP2Connection> idle = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<Address, HTTP2Connection> entry : new ArrayList<>(connections.entrySet())) {
+                if (entry.getValue().getStreamCount() == 0) {
+                    idle.add(entry.getValue());
+                    connections.remove(entry.getKey());
+                }
+            }
+            http1Addresses.clear();
+        }
+        for (HTTP2Connection connection : idle) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Returns the number of open HTTP/2 connections.
+     *
+     * @return The number of HTTP/2 connections.
+     */
+    public synchronized int getHTTP2ConnectionCount() {
+        int count = 0;
+        for (HTTP2Connection connection : connections.values()) {
+            if (connection.isUsable(getKeepAliveDuration())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the HTTP/2 connection to the address, opening one if needed. Concurrent requests to a new address wait for the first one to connect instead of each opening their own.
+     *
+     * @return The connection, or <strong>null</strong> if the server only supports HTTP/1.1.
+     */
+    HTTP2Connection obtainConnection(Address address, int connectTimeout, int readTimeout, HTTPRequest request) throws IOException {
+        Object lock;
+        synchronized (this) {
+            HTTP2Connection connection = getUsableConnection(address);
+            if (connection != null || http1Addresses.contains(address)) {
+                return connection;
+            }
+            lock = connectLocks.get(address);
+            if (lock == null) {
+                lock = new Object();
+                connectLocks.put(address, lock);
+            }
+        }
+
+        synchronized (lock) {
+            HTTP2Connection stale;
+            synchronized (this) {
+                HTTP2Connection connection = getUsableConnection(address);
+                if (connection != null || http1Addresses.contains(address)) {
+                    return connection;
+                }
+                stale = connections.remove(address);
+            }
+            if (stale != null && stale.getStreamCount() == 0) {
+                stale.close(); // Otherwise let its streams finish, the server closes it after that
+            }
+
+            PooledSocket socket = connect(address, connectTimeout, readTimeout, address.secure ? PROTOCOLS : null, request);
+            if (address.secure && !"h2".equals(socket.protocol)) {
+                synchronized (this) {
+                    http1Addresses.add(address);
+                }
+                recycle(socket); // Fresh and ready for an HTTP/1.1 exchange
+                return null;
+            }
+
+            HTTP2Connection connection = new HTTP2Connection(socket);
+            try {
+                connection.start();
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            synchronized (this) {
+                connections.put(address, connection);
+            }
+            return connection;
+        }
+    }
+
+    private HTTP2Connection getUsableConnection(Address address) {
+        HTTP2Connection connection = connections.get(address);
+        return connection != null && connection.isUsable(getKeepAliveDuration()) ? connection : null;
+    }
+}
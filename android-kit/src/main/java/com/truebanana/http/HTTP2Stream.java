@@ -0,0 +1,411 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * One request and response exchanged over an {@link HTTP2Connection}.<br />
+ * <br />
+ * Response data is buffered as it arrives, up to {@link HTTP2Connection#STREAM_WINDOW_SIZE}, and the server is allowed to send more as it is read.
+ * None of the methods call into the connection while holding the lock of the stream, so the reader thread can never deadlock with the threads running the requests.
+ */
+final class HTTP2Stream {
+    final HTTP2Connection connection;
+    final int id;
+
+    /**
+     * How much request data the server currently accepts on this stream. Guarded by the connection.
+     */
+    long sendWindow;
+
+    private final StreamInputStream inputStream = new StreamInputStream();
+    private final StreamOutputStream outputStream = new StreamOutputStream();
+
+    private List<String> headers;
+    private final Deque<byte[]> buffer = new ArrayDeque<>();
+    private int bufferOffset; // Read position in the first buffered chunk
+    private int available;
+    private int unacknowledgedBytes;
+    private boolean receivedEnd;
+    private boolean sentEnd;
+    private volatile IOException error;
+    private int timeout;
+
+    HTTP2Stream(HTTP2Connection connection, int id, int initialWindowSize) {
+        this.connection = connection;
+        this.id = id;
+        this.sendWindow = initialWindowSize;
+    }
+
+    /**
+     * Sets how long reads and writes wait, in milliseconds, or 0 to wait indefinitely.
+     */
+    synchronized void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Waits for the response headers, skipping interim 1xx responses.
+     *
+     * @return The response headers as alternating names and values.
+     */
+    synchronized List<String> takeHeaders() throws IOException {
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+        while (headers == null && error == null) {
+            waitUntil(deadline);
+        }
+        if (headers == null) {
+            throw error;
+        }
+        return headers;
+    }
+
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * Sends whatever is left of the request body along with the end of the stream.
+     */
+    void finishRequest() throws IOException {
+        outputStream.close();
+    }
+
+    /**
+     * Resets the stream unless both sides are already done with it, and discards any unread response data.
+     */
+    void cancel() {
+        boolean open;
+        int discarded;
+        synchronized (this) {
+            open = error == null && !(receivedEnd && sentEnd);
+            if (error == null) {
+                error = new IOException("Stream canceled");
+            }
+            discarded = available;
+            buffer.clear();
+            available = 0;
+            notifyAll();
+        }
+        if (open) {
+            connection.writeRstStream(id, HTTP2Connection.ERROR_CANCEL);
+            connection.removeStream(this);
+        }
+        if (discarded > 0) {
+            connection.dataConsumed(this, discarded, false);
+        }
+    }
+
+    /**
+     * Returns whether the whole response has been received and read.
+     */
+    synchronized boolean isExhausted() {
+        return receivedEnd && available == 0;
+    }
+
+    // Called by the connection
+    // *********************************************************************************************
+
+    /**
+     * Throws if the stream can no longer carry request data. Called with the connection lock held, so it only reads volatile state.
+     */
+    void checkWritable() throws IOException {
+        IOException e = error;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    synchronized void finishSending() {
+        sentEnd = true;
+    }
+
+    void receiveHeaders(List<String> headers, boolean endStream) {
+        boolean done;
+        synchronized (this) {
+            if (this.headers == null) {
+                String status = getStatus(headers);
+                if (status != null && status.startsWith("1") && !endStream) {
+                    return; // Interim response, wait for the final one
+                }
+                this.headers = headers;
+            } // Otherwise these are trailers, which are not exposed
+            done = endStream && markReceivedEnd();
+            notifyAll();
+        }
+        if (done) {
+            connection.removeStream(this);
+        }
+    }
+
+    /**
+     * Buffers response data.
+     *
+     * @return Whether the data was accepted. Data which is not accepted must be counted as consumed by the caller.
+     */
+    boolean receiveData(byte[] data, int offset, int count, boolean endStream) {
+        boolean accepted = true;
+        boolean done;
+        boolean overflow = false;
+        synchronized (this) {
+            if (error != null || receivedEnd) {
+                accepted = false;
+            } else if (available + count > HTTP2Connection.STREAM_WINDOW_SIZE) {
+                accepted = false;
+                overflow = true;
+                error = new IOException("Flow control window exceeded by the server");
+            } else if (count > 0) {
+                buffer.addLast(offset == 0 && count == data.length ? data : copyOfRange(data, offset, count));
+                available += count;
+            }
+            done = accepted && endStream && markReceivedEnd();
+            notifyAll();
+        }
+        if (overflow) {
+            connection.writeRstStream(id, HTTP2Connection.ERROR_FLOW_CONTROL_ERROR);
+            connection.removeStream(this);
+        } else if (done) {
+            connection.removeStream(this);
+        }
+        return accepted;
+    }
+
+    void receiveReset(int errorCode) {
+        IOException e = errorCode == HTTP2Connection.ERROR_REFUSED_STREAM
+                ? new HTTP2Connection.RefusedStreamException("Stream refused by the server")
+                : new IOException("Stream reset by the server, error " + errorCode);
+        receiveFailure(e);
+        connection.removeStream(this);
+    }
+
+    synchronized void receiveFailure(IOException e) {
+        if (error == null && !receivedEnd) {
+            error = e;
+        }
+        notifyAll();
+    }
+
+    private boolean markReceivedEnd() {
+        receivedEnd = true;
+        return sentEnd;
+    }
+
+    // Helpers
+    // *********************************************************************************************
+
+    static String getStatus(List<String> headers) {
+        for (int i = 0; i < headers.size(); i += 2) {
+            if (":status".equals(headers.get(i))) {
+                return headers.get(i + 1);
+            }
+        }
+        return null;
+    }
+
+    private static byte[] copyOfRange(byte[] data, int offset, int count) {
+        byte[] copy = new byte[count];
+        System.arraycopy(data, offset, copy, 0, count);
+        return copy;
+    }
+
+    private void waitUntil(long deadline) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Read timed out");
+        }
+        try {
+            wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketTimeoutException("Interrupted");
+        }
+    }
+
+    /**
+     * Counts data read by the application towards the next WINDOW_UPDATE of this stream.
+     *
+     * @return Whether enough has been read to send one.
+     */
+    synchronized boolean acknowledge(int count) {
+        unacknowledgedBytes += count;
+        return unacknowledgedBytes >= HTTP2Connection.STREAM_WINDOW_SIZE / 2;
+    }
+
+    synchronized int takeUnacknowledged() {
+        int count = unacknowledgedBytes;
+        unacknowledgedBytes = 0;
+        return count;
+    }
+
+    // Streams
+    // *********************************************************************************************
+
+    private class StreamInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] destination, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            int read = 0;
+            boolean streamOpen;
+            try {
+                synchronized (HTTP2Stream.this) {
+                    long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : Long.MAX_VALUE;
+                    while (available == 0) {
+                        if (receivedEnd) {
+                            return -1;
+                        }
+                        if (error != null) {
+                            throw error;
+                        }
+                        waitUntil(deadline);
+                    }
+                    while (read < count && !buffer.isEmpty()) {
+                        byte[] chunk = buffer.peekFirst();
+                        int length = Math.min(count - read, chunk.length - bufferOffset);
+                        System.arraycopy(chunk, bufferOffset, destination, offset + read, length);
+                        read += length;
+                        bufferOffset += length;
+                        if (bufferOffset == chunk.length) {
+                            buffer.removeFirst();
+                            bufferOffset = 0;
+                        }
+                    }
+                    available -= read;
+                    streamOpen = !receivedEnd;
+                }
+            } catch (SocketTimeoutException e) {
+                cancel(); // Don't leave the server sending into a stream nobody reads
+                throw e;
+            }
+            connection.dataConsumed(HTTP2Stream.this, read, streamOpen);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            synchronized (HTTP2Stream.this) {
+                return available;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (HTTP2Stream.this) {
+                if (receivedEnd && available == 0) {
+                    return;
+                }
+            }
+            cancel();
+        }
+    }
+
+    private class StreamOutputStream extends OutputStream {
+        private final byte[] pending = new byte[HTTP2Connection.DEFAULT_MAX_FRAME_SIZE];
+        private int pendingCount;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int count) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (pendingCount + count > pending.length) {
+                flushPending(false);
+            }
+            if (count >= pending.length) {
+                connection.writeData(HTTP2Stream.this, data, offset, count, false, getTimeout());
+            } else {
+                System.arraycopy(data, offset, pending, pendingCount, count);
+                pendingCount += count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed) {
+                flushPending(false);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            boolean done;
+            synchronized (HTTP2Stream.this) {
+                done = sentEnd;
+            }
+            if (!done) {
+                flushPending(true);
+                boolean finished;
+                synchronized (HTTP2Stream.this) {
+                    sentEnd = true;
+                    finished = receivedEnd;
+                }
+                if (finished) {
+                    connection.removeStream(HTTP2Stream.this);
+                }
+            }
+        }
+
+        private void flushPending(boolean endStream) throws IOException {
+            if (pendingCount > 0 || endStream) {
+                connection.writeData(HTTP2Stream.this, pending, 0, pendingCount, endStream, getTimeout());
+                pendingCount = 0;
+            }
+        }
+
+        private int getTimeout() {
+            synchronized (HTTP2Stream.this) {
+                return timeout;
+            }
+        }
+    }
+}
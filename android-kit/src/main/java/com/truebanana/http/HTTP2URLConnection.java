@@ -0,0 +1,579 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * An {@link HttpURLConnection} which exchanges its request and response over a stream of a shared {@link HTTP2Connection}.<br />
+ * <br />
+ * If the server turns out not to support HTTP/2, the connection quietly hands the request to a {@link PooledURLConnection} instead.
+ * The request body is streamed to the server as it is written, and {@link HttpURLConnection#disconnect()} only resets this stream, never the shared connection.
+ */
+class HTTP2URLConnection extends HttpsURLConnection {
+    private static final int MAX_REDIRECTS = 20;
+
+    private final HTTP2Engine engine;
+    private final Map<String, List<String>> requestProperties = new TreeMap<>(PooledURLConnection.FIELD_NAME_COMPARATOR);
+    private int weight = 16;
+    private long fixedLength = -1;
+
+    private HTTP2Connection connection;
+    private HTTP2Stream stream;
+    private boolean bodyStarted;
+    private boolean cancelled;
+    private PooledURLConnection fallback;
+    private HTTPRequest request;
+
+    private SSLSession session;
+    private String statusLine;
+    private final List<String> responseHeaderKeys = new ArrayList<>();
+    private final List<String> responseHeaderValues = new ArrayList<>();
+    private Map<String, List<String>> responseHeaders;
+
+    HTTP2URLConnection(HTTP2Engine engine, URL url) {
+        super(url);
+        this.engine = engine;
+    }
+
+    /**
+     * Sets the request whose {@link HTTPEventListener} is told about the connection being opened and the request being sent.
+     */
+    void setRequest(HTTPRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * Sets the priority of the stream relative to the other streams on the same connection.
+     */
+    void setPriority(HTTPRequestPriority priority) {
+        switch (priority) {
+            case HIGH:
+                weight = 256;
+                break;
+            case LOW:
+                weight = 1;
+                break;
+            default:
+                weight = 16;
+                break;
+        }
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        synchronized (this) {
+            if (cancelled) {
+                throw new IOException("Canceled");
+            }
+        }
+        PooledHTTPEngine.Address address = new PooledHTTPEngine.Address(url, getSSLSocketFactory(), getHostnameVerifier());
+        connection = engine.obtainConnection(address, getConnectTimeout(), getReadTimeout(), request);
+        if (connection == null) {
+            fallback = createFallback();
+            fallback.connect();
+        } else {
+            session = connection.session;
+        }
+        connected = true;
+    }
+
+    /**
+     * Creates an HTTP/1.1 connection with the same request.
+     */
+    private PooledURLConnection createFallback() throws IOException {
+        PooledURLConnection c = new PooledURLConnection(engine, url);
+        c.setRequest(request);
+        c.setRequestMethod(method);
+        c.setDoInput(doInput);
+        c.setDoOutput(doOutput);
+        c.setConnectTimeout(getConnectTimeout());
+        c.setReadTimeout(getReadTimeout());
+        c.setInstanceFollowRedirects(instanceFollowRedirects);
+        c.setUseCaches(useCaches);
+        c.setSSLSocketFactory(getSSLSocketFactory());
+        c.setHostnameVerifier(getHostnameVerifier());
+        if (fixedLength != -1) {
+            c.setFixedLengthStreamingMode(fixedLength);
+        } else if (chunkLength > 0) {
+            c.setChunkedStreamingMode(chunkLength);
+        }
+        for (Map.Entry<String, List<String>> entry : requestProperties.entrySet()) {
+            for (String value : entry.getValue()) {
+                c.addRequestProperty(entry.getKey(), value);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Resets the stream. Any ongoing read or write on another thread will fail. Other streams on the connection are not affected.
+     */
+    @Override
+    public void disconnect() {
+        HTTP2Stream s;
+        PooledURLConnection f;
+        synchronized (this) {
+            cancelled = true;
+            s = stream;
+            f = fallback;
+        }
+        if (s != null) {
+            s.cancel();
+        }
+        if (f != null) {
+            f.disconnect();
+        }
+    }
+
+    /**
+     * Resets the stream unless its response has been fully read.
+     */
+    void release() {
+        if (fallback != null) {
+            fallback.release();
+            return;
+        }
+        HTTP2Stream s;
+        synchronized (this) {
+            s = stream;
+        }
+        if (s != null && !s.isExhausted()) {
+            s.cancel();
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    @Override
+    public URL getURL() {
+        return fallback != null ? fallback.getURL() : super.getURL();
+    }
+
+    // Request
+    // *********************************************************************************************
+
+    @Override
+    public void setRequestProperty(String field, String newValue) {
+        checkNotConnected(field);
+        List<String> values = new ArrayList<>();
+        values.add(newValue);
+        requestProperties.put(field, values);
+    }
+
+    @Override
+    public void addRequestProperty(String field, String newValue) {
+        checkNotConnected(field);
+        List<String> values = requestProperties.get(field);
+        if (values == null) {
+            values = new ArrayList<>();
+            requestProperties.put(field, values);
+        }
+        values.add(newValue);
+    }
+
+    @Override
+    public String getRequestProperty(String field) {
+        List<String> values = field != null ? requestProperties.get(field) : null;
+        return values != null && !values.isEmpty() ? values.get(values.size() - 1) : null;
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        return Collections.unmodifiableMap(requestProperties);
+    }
+
+    private void checkNotConnected(String field) {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        if (field == null) {
+            throw new NullPointerException("field == null");
+        }
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(int contentLength) {
+        super.setFixedLengthStreamingMode(contentLength);
+        fixedLength = contentLength;
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(long contentLength) {
+        super.setFixedLengthStreamingMode(contentLength);
+        fixedLength = contentLength;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput) {
+            throw new ProtocolException("Cannot write request body: doOutput is false");
+        }
+        if (responseHeaders != null) {
+            throw new ProtocolException("Cannot write request body after the response has been read");
+        }
+        connect();
+        if (fallback != null) {
+            return fallback.getOutputStream();
+        }
+        if (stream == null) {
+            openStream(false);
+            bodyStarted = true;
+        }
+        return stream.getOutputStream();
+    }
+
+    private void openStream(boolean endStream) throws IOException {
+        List<String> headers = buildRequestHeaders(endStream);
+        HTTP2Stream s = connection.newStream(headers, endStream, weight, getConnectTimeout());
+        s.setTimeout(getReadTimeout());
+        if (request != null) {
+            request.getEventListener().requestHeadersEnd(request);
+        }
+        boolean cancel;
+        synchronized (this) {
+            stream = s;
+            cancel = cancelled;
+        }
+        if (cancel) {
+            s.cancel();
+            throw new IOException("Canceled");
+        }
+    }
+
+    private List<String> buildRequestHeaders(boolean endStream) {
+        List<String> headers = new ArrayList<>(32);
+        String host = getRequestProperty("Host");
+        if (host == null) {
+            int port = url.getPort();
+            host = port == -1 || port == url.getDefaultPort() ? url.getHost() : url.getHost() + ":" + port;
+        }
+        String path = url.getFile();
+        addHeader(headers, ":method", method);
+        addHeader(headers, ":scheme", url.getProtocol().toLowerCase(Locale.US));
+        addHeader(headers, ":authority", host);
+        addHeader(headers, ":path", path.isEmpty() ? "/" : path);
+
+        if (getRequestProperty("User-Agent") == null) {
+            String agent = System.getProperty("http.agent");
+            if (agent != null) {
+                addHeader(headers, "user-agent", agent);
+            }
+        }
+        if (getRequestProperty("Content-Length") == null) {
+            if (fixedLength != -1) {
+                addHeader(headers, "content-length", Long.toString(fixedLength));
+            } else if (endStream && ("POST".equals(method) || "PUT".equals(method))) {
+                addHeader(headers, "content-length", "0");
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : requestProperties.entrySet()) {
+            String name = entry.getKey().toLowerCase(Locale.US);
+            if (isConnectionSpecific(name)) {
+                continue;
+            }
+            for (String value : entry.getValue()) {
+                if (!"te".equals(name) || "trailers".equalsIgnoreCase(value)) {
+                    addHeader(headers, name, value);
+                }
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Returns whether a header only applies to an HTTP/1.1 connection and must not be sent over HTTP/2.
+     */
+    private static boolean isConnectionSpecific(String name) {
+        return "host".equals(name) || "connection".equals(name) || "keep-alive".equals(name) || "proxy-connection".equals(name)
+                || "transfer-encoding".equals(name) || "upgrade".equals(name);
+    }
+
+    private static void addHeader(List<String> headers, String name, String value) {
+        headers.add(name);
+        headers.add(value);
+    }
+
+    // Response
+    // *********************************************************************************************
+
+    private void getResponse() throws IOException {
+        if (responseHeaders != null) {
+            return;
+        }
+        connect();
+        if (fallback != null) {
+            return;
+        }
+
+        for (int redirects = 0; ; redirects++) {
+            exchange();
+
+            URL location = getRedirectLocation();
+            if (location == null) {
+                return;
+            }
+            if (redirects >= MAX_REDIRECTS) {
+                throw new ProtocolException("Too many redirects: " + (redirects + 1));
+            }
+
+            stream.cancel();
+            synchronized (this) {
+                stream = null;
+            }
+            responseHeaders = null;
+            responseCode = -1;
+            responseMessage = null;
+            connected = false;
+            url = location;
+            connect();
+            if (fallback != null) {
+                return;
+            }
+        }
+    }
+
+    private void exchange() throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (stream == null) {
+                    openStream(true);
+                } else {
+                    stream.finishRequest();
+                }
+                readResponseHeaders(stream.takeHeaders());
+                return;
+            } catch (HTTP2Connection.RefusedStreamException e) {
+                // The server did not process the stream, so it is safe to send it again on a new connection
+                if (bodyStarted || attempt > 0) {
+                    throw e;
+                }
+                synchronized (this) {
+                    stream = null;
+                }
+                connected = false;
+                connect();
+                if (fallback != null) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void readResponseHeaders(List<String> headers) throws IOException {
+        String status = HTTP2Stream.getStatus(headers);
+        if (status == null) {
+            throw new ProtocolException("Response without :status");
+        }
+        try {
+            responseCode = Integer.parseInt(status);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Unexpected :status: " + status);
+        }
+        responseMessage = "";
+        statusLine = "HTTP/2 " + status;
+
+        responseHeaderKeys.clear();
+        responseHeaderValues.clear();
+        Map<String, List<String>> map = new TreeMap<>(PooledURLConnection.FIELD_NAME_COMPARATOR);
+        map.put(null, Collections.singletonList(statusLine));
+        for (int i = 0; i < headers.size(); i += 2) {
+            String name = headers.get(i);
+            if (name.startsWith(":")) {
+                continue;
+            }
+            responseHeaderKeys.add(name);
+            responseHeaderValues.add(headers.get(i + 1));
+            List<String> values = map.get(name);
+            if (values == null) {
+                values = new ArrayList<>();
+                map.put(name, values);
+            }
+            values.add(headers.get(i + 1));
+        }
+        responseHeaders = Collections.unmodifiableMap(map);
+    }
+
+    private URL getRedirectLocation() throws IOException {
+        if (!getInstanceFollowRedirects()) {
+            return null;
+        }
+        switch (responseCode) {
+            case HTTP_MULT_CHOICE:
+            case HTTP_MOVED_PERM:
+            case HTTP_MOVED_TEMP:
+            case HTTP_SEE_OTHER:
+            case 307:
+            case 308:
+                break;
+            default:
+                return null;
+        }
+        String location = getHeaderField("Location");
+        if (location == null) {
+            return null;
+        }
+        URL next = new URL(url, location);
+        if (!next.getProtocol().equalsIgnoreCase(url.getProtocol())) {
+            return null; // Just like HttpURLConnection, don't follow redirects across protocols
+        }
+
+        boolean bodyless = "GET".equals(method) || "HEAD".equals(method);
+        if (responseCode == 307 || responseCode == 308) {
+            if (!bodyless) {
+                return null; // The body has already been streamed and can't be sent again
+            }
+        } else if (!bodyless) {
+            method = "GET";
+            bodyStarted = false;
+            fixedLength = -1;
+        }
+        return next;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!doInput) {
+            throw new ProtocolException("Cannot read response: doInput is false");
+        }
+        getResponse();
+        if (fallback != null) {
+            return fallback.getInputStream();
+        }
+        if (responseCode >= HTTP_BAD_REQUEST) {
+            throw new FileNotFoundException(url.toString());
+        }
+        return stream.getInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        if (fallback != null) {
+            return fallback.getErrorStream();
+        }
+        return responseHeaders != null && responseCode >= HTTP_BAD_REQUEST ? stream.getInputStream() : null;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        getResponse();
+        return fallback != null ? fallback.getResponseCode() : responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        getResponse();
+        return fallback != null ? fallback.getResponseMessage() : responseMessage;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        try {
+            getResponse();
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+        return fallback != null ? fallback.getHeaderFields() : responseHeaders;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        Map<String, List<String>> headers = getHeaderFields();
+        List<String> values = headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(values.size() - 1) : null;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        getHeaderFields();
+        if (fallback != null) {
+            return fallback.getHeaderField(n);
+        }
+        if (n == 0) {
+            return statusLine;
+        }
+        return n > 0 && n <= responseHeaderValues.size() ? responseHeaderValues.get(n - 1) : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        getHeaderFields();
+        if (fallback != null) {
+            return fallback.getHeaderFieldKey(n);
+        }
+        return n > 0 && n <= responseHeaderKeys.size() ? responseHeaderKeys.get(n - 1) : null;
+    }
+
+    // TLS
+    // *********************************************************************************************
+
+    private SSLSession getSession() {
+        if (session == null) {
+            throw new IllegalStateException("No TLS session available");
+        }
+        return session;
+    }
+
+    @Override
+    public String getCipherSuite() {
+        return fallback != null ? fallback.getCipherSuite() : getSession().getCipherSuite();
+    }
+
+    @Override
+    public Certificate[] getLocalCertificates() {
+        return fallback != null ? fallback.getLocalCertificates() : getSession().getLocalCertificates();
+    }
+
+    @Override
+    public Certificate[] getServerCertificates() throws SSLPeerUnverifiedException {
+        return fallback != null ? fallback.getServerCertificates() : getSession().getPeerCertificates();
+    }
+}
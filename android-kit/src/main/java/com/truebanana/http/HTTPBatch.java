@@ -0,0 +1,325 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs a group of {@link HTTPRequest}s with bounded parallelism and delivers one {@link HTTPBatchResult} holding the response or error of each request.<br />
+ * <br />
+ * The results are collected on the background threads running the requests, so only the final {@link HTTPBatchListener#onBatchCompleted(HTTPBatchResult)} is posted to the thread which created the batch, or run on the callback {@link Executor} if one is set.
+ * The {@link HTTPResponseListener}s of the requests are still called as usual, leave them unset if only the aggregated result is needed.<br />
+ * <br />
+ * In fail-fast mode, the first request which fails or gets a 4xx or 5xx response cancels the rest of the batch. Otherwise all requests run to completion.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPBatch.create(profileRequest, feedRequest, notificationsRequest)
+ *         .setMaxParallelism(4)
+ *         .setBatchListener(new HTTPBatchListener() {
+ *             public void onBatchCompleted(HTTPBatchResult result) {
+ *                 // ...
+ *             }
+ *         })
+ *         .executeAsync();
+ * }
+ * </pre>
+ */
+public class HTTPBatch {
+    private final List<HTTPRequest> requests = new ArrayList<>();
+    private int maxParallelism = 4;
+    private boolean failFast;
+    private HTTPBatchListener batchListener;
+    private Executor callbackExecutor = HTTPRequest.defaultCallbackExecutor;
+
+    private HTTPResponse[] responses;
+    private HTTPRequestError[] errors;
+    private boolean[] finished;
+    private int nextIndex;
+    private int remainingCount;
+    private boolean failed;
+    private boolean executing;
+
+    Handler handler = HTTPRequest.createHandler();
+
+    private HTTPBatch() {
+    }
+
+    /**
+     * Creates an {@link HTTPBatch} of the specified requests.
+     *
+     * @param requests The {@link HTTPRequest}s, which must not be executed separately.
+     * @return An {@link HTTPBatch}
+     */
+    public static HTTPBatch create(HTTPRequest... requests) {
+        return create(Arrays.asList(requests));
+    }
+
+    /**
+     * Creates an {@link HTTPBatch} of the specified requests.
+     *
+     * @param requests The {@link HTTPRequest}s, which must not be executed separately.
+     * @return An {@link HTTPBatch}
+     */
+    public static HTTPBatch create(Collection<HTTPRequest> requests) {
+        HTTPBatch batch = new HTTPBatch();
+        for (HTTPRequest request : requests) {
+            batch.add(request);
+        }
+        return batch;
+    }
+
+    /**
+     * Adds a request to this {@link HTTPBatch}.
+     *
+     * @param request The {@link HTTPRequest}, which must not be executed separately.
+     * @return This {@link HTTPBatch} for chaining and convenience.
+     */
+    public synchronized HTTPBatch add(HTTPRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("Request must not be null.");
+        }
+        if (executing) {
+            throw new IllegalStateException("Batch is already executing.");
+        }
+        requests.add(request);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of requests of this {@link HTTPBatch} running at the same time. The limits of the {@link HTTPDispatcher} still apply. The default is 4.
+     *
+     * @param maxParallelism The maximum number of running requests.
+     * @return This {@link HTTPBatch} for chaining and convenience.
+     */
+    public synchronized HTTPBatch setMaxParallelism(int maxParallelism) {
+        if (maxParallelism < 1) {
+            throw new IllegalArgumentException("maxParallelism < 1");
+        }
+        this.maxParallelism = maxParallelism;
+        return this;
+    }
+
+    /**
+     * Enables or disables fail-fast mode. When enabled, the first request which fails or gets a 4xx or 5xx response cancels the requests which are still queued or running. The default is <strong>false</strong>.
+     *
+     * @param failFast <strong>true</strong> to stop at the first failure or <strong>false</strong> to run all requests.
+     * @return This {@link HTTPBatch} for chaining and convenience.
+     */
+    public synchronized HTTPBatch setFailFast(boolean failFast) {
+        this.failFast = failFast;
+        return this;
+    }
+
+    /**
+     * Sets the {@link HTTPBatchListener} which receives the aggregated result.
+     *
+     * @param listener The {@link HTTPBatchListener}.
+     * @return This {@link HTTPBatch} for chaining and convenience.
+     */
+    public synchronized HTTPBatch setBatchListener(HTTPBatchListener listener) {
+        this.batchListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the {@link Executor} which runs the {@link HTTPBatchListener} callback of this {@link HTTPBatch}. The default is set using {@link HTTPRequest#setDefaultCallbackExecutor(Executor)}.
+     *
+     * @param executor The {@link Executor} or <strong>null</strong> to post the callback to the thread which created the batch, or to the main thread if it has no {@link android.os.Looper}.
+     * @return This {@link HTTPBatch} for chaining and convenience.
+     */
+    public synchronized HTTPBatch setCallbackExecutor(Executor executor) {
+        this.callbackExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Returns the requests of this {@link HTTPBatch}.
+     *
+     * @return A snapshot of the {@link HTTPRequest}s in the order they were added.
+     */
+    public synchronized List<HTTPRequest> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * Executes the requests of this {@link HTTPBatch} asynchronously, starting them in the order they were added.
+     *
+     * @return This {@link HTTPBatch}
+     */
+    public HTTPBatch executeAsync() {
+        List<HTTPRequest> requestsToStart = new ArrayList<>();
+        boolean empty;
+        synchronized (this) {
+            if (executing) {
+                throw new IllegalStateException("Batch is already executing.");
+            }
+            executing = true;
+            int count = requests.size();
+            responses = new HTTPResponse[count];
+            errors = new HTTPRequestError[count];
+            finished = new boolean[count];
+            nextIndex = 0;
+            remainingCount = count;
+            failed = false;
+            empty = count == 0;
+            takeRequestsToStart(requestsToStart);
+        }
+        for (HTTPRequest request : requestsToStart) {
+            request.executeAsync();
+        }
+        if (empty) {
+            deliverResult();
+        }
+        return this;
+    }
+
+    /**
+     * Cancels the requests of this {@link HTTPBatch} which have not finished. The batch still completes, with {@link HTTPRequestError#CANCELLED} for the cancelled requests.
+     */
+    public void cancel() {
+        List<HTTPRequest> requestsToCancel = new ArrayList<>();
+        boolean done;
+        synchronized (this) {
+            if (!executing) {
+                return;
+            }
+            failed = true;
+            done = skipRemaining(requestsToCancel);
+        }
+        for (HTTPRequest request : requestsToCancel) {
+            request.cancel();
+        }
+        if (done) {
+            deliverResult();
+        }
+    }
+
+    /**
+     * Called on the thread which finished a request of this batch, before its own listener is notified.
+     */
+    void onRequestFinished(HTTPRequest request, HTTPResponse response, HTTPRequestError error) {
+        List<HTTPRequest> requestsToStart = new ArrayList<>();
+        List<HTTPRequest> requestsToCancel = new ArrayList<>();
+        boolean done;
+        synchronized (this) {
+            int index = request.batchIndex;
+            if (request.batch != this || finished[index]) {
+                return;
+            }
+            request.batch = null;
+            finished[index] = true;
+            responses[index] = response;
+            errors[index] = error;
+            remainingCount--;
+
+            if (failFast && !failed && !isSuccess(response, error)) {
+                failed = true;
+                skipRemaining(requestsToCancel);
+            } else if (!failed) {
+                takeRequestsToStart(requestsToStart);
+            }
+            done = remainingCount == 0;
+        }
+        for (HTTPRequest cancelledRequest : requestsToCancel) {
+            cancelledRequest.cancel();
+        }
+        for (HTTPRequest nextRequest : requestsToStart) {
+            nextRequest.executeAsync();
+        }
+        if (done) {
+            deliverResult();
+        }
+    }
+
+    /**
+     * Marks the requests which have not been started as cancelled.
+     *
+     * @param requestsToCancel Receives the requests which are running and must be cancelled.
+     * @return <strong>true</strong> if no request is left running.
+     */
+    private boolean skipRemaining(List<HTTPRequest> requestsToCancel) {
+        for (int i = 0; i < nextIndex; i++) {
+            if (!finished[i]) {
+                requestsToCancel.add(requests.get(i));
+            }
+        }
+        for (; nextIndex < requests.size(); nextIndex++) {
+            finished[nextIndex] = true;
+            errors[nextIndex] = HTTPRequestError.CANCELLED;
+            remainingCount--;
+        }
+        return remainingCount == 0;
+    }
+
+    private void takeRequestsToStart(List<HTTPRequest> requestsToStart) {
+        int running = nextIndex - (requests.size() - remainingCount);
+        while (nextIndex < requests.size() && running < maxParallelism) {
+            HTTPRequest request = requests.get(nextIndex);
+            request.batch = this;
+            request.batchIndex = nextIndex;
+            requestsToStart.add(request);
+            nextIndex++;
+            running++;
+        }
+    }
+
+    private void deliverResult() {
+        final HTTPBatchResult result;
+        final HTTPBatchListener listener;
+        Executor executor;
+        synchronized (this) {
+            result = new HTTPBatchResult(requests, responses, errors);
+            listener = batchListener;
+            executor = callbackExecutor;
+            executing = false;
+        }
+        if (listener == null) {
+            return;
+        }
+        Runnable callback = new Runnable() {
+            @Override
+            public void run() {
+                listener.onBatchCompleted(result);
+            }
+        };
+        if (executor != null) {
+            executor.execute(callback);
+        } else {
+            handler.post(callback);
+        }
+    }
+
+    static boolean isSuccess(HTTPResponse response, HTTPRequestError error) {
+        return error == null && response != null && response.getStatusCode() >= 200 && response.getStatusCode() < 400;
+    }
+}
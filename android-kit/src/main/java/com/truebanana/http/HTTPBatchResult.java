@@ -0,0 +1,122 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of every request of an {@link HTTPBatch}, in the order the requests were added. Each request has either an {@link HTTPResponse} or an {@link HTTPRequestError}.
+ */
+public class HTTPBatchResult {
+    private final List<HTTPRequest> requests;
+    private final HTTPResponse[] responses;
+    private final HTTPRequestError[] errors;
+
+    HTTPBatchResult(List<HTTPRequest> requests, HTTPResponse[] responses, HTTPRequestError[] errors) {
+        this.requests = Collections.unmodifiableList(new ArrayList<>(requests));
+        this.responses = responses;
+        this.errors = errors;
+    }
+
+    /**
+     * Returns the number of requests in the batch.
+     *
+     * @return The request count.
+     */
+    public int getCount() {
+        return requests.size();
+    }
+
+    /**
+     * Returns the request at the specified position.
+     *
+     * @param index The position of the request in the batch.
+     * @return The {@link HTTPRequest}.
+     */
+    public HTTPRequest getRequest(int index) {
+        return requests.get(index);
+    }
+
+    /**
+     * Returns the response of the request at the specified position.
+     *
+     * @param index The position of the request in the batch.
+     * @return The {@link HTTPResponse} or <strong>null</strong> if the request failed.
+     */
+    public HTTPResponse getResponse(int index) {
+        return responses[index];
+    }
+
+    /**
+     * Returns the error of the request at the specified position.
+     *
+     * @param index The position of the request in the batch.
+     * @return The {@link HTTPRequestError} or <strong>null</strong> if the request got a response. Requests which were not started because the batch failed fast have {@link HTTPRequestError#CANCELLED}.
+     */
+    public HTTPRequestError getError(int index) {
+        return errors[index];
+    }
+
+    /**
+     * Checks if the request at the specified position got a response with a 2xx or 3xx status code.
+     *
+     * @param index The position of the request in the batch.
+     * @return <strong>true</strong> if the request succeeded or <strong>false</strong> otherwise.
+     */
+    public boolean isSuccess(int index) {
+        return HTTPBatch.isSuccess(responses[index], errors[index]);
+    }
+
+    /**
+     * Checks if every request of the batch succeeded, see {@link HTTPBatchResult#isSuccess(int)}.
+     *
+     * @return <strong>true</strong> if all requests succeeded or <strong>false</strong> otherwise.
+     */
+    public boolean isSuccessful() {
+        for (int i = 0; i < responses.length; i++) {
+            if (!isSuccess(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of requests which succeeded, see {@link HTTPBatchResult#isSuccess(int)}.
+     *
+     * @return The success count.
+     */
+    public int getSuccessCount() {
+        int count = 0;
+        for (int i = 0; i < responses.length; i++) {
+            if (isSuccess(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import com.truebanana.cache.AbstractDiskLruCache;
+import com.truebanana.cache.DiskLruCache;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * A private HTTP cache (RFC 7234) for {@link HTTPRequest}s. Responses are kept in a small in-memory {@link LruCache} in front of a {@link AbstractDiskLruCache}.<br />
+ * <br />
+ * Fresh responses are returned without touching the network. Stale responses with an ETag or a Last-Modified header are revalidated with a conditional request, so an unchanged response costs a 304 instead of a full download.
+ * Only GET requests whose response is read into memory are cached, not streamed responses or downloads to a file. See {@link HTTPCacheMode} for the other ways a request can use the cache.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPRequest.setDefaultHTTPCache(new HTTPCache(context));
+ * }
+ * </pre>
+ */
+public class HTTPCache {
+    private final LruCache<String, CachedResponse> memoryCache;
+    private final DiskCache diskCache;
+
+    private int requestCount;
+    private int hitCount;
+    private int conditionalHitCount;
+    private int networkCount;
+
+    /**
+     * Creates an {@link HTTPCache} in the application cache directory with 10MB of disk space and 1MB of memory.
+     *
+     * @param context The {@link Context}.
+     */
+    public HTTPCache(Context context) {
+        this(new File(context.getCacheDir(), "http"), 10 * 1024 * 1024, 1024 * 1024);
+    }
+
+    /**
+     * Creates an {@link HTTPCache}.
+     *
+     * @param directory     The directory to store the responses in. It should not be used for anything else.
+     * @param maxDiskSize   The maximum size of the responses on disk, in bytes.
+     * @param maxMemorySize The maximum size of the responses kept in memory, in bytes, or 0 to only use the disk.
+     */
+    public HTTPCache(File directory, long maxDiskSize, int maxMemorySize) {
+        this.diskCache = new DiskCache(directory, maxDiskSize);
+        this.memoryCache = maxMemorySize > 0 ? new LruCache<String, CachedResponse>(maxMemorySize) {
+            @Override
+            protected int sizeOf(String key, CachedResponse value) {
+                return value.getSize();
+            }
+        } : null;
+    }
+
+    /**
+     * Returns the cached response for the URL if it matches the request headers.
+     */
+    CachedResponse get(String url, Map<String, String> requestHeaders) {
+        CachedResponse response = memoryCache != null ? memoryCache.get(url) : null;
+        if (response == null) {
+            response = diskCache.get(url);
+            if (response != null && memoryCache != null) {
+                memoryCache.put(url, response);
+            }
+        }
+        return response != null && response.matches(requestHeaders) ? response : null;
+    }
+
+    void put(String url, CachedResponse response) {
+        if (memoryCache != null) {
+            memoryCache.put(url, response);
+        }
+        diskCache.put(url, response);
+    }
+
+    void remove(String url) {
+        if (memoryCache != null) {
+            memoryCache.remove(url);
+        }
+        diskCache.remove(url);
+    }
+
+    synchronized void trackResponse(boolean network, boolean conditionalHit) {
+        requestCount++;
+        if (conditionalHit) {
+            conditionalHitCount++;
+        }
+        if (network) {
+            networkCount++;
+        } else {
+            hitCount++;
+        }
+    }
+
+    /**
+     * Removes all responses from the cache.
+     */
+    public void clear() {
+        if (memoryCache != null) {
+            memoryCache.evictAll();
+        }
+        diskCache.clear();
+    }
+
+    /**
+     * Returns the size of the responses stored on disk.
+     *
+     * @return The size in bytes.
+     */
+    public long getSize() {
+        return diskCache.getSize();
+    }
+
+    /**
+     * Returns the number of requests which used this cache.
+     *
+     * @return The request count.
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns the number of requests served from this cache without a network response.
+     *
+     * @return The hit count.
+     */
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of requests which got a network response, including 304 Not Modified responses.
+     *
+     * @return The network count.
+     */
+    public synchronized int getNetworkCount() {
+        return networkCount;
+    }
+
+    /**
+     * Returns the number of requests whose cached response was revalidated with a 304 Not Modified response.
+     *
+     * @return The conditional hit count.
+     */
+    public synchronized int getConditionalHitCount() {
+        return conditionalHitCount;
+    }
+
+    private static class DiskCache extends AbstractDiskLruCache<CachedResponse> {
+        DiskCache(File directory, long maxSize) {
+            super(directory, maxSize);
+        }
+
+        @Override
+        public CachedResponse get(String key) {
+            InputStream is = getInputStream(key);
+            if (is == null) {
+                return null;
+            }
+            try {
+                return CachedResponse.readFrom(new BufferedInputStream(is));
+            } catch (IOException e) {
+                e.printStackTrace();
+                remove(key);
+                return null;
+            } finally {
+                DiskLruCache.closeQuietly(is);
+            }
+        }
+
+        @Override
+        public void put(String key, final CachedResponse item) {
+            putData(key, new DataWriter() {
+                @Override
+                public void write(OutputStream os) throws IOException {
+                    item.writeTo(os);
+                }
+            });
+        }
+    }
+}
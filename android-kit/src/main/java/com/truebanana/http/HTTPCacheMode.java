@@ -0,0 +1,53 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+/**
+ * How an {@link HTTPRequest} uses its {@link HTTPCache}.
+ *
+ * @see HTTPRequest#setCacheMode(HTTPCacheMode)
+ */
+public enum HTTPCacheMode {
+    /**
+     * Follows the caching headers of the response and the request: fresh responses are served from the cache and stale ones are revalidated with the server.
+     * A stale response is also served right away while it is revalidated in the background if the server allows it using the stale-while-revalidate directive.
+     */
+    DEFAULT,
+
+    /**
+     * Serves any cached response right away, even a stale one, then revalidates it in the background if it is stale so the next request gets the update. Falls back to the network if nothing is cached.
+     */
+    STALE_WHILE_REVALIDATE,
+
+    /**
+     * Always gets the response from the network but still stores it in the cache.
+     */
+    NETWORK_ONLY,
+
+    /**
+     * Never uses the network. Serves any cached response, even a stale one, or a 504 response if nothing is cached.
+     */
+    OFFLINE
+}
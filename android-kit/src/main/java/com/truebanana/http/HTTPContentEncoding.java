@@ -0,0 +1,148 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The content codings supported by {@link HTTPRequest} for compressing request bodies and decompressing responses.
+ *
+ * @see HTTPRequest#setRequestCompression(HTTPContentEncoding)
+ * @see HTTPRequest#setResponseDecompressionEnabled(boolean)
+ */
+public enum HTTPContentEncoding {
+    /**
+     * No compression.
+     */
+    IDENTITY,
+
+    /**
+     * The gzip format (RFC 1952). Supported by virtually all servers.
+     */
+    GZIP,
+
+    /**
+     * The zlib format (RFC 1950), called "deflate" in HTTP.
+     */
+    DEFLATE;
+
+    /**
+     * Returns the value of this encoding for the Content-Encoding and Accept-Encoding headers.
+     *
+     * @return The header value.
+     */
+    public String getHeaderValue() {
+        return name().toLowerCase();
+    }
+
+    /**
+     * Wraps the stream so everything written to it is compressed. The returned stream must be closed to write the end of the compressed data.
+     */
+    OutputStream encode(OutputStream outputStream) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(outputStream, 8192);
+            case DEFLATE:
+                return new DeflaterOutputStream(outputStream);
+            default:
+                return outputStream;
+        }
+    }
+
+    /**
+     * Wraps the stream so it is decompressed as it is read, based on the Content-Encoding of the response. Unknown encodings are left as they are.
+     */
+    static InputStream decode(InputStream inputStream, String contentEncoding) throws IOException {
+        if (inputStream == null || contentEncoding == null) {
+            return inputStream;
+        }
+        String encoding = contentEncoding.trim();
+        boolean gzip = encoding.equalsIgnoreCase("gzip") || encoding.equalsIgnoreCase("x-gzip");
+        if (!gzip && !encoding.equalsIgnoreCase("deflate")) {
+            return inputStream;
+        }
+
+        // Peek at the first bytes, responses without a body such as HEAD or 304 still carry the header
+        PushbackInputStream in = new PushbackInputStream(inputStream, 2);
+        int first = in.read();
+        if (first == -1) {
+            return in;
+        }
+        int second = in.read();
+        if (second != -1) {
+            in.unread(second);
+        }
+        in.unread(first);
+
+        if (gzip) {
+            return new GZIPInputStream(in, 8192);
+        }
+        // Some servers send raw deflate data without the zlib header
+        boolean zlib = second != -1 && (first & 0x0f) == 8 && ((first << 8) | second) % 31 == 0;
+        final Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(in, inflater, 8192) {
+            private boolean ended;
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                if (ended) {
+                    return -1;
+                }
+                int read = super.read(buffer, offset, count);
+                if (read == -1) {
+                    end(); // Buffered responses are read to the end but not always closed
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    end();
+                }
+            }
+
+            /**
+             * Frees the native memory of the inflater, which InflaterInputStream doesn't do for an inflater it didn't create.
+             */
+            private void end() {
+                if (!ended) {
+                    ended = true;
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,688 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the execution of {@link HTTPRequest}s. Requests run concurrently up to a global limit and a limit per host. When a slot frees up, the oldest queued request of the highest {@link HTTPRequestPriority} whose host is under its limit is started next,
+ * so a busy host never holds back requests to other hosts and background traffic never delays requests the user is waiting on.<br />
+ * <br />
+ * Identical GET and HEAD requests are coalesced: while one is queued or running, the others wait for its response instead of making their own, see {@link HTTPRequest#setCoalescingEnabled(boolean)}.<br />
+ * <br />
+ * The limits can follow the network the device is on, see {@link HTTPDispatcher#setNetworkPolicy(NetworkPolicy)}.<br />
+ * <br />
+ * All requests executed using {@link HTTPRequest#executeAsync()} go through the default dispatcher, see {@link HTTPRequest#setDefaultDispatcher(HTTPDispatcher)}.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPRequest.setDefaultDispatcher(new HTTPDispatcher(16, 4));
+ * }
+ * </pre>
+ */
+public class HTTPDispatcher {
+    private int maxRequests;
+    private int maxRequestsPerHost;
+    private final Executor executor;
+    private NetworkPolicy networkPolicy;
+
+    private final Map<HTTPRequestPriority, Deque<Call>> readyCalls = new EnumMap<>(HTTPRequestPriority.class);
+    private final List<Call> runningCalls = new ArrayList<>();
+    private final Map<String, Integer> runningCallsPerHost = new HashMap<>();
+
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    private final Map<HTTPRequest, ScheduledFuture<?>> pendingRetries = new HashMap<>();
+    private final List<HTTPRequest> runningSyncRequests = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+
+    private long coalescedCount;
+    private long dispatchedCount;
+    private long totalWaitTime;
+    private long maxWaitTime;
+
+    /**
+     * Creates an {@link HTTPDispatcher} which runs up to 64 requests at a time and up to 5 requests to the same host.
+     */
+    public HTTPDispatcher() {
+        this(64, 5);
+    }
+
+    /**
+     * Creates an {@link HTTPDispatcher} which runs requests on its own threads. Idle threads are stopped after a minute.
+     *
+     * @param maxRequests        The maximum number of requests running at the same time.
+     * @param maxRequestsPerHost The maximum number of requests to the same host running at the same time.
+     */
+    public HTTPDispatcher(int maxRequests, int maxRequestsPerHost) {
+        this(maxRequests, maxRequestsPerHost, new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new DispatcherThreadFactory("HTTPDispatcher")));
+    }
+
+    /**
+     * Creates an {@link HTTPDispatcher} which runs requests on the specified {@link Executor}. The executor must be able to run at least maxRequests tasks at the same time.
+     *
+     * @param maxRequests        The maximum number of requests running at the same time.
+     * @param maxRequestsPerHost The maximum number of requests to the same host running at the same time.
+     * @param executor           The {@link Executor} to run the requests on.
+     */
+    public HTTPDispatcher(int maxRequests, int maxRequestsPerHost, Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null.");
+        }
+        for (HTTPRequestPriority priority : HTTPRequestPriority.values()) {
+            readyCalls.put(priority, new ArrayDeque<Call>());
+        }
+        this.executor = executor;
+        setMaxRequests(maxRequests);
+        setMaxRequestsPerHost(maxRequestsPerHost);
+    }
+
+    /**
+     * Sets the maximum number of requests running at the same time. Queued requests are started right away if the limit is raised.
+     *
+     * @param maxRequests The maximum number of running requests.
+     */
+    public void setMaxRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests < 1");
+        }
+        synchronized (this) {
+            this.maxRequests = maxRequests;
+        }
+        promoteCalls();
+    }
+
+    /**
+     * Returns the maximum number of requests running at the same time.
+     *
+     * @return The maximum number of running requests.
+     */
+    public synchronized int getMaxRequests() {
+        return maxRequests;
+    }
+
+    /**
+     * Sets the maximum number of requests to the same host running at the same time. Queued requests are started right away if the limit is raised.
+     *
+     * @param maxRequestsPerHost The maximum number of running requests per host.
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost < 1");
+        }
+        synchronized (this) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+        }
+        promoteCalls();
+    }
+
+    /**
+     * Returns the maximum number of requests to the same host running at the same time.
+     *
+     * @return The maximum number of running requests per host.
+     */
+    public synchronized int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    /**
+     * Sets the {@link NetworkPolicy} which adapts the limits of this dispatcher to the network. When the network is slow, the policy may lower the maximum number of running requests and hold back {@link HTTPRequestPriority#LOW} requests.
+     *
+     * @param networkPolicy The {@link NetworkPolicy}, or <strong>null</strong> to ignore the network, which is the default.
+     */
+    public void setNetworkPolicy(NetworkPolicy networkPolicy) {
+        synchronized (this) {
+            if (this.networkPolicy != null) {
+                this.networkPolicy.removeDispatcher(this);
+            }
+            this.networkPolicy = networkPolicy;
+            if (networkPolicy != null) {
+                networkPolicy.addDispatcher(this);
+            }
+        }
+        promoteCalls();
+    }
+
+    /**
+     * Returns the {@link NetworkPolicy} which adapts the limits of this dispatcher to the network.
+     *
+     * @return The {@link NetworkPolicy}, or <strong>null</strong> if there is none.
+     */
+    public synchronized NetworkPolicy getNetworkPolicy() {
+        return networkPolicy;
+    }
+
+    /**
+     * Starts the queued requests which the {@link NetworkPolicy} allows after the network has changed.
+     */
+    void onNetworkPolicyChanged() {
+        promoteCalls();
+    }
+
+    /**
+     * Queues a request and starts it right away if there is a free slot.
+     *
+     * @param request The request.
+     * @param first   <strong>true</strong> to put the request ahead of other queued requests with the same priority.
+     */
+    void enqueue(HTTPRequest request, boolean first) {
+        if (enqueue(request, first, request.getCoalescingKey(), false)) {
+            request.onPreExecute(); // The leader of the flight may have started already
+        }
+    }
+
+    /**
+     * Queues a request or adds it to the in-flight identical request.
+     *
+     * @param requeued <strong>true</strong> if the request already joined another request which has been cancelled.
+     * @return <strong>true</strong> if the request joined another request.
+     */
+    private boolean enqueue(HTTPRequest request, boolean first, String coalescingKey, boolean requeued) {
+        synchronized (this) {
+            Flight flight = coalescingKey != null ? flights.get(coalescingKey) : null;
+            if (flight != null) {
+                flight.followers.add(request);
+                if (!requeued) {
+                    coalescedCount++;
+                }
+                raisePriority(flight.leader, request.getPriority());
+                return true;
+            }
+            if (coalescingKey != null) {
+                flights.put(coalescingKey, new Flight(request));
+                request.flightKey = coalescingKey;
+            }
+
+            Call call = new Call(request);
+            Deque<Call> calls = readyCalls.get(call.priority);
+            if (first) {
+                calls.addFirst(call);
+            } else {
+                calls.addLast(call);
+            }
+        }
+        promoteCalls();
+        return false;
+    }
+
+    /**
+     * Queues a request again after a delay, without taking up a slot while waiting. The request keeps leading its flight so identical requests keep waiting for it.
+     *
+     * @param delay The delay in milliseconds.
+     */
+    synchronized void retry(final HTTPRequest request, long delay) {
+        pendingRetries.put(request, schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (HTTPDispatcher.this) {
+                    if (pendingRetries.remove(request) == null) {
+                        return; // Cancelled while waiting
+                    }
+                    Call call = new Call(request);
+                    readyCalls.get(call.priority).addLast(call);
+                }
+                promoteCalls();
+            }
+        }, delay));
+    }
+
+    /**
+     * Runs a task on the timer thread of this dispatcher after a delay, used for retries and deadlines.
+     *
+     * @param delay The delay in milliseconds.
+     */
+    synchronized ScheduledFuture<?> schedule(Runnable task, long delay) {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, new DispatcherThreadFactory("HTTPDispatcher Timer"));
+        }
+        return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tracks a request running on the caller's thread using {@link HTTPRequest#execute()} so it can be cancelled with the others.
+     */
+    synchronized void executed(HTTPRequest request) {
+        runningSyncRequests.add(request);
+    }
+
+    synchronized void finishedSync(HTTPRequest request) {
+        runningSyncRequests.remove(request);
+    }
+
+    /**
+     * Moves a queued request to a higher priority, keeping its place in line by the time it was queued.
+     */
+    private void raisePriority(HTTPRequest request, HTTPRequestPriority priority) {
+        for (Deque<Call> calls : readyCalls.values()) {
+            for (Call call : calls) {
+                if (call.request == request) {
+                    if (priority.ordinal() < call.priority.ordinal()) {
+                        calls.remove(call);
+                        call.priority = priority;
+                        insertByQueueTime(readyCalls.get(priority), call);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void insertByQueueTime(Deque<Call> calls, Call call) {
+        List<Call> later = new ArrayList<>();
+        while (!calls.isEmpty() && calls.peekLast().enqueuedAt > call.enqueuedAt) {
+            later.add(0, calls.removeLast());
+        }
+        calls.addLast(call);
+        calls.addAll(later);
+    }
+
+    /**
+     * Ends the flight led by the request so no more requests can join it.
+     *
+     * @return The requests which joined the flight and are waiting for its result.
+     */
+    synchronized List<HTTPRequest> endFlight(HTTPRequest leader) {
+        String key = leader.flightKey;
+        Flight flight = key != null ? flights.get(key) : null;
+        if (flight == null || flight.leader != leader) {
+            return Collections.emptyList();
+        }
+        flights.remove(key);
+        leader.flightKey = null;
+        return flight.followers;
+    }
+
+    /**
+     * Removes a request from the queue without notifying its listener.
+     *
+     * @return <strong>true</strong> if the request was queued.
+     */
+    boolean remove(HTTPRequest request) {
+        boolean removed = false;
+        List<HTTPRequest> orphans;
+        synchronized (this) {
+            for (Deque<Call> calls : readyCalls.values()) {
+                Iterator<Call> iterator = calls.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().request == request) {
+                        iterator.remove();
+                        removed = true;
+                    }
+                }
+            }
+            for (Flight flight : flights.values()) {
+                removed |= flight.followers.remove(request);
+            }
+            ScheduledFuture<?> retry = pendingRetries.remove(request);
+            if (retry != null) {
+                retry.cancel(false);
+                removed = true;
+            }
+            orphans = endFlight(request);
+        }
+
+        requeueFollowers(orphans);
+        return removed;
+    }
+
+    /**
+     * Queues the requests which joined a request that was cancelled, since they still want a response. The first of them leads a new flight which the others join.
+     *
+     * @param followers The requests returned by {@link HTTPDispatcher#endFlight(HTTPRequest)}.
+     */
+    void requeueFollowers(List<HTTPRequest> followers) {
+        for (HTTPRequest follower : followers) {
+            enqueue(follower, false, follower.getCoalescingKey(), true);
+        }
+    }
+
+    /**
+     * Removes all requests from the queue without notifying their listeners. Running requests are not affected.
+     */
+    public synchronized void clearQueue() {
+        for (Deque<Call> calls : readyCalls.values()) {
+            calls.clear();
+        }
+        for (ScheduledFuture<?> retry : pendingRetries.values()) {
+            retry.cancel(false);
+        }
+        pendingRetries.clear();
+    }
+
+    /**
+     * Cancels all queued and running requests, including those waiting for a retry and those running using {@link HTTPRequest#execute()}. See {@link HTTPRequest#cancel()}.
+     */
+    public void cancelAll() {
+        for (HTTPRequest request : getAllRequests()) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Cancels the queued and running requests with the specified tag, see {@link HTTPRequest#setTag(Object)}.
+     *
+     * @param tag The tag to match using {@link Object#equals(Object)}.
+     */
+    public void cancelAll(Object tag) {
+        if (tag == null) {
+            throw new IllegalArgumentException("Tag must not be null.");
+        }
+        for (HTTPRequest request : getAllRequests()) {
+            if (tag.equals(request.getTag())) {
+                request.cancel();
+            }
+        }
+    }
+
+    private List<HTTPRequest> getAllRequests() {
+        List<HTTPRequest> requests = new ArrayList<>();
+        synchronized (this) {
+            for (Deque<Call> calls : readyCalls.values()) {
+                for (Call call : calls) {
+                    requests.add(call.request);
+                }
+            }
+            for (Call call : runningCalls) {
+                requests.add(call.request);
+            }
+            for (Flight flight : flights.values()) {
+                requests.addAll(flight.followers);
+            }
+            requests.addAll(pendingRetries.keySet());
+            requests.addAll(runningSyncRequests);
+        }
+        return requests;
+    }
+
+    /**
+     * Returns the queued requests in the order they will be started, assuming no host is at its limit.
+     *
+     * @return A snapshot of the queued {@link HTTPRequest}s.
+     */
+    public synchronized List<HTTPRequest> getQueuedRequests() {
+        List<HTTPRequest> requests = new ArrayList<>();
+        for (Deque<Call> calls : readyCalls.values()) {
+            for (Call call : calls) {
+                requests.add(call.request);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Returns the requests which are currently running.
+     *
+     * @return A snapshot of the running {@link HTTPRequest}s.
+     */
+    public synchronized List<HTTPRequest> getRunningRequests() {
+        List<HTTPRequest> requests = new ArrayList<>();
+        for (Call call : runningCalls) {
+            requests.add(call.request);
+        }
+        return requests;
+    }
+
+    /**
+     * Returns the number of requests waiting for a free slot.
+     *
+     * @return The queue depth.
+     */
+    public synchronized int getQueuedCount() {
+        int count = 0;
+        for (Deque<Call> calls : readyCalls.values()) {
+            count += calls.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of requests with the specified priority waiting for a free slot.
+     *
+     * @param priority The {@link HTTPRequestPriority}.
+     * @return The queue depth for the priority.
+     */
+    public synchronized int getQueuedCount(HTTPRequestPriority priority) {
+        return readyCalls.get(priority).size();
+    }
+
+    /**
+     * Returns the number of requests which are currently running.
+     *
+     * @return The number of running requests.
+     */
+    public synchronized int getRunningCount() {
+        return runningCalls.size();
+    }
+
+    /**
+     * Returns the number of requests which shared the response of an identical request which was already queued or running, instead of making their own.
+     *
+     * @return The number of coalesced requests.
+     */
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Returns the number of requests started since this dispatcher was created or its statistics were reset.
+     *
+     * @return The number of started requests.
+     */
+    public synchronized long getDispatchedCount() {
+        return dispatchedCount;
+    }
+
+    /**
+     * Returns the average time requests spent in the queue before they were started.
+     *
+     * @return The average wait time in milliseconds.
+     */
+    public synchronized long getAverageWaitTime() {
+        return dispatchedCount > 0 ? totalWaitTime / dispatchedCount : 0;
+    }
+
+    /**
+     * Returns the longest time a request spent in the queue before it was started.
+     *
+     * @return The maximum wait time in milliseconds.
+     */
+    public synchronized long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Resets the dispatched count, the coalesced count and the wait time statistics.
+     */
+    public synchronized void resetStats() {
+        coalescedCount = 0;
+        dispatchedCount = 0;
+        totalWaitTime = 0;
+        maxWaitTime = 0;
+    }
+
+    /**
+     * Moves as many eligible calls as the limits allow from the queue to the executor.
+     */
+    private void promoteCalls() {
+        List<Call> callsToStart = new ArrayList<>();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            int maxRequests = networkPolicy != null ? Math.min(this.maxRequests, networkPolicy.getMaxRequests()) : this.maxRequests;
+            for (Map.Entry<HTTPRequestPriority, Deque<Call>> entry : readyCalls.entrySet()) { // Highest priority first
+                if (networkPolicy != null && networkPolicy.isDeferred(entry.getKey())) {
+                    continue; // Wait for a better network
+                }
+                Iterator<Call> iterator = entry.getValue().iterator();
+                while (iterator.hasNext() && runningCalls.size() < maxRequests) {
+                    Call call = iterator.next();
+                    if (getRunningCallsForHost(call.host) >= maxRequestsPerHost) {
+                        continue; // Let requests to other hosts go ahead
+                    }
+                    iterator.remove();
+                    runningCalls.add(call);
+                    runningCallsPerHost.put(call.host, getRunningCallsForHost(call.host) + 1);
+
+                    long waitTime = now - call.enqueuedAt;
+                    dispatchedCount++;
+                    totalWaitTime += waitTime;
+                    maxWaitTime = Math.max(maxWaitTime, waitTime);
+                    callsToStart.add(call);
+                }
+            }
+        }
+
+        for (Call call : callsToStart) {
+            try {
+                executor.execute(call);
+            } catch (RejectedExecutionException e) {
+                e.printStackTrace();
+                finished(call);
+                call.request.onRequestError(HTTPRequestError.OTHER);
+            }
+        }
+    }
+
+    private void finished(Call call) {
+        List<HTTPRequest> stranded = Collections.emptyList();
+        synchronized (this) {
+            if (runningCalls.remove(call)) {
+                int count = getRunningCallsForHost(call.host) - 1;
+                if (count > 0) {
+                    runningCallsPerHost.put(call.host, count);
+                } else {
+                    runningCallsPerHost.remove(call.host);
+                }
+            }
+            // Normally the flight has already ended when the response was delivered, unless the request is being retried
+            if (!isPending(call.request)) {
+                stranded = endFlight(call.request);
+            }
+        }
+        for (HTTPRequest follower : stranded) {
+            follower.onRequestError(HTTPRequestError.OTHER);
+        }
+        promoteCalls();
+    }
+
+    /**
+     * Checks if the request is waiting for a retry, queued or running.
+     */
+    private boolean isPending(HTTPRequest request) {
+        if (pendingRetries.containsKey(request)) {
+            return true;
+        }
+        for (Call call : runningCalls) {
+            if (call.request == request) {
+                return true;
+            }
+        }
+        for (Deque<Call> calls : readyCalls.values()) {
+            for (Call call : calls) {
+                if (call.request == request) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int getRunningCallsForHost(String host) {
+        Integer count = runningCallsPerHost.get(host);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * A queued or running execution of an {@link HTTPRequest}.
+     */
+    private final class Call implements Runnable {
+        final HTTPRequest request;
+        final String host;
+        HTTPRequestPriority priority;
+        final long enqueuedAt;
+
+        Call(HTTPRequest request) {
+            this.request = request;
+            this.host = request.getHost();
+            this.priority = request.getPriority();
+            this.enqueuedAt = System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            try {
+                request.perform();
+            } finally {
+                finished(this);
+            }
+        }
+    }
+
+    /**
+     * A request in progress along with the identical requests waiting for its response.
+     */
+    private static final class Flight {
+        final HTTPRequest leader;
+        final List<HTTPRequest> followers = new ArrayList<>();
+
+        Flight(HTTPRequest leader) {
+            this.leader = leader;
+        }
+    }
+
+    private static class DispatcherThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        DispatcherThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + " #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolves host names to IP addresses for the {@link PooledHTTPEngine}. Implement this to use a custom resolver, such as DNS over HTTPS, or wrap another resolver in a {@link CachingDns}.
+ */
+public interface HTTPDns {
+    /**
+     * Resolves host names using {@link InetAddress#getAllByName(String)}.
+     */
+    HTTPDns SYSTEM = new HTTPDns() {
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            if (hostname == null) {
+                throw new UnknownHostException("hostname == null");
+            }
+            return Arrays.asList(InetAddress.getAllByName(hostname));
+        }
+    };
+
+    /**
+     * Returns the IP addresses of a host name in the order they should be tried. Called on the thread running the request.
+     *
+     * @param hostname The host name.
+     * @return The addresses, at least one.
+     * @throws UnknownHostException If the host name could not be resolved.
+     */
+    List<InetAddress> lookup(String hostname) throws UnknownHostException;
+}
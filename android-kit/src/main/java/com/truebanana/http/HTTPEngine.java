@@ -0,0 +1,53 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * The transport used by {@link HTTPRequest} to open connections to the remote host. Use {@link HTTPRequest#setHTTPEngine(HTTPEngine)} to set the engine for a single request or {@link HTTPRequest#setDefaultHTTPEngine(HTTPEngine)} to set it for all requests.
+ *
+ * @see URLConnectionEngine
+ * @see PooledHTTPEngine
+ */
+public interface HTTPEngine {
+    /**
+     * Opens a new, unconnected {@link HttpURLConnection} to the specified URL.
+     *
+     * @param url The URL to connect to.
+     * @return The {@link HttpURLConnection}.
+     * @throws IOException If the connection could not be created.
+     */
+    HttpURLConnection open(URL url) throws IOException;
+
+    /**
+     * Called when the {@link HTTPRequest} is done with the connection, whether or not the request succeeded.
+     *
+     * @param connection The {@link HttpURLConnection} previously returned by {@link HTTPEngine#open(URL)}.
+     */
+    void release(HttpURLConnection connection);
+}
@@ -0,0 +1,189 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * Abstract class for listening to the stages of each attempt of an {@link HTTPRequest}, so you only need to override the methods you need. Use it to measure where the time of a request goes or to count the bytes sent and received.<br />
+ * <br />
+ * All methods are called synchronously on the thread running the request, so they must return quickly and must not block. Take the time using {@link System#nanoTime()} when an event is received.<br />
+ * <br />
+ * An attempt starts with {@link HTTPEventListener#callStart(HTTPRequest)} and always ends with either {@link HTTPEventListener#callEnd(HTTPRequest, HTTPResponse)} or {@link HTTPEventListener#callFailed(HTTPRequest, HTTPRequestError)}.
+ * Responses served from the {@link HTTPCache} without contacting the server and mock responses don't start an attempt.<br />
+ * <br />
+ * The DNS, connect and TLS events are only reported by the engines which open their own connections, {@link PooledHTTPEngine} and {@link HTTP2Engine}, and only when a new connection is opened.
+ * The platform {@link java.net.HttpURLConnection} used by {@link URLConnectionEngine} doesn't expose them.
+ */
+public abstract class HTTPEventListener {
+    /**
+     * An {@link HTTPEventListener} which ignores all events.
+     */
+    public static final HTTPEventListener NONE = new HTTPEventListener() {
+    };
+
+    /**
+     * Called when an attempt starts, right before the connection is opened. Retries start a new attempt.
+     *
+     * @param request The {@link HTTPRequest}.
+     */
+    public void callStart(HTTPRequest request) {
+
+    }
+
+    /**
+     * Called before the host name is resolved.
+     *
+     * @param request The {@link HTTPRequest}.
+     * @param host    The host name.
+     */
+    public void dnsStart(HTTPRequest request, String host) {
+
+    }
+
+    /**
+     * Called after the host name has been resolved.
+     *
+     * @param request   The {@link HTTPRequest}.
+     * @param host      The host name.
+     * @param addresses The addresses of the host.
+     */
+    public void dnsEnd(HTTPRequest request, String host, List<InetAddress> addresses) {
+
+    }
+
+    /**
+     * Called before connecting to an address. When a host has several addresses, more than one connection may be attempted at the same time and the ones losing the race are not reported further.
+     *
+     * @param request The {@link HTTPRequest}.
+     * @param address The address being connected to.
+     */
+    public void connectStart(HTTPRequest request, InetSocketAddress address) {
+
+    }
+
+    /**
+     * Called after the TCP connection to an address has been established.
+     *
+     * @param request The {@link HTTPRequest}.
+     * @param address The address connected to.
+     */
+    public void connectEnd(HTTPRequest request, InetSocketAddress address) {
+
+    }
+
+    /**
+     * Called when connecting to an address has failed.
+     *
+     * @param request The {@link HTTPRequest}.
+     * @param address The address which could not be connected to.
+     * @param e       The cause of the failure.
+     */
+    public void connectFailed(HTTPRequest request, InetSocketAddress address, IOException e) {
+
+    }
+
+    /**
+     * Called before the TLS handshake of an HTTPS connection.
+     *
+     * @param request The {@link HTTPRequest}.
+     */
+    public void secureConnectStart(HTTPRequest request) {
+
+    }
+
+    /**
+     * Called after the TLS handshake of an HTTPS connection has completed.
+     *
+     * @param request The {@link HTTPRequest}.
+     * @param session The negotiated {@link SSLSession}.
+     */
+    public void secureConnectEnd(HTTPRequest request, SSLSession session) {
+
+    }
+
+    /**
+     * Called after the request headers have been written to the connection.
+     *
+     * @param request The {@link HTTPRequest}.
+     */
+    public void requestHeadersEnd(HTTPRequest request) {
+
+    }
+
+    /**
+     * Called after the request body has been written to the connection.
+     *
+     * @param request   The {@link HTTPRequest}.
+     * @param byteCount The size of the body as sent, after compression.
+     */
+    public void requestBodyEnd(HTTPRequest request, long byteCount) {
+
+    }
+
+    /**
+     * Called when the response headers have been received, which is when the first byte of the response has arrived.
+     *
+     * @param request The {@link HTTPRequest}.
+     */
+    public void responseHeadersEnd(HTTPRequest request) {
+
+    }
+
+    /**
+     * Called after the response body has been read, including by a {@link StreamingResponseListener} or into the download file.
+     *
+     * @param request   The {@link HTTPRequest}.
+     * @param byteCount The size of the body as received, before decompression.
+     */
+    public void responseBodyEnd(HTTPRequest request, long byteCount) {
+
+    }
+
+    /**
+     * Called when an attempt has received a whole response, whatever its status code.
+     *
+     * @param request  The {@link HTTPRequest}.
+     * @param response The response.
+     */
+    public void callEnd(HTTPRequest request, HTTPResponse response) {
+
+    }
+
+    /**
+     * Called when an attempt has failed without a response, or was cancelled.
+     *
+     * @param request The {@link HTTPRequest}.
+     * @param error   The cause of the failure.
+     */
+    public void callFailed(HTTPRequest request, HTTPRequestError error) {
+
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of an {@link HTTPRequest} started using {@link HTTPRequest#submit()}. Block on it using {@link HTTPFuture#get()}, react to it using {@link HTTPFuture#addCallback(Callback, Executor)}, or chain another request to it using {@link HTTPFuture#then(Continuation)}.<br />
+ * <br />
+ * The future completes with the {@link HTTPResponse} of the request, whatever its status code, or fails with the {@link HTTPRequestError} reported to {@link HTTPResponseListener#onRequestError(HTTPRequestError)}.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPRequest.create("https://api.example.com/token").submit()
+ *         .then(new HTTPFuture.Continuation() {
+ *             public HTTPRequest next(HTTPResponse response) {
+ *                 return HTTPRequest.create("https://api.example.com/profile").addHeader("Authorization", "Bearer " + response.getStringContent());
+ *             }
+ *         })
+ *         .addCallback(callback, executor);
+ * }
+ * </pre>
+ */
+public class HTTPFuture implements Future<HTTPResponse> {
+    private HTTPRequest request;
+    private HTTPResponse response;
+    private HTTPRequestError error;
+    private boolean done;
+    private final List<Runnable> callbacks = new ArrayList<>();
+
+    HTTPFuture(HTTPRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * Returns the request this future is the result of.
+     *
+     * @return The {@link HTTPRequest} or <strong>null</strong> if this future was returned by {@link HTTPFuture#then(Continuation)} and the next request has not been created yet.
+     */
+    public synchronized HTTPRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Completes this future unless it is already done, then runs its callbacks on the current thread or their {@link Executor}s.
+     */
+    void complete(HTTPResponse response, HTTPRequestError error) {
+        List<Runnable> pendingCallbacks;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.response = response;
+            this.error = error;
+            this.done = true;
+            notifyAll();
+            pendingCallbacks = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for (Runnable callback : pendingCallbacks) {
+            callback.run();
+        }
+    }
+
+    /**
+     * Cancels the request using {@link HTTPRequest#cancel()} and fails this future with {@link HTTPRequestError#CANCELLED} right away.
+     *
+     * @param mayInterruptIfRunning Ignored, a running request is always stopped.
+     * @return <strong>false</strong> if this future was already done or <strong>true</strong> otherwise.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        HTTPRequest request;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            request = this.request;
+        }
+        if (request != null) {
+            request.cancel();
+        }
+        complete(null, HTTPRequestError.CANCELLED);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return done && error == HTTPRequestError.CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits for the request to finish.
+     *
+     * @return The {@link HTTPResponse}.
+     * @throws ExecutionException   If the request failed. The cause is an {@link HTTPRequestException}.
+     * @throws InterruptedException If the current thread was interrupted while waiting.
+     */
+    @Override
+    public synchronized HTTPResponse get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return getResult();
+    }
+
+    /**
+     * Waits for the request to finish for at most the specified time.
+     *
+     * @return The {@link HTTPResponse}.
+     * @throws ExecutionException   If the request failed. The cause is an {@link HTTPRequestException}.
+     * @throws InterruptedException If the current thread was interrupted while waiting.
+     * @throws TimeoutException     If the request did not finish in time. It keeps running, use {@link HTTPFuture#cancel(boolean)} to stop it.
+     */
+    @Override
+    public synchronized HTTPResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return getResult();
+    }
+
+    private HTTPResponse getResult() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(new HTTPRequestException(error));
+        }
+        return response;
+    }
+
+    /**
+     * Returns the error of the finished request.
+     *
+     * @return The {@link HTTPRequestError} or <strong>null</strong> if the request got a response or is still running.
+     */
+    public synchronized HTTPRequestError getError() {
+        return error;
+    }
+
+    /**
+     * Returns the response of the finished request.
+     *
+     * @return The {@link HTTPResponse} or <strong>null</strong> if the request failed or is still running.
+     */
+    synchronized HTTPResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Adds a {@link Callback} which is called once the request finishes, or right away if it already has.
+     *
+     * @param callback The {@link Callback}.
+     * @param executor The {@link Executor} to call the callback on or <strong>null</strong> to call it on the thread which finished the request.
+     * @return This {@link HTTPFuture} for chaining and convenience.
+     */
+    public HTTPFuture addCallback(final Callback callback, final Executor executor) {
+        if (callback == null) {
+            throw new IllegalArgumentException("Callback must not be null.");
+        }
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                final HTTPResponse response;
+                final HTTPRequestError error;
+                synchronized (HTTPFuture.this) {
+                    response = HTTPFuture.this.response;
+                    error = HTTPFuture.this.error;
+                }
+                Runnable delivery = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (error != null) {
+                            callback.onFailure(error);
+                        } else {
+                            callback.onSuccess(response);
+                        }
+                    }
+                };
+                if (executor != null) {
+                    executor.execute(delivery);
+                } else {
+                    delivery.run();
+                }
+            }
+        };
+        synchronized (this) {
+            if (!done) {
+                callbacks.add(runnable);
+                return this;
+            }
+        }
+        runnable.run();
+        return this;
+    }
+
+    /**
+     * Starts another request once this one gets a response. Failures are passed on without calling the {@link Continuation}.
+     *
+     * @param continuation The {@link Continuation} which creates the next request from the response.
+     * @return An {@link HTTPFuture} for the result of the next request.
+     */
+    public HTTPFuture then(final Continuation continuation) {
+        if (continuation == null) {
+            throw new IllegalArgumentException("Continuation must not be null.");
+        }
+        final HTTPFuture next = new HTTPFuture(null);
+        addCallback(new Callback() {
+            @Override
+            public void onSuccess(HTTPResponse response) {
+                HTTPRequest nextRequest;
+                try {
+                    nextRequest = continuation.next(response);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    next.complete(null, HTTPRequestError.OTHER);
+                    return;
+                }
+                if (nextRequest == null) {
+                    next.complete(response, null);
+                    return;
+                }
+                synchronized (next) {
+                    if (next.done) {
+                        return; // Cancelled before the next request was created
+                    }
+                    next.request = nextRequest;
+                }
+                nextRequest.submit(next);
+            }
+
+            @Override
+            public void onFailure(HTTPRequestError error) {
+                next.complete(null, error);
+            }
+        }, null);
+        return next;
+    }
+
+    /**
+     * Receives the result of an {@link HTTPFuture}.
+     */
+    public interface Callback {
+        /**
+         * Called when the request gets a response, whatever its status code.
+         *
+         * @param response The remote host response.
+         */
+        void onSuccess(HTTPResponse response);
+
+        /**
+         * Called when the request fails.
+         *
+         * @param error The error which describes the cause of failure.
+         */
+        void onFailure(HTTPRequestError error);
+    }
+
+    /**
+     * Creates the request which follows another in a chain of requests, see {@link HTTPFuture#then(Continuation)}.
+     */
+    public interface Continuation {
+        /**
+         * Called on the thread which finished the previous request.
+         *
+         * @param response The response of the previous request.
+         * @return The next {@link HTTPRequest}, which will be executed, or <strong>null</strong> to end the chain with the response.
+         */
+        HTTPRequest next(HTTPResponse response);
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * An {@link HTTPEventListener} which collects latency histograms and transfer counts for each host, to find the slow endpoints and the slow stages of requests in production.<br />
+ * <br />
+ * For each host it keeps a {@link LatencyHistogram} of the total time of an attempt, the time to the first byte of the response, and the DNS lookup, TCP connect and TLS handshake times of new connections.
+ * The time to the first byte is measured from the start of the attempt, so it includes connecting and sending the request.<br />
+ * <br />
+ * To also listen to the events yourself, extend this class and call the super methods.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPMetrics metrics = new HTTPMetrics();
+ * HTTPRequest.setDefaultEventListener(metrics);
+ * ...
+ * Log.d("Metrics", metrics.toString());
+ * }
+ * </pre>
+ */
+public class HTTPMetrics extends HTTPEventListener {
+    private final Map<String, HostMetrics> hosts = new HashMap<>();
+    private final Map<HTTPRequest, Call> calls = new IdentityHashMap<>();
+
+    /**
+     * Returns the hosts which requests have been made to.
+     *
+     * @return The host names, sorted.
+     */
+    public synchronized List<String> getHosts() {
+        return new ArrayList<>(new TreeMap<>(hosts).keySet());
+    }
+
+    /**
+     * Returns the metrics of a host.
+     *
+     * @param host The host name.
+     * @return A copy of the {@link HostMetrics} which is not affected by later requests, or <strong>null</strong> if no request has been made to the host.
+     */
+    public synchronized HostMetrics getHostMetrics(String host) {
+        HostMetrics metrics = hosts.get(host != null ? host.toLowerCase() : null);
+        return metrics != null ? new HostMetrics(metrics) : null;
+    }
+
+    /**
+     * Forgets all metrics. Attempts in progress are still counted when they end.
+     */
+    public synchronized void reset() {
+        hosts.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (String host : getHosts()) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(host).append(": ").append(hosts.get(host));
+        }
+        return builder.toString();
+    }
+
+    // Events
+    // *********************************************************************************************
+
+    @Override
+    public void callStart(HTTPRequest request) {
+        Call call = new Call(request.getHost());
+        synchronized (this) {
+            calls.put(request, call);
+        }
+    }
+
+    @Override
+    public void dnsStart(HTTPRequest request, String host) {
+        Call call = getCall(request);
+        if (call != null) {
+            call.dnsStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void dnsEnd(HTTPRequest request, String host, List<InetAddress> addresses) {
+        Call call = getCall(request);
+        if (call != null && call.dnsStart != 0) {
+            call.dnsTime = System.nanoTime() - call.dnsStart;
+        }
+    }
+
+    @Override
+    public void connectStart(HTTPRequest request, InetSocketAddress address) {
+        Call call = getCall(request);
+        if (call != null && call.connectStart == 0) {
+            call.connectStart = System.nanoTime(); // Measure from the first attempt when racing several addresses
+        }
+    }
+
+    @Override
+    public void connectEnd(HTTPRequest request, InetSocketAddress address) {
+        Call call = getCall(request);
+        if (call != null && call.connectStart != 0) {
+            call.connectTime = System.nanoTime() - call.connectStart;
+        }
+    }
+
+    @Override
+    public void secureConnectStart(HTTPRequest request) {
+        Call call = getCall(request);
+        if (call != null) {
+            call.secureConnectStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void secureConnectEnd(HTTPRequest request, SSLSession session) {
+        Call call = getCall(request);
+        if (call != null && call.secureConnectStart != 0) {
+            call.secureConnectTime = System.nanoTime() - call.secureConnectStart;
+        }
+    }
+
+    @Override
+    public void requestBodyEnd(HTTPRequest request, long byteCount) {
+        Call call = getCall(request);
+        if (call != null) {
+            call.bytesSent += byteCount;
+        }
+    }
+
+    @Override
+    public void responseHeadersEnd(HTTPRequest request) {
+        Call call = getCall(request);
+        if (call != null && call.timeToFirstByte == 0) {
+            call.timeToFirstByte = System.nanoTime() - call.start;
+        }
+    }
+
+    @Override
+    public void responseBodyEnd(HTTPRequest request, long byteCount) {
+        Call call = getCall(request);
+        if (call != null) {
+            call.bytesReceived += byteCount;
+        }
+    }
+
+    @Override
+    public void callEnd(HTTPRequest request, HTTPResponse response) {
+        endCall(request, false);
+    }
+
+    @Override
+    public void callFailed(HTTPRequest request, HTTPRequestError error) {
+        endCall(request, true);
+    }
+
+    private synchronized Call getCall(HTTPRequest request) {
+        return calls.get(request);
+    }
+
+    private synchronized void endCall(HTTPRequest request, boolean failed) {
+        Call call = calls.remove(request);
+        if (call == null) {
+            return;
+        }
+        HostMetrics metrics = hosts.get(call.host);
+        if (metrics == null) {
+            metrics = new HostMetrics();
+            hosts.put(call.host, metrics);
+        }
+        metrics.record(call, failed);
+    }
+
+    /**
+     * The timings of one attempt. Only written by the thread running the attempt.
+     */
+    private static class Call {
+        final String host;
+        final long start = System.nanoTime();
+        long dnsStart, dnsTime;
+        long connectStart, connectTime;
+        long secureConnectStart, secureConnectTime;
+        long timeToFirstByte;
+        long bytesSent, bytesReceived;
+
+        Call(String host) {
+            this.host = host;
+        }
+    }
+
+    /**
+     * The metrics collected for one host.
+     */
+    public static final class HostMetrics {
+        private final LatencyHistogram latency;
+        private final LatencyHistogram timeToFirstByte;
+        private final LatencyHistogram dnsTime;
+        private final LatencyHistogram connectTime;
+        private final LatencyHistogram secureConnectTime;
+        private long callCount;
+        private long failureCount;
+        private long bytesSent;
+        private long bytesReceived;
+
+        HostMetrics() {
+            latency = new LatencyHistogram();
+            timeToFirstByte = new LatencyHistogram();
+            dnsTime = new LatencyHistogram();
+            connectTime = new LatencyHistogram();
+            secureConnectTime = new LatencyHistogram();
+        }
+
+        HostMetrics(HostMetrics metrics) {
+            latency = metrics.latency.copy();
+            timeToFirstByte = metrics.timeToFirstByte.copy();
+            dnsTime = metrics.dnsTime.copy();
+            connectTime = metrics.connectTime.copy();
+            secureConnectTime = metrics.secureConnectTime.copy();
+            callCount = metrics.callCount;
+            failureCount = metrics.failureCount;
+            bytesSent = metrics.bytesSent;
+            bytesReceived = metrics.bytesReceived;
+        }
+
+        void record(Call call, boolean failed) {
+            callCount++;
+            if (failed) {
+                failureCount++;
+            } else {
+                latency.record(System.nanoTime() - call.start);
+            }
+            if (call.timeToFirstByte != 0) {
+                timeToFirstByte.record(call.timeToFirstByte);
+            }
+            if (call.dnsTime != 0) {
+                dnsTime.record(call.dnsTime);
+            }
+            if (call.connectTime != 0) {
+                connectTime.record(call.connectTime);
+            }
+            if (call.secureConnectTime != 0) {
+                secureConnectTime.record(call.secureConnectTime);
+            }
+            bytesSent += call.bytesSent;
+            bytesReceived += call.bytesReceived;
+        }
+
+        /**
+         * Returns the total time of the attempts which received a response, from the start of the attempt until the whole response has been read.
+         *
+         * @return The {@link LatencyHistogram}.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Returns the time from the start of an attempt until the response headers have been received.
+         *
+         * @return The {@link LatencyHistogram}.
+         */
+        public LatencyHistogram getTimeToFirstByte() {
+            return timeToFirstByte;
+        }
+
+        /**
+         * Returns the time of the DNS lookups made for new connections.
+         *
+         * @return The {@link LatencyHistogram}.
+         */
+        public LatencyHistogram getDnsTime() {
+            return dnsTime;
+        }
+
+        /**
+         * Returns the time of the TCP connects of new connections.
+         *
+         * @return The {@link LatencyHistogram}.
+         */
+        public LatencyHistogram getConnectTime() {
+            return connectTime;
+        }
+
+        /**
+         * Returns the time of the TLS handshakes of new connections.
+         *
+         * @return The {@link LatencyHistogram}.
+         */
+        public LatencyHistogram getSecureConnectTime() {
+            return secureConnectTime;
+        }
+
+        /**
+         * Returns the number of attempts, including retries and failed attempts.
+         *
+         * @return The number of attempts.
+         */
+        public long getCallCount() {
+            return callCount;
+        }
+
+        /**
+         * Returns the number of attempts which failed without a response, including cancelled ones.
+         *
+         * @return The number of failed attempts.
+         */
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * Returns the number of request body bytes sent, after compression.
+         *
+         * @return The number of bytes.
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * Returns the number of response body bytes received, before decompression.
+         *
+         * @return The number of bytes.
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return "calls=" + callCount + " failures=" + failureCount + " sent=" + bytesSent + "B received=" + bytesReceived + "B"
+                    + "\n  latency " + latency
+                    + "\n  ttfb " + timeToFirstByte
+                    + "\n  dns " + dnsTime
+                    + "\n  connect " + connectTime
+                    + "\n  tls " + secureConnectTime;
+        }
+    }
+}
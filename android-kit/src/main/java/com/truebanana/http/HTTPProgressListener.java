@@ -0,0 +1,40 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+/**
+ * Receives progress updates of a transfer made by an {@link HTTPRequest}. Updates are delivered on the thread which created the {@link HTTPRequest} and are throttled so a fast transfer doesn't flood it.
+ *
+ * @see HTTPRequest#setProgressListener(HTTPProgressListener)
+ */
+public interface HTTPProgressListener {
+    /**
+     * Called periodically while data is being transferred and once more when the transfer finishes.
+     *
+     * @param bytesTransferred The number of bytes transferred so far, including any bytes from a resumed download.
+     * @param totalBytes       The total number of bytes or -1 if the length is unknown.
+     */
+    void onProgress(long bytesTransferred, long totalBytes);
+}
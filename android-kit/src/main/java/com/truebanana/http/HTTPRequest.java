@@ -27,54 +27,49 @@ package com.truebanana.http;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
-import com.truebanana.async.Async;
 import com.truebanana.log.Log;
 
+import org.apache.commons.io.IOUtils;
 import org.json.JSONObject;
 
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
-import java.net.Proxy;
-import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.security.GeneralSecurityException;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Deque;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.zip.ZipException;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
-import javax.net.ssl.X509TrustManager;
 
 /**
  * A cool class which makes communicating with web servers faster and easier.<br/>
@@ -120,29 +115,100 @@ public class HTTPRequest {
     private boolean verifySSL = true;
     private int readTimeout = defaultReadTimeout;
     private int connectTimeout = defaultConnectTimeout;
-    private Map<String, String> headers = new HashMap<>();
-    private Map<String, String> queryParameters = new HashMap<>();
+    private Map<String, String> headers = Collections.emptyMap();
+    private boolean headersShared = true; // Copied before the first change since the map may belong to a clone or an HTTPRequestTemplate
+    private Map<String, String> queryParameters;
+    private URL builtURL;
+    private String host;
 
     private HTTPRequestBodyProvider bodyProvider;
 
-    private InputStream keyStore, trustStore;
+    private byte[] keyStore, trustStore;
     private String keyStorePassword, trustStorePassword;
+    private boolean keyMaterialUnreadable;
 
     private MockResponse mockResponse;
 
+    private HTTPEngine engine;
+
+    private HTTPContentEncoding requestCompression = defaultRequestCompression;
+    private boolean decompressResponse = defaultResponseDecompressionEnabled;
+
+    private HTTPCache httpCache;
+    private HTTPCacheMode cacheMode = HTTPCacheMode.DEFAULT;
+    private boolean revalidating;
+
+    private boolean coalesce = defaultCoalescingEnabled;
+    String flightKey;
+
+    private HTTPRequestPriority priority = HTTPRequestPriority.NORMAL;
+    private HTTPDispatcher dispatcher;
+    private volatile boolean cancelled;
+    private volatile HttpURLConnection activeConnection;
+    private final Object retryLock = new Object();
+    private Object tag;
+
+    private int deadline;
+    private long deadlineAt;
+    private volatile boolean deadlineExceeded;
+    private ScheduledFuture<?> deadlineTimer;
+
+    private RetryPolicy retryPolicy = defaultRetryPolicy;
+    private CircuitBreaker circuitBreaker = defaultCircuitBreaker;
+    private Boolean idempotent;
+    private int attempt;
+
+    HTTPBatch batch;
+    int batchIndex;
+    private HTTPFuture future;
+    private boolean synchronous;
+    private long retryDelay = -1;
+
+    private Executor callbackExecutor = defaultCallbackExecutor;
+
+    private HTTPEventListener eventListener = defaultEventListener;
+    private boolean callInProgress;
+
+    private File downloadFile;
+    private boolean resumeDownload;
+    private HTTPProgressListener progressListener;
+    private HTTPProgressListener uploadProgressListener;
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final long PROGRESS_INTERVAL = 100;
+    private static final int THROTTLE_CHUNK_SIZE = 8192;
+
     private static int defaultReadTimeout = 10000;
     private static int defaultConnectTimeout = 10000;
     private static HTTPResponseListener defaultResponseListener = new BasicResponseListener() {
     };
-
-    private static Deque<HTTPRequest> requestQueue = new LinkedBlockingDeque<>();
-    private static HTTPRequest pendingRequest = null;
-
-    Handler handler = new Handler();
+    private static HTTPEngine defaultEngine = new URLConnectionEngine();
+    private static HTTPCache defaultHTTPCache;
+    private static HTTPContentEncoding defaultRequestCompression = HTTPContentEncoding.IDENTITY;
+    private static boolean defaultResponseDecompressionEnabled = true;
+    private static boolean defaultCoalescingEnabled = true;
+    private static RetryPolicy defaultRetryPolicy;
+    private static CircuitBreaker defaultCircuitBreaker;
+    static Executor defaultCallbackExecutor;
+    private static HTTPEventListener defaultEventListener = HTTPEventListener.NONE;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final HostnameVerifier noVerifyHostnameVerifier = new NoVerifyHostnameVerifier();
+
+    private static HTTPDispatcher defaultDispatcher = new HTTPDispatcher();
+
+    Handler handler = createHandler();
 
     private HTTPRequest() {
     }
 
+    /**
+     * Creates a {@link Handler} for the current thread or for the main thread if the current thread has no {@link Looper}.
+     */
+    static Handler createHandler() {
+        Looper looper = Looper.myLooper();
+        return new Handler(looper != null ? looper : Looper.getMainLooper());
+    }
+
     /**
      * Creates an {@link HTTPRequest} to connect to the specified URL. Use the different setters to modify the request then use {@link HTTPRequest#executeAsync()} to execute the request. By default, the request method is GET with 10000ms connect timeout and read timeout.
      *
@@ -153,7 +219,7 @@ public class HTTPRequest {
         HTTPRequest request = new HTTPRequest();
         request.url = url;
         try {
-            URL u = new URL(url);
+            request.builtURL = new URL(url);
         } catch (MalformedURLException e) {
             e.printStackTrace();
             throw new IllegalArgumentException("Invalid URL.");
@@ -162,33 +228,63 @@ public class HTTPRequest {
         return request;
     }
 
-    private HttpURLConnection buildURLConnection() {
-        try {
+    /**
+     * Creates an {@link HTTPRequest} for a URL which is known to be valid, sharing the headers instead of copying them. The map must not be modified afterwards.
+     */
+    static HTTPRequest create(String url, Map<String, String> headers) {
+        HTTPRequest request = new HTTPRequest();
+        request.url = url;
+        request.headers = headers;
+        return request;
+    }
+
+    /**
+     * Returns the URL with the query parameters, parsing it only once.
+     */
+    private URL buildURL() throws MalformedURLException {
+        URL u = builtURL;
+        if (u != null) {
+            return u;
+        }
+        if (queryParameters == null || queryParameters.isEmpty()) {
+            u = new URL(url);
+        } else {
             Uri.Builder builder = Uri.parse(url).buildUpon();
-            Iterator<Map.Entry<String, String>> iterator = queryParameters.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, String> pair = (Map.Entry) iterator.next();
+            for (Map.Entry<String, String> pair : queryParameters.entrySet()) {
                 builder.appendQueryParameter(pair.getKey(), pair.getValue());
             }
+            u = new URL(builder.build().toString());
+        }
+        builtURL = u;
+        return u;
+    }
 
-            URL u = new URL(builder.build().toString());
+    /**
+     * Returns the headers for a change, copying them first if they are shared.
+     */
+    private Map<String, String> editHeaders() {
+        if (headersShared) {
+            headers = new HashMap<>(headers);
+            headersShared = false;
+        }
+        return headers;
+    }
 
-            Proxy proxy = Proxy.NO_PROXY;
-            if (Build.VERSION.SDK_INT > Build.VERSION_CODES.HONEYCOMB_MR1) {
-                String host = System.getProperty("http.proxyHost");
-                if (host != null && !host.isEmpty()) {
-                    String port = System.getProperty("http.proxyPort");
-                    if (port != null && !port.isEmpty()) {
-                        proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(host, Integer.parseInt(port)));
-                    }
-                }
-            }
+    private HttpURLConnection buildURLConnection() {
+        try {
+            URL u = buildURL();
 
-            HttpURLConnection urlConnection = (HttpURLConnection) u.openConnection(proxy);
+            HttpURLConnection urlConnection = getHTTPEngine().open(u);
             urlConnection.setRequestMethod(requestMethod.name());
             urlConnection.setDoInput(true);
             urlConnection.setConnectTimeout(connectTimeout);
             urlConnection.setReadTimeout(readTimeout);
+            if (urlConnection instanceof HTTP2URLConnection) {
+                ((HTTP2URLConnection) urlConnection).setPriority(priority);
+                ((HTTP2URLConnection) urlConnection).setRequest(this);
+            } else if (urlConnection instanceof PooledURLConnection) {
+                ((PooledURLConnection) urlConnection).setRequest(this);
+            }
 
             switch (requestMethod) {
                 case POST:
@@ -217,19 +313,39 @@ public class HTTPRequest {
      * @return A clone of this {@link HTTPRequest}.
      */
     public HTTPRequest clone() {
-        HTTPRequest r = HTTPRequest.create(url);
+        HTTPRequest r = HTTPRequest.create(url, headers);
+        headersShared = true;
         r.setRequestMethod(requestMethod);
         r.setReadTimeout(readTimeout);
         r.setConnectTimeout(connectTimeout);
-        r.addHeaders(headers);
-        r.addQueryParameters(queryParameters);
+        if (queryParameters != null) {
+            r.addQueryParameters(queryParameters);
+        }
         r.setRequestBody(body);
         r.setRequestBodyProvider(bodyProvider);
         r.setTrustStore(trustStore, trustStorePassword);
         r.setKeyStore(keyStore, keyStorePassword);
+        r.keyMaterialUnreadable = keyMaterialUnreadable;
         r.setHTTPResponseListener(responseListener);
         r.setSSLVerificationEnabled(verifySSL);
         r.setLogTag(logTag);
+        r.setHTTPEngine(engine);
+        r.setDownloadFile(downloadFile, resumeDownload);
+        r.setProgressListener(progressListener);
+        r.setUploadProgressListener(uploadProgressListener);
+        r.setPriority(priority);
+        r.setRequestCompression(requestCompression);
+        r.setHTTPCache(httpCache);
+        r.setCacheMode(cacheMode);
+        r.setCoalescingEnabled(coalesce);
+        r.setResponseDecompressionEnabled(decompressResponse);
+        r.setRetryPolicy(retryPolicy);
+        r.setCircuitBreaker(circuitBreaker);
+        r.idempotent = idempotent;
+        r.setCallbackExecutor(callbackExecutor);
+        r.setEventListener(eventListener);
+        r.setDeadline(deadline);
+        r.setTag(tag);
 
         return r;
     }
@@ -307,6 +423,41 @@ public class HTTPRequest {
         return this;
     }
 
+    /**
+     * Sets the overall deadline of this {@link HTTPRequest}, counted from the moment it is executed and covering the time spent queued, connecting, sending the body, reading the response and waiting for retries.
+     * Unlike the connect and read timeouts, which apply to each step separately, a request which passes its deadline is aborted right away and fails with {@link HTTPRequestError#TIMEOUT}. Requests with a deadline are not coalesced.
+     *
+     * @param millis The deadline in milliseconds or 0 for no deadline.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setDeadline(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Deadline must not be negative.");
+        }
+        this.deadline = millis;
+        return this;
+    }
+
+    /**
+     * Sets a tag which identifies this {@link HTTPRequest}, such as the screen which started it, so a group of requests can be cancelled together using {@link HTTPRequest#cancelAll(Object)}.
+     *
+     * @param tag The tag or <strong>null</strong>.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setTag(Object tag) {
+        this.tag = tag;
+        return this;
+    }
+
+    /**
+     * Returns the tag of this {@link HTTPRequest}.
+     *
+     * @return The tag or <strong>null</strong> if none has been set.
+     */
+    public Object getTag() {
+        return tag;
+    }
+
     /**
      * Adds a header entry to this {@link HTTPRequest}.
      *
@@ -315,7 +466,7 @@ public class HTTPRequest {
      * @return This {@link HTTPRequest} for chaining and convenience.
      */
     public HTTPRequest addHeader(String key, String value) {
-        headers.put(key, value);
+        editHeaders().put(key, value);
         return this;
     }
 
@@ -341,7 +492,11 @@ public class HTTPRequest {
      * @return This {@link HTTPRequest} for chaining and convenience.
      */
     public HTTPRequest addQueryParameter(String key, String value) {
+        if (queryParameters == null) {
+            queryParameters = new HashMap<>();
+        }
         queryParameters.put(key, value);
+        builtURL = null;
         return this;
     }
 
@@ -367,7 +522,7 @@ public class HTTPRequest {
      * @return This {@link HTTPRequest} for chaining and convenience.
      */
     public HTTPRequest setHeaderValue(String key, String value) {
-        headers.put(key, value);
+        editHeaders().put(key, value);
         return this;
     }
 
@@ -416,31 +571,66 @@ public class HTTPRequest {
     }
 
     /**
-     * Sets the BKS trust store to use for this {@link HTTPRequest} for server authentication.
+     * Sets the BKS trust store to use for this {@link HTTPRequest} for server authentication. The stream is read immediately so the trust store can be shared with clones of this request.
      *
      * @param trustStore The BKS trust store {@link InputStream}.
      * @param password   The password for the trust store.
      * @return This {@link HTTPRequest} for chaining and convenience.
      */
     public HTTPRequest setTrustStore(InputStream trustStore, String password) {
+        return setTrustStore(readKeyMaterial(trustStore), password);
+    }
+
+    /**
+     * Sets the BKS trust store to use for this {@link HTTPRequest} for server authentication.
+     *
+     * @param trustStore The BKS trust store contents.
+     * @param password   The password for the trust store.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setTrustStore(byte[] trustStore, String password) {
         this.trustStore = trustStore;
         this.trustStorePassword = password;
         return this;
     }
 
     /**
-     * Sets the PKCS12 key store to use for this {@link HTTPRequest} for client authentication.
+     * Sets the PKCS12 key store to use for this {@link HTTPRequest} for client authentication. The stream is read immediately so the key store can be shared with clones of this request.
      *
      * @param keyStore The PKCS12 key store {@link InputStream}.
      * @param password The password for the key store.
      * @return This {@link HTTPRequest} for chaining and convenience.
      */
     public HTTPRequest setKeyStore(InputStream keyStore, String password) {
+        return setKeyStore(readKeyMaterial(keyStore), password);
+    }
+
+    /**
+     * Sets the PKCS12 key store to use for this {@link HTTPRequest} for client authentication.
+     *
+     * @param keyStore The PKCS12 key store contents.
+     * @param password The password for the key store.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setKeyStore(byte[] keyStore, String password) {
         this.keyStore = keyStore;
         this.keyStorePassword = password;
         return this;
     }
 
+    private byte[] readKeyMaterial(InputStream inputStream) {
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } catch (IOException e) {
+            e.printStackTrace();
+            keyMaterialUnreadable = true; // Reported as KEYSTORE_INVALID once the request executes
+            return null;
+        }
+    }
+
     /**
      * Sets the {@link HTTPResponseListener} to use for this {@link HTTPRequest}.
      *
@@ -465,7 +655,7 @@ public class HTTPRequest {
     }
 
     /**
-     * Sets a {@link MockResponse} to be returned when the request finishes. This response will be returned whether or not the request actually succeeds.
+     * Sets a {@link MockResponse} to be returned instead of sending the request. The response is delivered after the delay of the mock without opening a connection, see {@link MockResponse.Builder#setDelay(long)}.
      *
      * @param mockResponse The {@link MockResponse}.
      * @return This {@link HTTPRequest} for chaining and convenience.
@@ -476,412 +666,1637 @@ public class HTTPRequest {
     }
 
     /**
-     * Enables logging of debug information for this {@link HTTPRequest}. This will automatically log the request URL, request headers, request body, response message, response content and other useful information in the LOGCAT.
+     * Sets the {@link HTTPEngine} used to open the connection for this {@link HTTPRequest}. If not set, the default engine set using {@link HTTPRequest#setDefaultHTTPEngine(HTTPEngine)} will be used.
      *
-     * @param tag The tag to use for logging.
+     * @param engine The {@link HTTPEngine} or <strong>null</strong> to use the default engine.
      * @return This {@link HTTPRequest} for chaining and convenience.
      */
-    public HTTPRequest setLogTag(String tag) {
-        this.logTag = tag;
+    public HTTPRequest setHTTPEngine(HTTPEngine engine) {
+        this.engine = engine;
         return this;
     }
 
     /**
-     * Returns the request body set in this {@link HTTPRequest}.
+     * Sets the default {@link HTTPEngine} used by all {@link HTTPRequest}s which don't have their own. The default is a {@link URLConnectionEngine}.
      *
-     * @return The request body.
+     * @param engine The {@link HTTPEngine}.
      */
-    public String getRequestBody() {
-        return body;
+    public static void setDefaultHTTPEngine(HTTPEngine engine) {
+        if (engine == null) {
+            throw new IllegalArgumentException("Engine must not be null.");
+        }
+        HTTPRequest.defaultEngine = engine;
     }
 
-
     /**
-     * Returns the {@link MultiPartContent} request body set in this {@link HTTPRequest}.
+     * Returns the {@link HTTPEngine} used by this {@link HTTPRequest}.
      *
-     * @return The {@link MultiPartContent} request body.
+     * @return The {@link HTTPEngine}.
      */
-    public MultiPartContent getMultiPartContentRequestBody() {
-        return multiPartContent;
+    public HTTPEngine getHTTPEngine() {
+        return engine != null ? engine : defaultEngine;
     }
 
-    private void onPreExecute() {
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                responseListener.onPreExecute();
-            }
-        });
+    /**
+     * Sets the {@link HTTPCache} used by this {@link HTTPRequest}. If not set, the default cache set using {@link HTTPRequest#setDefaultHTTPCache(HTTPCache)} will be used.
+     *
+     * @param cache The {@link HTTPCache} or <strong>null</strong> to use the default cache.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setHTTPCache(HTTPCache cache) {
+        this.httpCache = cache;
+        return this;
     }
 
-    private void onPostExecute() {
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                responseListener.onPostExecute();
-            }
-        });
+    /**
+     * Sets the default {@link HTTPCache} used by all {@link HTTPRequest}s which don't have their own. There is no default cache unless one is set.
+     *
+     * @param cache The {@link HTTPCache} or <strong>null</strong> to disable caching.
+     */
+    public static void setDefaultHTTPCache(HTTPCache cache) {
+        HTTPRequest.defaultHTTPCache = cache;
     }
 
-    private void onRequestCompleted(final HTTPResponse response) {
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                responseListener.onRequestCompleted(response);
-            }
-        });
+    /**
+     * Returns the {@link HTTPCache} used by this {@link HTTPRequest}.
+     *
+     * @return The {@link HTTPCache} or <strong>null</strong> if responses are not cached.
+     */
+    public HTTPCache getHTTPCache() {
+        return httpCache != null ? httpCache : defaultHTTPCache;
     }
 
-    private void onRequestError(final HTTPRequestError error) {
-        log("Request Error", error.name());
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                responseListener.onRequestError(error);
-            }
-        });
+    /**
+     * Sets how this {@link HTTPRequest} uses its {@link HTTPCache}. The default is {@link HTTPCacheMode#DEFAULT}.
+     *
+     * @param mode The {@link HTTPCacheMode}.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setCacheMode(HTTPCacheMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Cache mode must not be null.");
+        }
+        this.cacheMode = mode;
+        return this;
     }
 
-    private void onRequestTerminated() {
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-                if (HTTPRequest.pendingRequest == HTTPRequest.this) {
-                    HTTPRequest.pendingRequest = null;
-                    executeFromQueueIfFree();
-                }
-            }
-        });
+    /**
+     * Compresses the request body of this {@link HTTPRequest} using the specified encoding and sets the Content-Encoding header accordingly. Only use this if the server is known to accept compressed request bodies. The default is set using {@link HTTPRequest#setDefaultRequestCompression(HTTPContentEncoding)}.
+     *
+     * @param encoding The {@link HTTPContentEncoding} or {@link HTTPContentEncoding#IDENTITY} to send the body as it is.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setRequestCompression(HTTPContentEncoding encoding) {
+        this.requestCompression = encoding != null ? encoding : HTTPContentEncoding.IDENTITY;
+        return this;
     }
 
     /**
-     * Executes this {@link HTTPRequest} asynchronously. To hook to events or listen to the server response, you must provide an {@link HTTPResponseListener} using {@link HTTPRequest#setHTTPResponseListener(HTTPResponseListener)}.
+     * Sets the compression used for the request bodies of all {@link HTTPRequest}s created afterwards. The default is {@link HTTPContentEncoding#IDENTITY}.
      *
-     * @return This {@link HTTPRequest}
+     * @param encoding The {@link HTTPContentEncoding} or {@link HTTPContentEncoding#IDENTITY} to send bodies as they are.
      */
-    public HTTPRequest executeAsync() {
-        Async.executeAsync(new Runnable() {
-            @Override
-            public void run() {
-                HttpURLConnection urlConnection = buildURLConnection();
-
-                // Get request body now if there's a provider
-                if (bodyProvider != null) {
-                    body = bodyProvider.getRequestBody();
-                }
-
-                // Update socket factory as needed
-                if (urlConnection instanceof HttpsURLConnection) {
-                    HttpsURLConnection httpsURLConnection = (HttpsURLConnection) urlConnection;
-
-                    try {
-                        httpsURLConnection.setSSLSocketFactory(new FlexibleSSLSocketFactory(trustStore, trustStorePassword, keyStore, keyStorePassword, !verifySSL));
-                    } catch (GeneralSecurityException e) {
-                        e.printStackTrace();
-                        onRequestError(HTTPRequestError.SECURITY_EXCEPTION);
-                        onRequestTerminated();
-                        return; // Terminate now
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        onRequestError(HTTPRequestError.KEYSTORE_INVALID);
-                        onRequestTerminated();
-                        return; // Terminate now
-                    }
-
-                    if (!verifySSL) {
-                        httpsURLConnection.setHostnameVerifier(new NoVerifyHostnameVerifier());
-                        log("SSL Verification Disabled", "**********");
-                    }
-                }
-
-                log("Endpoint", urlConnection.getURL().toString());
-                Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry<String, String> pair = (Map.Entry) iterator.next();
-                    urlConnection.addRequestProperty(pair.getKey(), pair.getValue());
-                    log("Request Header", pair.getKey() + ": " + pair.getValue());
-                }
-                if (multiPartContent != null) {
-                    log("Multipart Request Boundary", multiPartContent.getBoundary());
-                    int counter = 1;
-                    for (MultiPartContent.Part part : multiPartContent.getParts()) {
-                        log("Request Body Part " + counter, "Name: " + part.getName() + "; File Name: " + part.getFileName());
-
-                        Iterator<Map.Entry<String, String>> it = part.getHeaders().entrySet().iterator();
-                        while (it.hasNext()) {
-                            Map.Entry<String, String> pair = (Map.Entry) it.next();
-                            log("Request Body Part " + counter + " Header", pair.getKey() + ": " + pair.getValue());
-                        }
-                    }
-                } else {
-                    log("Request Body", body);
-                }
-
-                if (mockResponse == null) {
-                    // Trigger pre-execute since preparations are complete
-                    onPreExecute();
-
-                    // Write our request body
-                    try {
-                        if (multiPartContent != null) {
-                            multiPartContent.write(urlConnection.getOutputStream());
-                        } else if (body != null) {
-                            OutputStream os = urlConnection.getOutputStream();
-                            OutputStreamWriter writer = new OutputStreamWriter(os);
-                            writer.write(body);
-                            writer.flush();
-                            writer.close();
-                            os.close();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        onRequestError(HTTPRequestError.OTHER);
-                        onRequestTerminated();
-                        return; // Terminate now
-                    }
+    public static void setDefaultRequestCompression(HTTPContentEncoding encoding) {
+        HTTPRequest.defaultRequestCompression = encoding != null ? encoding : HTTPContentEncoding.IDENTITY;
+    }
 
-                    // Get the response
-                    InputStream content;
-                    try {
-                        content = urlConnection.getInputStream();
-                        onPostExecute();
-                    } catch (SocketTimeoutException e) { // Timeout
-                        e.printStackTrace();
-                        onPostExecute();
-                        onRequestError(HTTPRequestError.TIMEOUT);
-                        onRequestTerminated();
-                        return; // Terminate now
-                    } catch (IOException e) { // All other exceptions
-                        e.printStackTrace();
-                        content = urlConnection.getErrorStream();
-                        onPostExecute();
-                    }
+    /**
+     * Enables or disables compressed responses for this {@link HTTPRequest}. When enabled, the request accepts gzip and deflate encoded responses and decompresses them as they are read, unless an Accept-Encoding header has been added. The default is set using {@link HTTPRequest#setDefaultResponseDecompressionEnabled(boolean)}.
+     *
+     * @param enabled <strong>true</strong> to accept and decompress compressed responses or <strong>false</strong> otherwise.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setResponseDecompressionEnabled(boolean enabled) {
+        this.decompressResponse = enabled;
+        return this;
+    }
 
-                    // Pre-process the response
-                    final HTTPResponse response = HTTPResponse.from(HTTPRequest.this, urlConnection, content);
+    /**
+     * Enables or disables compressed responses for all {@link HTTPRequest}s created afterwards. The default is <strong>true</strong>.
+     *
+     * @param enabled <strong>true</strong> to accept and decompress compressed responses or <strong>false</strong> otherwise.
+     */
+    public static void setDefaultResponseDecompressionEnabled(boolean enabled) {
+        HTTPRequest.defaultResponseDecompressionEnabled = enabled;
+    }
 
-                    if (response.isConnectionError()) {
-                        onRequestError(HTTPRequestError.OTHER);
-                        onRequestTerminated();
-                        return; // Terminate now
-                    }
+    /**
+     * Sets the {@link HTTPRequestPriority} of this {@link HTTPRequest}, which decides the order queued requests are started in. The default is {@link HTTPRequestPriority#NORMAL}.
+     *
+     * @param priority The {@link HTTPRequestPriority}.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setPriority(HTTPRequestPriority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("Priority must not be null.");
+        }
+        this.priority = priority;
+        return this;
+    }
 
-                    // Log response
-                    log("Response Message", response.getResponseMessage());
-                    log("Response Content", response.getStringContent());
+    /**
+     * Returns the {@link HTTPRequestPriority} of this {@link HTTPRequest}.
+     *
+     * @return The {@link HTTPRequestPriority}.
+     */
+    public HTTPRequestPriority getPriority() {
+        return priority;
+    }
 
-                    // Trigger request completed and return the response
-                    onRequestCompleted(response);
+    /**
+     * Sets the {@link Executor} which runs the {@link HTTPResponseListener} and {@link HTTPProgressListener} callbacks of this {@link HTTPRequest}. The default is set using {@link HTTPRequest#setDefaultCallbackExecutor(Executor)}.
+     *
+     * @param executor The {@link Executor} or <strong>null</strong> to post callbacks to the thread which created the request, or to the main thread if it has no {@link Looper}.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setCallbackExecutor(Executor executor) {
+        this.callbackExecutor = executor;
+        return this;
+    }
 
-                    // Terminate the connection
-                    urlConnection.disconnect();
+    /**
+     * Sets the {@link Executor} which runs the callbacks of all {@link HTTPRequest}s created afterwards. The default is <strong>null</strong>.
+     *
+     * @param executor The {@link Executor} or <strong>null</strong> to post callbacks to the thread which created each request, or to the main thread if it has no {@link Looper}.
+     */
+    public static void setDefaultCallbackExecutor(Executor executor) {
+        HTTPRequest.defaultCallbackExecutor = executor;
+    }
 
-                    onRequestTerminated();
-                } else {
-                    onPreExecute();
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    onPostExecute();
-                    log("Response Message", mockResponse.getResponseMessage());
-                    log("Response Content", mockResponse.getStringContent());
-                    onRequestCompleted(mockResponse);
-                    urlConnection.disconnect();
-                    onRequestTerminated();
-                }
-            }
-        });
+    /**
+     * Sets the {@link HTTPEventListener} which is told about the stages of each attempt of this {@link HTTPRequest}, such as connecting and receiving the response. The default is set using {@link HTTPRequest#setDefaultEventListener(HTTPEventListener)}.
+     *
+     * @param listener The {@link HTTPEventListener} or <strong>null</strong> to ignore the events.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setEventListener(HTTPEventListener listener) {
+        this.eventListener = listener != null ? listener : HTTPEventListener.NONE;
         return this;
     }
 
     /**
-     * Queues this {@link HTTPRequest} for serial asynchronous execution. Note that the queue will not wait for {@link HTTPRequest}s executed using {@link HTTPRequest#executeAsync()} to finish, and such requests will never be considered as part of the queue at any time.
-     * <p/>
-     * To hook to events or listen to the server response, you must provide an {@link HTTPResponseListener} using {@link HTTPRequest#setHTTPResponseListener(HTTPResponseListener)}.
+     * Sets the {@link HTTPEventListener} used by all {@link HTTPRequest}s created afterwards, such as an {@link HTTPMetrics} collecting the latency of every request. The default ignores all events.
      *
-     * @return This {@link HTTPRequest}
+     * @param listener The {@link HTTPEventListener} or <strong>null</strong> to ignore the events.
      */
-    public HTTPRequest queue() {
-        HTTPRequest.requestQueue.add(this);
-        executeFromQueueIfFree();
-        return this;
+    public static void setDefaultEventListener(HTTPEventListener listener) {
+        HTTPRequest.defaultEventListener = listener != null ? listener : HTTPEventListener.NONE;
     }
 
     /**
-     * Inserts this {@link HTTPRequest} to the front of the queue for serial asynchronous execution. Note that the queue will not wait for {@link HTTPRequest}s executed using {@link HTTPRequest#executeAsync()} to finish, and such requests will never be considered as part of the queue at any time.
-     * <p/>
-     * To hook to events or listen to the server response, you must provide an {@link HTTPResponseListener} using {@link HTTPRequest#setHTTPResponseListener(HTTPResponseListener)}.
+     * Returns the {@link HTTPEventListener} of this {@link HTTPRequest}.
      *
-     * @return This {@link HTTPRequest}
+     * @return The {@link HTTPEventListener}, which is {@link HTTPEventListener#NONE} if none has been set.
      */
-    public HTTPRequest queueFirst() {
-        HTTPRequest.requestQueue.addFirst(this);
-        executeFromQueueIfFree();
-        return this;
+    public HTTPEventListener getEventListener() {
+        return eventListener;
     }
 
     /**
-     * Removes this {@link HTTPRequest} from the queue.
+     * Sets the {@link RetryPolicy} which decides whether failed attempts of this {@link HTTPRequest} are retried. The default is set using {@link HTTPRequest#setDefaultRetryPolicy(RetryPolicy)}.
      *
-     * @return This {@link HTTPRequest}
+     * @param policy The {@link RetryPolicy} or <strong>null</strong> to never retry.
+     * @return This {@link HTTPRequest} for chaining and convenience.
      */
-    public HTTPRequest dequeue() {
-        HTTPRequest.requestQueue.remove(this);
+    public HTTPRequest setRetryPolicy(RetryPolicy policy) {
+        this.retryPolicy = policy;
         return this;
     }
 
-    private void executeFromQueueIfFree() {
-        if (HTTPRequest.pendingRequest == null && !HTTPRequest.requestQueue.isEmpty()) {
-            HTTPRequest.pendingRequest = requestQueue.remove();
-            HTTPRequest.pendingRequest.executeAsync();
-        }
+    /**
+     * Sets the {@link RetryPolicy} used by all {@link HTTPRequest}s created afterwards. The default is <strong>null</strong>, which means requests are never retried.
+     *
+     * @param policy The {@link RetryPolicy} or <strong>null</strong> to never retry.
+     */
+    public static void setDefaultRetryPolicy(RetryPolicy policy) {
+        HTTPRequest.defaultRetryPolicy = policy;
     }
 
     /**
-     * Returns the request queue
+     * Sets the {@link CircuitBreaker} which tracks the failures of the host of this {@link HTTPRequest}. The default is set using {@link HTTPRequest#setDefaultCircuitBreaker(CircuitBreaker)}.
      *
-     * @return The {@link HTTPRequest} {@link Queue}
+     * @param circuitBreaker The {@link CircuitBreaker} or <strong>null</strong> to always send the request.
+     * @return This {@link HTTPRequest} for chaining and convenience.
      */
-    public static Queue<HTTPRequest> getRequestQueue() {
-        return requestQueue;
+    public HTTPRequest setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
     }
 
     /**
-     * Clears the request queue
+     * Sets the {@link CircuitBreaker} used by all {@link HTTPRequest}s created afterwards. Use the same instance for all requests so they share the state of each host. The default is <strong>null</strong>.
+     *
+     * @param circuitBreaker The {@link CircuitBreaker} or <strong>null</strong> to always send requests.
      */
-    public static void clearRequestQueue() {
-        requestQueue.clear();
+    public static void setDefaultCircuitBreaker(CircuitBreaker circuitBreaker) {
+        HTTPRequest.defaultCircuitBreaker = circuitBreaker;
     }
 
-    private void log(String baseTag, String message) {
-        if (logTag != null) {
-            Log.d(logTag + " " + baseTag, message);
-        }
+    /**
+     * Marks this {@link HTTPRequest} as safe or unsafe to send more than once, overriding the default based on the request method. For example, a POST request with an idempotency key header the server deduplicates on can be marked as idempotent so it is retried after a timeout.
+     *
+     * @param idempotent <strong>true</strong> if sending the request twice has the same effect as sending it once or <strong>false</strong> otherwise.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setIdempotent(boolean idempotent) {
+        this.idempotent = idempotent;
+        return this;
     }
 
-    private static class NoVerifyTrustManager implements X509TrustManager {
-        public X509Certificate[] getAcceptedIssuers() {
-            return null;
+    /**
+     * Checks if this {@link HTTPRequest} can be sent more than once without changing the result, which decides whether it may be retried after the server might have received it.
+     * Unless set using {@link HTTPRequest#setIdempotent(boolean)}, only POST requests are not idempotent.
+     *
+     * @return <strong>true</strong> if the request is idempotent or <strong>false</strong> otherwise.
+     */
+    public boolean isIdempotent() {
+        return idempotent != null ? idempotent : requestMethod != HTTPRequestMethod.POST;
+    }
+
+    /**
+     * Enables or disables coalescing for this {@link HTTPRequest}. While an identical request is queued or running, a coalesced request waits for its response instead of making its own.
+     * Only GET and HEAD requests without a body whose response is read into memory are coalesced. Requests are identical if they have the same URL, query parameters, headers, trust store and cache settings. Requests with a key store are never coalesced.
+     * The default is set using {@link HTTPRequest#setDefaultCoalescingEnabled(boolean)}.
+     *
+     * @param enabled <strong>true</strong> to share the response of an identical request or <strong>false</strong> to always make a separate request.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setCoalescingEnabled(boolean enabled) {
+        this.coalesce = enabled;
+        return this;
+    }
+
+    /**
+     * Enables or disables coalescing for all {@link HTTPRequest}s created afterwards. The default is <strong>true</strong>.
+     *
+     * @param enabled <strong>true</strong> to share the response of identical requests or <strong>false</strong> to always make separate requests.
+     */
+    public static void setDefaultCoalescingEnabled(boolean enabled) {
+        HTTPRequest.defaultCoalescingEnabled = enabled;
+    }
+
+    /**
+     * Returns the key identifying requests which can share a response or <strong>null</strong> if this request must not be coalesced.
+     */
+    String getCoalescingKey() {
+        if (!coalesce || (requestMethod != HTTPRequestMethod.GET && requestMethod != HTTPRequestMethod.HEAD) || revalidating || deadline > 0
+                || body != null || bodyProvider != null || multiPartContent != null || keyStore != null || keyMaterialUnreadable
+                || downloadFile != null || mockResponse != null || responseListener instanceof StreamingResponseListener) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(requestMethod.name()).append(' ');
+        try {
+            key.append(buildURL());
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        Map<String, String> sortedHeaders = new TreeMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            sortedHeaders.put(header.getKey().toLowerCase(), header.getValue());
+        }
+        for (Map.Entry<String, String> header : sortedHeaders.entrySet()) {
+            key.append('\n').append(header.getKey()).append(": ").append(header.getValue());
+        }
+        try {
+            // The same fingerprint that picks the SSLContext, so requests are only shared when they would trust the same servers
+            key.append('\n').append(SSLContextCache.fingerprint(trustStore, trustStorePassword, null, null, !verifySSL));
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+        key.append(' ').append(System.identityHashCode(getHTTPEngine()))
+                .append(' ').append(System.identityHashCode(getHTTPCache())).append(' ').append(cacheMode)
+                .append(' ').append(decompressResponse);
+        return key.toString();
+    }
+
+    /**
+     * Returns the host this request connects to, used by the {@link HTTPDispatcher} to limit the requests per host.
+     */
+    String getHost() {
+        String h = host;
+        if (h == null) {
+            try {
+                h = buildURL().getHost().toLowerCase();
+            } catch (MalformedURLException e) {
+                h = "";
+            }
+            host = h;
+        }
+        return h;
+    }
+
+    /**
+     * Saves the response body of this {@link HTTPRequest} to a file instead of keeping it in memory. The body is written to a partial file next to the target, named after it with a ".part" suffix, which is renamed to the target once the download completes.
+     * The {@link HTTPResponse} passed to {@link HTTPResponseListener#onRequestCompleted(HTTPResponse)} has no content, use {@link HTTPResponse#getFile()} instead. Error responses are not saved and are returned as usual.<br />
+     * <br />
+     * If resuming is enabled and a partial file is left by an earlier attempt, only the remaining bytes are requested using a Range header. The partial file is kept when the download fails so it can be resumed later.
+     * If the server doesn't support ranges, the download simply starts over.
+     *
+     * @param file   The file to save the response body to or <strong>null</strong> to keep the response body in memory.
+     * @param resume <strong>true</strong> to resume from a partial file or <strong>false</strong> to always download the whole file.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setDownloadFile(File file, boolean resume) {
+        this.downloadFile = file;
+        this.resumeDownload = resume;
+        return this;
+    }
+
+    /**
+     * Returns the file the response body of this {@link HTTPRequest} will be saved to.
+     *
+     * @return The download file or <strong>null</strong> if the response body is kept in memory.
+     */
+    public File getDownloadFile() {
+        return downloadFile;
+    }
+
+    /**
+     * Sets the {@link HTTPProgressListener} which receives the progress of a download started using {@link HTTPRequest#setDownloadFile(File, boolean)}.
+     *
+     * @param listener The {@link HTTPProgressListener}.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setProgressListener(HTTPProgressListener listener) {
+        this.progressListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the {@link HTTPProgressListener} which receives the progress of sending the request body. The total is the uncompressed size of the body, or -1 if a {@link MultiPartContent.Part} has an unknown length.
+     *
+     * @param listener The {@link HTTPProgressListener}.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setUploadProgressListener(HTTPProgressListener listener) {
+        this.uploadProgressListener = listener;
+        return this;
+    }
+
+    /**
+     * Enables logging of debug information for this {@link HTTPRequest}. This will automatically log the request URL, request headers, request body, response message, response content and other useful information in the LOGCAT.
+     *
+     * @param tag The tag to use for logging.
+     * @return This {@link HTTPRequest} for chaining and convenience.
+     */
+    public HTTPRequest setLogTag(String tag) {
+        this.logTag = tag;
+        return this;
+    }
+
+    /**
+     * Returns the request body set in this {@link HTTPRequest}.
+     *
+     * @return The request body.
+     */
+    public String getRequestBody() {
+        return body;
+    }
+
+
+    /**
+     * Returns the {@link MultiPartContent} request body set in this {@link HTTPRequest}.
+     *
+     * @return The {@link MultiPartContent} request body.
+     */
+    public MultiPartContent getMultiPartContentRequestBody() {
+        return multiPartContent;
+    }
+
+    void onPreExecute() {
+        if (!hasListener()) {
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                responseListener.onPreExecute();
+            }
+        });
+    }
+
+    private void onPostExecute() {
+        if (!hasListener()) {
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                responseListener.onPostExecute();
+            }
+        });
+    }
+
+    private void onRequestCompleted(final HTTPResponse response) {
+        for (HTTPRequest follower : takeFollowers()) {
+            follower.onPostExecute();
+            follower.onRequestCompleted(response.copyFor(follower));
+        }
+        if (cancelled || deadlineExceeded) {
+            onRequestError(cancelled ? HTTPRequestError.CANCELLED : HTTPRequestError.TIMEOUT);
+            return;
+        }
+        onCallEnd(response, null);
+        notifyFinished(response, null);
+        if (!hasListener()) {
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                responseListener.onRequestCompleted(response);
+            }
+        });
+    }
+
+    /**
+     * Reports a failed attempt to the circuit breaker, then either schedules a retry or reports the error.
+     * A failure caused by cancelling the request or by its deadline is reported as such, without a retry and without counting against the host.
+     */
+    private void onAttemptFailed(HTTPRequestError error) {
+        if (deadlineAt > 0 && System.currentTimeMillis() >= deadlineAt) {
+            deadlineExceeded = true; // The read timeout is capped to the deadline, so it may expire before the timer runs
+        }
+        if (cancelled || deadlineExceeded) {
+            onRequestError(error);
+            return;
+        }
+        onCallEnd(null, error);
+        if (circuitBreaker != null && error.isNetworkFailure()) {
+            circuitBreaker.recordFailure(getHost());
+        }
+        if (!retry(error, null)) {
+            onRequestError(error);
+        }
+    }
+
+    /**
+     * Queues this request again if the {@link RetryPolicy} allows it.
+     *
+     * @return <strong>true</strong> if a retry has been scheduled.
+     */
+    private boolean retry(HTTPRequestError error, HTTPResponse response) {
+        if (retryPolicy == null || cancelled || deadlineExceeded || (dispatcher == null && !synchronous) || (multiPartContent != null && !multiPartContent.isRepeatable())) {
+            return false;
+        }
+        long delay = response != null ? retryPolicy.getRetryDelay(this, attempt + 1, response) : retryPolicy.getRetryDelay(this, attempt + 1, error);
+        if (delay < 0 || (deadlineAt > 0 && System.currentTimeMillis() + delay >= deadlineAt)) {
+            return false;
+        }
+        attempt++;
+        onCallEnd(response, null); // Before the next attempt can start on another thread
+        if (logTag != null) { // Skip building log messages nobody reads
+            log("Retrying", "Attempt " + (attempt + 1) + " in " + delay + "ms after " + (response != null ? response.getResponseMessage() : error.name()));
+        }
+        if (synchronous) {
+            retryDelay = delay; // execute() waits and runs the request again
+        } else {
+            dispatcher.retry(this, delay);
+        }
+        return true;
+    }
+
+    void onRequestError(HTTPRequestError requestError) {
+        List<HTTPRequest> followers = takeFollowers();
+        if ((cancelled || deadlineExceeded) && !followers.isEmpty()) {
+            // Only this request was aborted, the requests which joined it get a response of their own
+            dispatcher.requeueFollowers(followers);
+        } else {
+            for (HTTPRequest follower : followers) {
+                follower.onPostExecute();
+                follower.onRequestError(requestError);
+            }
+        }
+
+        // Failures caused by cancelling a running request are reported as a cancellation
+        final HTTPRequestError error = cancelled ? HTTPRequestError.CANCELLED : deadlineExceeded ? HTTPRequestError.TIMEOUT : requestError;
+        onCallEnd(null, error);
+        log("Request Error", error.name());
+        notifyFinished(null, error);
+        if (!hasListener()) {
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                responseListener.onRequestError(error);
+            }
+        });
+    }
+
+    /**
+     * Runs a callback on the callback {@link Executor}, on the current thread during {@link HTTPRequest#execute()}, or on the {@link Handler} otherwise.
+     */
+    private void post(Runnable runnable) {
+        if (callbackExecutor != null) {
+            callbackExecutor.execute(runnable);
+        } else if (synchronous) {
+            runnable.run();
+        } else {
+            handler.post(runnable);
+        }
+    }
+
+    /**
+     * Hands the final result to the {@link HTTPBatch} or {@link HTTPFuture} waiting for it, on the current thread.
+     */
+    private void notifyFinished(HTTPResponse response, HTTPRequestError error) {
+        HTTPBatch batch = this.batch;
+        if (batch != null) {
+            batch.onRequestFinished(this, response, error);
+        }
+        HTTPFuture future = this.future;
+        if (future != null) {
+            this.future = null;
+            future.complete(response, error);
+        }
+    }
+
+    /**
+     * Checks if a listener has been set, so posting no-op callbacks to the {@link Handler} can be skipped.
+     */
+    private boolean hasListener() {
+        return responseListener != defaultResponseListener;
+    }
+
+    /**
+     * Returns the identical requests which joined this one to share its response.
+     */
+    private List<HTTPRequest> takeFollowers() {
+        return dispatcher != null ? dispatcher.endFlight(this) : Collections.<HTTPRequest>emptyList();
+    }
+
+    private void onProgress(final long bytesTransferred, final long totalBytes) {
+        onProgress(progressListener, bytesTransferred, totalBytes);
+    }
+
+    private void onProgress(final HTTPProgressListener listener, final long bytesTransferred, final long totalBytes) {
+        if (listener == null) {
+            return;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onProgress(bytesTransferred, totalBytes);
+            }
+        });
+    }
+
+    private void deliverCachedResponse(HTTPCache cache, HTTPResponse response) {
+        cache.trackResponse(false, false);
+        onPreExecute();
+        onPostExecute();
+        if (logTag != null) {
+            log("Response Message", response.getResponseMessage() + " (cached)");
+            log("Response Content", response.getStringContent());
+        }
+        onRequestCompleted(response);
+    }
+
+    /**
+     * Runs a copy of this request which ignores the result, just to update the cache.
+     */
+    private void revalidateInBackground() {
+        HTTPRequest request = clone();
+        request.setHTTPResponseListener(defaultResponseListener);
+        request.setProgressListener(null);
+        request.setUploadProgressListener(null);
+        request.setPriority(HTTPRequestPriority.LOW);
+        request.revalidating = true;
+        request.executeAsync();
+    }
+
+    private static boolean isUnsafe(HTTPRequestMethod method) {
+        switch (method) {
+            case GET:
+            case HEAD:
+            case OPTIONS:
+            case TRACE:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isDownloadable(HttpURLConnection connection) {
+        try {
+            int statusCode = connection.getResponseCode();
+            return (statusCode >= 200 && statusCode < 300) || statusCode == HTTP_RANGE_NOT_SATISFIABLE;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Executes this {@link HTTPRequest} asynchronously. To hook to events or listen to the server response, you must provide an {@link HTTPResponseListener} using {@link HTTPRequest#setHTTPResponseListener(HTTPResponseListener)}.
+     *
+     * @return This {@link HTTPRequest}
+     */
+    public HTTPRequest executeAsync() {
+        enqueue(false);
+        return this;
+    }
+
+    private void enqueue(boolean first) {
+        cancelled = false;
+        attempt = 0;
+        startDeadline();
+        synchronous = false;
+        dispatcher = defaultDispatcher;
+        dispatcher.enqueue(this, first);
+    }
+
+    /**
+     * Executes this {@link HTTPRequest} on the current thread and returns the response, whatever its status code. It must not be called on the main thread.
+     * The {@link HTTPResponseListener} is still notified, on the current thread unless a callback {@link Executor} has been set, and failed attempts are retried according to the {@link RetryPolicy}.
+     * The request doesn't go through the {@link HTTPDispatcher}, so it is not limited, prioritized or coalesced.
+     *
+     * @return The {@link HTTPResponse}.
+     * @throws HTTPRequestException If the request failed.
+     */
+    public HTTPResponse execute() throws HTTPRequestException {
+        Looper looper = Looper.myLooper();
+        if (looper != null && looper == Looper.getMainLooper()) {
+            throw new IllegalStateException("execute() must not be called on the main thread.");
+        }
+        HTTPFuture future = new HTTPFuture(this);
+        this.future = future;
+        cancelled = false;
+        attempt = 0;
+        startDeadline();
+        synchronous = true;
+        dispatcher = defaultDispatcher;
+        dispatcher.executed(this);
+        try {
+            while (true) {
+                retryDelay = -1;
+                perform();
+                if (retryDelay < 0) {
+                    break;
+                }
+                synchronized (retryLock) {
+                    try {
+                        if (!cancelled) {
+                            retryLock.wait(retryDelay); // Woken up early by cancel()
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancelled = true; // Reported by the next attempt
+                    }
+                }
+            }
+        } finally {
+            synchronous = false;
+            dispatcher.finishedSync(this);
+        }
+        if (future.getError() != null) {
+            throw new HTTPRequestException(future.getError());
+        }
+        return future.getResponse();
+    }
+
+    /**
+     * Executes this {@link HTTPRequest} asynchronously like {@link HTTPRequest#executeAsync()} and returns an {@link HTTPFuture} for its result. The {@link HTTPResponseListener} is still notified as usual.
+     *
+     * @return An {@link HTTPFuture} which completes once the request finishes.
+     */
+    public HTTPFuture submit() {
+        return submit(new HTTPFuture(this));
+    }
+
+    HTTPFuture submit(HTTPFuture future) {
+        this.future = future;
+        enqueue(false);
+        return future;
+    }
+
+    /**
+     * Starts counting the deadline of a new execution, which covers all of its attempts.
+     */
+    private void startDeadline() {
+        deadlineExceeded = false;
+        deadlineAt = deadline > 0 ? System.currentTimeMillis() + deadline : 0;
+    }
+
+    /**
+     * Runs one attempt of the request flow on the current thread. Called by the {@link HTTPDispatcher} or {@link HTTPRequest#execute()}.
+     */
+    void perform() {
+        try {
+            performAttempt();
+        } finally {
+            ScheduledFuture<?> timer = deadlineTimer;
+            if (timer != null) {
+                timer.cancel(false);
+                deadlineTimer = null;
+            }
+            activeConnection = null;
+        }
+    }
+
+    private void performAttempt() {
+        if (cancelled) {
+            onRequestError(HTTPRequestError.CANCELLED);
+            return;
+        }
+        if (mockResponse != null) {
+            performMock();
+            return;
+        }
+
+        HTTPEngine engine = getHTTPEngine();
+        final HttpURLConnection urlConnection = buildURLConnection();
+
+        // Make the connection reachable by cancel() and the deadline so they can abort it mid-read
+        activeConnection = urlConnection;
+        if (cancelled) {
+            onRequestError(HTTPRequestError.CANCELLED);
+            engine.release(urlConnection);
+            return;
+        }
+        if (deadlineAt > 0) {
+            long remaining = deadlineAt - System.currentTimeMillis();
+            if (remaining <= 0) {
+                deadlineExceeded = true;
+                onRequestError(HTTPRequestError.TIMEOUT);
+                engine.release(urlConnection);
+                return;
+            }
+            urlConnection.setConnectTimeout((int) (connectTimeout > 0 ? Math.min(connectTimeout, remaining) : remaining));
+            urlConnection.setReadTimeout((int) (readTimeout > 0 ? Math.min(readTimeout, remaining) : remaining));
+            if (dispatcher != null) {
+                deadlineTimer = dispatcher.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        deadlineExceeded = true;
+                        log("Deadline Exceeded", deadline + "ms");
+                        urlConnection.disconnect();
+                    }
+                }, remaining);
+            }
+        }
+
+        // Get request body now if there's a provider
+        if (bodyProvider != null) {
+            body = bodyProvider.getRequestBody();
+        }
+
+        // Update socket factory as needed
+        if (urlConnection instanceof HttpsURLConnection && "https".equalsIgnoreCase(urlConnection.getURL().getProtocol())) {
+            HttpsURLConnection httpsURLConnection = (HttpsURLConnection) urlConnection;
+
+            try {
+                if (keyMaterialUnreadable) {
+                    throw new IOException("Trust store or key store could not be read.");
+                }
+                httpsURLConnection.setSSLSocketFactory(SSLContextCache.getSocketFactory(trustStore, trustStorePassword, keyStore, keyStorePassword, !verifySSL));
+            } catch (GeneralSecurityException e) {
+                e.printStackTrace();
+                onRequestError(HTTPRequestError.SECURITY_EXCEPTION);
+                engine.release(urlConnection);
+                return; // Terminate now
+            } catch (IOException e) {
+                e.printStackTrace();
+                onRequestError(HTTPRequestError.KEYSTORE_INVALID);
+                engine.release(urlConnection);
+                return; // Terminate now
+            }
+
+            if (!verifySSL) {
+                httpsURLConnection.setHostnameVerifier(noVerifyHostnameVerifier);
+                log("SSL Verification Disabled", "**********");
+            }
+        }
+
+        boolean logging = logTag != null; // Skip building log messages nobody reads
+        if (logging) {
+            log("Endpoint", urlConnection.getURL().toString());
+        }
+        for (Map.Entry<String, String> pair : headers.entrySet()) {
+            urlConnection.addRequestProperty(pair.getKey(), pair.getValue());
+            if (logging) {
+                log("Request Header", pair.getKey() + ": " + pair.getValue());
+            }
+        }
+        boolean compressBody = requestCompression != HTTPContentEncoding.IDENTITY && (multiPartContent != null || body != null);
+        if (compressBody) {
+            urlConnection.setRequestProperty("Content-Encoding", requestCompression.getHeaderValue());
+            log("Request Body Compression", requestCompression.getHeaderValue());
+        }
+        if (decompressResponse && downloadFile == null && !hasHeader("Accept-Encoding")) {
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        }
+        if (downloadFile != null) {
+            // Ranges must refer to the bytes of the file, not of a compressed transfer
+            if (!hasHeader("Accept-Encoding")) {
+                urlConnection.setRequestProperty("Accept-Encoding", "identity");
+            }
+            long offset = resumeDownload ? getPartialDownloadFile().length() : 0;
+            if (offset > 0) {
+                urlConnection.setRequestProperty("Range", "bytes=" + offset + "-");
+                if (logging) {
+                    log("Resuming Download", offset + " bytes");
+                }
+            }
+        }
+        if (logging) {
+            if (multiPartContent != null) {
+                log("Multipart Request Boundary", multiPartContent.getBoundary());
+                int counter = 1;
+                for (MultiPartContent.Part part : multiPartContent.getParts()) {
+                    log("Request Body Part " + counter, "Name: " + part.getName() + "; File Name: " + part.getFileName());
+
+                    Iterator<Map.Entry<String, String>> it = part.getHeaders().entrySet().iterator();
+                    while (it.hasNext()) {
+                        Map.Entry<String, String> pair = (Map.Entry) it.next();
+                        log("Request Body Part " + counter + " Header", pair.getKey() + ": " + pair.getValue());
+                    }
+                    counter++;
+                }
+            } else {
+                log("Request Body", body);
+            }
+        }
+
+        // Serve the response from the cache if possible, otherwise prepare a conditional request
+        HTTPCache cache = getHTTPCache();
+        String cacheKey = urlConnection.getURL().toString();
+        boolean useCache = cache != null && requestMethod == HTTPRequestMethod.GET && downloadFile == null
+                && !(responseListener instanceof StreamingResponseListener) && !CachedResponse.isNoStore(headers);
+        CachedResponse cachedResponse = null;
+        if (useCache) {
+            cachedResponse = cacheMode != HTTPCacheMode.NETWORK_ONLY ? cache.get(cacheKey, headers) : null;
+            if (!revalidating) {
+                long now = System.currentTimeMillis();
+                if (cacheMode == HTTPCacheMode.OFFLINE || CachedResponse.isOnlyIfCached(headers)) {
+                    deliverCachedResponse(cache, cachedResponse != null ? cachedResponse.toResponse(this) : CachedResponse.unsatisfiable(this, cacheKey));
+                    engine.release(urlConnection);
+                    return;
+                }
+                if (cachedResponse != null && cachedResponse.isFresh(now, headers)) {
+                    deliverCachedResponse(cache, cachedResponse.toResponse(this));
+                    engine.release(urlConnection);
+                    return;
+                }
+                if (cachedResponse != null && (cacheMode == HTTPCacheMode.STALE_WHILE_REVALIDATE || cachedResponse.isWithinStaleWhileRevalidate(now))) {
+                    deliverCachedResponse(cache, cachedResponse.toResponse(this));
+                    engine.release(urlConnection);
+                    revalidateInBackground();
+                    return;
+                }
+            }
+            if (cachedResponse != null) {
+                if (cachedResponse.getETag() != null && !hasHeader("If-None-Match")) {
+                    urlConnection.setRequestProperty("If-None-Match", cachedResponse.getETag());
+                    if (logging) {
+                        log("Request Header", "If-None-Match: " + cachedResponse.getETag());
+                    }
+                }
+                if (cachedResponse.getLastModified() != null && !hasHeader("If-Modified-Since")) {
+                    urlConnection.setRequestProperty("If-Modified-Since", cachedResponse.getLastModified());
+                    if (logging) {
+                        log("Request Header", "If-Modified-Since: " + cachedResponse.getLastModified());
+                    }
+                }
+            }
+        }
+
+        // Fail fast while the host is known to be down
+        if (circuitBreaker != null && !circuitBreaker.allowRequest(getHost())) {
+            log("Circuit Open", getHost());
+            onRequestError(HTTPRequestError.CIRCUIT_OPEN);
+            engine.release(urlConnection);
+            return; // Terminate now
+        }
+
+        // Trigger pre-execute since preparations are complete
+        onPreExecute();
+        long requestTime = System.currentTimeMillis();
+        callInProgress = true;
+        eventListener.callStart(this);
+        NetworkPolicy networkPolicy = dispatcher != null ? dispatcher.getNetworkPolicy() : null;
+
+        // Write our request body, streaming it instead of letting the connection buffer all of it
+        try {
+            HTTPContentEncoding encoding = compressBody ? requestCompression : HTTPContentEncoding.IDENTITY;
+            if (multiPartContent != null) {
+                long length = multiPartContent.getContentLength();
+                setStreamingMode(urlConnection, compressBody ? -1 : length);
+                CountingOutputStream sent = new CountingOutputStream(throttle(urlConnection.getOutputStream(), networkPolicy));
+                multiPartContent.write(new UploadProgressOutputStream(encoding.encode(sent), length));
+                eventListener.requestBodyEnd(this, sent.count);
+            } else if (body != null) {
+                byte[] bytes = body.getBytes(UTF_8);
+                setStreamingMode(urlConnection, compressBody ? -1 : bytes.length);
+                CountingOutputStream sent = new CountingOutputStream(throttle(urlConnection.getOutputStream(), networkPolicy));
+                OutputStream os = new UploadProgressOutputStream(encoding.encode(sent), bytes.length);
+                os.write(bytes);
+                os.flush();
+                os.close();
+                eventListener.requestBodyEnd(this, sent.count);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            onAttemptFailed(HTTPRequestError.from(e));
+            engine.release(urlConnection);
+            return; // Terminate now
         }
 
-        @Override
-        public void checkClientTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {
+        // Get the response
+        InputStream content;
+        IOException failure = null;
+        try {
+            content = urlConnection.getInputStream();
+            onPostExecute();
+        } catch (SocketTimeoutException e) { // Timeout
+            e.printStackTrace();
+            onPostExecute();
+            onAttemptFailed(HTTPRequestError.TIMEOUT);
+            engine.release(urlConnection);
+            return; // Terminate now
+        } catch (IOException e) { // All other exceptions
+            e.printStackTrace();
+            failure = e;
+            content = urlConnection.getErrorStream();
+            onPostExecute();
+        }
+        long responseTime = System.currentTimeMillis();
+        if (failure == null || content != null) {
+            eventListener.responseHeadersEnd(this);
+        }
+        ThrottledInputStream throttled = content != null && networkPolicy != null ? new ThrottledInputStream(content, networkPolicy) : null;
+        CountingInputStream received = content != null ? new CountingInputStream(throttled != null ? throttled : content) : null;
+        content = received;
+
+        // Decompress the response as it is read
+        if (decompressResponse) {
+            try {
+                content = HTTPContentEncoding.decode(content, urlConnection.getContentEncoding());
+            } catch (IOException e) {
+                e.printStackTrace();
+                onAttemptFailed(HTTPRequestError.from(e));
+                engine.release(urlConnection);
+                return; // Terminate now
+            }
         }
 
-        @Override
-        public void checkServerTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {
+        // Pre-process the response, leaving the body to the listener if it wants a stream or to the download file
+        boolean streaming = downloadFile == null && responseListener instanceof StreamingResponseListener;
+        boolean download = downloadFile != null && isDownloadable(urlConnection);
+        HTTPResponse response;
+        try {
+            response = HTTPResponse.from(HTTPRequest.this, urlConnection, streaming || download ? null : content);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (cancelled || deadlineExceeded) {
+                onRequestError(cancelled ? HTTPRequestError.CANCELLED : HTTPRequestError.TIMEOUT);
+            } else {
+                // A broken body is a network failure unless it couldn't be decompressed
+                HTTPRequestError error = HTTPRequestError.from(e);
+                onAttemptFailed(error == HTTPRequestError.OTHER && !(e instanceof ZipException) ? HTTPRequestError.READ : error);
+            }
+            engine.release(urlConnection);
+            return; // Terminate now
+        } finally {
+            if (content != null && !streaming && !download) {
+                try {
+                    content.close(); // Frees the inflater of a decompressed body
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (!streaming && !download) {
+            onResponseBodyRead(received, throttled);
         }
-    }
 
-    private static class NoVerifyHostnameVerifier implements HostnameVerifier {
-        public boolean verify(String hostname, SSLSession session) {
-            return true;
+        if (cancelled || deadlineExceeded) { // Aborted, the content may be incomplete
+            onRequestError(cancelled ? HTTPRequestError.CANCELLED : HTTPRequestError.TIMEOUT);
+            engine.release(urlConnection);
+            return; // Terminate now
+        }
+
+        if (response.isConnectionError()) {
+            onAttemptFailed(failure != null ? HTTPRequestError.from(failure) : HTTPRequestError.OTHER);
+            engine.release(urlConnection);
+            return; // Terminate now
+        }
+
+        if (circuitBreaker != null) {
+            if (response.isServerError()) {
+                circuitBreaker.recordFailure(getHost());
+            } else {
+                circuitBreaker.recordSuccess(getHost());
+            }
+        }
+        if (response.getStatusCode() >= 400 && retry(null, response)) {
+            if (content != null && (streaming || download)) {
+                try {
+                    content.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            engine.release(urlConnection);
+            return; // Terminate now, the retry takes over
+        }
+
+        // Update the cache
+        if (useCache) {
+            if (cachedResponse != null && response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                log("Response Message", response.getResponseMessage());
+                cachedResponse = cachedResponse.revalidated(response, requestTime, responseTime);
+                cache.put(cacheKey, cachedResponse);
+                cache.trackResponse(true, true);
+                response = cachedResponse.toResponse(this);
+            } else {
+                CachedResponse newCachedResponse = CachedResponse.from(response, headers, requestTime, responseTime);
+                if (newCachedResponse != null) {
+                    cache.put(cacheKey, newCachedResponse);
+                } else if (cachedResponse != null && response.isSuccess()) {
+                    cache.remove(cacheKey); // Replaced by a response which can't be stored
+                }
+                cache.trackResponse(true, false);
+            }
+        } else if (cache != null && isUnsafe(requestMethod) && (response.isSuccess() || response.isRedirection())) {
+            cache.remove(cacheKey); // The cached response is now outdated
+        }
+
+        // Log response
+        if (logging) {
+            log("Response Message", response.getResponseMessage());
+            if (!streaming && !download) {
+                log("Response Content", response.getStringContent());
+            }
+        }
+
+        if (download) {
+            try {
+                downloadContent(response, urlConnection, content);
+                if (content != null) {
+                    content.close();
+                }
+                onResponseBodyRead(received, throttled);
+                log("Downloaded To", downloadFile.getPath());
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (!resumeDownload) {
+                    getPartialDownloadFile().delete();
+                }
+                onAttemptFailed(HTTPRequestError.from(e));
+                engine.release(urlConnection);
+                return; // Terminate now
+            }
+        }
+
+        if (streaming && content != null) {
+            try {
+                ((StreamingResponseListener) responseListener).onResponseStream(response, content);
+                content.close();
+                onResponseBodyRead(received, null); // The time spent by the listener says nothing about the network
+            } catch (IOException e) {
+                e.printStackTrace();
+                HTTPRequestError error = HTTPRequestError.from(e);
+                if (circuitBreaker != null && error.isNetworkFailure() && !cancelled && !deadlineExceeded) {
+                    circuitBreaker.recordFailure(getHost());
+                }
+                onRequestError(error); // Not retried since the listener already got part of the body
+                engine.release(urlConnection);
+                return; // Terminate now
+            }
         }
+
+        // Trigger request completed and return the response
+        onRequestCompleted(response);
+
+        // Release the connection
+        engine.release(urlConnection);
     }
 
-    private class FlexibleSSLSocketFactory extends SSLSocketFactory {
-        SSLContext sslContext;
+    /**
+     * Delivers the {@link MockResponse} after its delay, without opening a connection.
+     */
+    private void performMock() {
+        onPreExecute();
+        try {
+            Thread.sleep(mockResponse.getDelay());
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        onPostExecute();
+        HTTPResponse response = mockResponse.copyFor(this);
+        try {
+            response.requestURL = buildURL().toString();
+        } catch (MalformedURLException e) {
+            response.requestURL = url;
+        }
+        if (logTag != null) {
+            log("Endpoint", response.requestURL);
+            log("Response Message", response.getResponseMessage());
+            log("Response Content", response.getStringContent());
+        }
+        onRequestCompleted(response);
+    }
 
-        public FlexibleSSLSocketFactory(boolean trustAll) throws CertificateException, UnrecoverableKeyException, NoSuchAlgorithmException, KeyManagementException, KeyStoreException, IOException {
-            this(null, null, null, null, trustAll);
+    private void onResponseBodyRead(CountingInputStream received, ThrottledInputStream throttled) {
+        eventListener.responseBodyEnd(this, received != null ? received.count : 0);
+        if (throttled != null) {
+            throttled.reportThroughput();
         }
+    }
+
+    private static OutputStream throttle(OutputStream out, NetworkPolicy networkPolicy) {
+        return networkPolicy != null ? new ThrottledOutputStream(out, networkPolicy) : out;
+    }
 
-        public FlexibleSSLSocketFactory(InputStream keyStoreStream, String keyStorePassword, boolean trustAll) throws CertificateException, UnrecoverableKeyException, NoSuchAlgorithmException, KeyManagementException, KeyStoreException, IOException {
-            this(null, null, keyStoreStream, keyStorePassword, trustAll);
+    /**
+     * Ends the current attempt for the {@link HTTPEventListener}, unless it has already ended or none is in progress.
+     */
+    private void onCallEnd(HTTPResponse response, HTTPRequestError error) {
+        if (!callInProgress) {
+            return;
+        }
+        callInProgress = false;
+        if (response != null) {
+            eventListener.callEnd(this, response);
+        } else {
+            eventListener.callFailed(this, error);
         }
+    }
 
-        public FlexibleSSLSocketFactory(InputStream trustStoreStream, String trustStorePassword) throws CertificateException, UnrecoverableKeyException, NoSuchAlgorithmException, KeyManagementException, KeyStoreException, IOException {
-            this(trustStoreStream, trustStorePassword, null, null, false);
+    /**
+     * Sends the request body with a fixed Content-Length if it is known or in chunks otherwise.
+     */
+    private static void setStreamingMode(HttpURLConnection connection, long length) {
+        if (length >= 0 && length <= Integer.MAX_VALUE) {
+            connection.setFixedLengthStreamingMode((int) length);
+        } else if (length >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            connection.setFixedLengthStreamingMode(length);
+        } else {
+            connection.setChunkedStreamingMode(0);
         }
+    }
 
-        public FlexibleSSLSocketFactory(InputStream trustStoreStream, String trustStorePassword, InputStream keyStoreStream, String keyStorePassword, boolean trustAll) throws KeyManagementException, UnrecoverableKeyException, NoSuchAlgorithmException, KeyStoreException, IOException, CertificateException {
-            super();
-            sslContext = SSLContext.getInstance("TLS");
+    /**
+     * Reports the uncompressed bytes of the request body written so far to the upload {@link HTTPProgressListener}.
+     */
+    private class UploadProgressOutputStream extends FilterOutputStream {
+        private final long total;
+        private long transferred;
+        private long lastProgress;
+
+        UploadProgressOutputStream(OutputStream out, long total) {
+            super(out);
+            this.total = total;
+        }
 
-            TrustManager[] trustManagers = null;
-            KeyManager[] keyManagers = null;
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            onWritten(1);
+        }
 
-            if (trustAll) {
-                trustManagers = new TrustManager[]{new NoVerifyTrustManager()};
-            } else if (trustStoreStream != null) {
-                // Load trust store certificate
-                KeyStore trustStore = KeyStore.getInstance("BKS");
-                trustStore.load(trustStoreStream, trustStorePassword.toCharArray());
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            onWritten(len);
+        }
 
-                // Initialize trust manager factory with the trust store
-                TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                tmf.init(trustStore);
+        @Override
+        public void close() throws IOException {
+            super.close();
+            onProgress(uploadProgressListener, transferred, total >= 0 ? total : transferred);
+        }
 
-                trustManagers = tmf.getTrustManagers();
+        private void onWritten(int count) {
+            transferred += count;
+            long now = SystemClock.uptimeMillis();
+            if (uploadProgressListener != null && now - lastProgress >= PROGRESS_INTERVAL) {
+                lastProgress = now;
+                onProgress(uploadProgressListener, transferred, total);
             }
+        }
+    }
+
+    /**
+     * Counts the bytes written to the connection for the {@link HTTPEventListener}.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
 
-            if (keyStoreStream != null) {
-                // Load client certificate
-                KeyStore ks = KeyStore.getInstance("PKCS12");
-                ks.load(keyStoreStream, keyStorePassword.toCharArray());
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
 
-                // Initialize key manager factory with the client certificate
-                KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-                kmf.init(ks, keyStorePassword.toCharArray());
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
 
-                keyManagers = kmf.getKeyManagers();
-            }
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Holds back the request body to stay under the bandwidth cap of the {@link NetworkPolicy}.
+     */
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private final NetworkPolicy networkPolicy;
+
+        ThrottledOutputStream(OutputStream out, NetworkPolicy networkPolicy) {
+            super(out);
+            this.networkPolicy = networkPolicy;
+        }
 
-            sslContext.init(keyManagers, trustManagers, null);
+        @Override
+        public void write(int b) throws IOException {
+            pause(networkPolicy.reserve(1));
+            out.write(b);
         }
 
         @Override
-        public String[] getDefaultCipherSuites() {
-            return sslContext.getSocketFactory().getDefaultCipherSuites();
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, THROTTLE_CHUNK_SIZE); // Small chunks keep the pace smooth
+                pause(networkPolicy.reserve(count));
+                out.write(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+    }
+
+    /**
+     * Holds back reading the response body to stay under the bandwidth cap of the {@link NetworkPolicy}, and measures the throughput of the body for it.
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final NetworkPolicy networkPolicy;
+        private final long start = System.nanoTime();
+        private long count;
+        private long pausedNanos;
+
+        ThrottledInputStream(InputStream in, NetworkPolicy networkPolicy) {
+            super(in);
+            this.networkPolicy = networkPolicy;
         }
 
         @Override
-        public String[] getSupportedCipherSuites() {
-            return sslContext.getSocketFactory().getSupportedCipherSuites();
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                onRead(1);
+            }
+            return b;
         }
 
         @Override
-        public Socket createSocket(Socket socket, String host, int port,
-                                   boolean autoClose) throws IOException {
-            return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(socket, host, port, autoClose));
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, networkPolicy.isThrottled() ? Math.min(len, THROTTLE_CHUNK_SIZE) : len);
+            if (read > 0) {
+                onRead(read);
+            }
+            return read;
         }
 
         @Override
-        public Socket createSocket() throws IOException {
-            return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket());
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, THROTTLE_CHUNK_SIZE));
+            if (skipped > 0) {
+                onRead((int) skipped);
+            }
+            return skipped;
+        }
+
+        private void onRead(int count) throws IOException {
+            this.count += count;
+            long start = System.nanoTime();
+            if (pause(networkPolicy.reserve(count))) {
+                pausedNanos += System.nanoTime() - start;
+            }
+        }
+
+        void reportThroughput() {
+            networkPolicy.onResponseReceived(count, System.nanoTime() - start - pausedNanos);
+        }
+    }
+
+    /**
+     * Sleeps for the time requested by the bandwidth cap.
+     *
+     * @return <strong>true</strong> if the thread slept.
+     */
+    private static boolean pause(long nanos) throws IOException {
+        if (nanos <= 0) {
+            return false;
+        }
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        return true;
+    }
+
+    /**
+     * Counts the bytes read from the connection for the {@link HTTPEventListener}.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
         }
 
         @Override
-        public Socket createSocket(String host, int port) throws IOException {
-            return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(host, port));
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
         }
 
         @Override
-        public Socket createSocket(String host, int port, InetAddress localHost,
-                                   int localPort) throws IOException {
-            return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(host, port, localHost, localPort));
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
         }
 
         @Override
-        public Socket createSocket(InetAddress host, int port) throws IOException {
-            return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(host, port));
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
         }
 
         @Override
-        public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
-                                   int localPort) throws IOException {
-            return processSocket((SSLSocket) sslContext.getSocketFactory().createSocket(address, port, localAddress, localPort));
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Executes this {@link HTTPRequest} asynchronously and saves the response body to the specified file, resuming from a partial file left by an earlier attempt if there is one. See {@link HTTPRequest#setDownloadFile(File, boolean)} for details.
+     *
+     * @param file The file to save the response body to.
+     * @return This {@link HTTPRequest}
+     */
+    public HTTPRequest downloadTo(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("File must not be null.");
+        }
+        setDownloadFile(file, true);
+        return executeAsync();
+    }
+
+    private File getPartialDownloadFile() {
+        return new File(downloadFile.getPath() + ".part");
+    }
+
+    /**
+     * Writes the response body to the partial file then moves it to the download file.
+     */
+    private void downloadContent(HTTPResponse response, HttpURLConnection connection, InputStream content) throws IOException {
+        File partialFile = getPartialDownloadFile();
+        long offset = 0;
+        long total = connection.getContentEncoding() == null ? parseLength(connection.getHeaderField("Content-Length")) : -1;
+
+        if (response.getStatusCode() == HTTP_RANGE_NOT_SATISFIABLE) {
+            // Nothing left to download if the partial file is already as long as the whole file
+            long length = parseContentRangeTotal(connection.getHeaderField("Content-Range"));
+            if (length < 0 || partialFile.length() != length) {
+                partialFile.delete();
+                throw new IOException("Range not satisfiable, partial download discarded.");
+            }
+            offset = length;
+            total = length;
+        } else if (response.getStatusCode() == HttpURLConnection.HTTP_PARTIAL) {
+            String contentRange = connection.getHeaderField("Content-Range");
+            offset = parseContentRangeStart(contentRange);
+            if (offset != partialFile.length()) {
+                partialFile.delete();
+                throw new IOException("Unexpected Content-Range: " + contentRange);
+            }
+            total = parseContentRangeTotal(contentRange);
+        }
+
+        RandomAccessFile output = new RandomAccessFile(partialFile, "rw");
+        ByteBuffer buffer = BufferPool.acquire();
+        long transferred = offset;
+        try {
+            FileChannel channel = output.getChannel();
+            channel.truncate(offset);
+            channel.position(offset);
+
+            if (response.getStatusCode() != HTTP_RANGE_NOT_SATISFIABLE) {
+                ReadableByteChannel source = Channels.newChannel(content);
+                long lastProgress = 0;
+                while (source.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        transferred += channel.write(buffer);
+                    }
+                    buffer.clear();
+
+                    long now = SystemClock.uptimeMillis();
+                    if (now - lastProgress >= PROGRESS_INTERVAL) {
+                        lastProgress = now;
+                        onProgress(transferred, total);
+                    }
+                }
+            }
+        } finally {
+            BufferPool.release(buffer);
+            output.close();
+        }
+
+        if (total >= 0 && transferred < total) {
+            throw new EOFException("Download ended after " + transferred + " of " + total + " bytes.");
+        }
+        onProgress(transferred, transferred);
+
+        if (downloadFile.exists() && !downloadFile.delete()) {
+            throw new IOException("Could not replace " + downloadFile);
+        }
+        if (!partialFile.renameTo(downloadFile)) {
+            throw new IOException("Could not rename " + partialFile + " to " + downloadFile);
+        }
+        response.file = downloadFile;
+    }
+
+    private static long parseLength(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the first byte position of a Content-Range header such as "bytes 100-199/1000" or -1 if there is none.
+     */
+    private static long parseContentRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        return dash != -1 ? parseLength(contentRange.substring(6, dash)) : -1;
+    }
+
+    /**
+     * Returns the complete length of a Content-Range header such as "bytes 100-199/1000" or "bytes *&#47;1000" or -1 if it is unknown.
+     */
+    private static long parseContentRangeTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        return slash != -1 ? parseLength(contentRange.substring(slash + 1)) : -1;
+    }
+
+    /**
+     * Queues this {@link HTTPRequest} for asynchronous execution through the default {@link HTTPDispatcher}. This is the same as {@link HTTPRequest#executeAsync()}, the request starts as soon as the dispatcher has a free slot for its host and {@link HTTPRequestPriority}.
+     * <p/>
+     * To hook to events or listen to the server response, you must provide an {@link HTTPResponseListener} using {@link HTTPRequest#setHTTPResponseListener(HTTPResponseListener)}.
+     *
+     * @return This {@link HTTPRequest}
+     */
+    public HTTPRequest queue() {
+        enqueue(false);
+        return this;
+    }
+
+    /**
+     * Queues this {@link HTTPRequest} for asynchronous execution ahead of the other queued requests with the same {@link HTTPRequestPriority}.
+     * <p/>
+     * To hook to events or listen to the server response, you must provide an {@link HTTPResponseListener} using {@link HTTPRequest#setHTTPResponseListener(HTTPResponseListener)}.
+     *
+     * @return This {@link HTTPRequest}
+     */
+    public HTTPRequest queueFirst() {
+        enqueue(true);
+        return this;
+    }
+
+    /**
+     * Removes this {@link HTTPRequest} from the queue without notifying its {@link HTTPResponseListener}. Use {@link HTTPRequest#cancel()} to also stop it if it is already running.
+     *
+     * @return This {@link HTTPRequest}
+     */
+    public HTTPRequest dequeue() {
+        if (dispatcher != null) {
+            dispatcher.remove(this);
+        }
+        return this;
+    }
+
+    /**
+     * Cancels this {@link HTTPRequest}. A queued request is removed from the queue and a running request is aborted by closing its connection, even in the middle of sending the body or reading the response. Either way, {@link HTTPResponseListener#onRequestError(HTTPRequestError)} is called with {@link HTTPRequestError#CANCELLED}.
+     *
+     * @return This {@link HTTPRequest}
+     */
+    public HTTPRequest cancel() {
+        cancelled = true;
+        HTTPDispatcher dispatcher = this.dispatcher;
+        if (dispatcher != null && dispatcher.remove(this)) {
+            onRequestError(HTTPRequestError.CANCELLED);
+        }
+
+        // Abort a running attempt right away instead of letting it read the rest of the response
+        HttpURLConnection connection = activeConnection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+        synchronized (retryLock) {
+            retryLock.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * Checks if this {@link HTTPRequest} has been cancelled.
+     *
+     * @return <strong>true</strong> if {@link HTTPRequest#cancel()} has been called since the request was last executed or <strong>false</strong> otherwise.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the requests waiting in the queue of the default {@link HTTPDispatcher}.
+     *
+     * @return A snapshot of the queued {@link HTTPRequest}s.
+     */
+    public static Queue<HTTPRequest> getRequestQueue() {
+        return new LinkedList<>(defaultDispatcher.getQueuedRequests());
+    }
+
+    /**
+     * Cancels the queued and running requests of the default {@link HTTPDispatcher} with the specified tag. See {@link HTTPRequest#setTag(Object)} and {@link HTTPRequest#cancel()}.
+     *
+     * @param tag The tag to match using {@link Object#equals(Object)}.
+     */
+    public static void cancelAll(Object tag) {
+        defaultDispatcher.cancelAll(tag);
+    }
+
+    /**
+     * Removes all requests from the queue of the default {@link HTTPDispatcher} without notifying their listeners. Running requests are not affected.
+     */
+    public static void clearRequestQueue() {
+        defaultDispatcher.clearQueue();
+    }
+
+    /**
+     * Sets the {@link HTTPDispatcher} which schedules all {@link HTTPRequest}s executed afterwards.
+     *
+     * @param dispatcher The {@link HTTPDispatcher}.
+     */
+    public static void setDefaultDispatcher(HTTPDispatcher dispatcher) {
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("Dispatcher must not be null.");
+        }
+        HTTPRequest.defaultDispatcher = dispatcher;
+    }
+
+    /**
+     * Returns the {@link HTTPDispatcher} which schedules all {@link HTTPRequest}s.
+     *
+     * @return The {@link HTTPDispatcher}.
+     */
+    public static HTTPDispatcher getDefaultDispatcher() {
+        return defaultDispatcher;
+    }
+
+    private boolean hasHeader(String key) {
+        for (String header : headers.keySet()) {
+            if (header.equalsIgnoreCase(key)) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        private SSLSocket processSocket(SSLSocket socket) {
-            List<String> cipherSuites = new ArrayList<>(Arrays.asList(socket.getEnabledCipherSuites()));
-            cipherSuites.add("SSL_RSA_WITH_3DES_EDE_CBC_SHA");
+    private void log(String baseTag, String message) {
+        if (logTag != null) {
+            Log.d(logTag + " " + baseTag, message);
+        }
+    }
 
-            String[] modifiedSuites = new String[cipherSuites.size()];
-            socket.setEnabledCipherSuites(cipherSuites.toArray(modifiedSuites));
-            return socket;
+    private static class NoVerifyHostnameVerifier implements HostnameVerifier {
+        public boolean verify(String hostname, SSLSession session) {
+            return true;
         }
     }
 }
\ No newline at end of file
@@ -24,8 +24,18 @@
 
 package com.truebanana.http;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.PortUnreachableException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.SSLException;
 
 public enum HTTPRequestError {
     /**
@@ -33,6 +43,35 @@ public enum HTTPRequestError {
      */
     TIMEOUT,
 
+    /**
+     * Indicates that the host name could not be resolved. The device may be offline or the host name may be wrong.
+     */
+    DNS,
+
+    /**
+     * Indicates that the connection to the host could not be established, such as when the connection is refused or the host is unreachable. Nothing has been sent to the server.
+     */
+    CONNECT,
+
+    /**
+     * Indicates that the TLS handshake failed.<br />
+     * Possible causes:<br/>
+     * &middot; Hostname verification failed<br/>
+     * &middot; Server certificate is expired, invalid or not trusted<br/>
+     * &middot; No cipher suite or protocol version in common with the server
+     */
+    TLS,
+
+    /**
+     * Indicates that the connection broke while sending the request or reading the response, such as when it is reset or closed early by the server. The server may have processed the request.
+     */
+    READ,
+
+    /**
+     * Indicates that the request was not sent because the {@link CircuitBreaker} of the host is open after too many failures in a row.
+     */
+    CIRCUIT_OPEN,
+
     /**
      * Indicates a security-related problem with the trust store or key store provided using {@link HTTPRequest#setTrustStore(InputStream, String)} or {@link HTTPRequest#setKeyStore(InputStream, String)}.<br />
      * Possible causes:<br/>
@@ -51,12 +90,41 @@ public enum HTTPRequestError {
      */
     KEYSTORE_INVALID,
 
+    /**
+     * Indicates that the request was cancelled using {@link HTTPRequest#cancel()} or {@link HTTPDispatcher#cancelAll()}.
+     */
+    CANCELLED,
+
     /**
      * Indicates other problems which caused the request to fail or terminate pre-maturely.
      * Possible causes:<br/>
-     * &middot; A problem occurred when writing to the connection's {@link OutputStream}<br/>
-     * &middot; Hostname verification failed<br/>
-     * &middot; Server certificate is expired or invalid<br/>
+     * &middot; A problem occurred when writing the request body to the connection's {@link OutputStream}<br/>
+     * &middot; The response could not be decompressed or saved to a file<br/>
      */
     OTHER;
+
+    /**
+     * Returns the error which describes the exception thrown while executing a request.
+     */
+    static HTTPRequestError from(IOException e) {
+        if (e instanceof SocketTimeoutException) {
+            return TIMEOUT;
+        } else if (e instanceof UnknownHostException) {
+            return DNS;
+        } else if (e instanceof SSLException) {
+            return TLS;
+        } else if (e instanceof ConnectException || e instanceof NoRouteToHostException || e instanceof PortUnreachableException) {
+            return CONNECT;
+        } else if (e instanceof SocketException || e instanceof EOFException) {
+            return READ;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Checks if this error means the host could not be reached or did not respond properly, as opposed to a problem with the request itself.
+     */
+    boolean isNetworkFailure() {
+        return this == TIMEOUT || this == DNS || this == CONNECT || this == READ;
+    }
 }
\ No newline at end of file
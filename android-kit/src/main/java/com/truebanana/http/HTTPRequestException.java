@@ -0,0 +1,55 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link HTTPRequest#execute()} and wrapped by {@link HTTPFuture#get()} when a request fails, carrying the {@link HTTPRequestError} which describes the cause of failure.
+ */
+public class HTTPRequestException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final HTTPRequestError error;
+
+    /**
+     * Creates an {@link HTTPRequestException}.
+     *
+     * @param error The error which describes the cause of failure.
+     */
+    public HTTPRequestException(HTTPRequestError error) {
+        super("Request failed: " + error.name());
+        this.error = error;
+    }
+
+    /**
+     * Returns the error which describes the cause of failure.
+     *
+     * @return The {@link HTTPRequestError}.
+     */
+    public HTTPRequestError getError() {
+        return error;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reusable blueprint for {@link HTTPRequest}s which are sent often with only a few values changing, such as telemetry pings or polling.<br />
+ * <br />
+ * The URL may contain placeholders in braces, in the path or in the query. It is parsed and validated once when the template is built, along with the request method and an immutable block of headers.
+ * Creating a request from the template only fills in the placeholders, percent-encoding the values, and shares the header block with the request instead of copying it. The request can still be changed like any other before it is executed, and its headers are only copied if it adds one.<br />
+ * <br />
+ * A template is immutable and can be shared between threads.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPRequestTemplate ping = new HTTPRequestTemplate.Builder("https://telemetry.example.com/v1/apps/{app}/ping?device={device}")
+ *     .setRequestMethod(HTTPRequestMethod.POST)
+ *     .addHeader("Content-Type", "application/json")
+ *     .addHeader("Authorization", "Bearer " + token)
+ *     .build();
+ *
+ * ping.create("my.app", deviceId)
+ *     .setRequestBody(event.toString())
+ *     .executeAsync();
+ * }
+ * </pre>
+ */
+public final class HTTPRequestTemplate {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final String[] literals; // The URL around the placeholders, one more than the placeholders
+    private final String[] placeholders;
+    private final int literalLength;
+    private final HTTPRequestMethod requestMethod;
+    private final Map<String, String> headers;
+
+    private HTTPRequestTemplate(Builder builder) {
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        String url = builder.url;
+        int start = 0;
+        int open;
+        while ((open = url.indexOf('{', start)) != -1) {
+            int close = url.indexOf('}', open);
+            if (close == -1 || close == open + 1) {
+                throw new IllegalArgumentException("Invalid placeholder in URL template: " + url);
+            }
+            literals.add(url.substring(start, open));
+            placeholders.add(url.substring(open + 1, close));
+            start = close + 1;
+        }
+        literals.add(url.substring(start));
+
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.placeholders = placeholders.toArray(new String[placeholders.size()]);
+        int length = 0;
+        for (String literal : this.literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+        this.requestMethod = builder.requestMethod;
+        this.headers = Collections.unmodifiableMap(new HashMap<>(builder.headers));
+
+        // Validate once so the requests don't have to
+        try {
+            new URL(fill(new Object[placeholders.size()]));
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            throw new IllegalArgumentException("Invalid URL.");
+        }
+    }
+
+    /**
+     * Creates an {@link HTTPRequest} from this template.
+     *
+     * @param values The values of the placeholders, in the order they appear in the URL. They are percent-encoded, so a value can't add path segments or query parameters.
+     * @return An {@link HTTPRequest}
+     */
+    public HTTPRequest create(Object... values) {
+        if (values.length != placeholders.length) {
+            throw new IllegalArgumentException("Expected " + placeholders.length + " values but got " + values.length + ".");
+        }
+        for (Object value : values) {
+            if (value == null) {
+                throw new IllegalArgumentException("Values must not be null.");
+            }
+        }
+        return HTTPRequest.create(fill(values), headers).setRequestMethod(requestMethod);
+    }
+
+    /**
+     * Returns the names of the placeholders, in the order their values are passed to {@link HTTPRequestTemplate#create(Object...)}.
+     *
+     * @return The placeholder names.
+     */
+    public List<String> getPlaceholders() {
+        return Collections.unmodifiableList(Arrays.asList(placeholders));
+    }
+
+    /**
+     * Returns the headers added to every request created from this template.
+     *
+     * @return The unmodifiable headers.
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the request method of the requests created from this template.
+     *
+     * @return The {@link HTTPRequestMethod}.
+     */
+    public HTTPRequestMethod getRequestMethod() {
+        return requestMethod;
+    }
+
+    /**
+     * Builds the URL, with an empty string for missing values.
+     */
+    private String fill(Object[] values) {
+        StringBuilder url = new StringBuilder(literalLength + placeholders.length * 16);
+        url.append(literals[0]);
+        for (int i = 0; i < placeholders.length; i++) {
+            if (values[i] != null) {
+                appendEncoded(url, values[i].toString());
+            }
+            url.append(literals[i + 1]);
+        }
+        return url.toString();
+    }
+
+    /**
+     * Appends a value percent-encoded as in RFC 3986, leaving only the unreserved characters as they are.
+     */
+    private static void appendEncoded(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (isUnreserved(c)) {
+                builder.append(c);
+            } else if (c < 0x80) {
+                appendEscaped(builder, c);
+            } else {
+                // Encode the rest of the value at once, keeping surrogate pairs together
+                for (byte b : value.substring(i).getBytes(UTF_8)) {
+                    if (isUnreserved(b)) {
+                        builder.append((char) b);
+                    } else {
+                        appendEscaped(builder, b & 0xff);
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private static boolean isUnreserved(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    private static void appendEscaped(StringBuilder builder, int b) {
+        builder.append('%').append(HEX_DIGITS[b >> 4]).append(HEX_DIGITS[b & 0xf]);
+    }
+
+    /**
+     * Builds an {@link HTTPRequestTemplate}.
+     */
+    public static class Builder {
+        private final String url;
+        private HTTPRequestMethod requestMethod = HTTPRequestMethod.GET;
+        private final Map<String, String> headers = new HashMap<>();
+
+        /**
+         * Creates a {@link Builder}.
+         *
+         * @param url The URL, with placeholders such as {@code {id}} where the values passed to {@link HTTPRequestTemplate#create(Object...)} go.
+         */
+        public Builder(String url) {
+            if (url == null) {
+                throw new IllegalArgumentException("URL must not be null.");
+            }
+            this.url = url;
+        }
+
+        /**
+         * Sets the request method of the requests. The default is {@link HTTPRequestMethod#GET}.
+         *
+         * @param requestMethod The {@link HTTPRequestMethod}.
+         * @return This {@link Builder} for chaining and convenience.
+         */
+        public Builder setRequestMethod(HTTPRequestMethod requestMethod) {
+            if (requestMethod == null) {
+                throw new IllegalArgumentException("Request method must not be null.");
+            }
+            this.requestMethod = requestMethod;
+            return this;
+        }
+
+        /**
+         * Adds a header to the requests.
+         *
+         * @param key   The header key.
+         * @param value The header value.
+         * @return This {@link Builder} for chaining and convenience.
+         */
+        public Builder addHeader(String key, String value) {
+            headers.put(key, value);
+            return this;
+        }
+
+        /**
+         * Adds headers to the requests.
+         *
+         * @param headers A {@link Map} of header key-value pairs.
+         * @return This {@link Builder} for chaining and convenience.
+         */
+        public Builder addHeaders(Map<String, String> headers) {
+            this.headers.putAll(headers);
+            return this;
+        }
+
+        /**
+         * Parses the URL and creates the {@link HTTPRequestTemplate}.
+         *
+         * @return The {@link HTTPRequestTemplate}.
+         */
+        public HTTPRequestTemplate build() {
+            return new HTTPRequestTemplate(this);
+        }
+    }
+}
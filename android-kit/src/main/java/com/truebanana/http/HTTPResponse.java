@@ -30,9 +30,11 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -40,6 +42,8 @@ import java.util.Map;
  * Represents a response from the remote host.
  */
 public class HTTPResponse {
+    private static final int MAX_INITIAL_CONTENT_BUFFER = 64 * 1024;
+
     protected byte[] content = new byte[0];
     protected String stringContent;
     protected int statusCode = -1;
@@ -47,29 +51,21 @@ public class HTTPResponse {
     protected Map<String, List<String>> headers;
     protected String requestURL;
     protected HTTPRequest originalRequest;
+    protected File file;
+    protected boolean fromCache;
 
     protected HTTPResponse() {
     }
 
-    protected static HTTPResponse from(HTTPRequest request, HttpURLConnection connection, InputStream content) {
+    /**
+     * Creates a response from a connection whose headers have been received, reading the whole content if there is one.
+     *
+     * @throws IOException If the content could not be read completely.
+     */
+    protected static HTTPResponse from(HTTPRequest request, HttpURLConnection connection, InputStream content) throws IOException {
         HTTPResponse response = new HTTPResponse();
 
         response.originalRequest = request;
-        if (content != null) {
-            try {
-                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                byte[] data = new byte[16384];
-                int nRead;
-
-                while ((nRead = content.read(data, 0, data.length)) != -1) {
-                    buffer.write(data, 0, nRead);
-                }
-                buffer.flush();
-                response.content = buffer.toByteArray();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
 
         try {
             response.statusCode = connection.getResponseCode();
@@ -88,9 +84,81 @@ public class HTTPResponse {
 
         response.requestURL = connection.getURL().toString();
 
+        if (content != null) {
+            // The declared length is the length of the encoded content if there is a Content-Encoding, and describes no body at all for these
+            boolean bodyless = "HEAD".equals(connection.getRequestMethod()) || response.statusCode == HttpURLConnection.HTTP_NO_CONTENT || response.statusCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+            response.content = readContent(content, connection.getContentEncoding() == null && !bodyless ? connection.getContentLength() : -1);
+        }
+
         return response;
     }
 
+    /**
+     * Returns a copy of this response for another request which shared it.
+     */
+    HTTPResponse copyFor(HTTPRequest request) {
+        HTTPResponse response = new HTTPResponse();
+        response.originalRequest = request;
+        response.content = content;
+        response.stringContent = stringContent;
+        response.statusCode = statusCode;
+        response.responseMessage = responseMessage;
+        response.headers = headers;
+        response.requestURL = requestURL;
+        response.file = file;
+        response.fromCache = fromCache;
+        return response;
+    }
+
+    /**
+     * Reads the whole stream. When the length is known, the content is read into an array which ends up exactly that size instead of being buffered and copied.
+     * The array starts small and doubles as data arrives, so a wrong or hostile length doesn't allocate more than twice what is actually received.
+     */
+    private static byte[] readContent(InputStream content, int contentLength) throws IOException {
+        if (contentLength >= 0) {
+            byte[] data = new byte[Math.min(contentLength, MAX_INITIAL_CONTENT_BUFFER)];
+            int offset = 0;
+            int nRead;
+            while (true) {
+                if (offset == data.length) {
+                    if (offset == contentLength) {
+                        break;
+                    }
+                    data = Arrays.copyOf(data, (int) Math.min(2L * data.length, contentLength));
+                }
+                if ((nRead = content.read(data, offset, data.length - offset)) == -1) {
+                    break;
+                }
+                offset += nRead;
+            }
+            int next = offset == contentLength ? content.read() : -1;
+            if (offset == contentLength && next == -1) {
+                return data;
+            }
+
+            // The declared length was wrong, fall back to buffering the rest
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(offset + 16384);
+            buffer.write(data, 0, offset);
+            if (next != -1) {
+                buffer.write(next);
+                copy(content, buffer);
+            }
+            return buffer.toByteArray();
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        copy(content, buffer);
+        return buffer.toByteArray();
+    }
+
+    private static void copy(InputStream content, ByteArrayOutputStream buffer) throws IOException {
+        byte[] data = new byte[16384];
+        int nRead;
+        while ((nRead = content.read(data, 0, data.length)) != -1) {
+            buffer.write(data, 0, nRead);
+        }
+    }
+
     /**
      * Returns the original {@link HTTPRequest}.
      * @return The original {@link HTTPRequest} object.
@@ -126,6 +194,24 @@ public class HTTPResponse {
         return content;
     }
 
+    /**
+     * Returns the file the HTTP response body was saved to if the request was made using {@link HTTPRequest#setDownloadFile(File, boolean)}.
+     *
+     * @return The downloaded file or <strong>null</strong> if the response body was not saved to a file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Checks if this response was served from the {@link HTTPCache}, including responses revalidated with a 304 Not Modified response.
+     *
+     * @return <strong>true</strong> if the content comes from the cache or <strong>false</strong> otherwise.
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
     /**
      * Returns the HTTP response body converted into a {@link String}.
      *
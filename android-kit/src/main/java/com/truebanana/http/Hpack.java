@@ -0,0 +1,592 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression for HTTP/2 (RFC 7541).<br />
+ * <br />
+ * Header lists are passed around as flat lists of alternating names and values. Names must already be lowercase.
+ */
+final class Hpack {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /**
+     * Each entry takes its name, value and 32 bytes of overhead from the table size.
+     */
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final String[] STATIC_TABLE = {
+            ":authority", "",
+            ":method", "GET",
+            ":method", "POST",
+            ":path", "/",
+            ":path", "/index.html",
+            ":scheme", "http",
+            ":scheme", "https",
+            ":status", "200",
+            ":status", "204",
+            ":status", "206",
+            ":status", "304",
+            ":status", "400",
+            ":status", "404",
+            ":status", "500",
+            "accept-charset", "",
+            "accept-encoding", "gzip, deflate",
+            "accept-language", "",
+            "accept-ranges", "",
+            "accept", "",
+            "access-control-allow-origin", "",
+            "age", "",
+            "allow", "",
+            "authorization", "",
+            "cache-control", "",
+            "content-disposition", "",
+            "content-encoding", "",
+            "content-language", "",
+            "content-length", "",
+            "content-location", "",
+            "content-range", "",
+            "content-type", "",
+            "cookie", "",
+            "date", "",
+            "etag", "",
+            "expect", "",
+            "expires", "",
+            "from", "",
+            "host", "",
+            "if-match", "",
+            "if-modified-since", "",
+            "if-none-match", "",
+            "if-range", "",
+            "if-unmodified-since", "",
+            "last-modified", "",
+            "link", "",
+            "location", "",
+            "max-forwards", "",
+            "proxy-authenticate", "",
+            "proxy-authorization", "",
+            "range", "",
+            "referer", "",
+            "refresh", "",
+            "retry-after", "",
+            "server", "",
+            "set-cookie", "",
+            "strict-transport-security", "",
+            "transfer-encoding", "",
+            "user-agent", "",
+            "vary", "",
+            "via", "",
+            "www-authenticate", ""
+    };
+
+    private static final int STATIC_TABLE_LENGTH = STATIC_TABLE.length / 2;
+
+    /**
+     * Static table indexes of each name, and of each name and value pair, for the encoder.
+     */
+    private static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELD_INDEX = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE_LENGTH - 1; i >= 0; i--) {
+            String name = STATIC_TABLE[i * 2];
+            STATIC_NAME_INDEX.put(name, i + 1);
+            STATIC_FIELD_INDEX.put(name + '\0' + STATIC_TABLE[i * 2 + 1], i + 1);
+        }
+    }
+
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff
+    };
+
+    private static final byte[] HUFFMAN_CODE_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    private static final int EOS = 256;
+
+    /**
+     * The Huffman decoding tree. Leaves hold the symbol, inner nodes the two children.
+     */
+    private static final HuffmanNode HUFFMAN_ROOT = new HuffmanNode();
+
+    static {
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            HuffmanNode node = HUFFMAN_ROOT;
+            int code = HUFFMAN_CODES[symbol];
+            for (int bit = HUFFMAN_CODE_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int branch = (code >>> bit) & 1;
+                if (node.children[branch] == null) {
+                    node.children[branch] = new HuffmanNode();
+                }
+                node = node.children[branch];
+            }
+            node.symbol = symbol;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * Returns whether a header value should never be added to a compression table, so it can't be recovered by a compression oracle attack such as CRIME.
+     */
+    private static boolean isSensitive(String name, String value) {
+        return "authorization".equals(name) || "proxy-authorization".equals(name) || ("cookie".equals(name) && value.length() < 20);
+    }
+
+    // Encoder
+    // *********************************************************************************************
+
+    /**
+     * Encodes header lists into header blocks, keeping the dynamic table in sync with the peer's decoder.
+     */
+    static final class Encoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        private int pendingTableSize = -1;
+
+        /**
+         * Applies the header table size from the peer's SETTINGS. Our own table is never made larger than the default.
+         */
+        void setMaxTableSize(int maxTableSize) {
+            int size = Math.min(maxTableSize, DEFAULT_TABLE_SIZE);
+            if (size != table.maxSize) {
+                pendingTableSize = pendingTableSize == -1 ? size : Math.min(pendingTableSize, size);
+                table.setMaxSize(size);
+            }
+        }
+
+        void encode(List<String> headers, ByteArrayOutputStream out) {
+            if (pendingTableSize != -1) {
+                if (pendingTableSize != table.maxSize) {
+                    writeInteger(out, 0x20, 5, pendingTableSize); // The smallest size first, then the final one
+                }
+                writeInteger(out, 0x20, 5, table.maxSize);
+                pendingTableSize = -1;
+            }
+
+            for (int i = 0; i < headers.size(); i += 2) {
+                String name = headers.get(i);
+                String value = headers.get(i + 1);
+
+                Integer staticIndex = STATIC_FIELD_INDEX.get(name + '\0' + value);
+                if (staticIndex != null) {
+                    writeInteger(out, 0x80, 7, staticIndex);
+                    continue;
+                }
+                int dynamicIndex = table.indexOf(name, value);
+                if (dynamicIndex != -1) {
+                    writeInteger(out, 0x80, 7, STATIC_TABLE_LENGTH + dynamicIndex);
+                    continue;
+                }
+
+                Integer nameIndex = STATIC_NAME_INDEX.get(name);
+                if (nameIndex == null) {
+                    int dynamicNameIndex = table.indexOfName(name);
+                    nameIndex = dynamicNameIndex != -1 ? STATIC_TABLE_LENGTH + dynamicNameIndex : 0;
+                }
+
+                if (isSensitive(name, value)) {
+                    // Literal never indexed
+                    writeInteger(out, 0x10, 4, nameIndex);
+                } else if (":path".equals(name) || "content-length".equals(name)) {
+                    // Literal without indexing, these rarely repeat and would only push useful entries out
+                    writeInteger(out, 0x00, 4, nameIndex);
+                } else {
+                    // Literal with incremental indexing
+                    writeInteger(out, 0x40, 6, nameIndex);
+                    table.add(name, value);
+                }
+                if (nameIndex == 0) {
+                    writeString(out, name);
+                }
+                writeString(out, value);
+            }
+        }
+    }
+
+    static void writeInteger(ByteArrayOutputStream out, int firstByte, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(firstByte | value);
+            return;
+        }
+        out.write(firstByte | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String string) {
+        byte[] bytes = string.getBytes(ISO_8859_1);
+        int huffmanLength = huffmanEncodedLength(bytes);
+        if (huffmanLength < bytes.length) {
+            writeInteger(out, 0x80, 7, huffmanLength);
+            huffmanEncode(bytes, out);
+        } else {
+            writeInteger(out, 0x00, 7, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    static int huffmanEncodedLength(byte[] bytes) {
+        long bits = 0;
+        for (byte b : bytes) {
+            bits += HUFFMAN_CODE_LENGTHS[b & 0xff];
+        }
+        return (int) ((bits + 7) >> 3);
+    }
+
+    static void huffmanEncode(byte[] bytes, ByteArrayOutputStream out) {
+        long current = 0;
+        int bits = 0;
+        for (byte b : bytes) {
+            int symbol = b & 0xff;
+            int length = HUFFMAN_CODE_LENGTHS[symbol];
+            current = (current << length) | HUFFMAN_CODES[symbol];
+            bits += length;
+            while (bits >= 8) {
+                bits -= 8;
+                out.write((int) (current >> bits));
+            }
+        }
+        if (bits > 0) {
+            // Pad with the most significant bits of EOS, which are all ones
+            current = (current << (8 - bits)) | (0xff >>> bits);
+            out.write((int) current);
+        }
+    }
+
+    // Decoder
+    // *********************************************************************************************
+
+    /**
+     * Decodes header blocks into header lists, keeping the dynamic table in sync with the peer's encoder.
+     */
+    static final class Decoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        private final int maxTableSize;
+        private final int maxHeaderListSize;
+
+        /**
+         * @param maxTableSize      The header table size we advertised in our SETTINGS.
+         * @param maxHeaderListSize The largest uncompressed header list accepted, to bound the memory a peer can make us use.
+         */
+        Decoder(int maxTableSize, int maxHeaderListSize) {
+            this.maxTableSize = maxTableSize;
+            this.maxHeaderListSize = maxHeaderListSize;
+            table.setMaxSize(maxTableSize);
+        }
+
+        List<String> decode(byte[] block) throws IOException {
+            List<String> headers = new ArrayList<>();
+            int[] position = {0};
+            int listSize = 0;
+            boolean headerSeen = false;
+            while (position[0] < block.length) {
+                int b = block[position[0]] & 0xff;
+                String name;
+                String value;
+                if ((b & 0x80) != 0) {
+                    // Indexed field
+                    int index = readInteger(block, position, 7);
+                    name = getName(index);
+                    value = getValue(index);
+                } else if ((b & 0xe0) == 0x20) {
+                    // Dynamic table size update, only allowed at the start of a block
+                    int size = readInteger(block, position, 5);
+                    if (headerSeen || size > maxTableSize) {
+                        throw new ProtocolException("Invalid HPACK table size update: " + size);
+                    }
+                    table.setMaxSize(size);
+                    continue;
+                } else {
+                    // Literal with incremental indexing (01), without indexing (0000) or never indexed (0001)
+                    boolean indexing = (b & 0xc0) == 0x40;
+                    int nameIndex = readInteger(block, position, indexing ? 6 : 4);
+                    name = nameIndex == 0 ? readString(block, position) : getName(nameIndex);
+                    value = readString(block, position);
+                    if (indexing) {
+                        table.add(name, value);
+                    }
+                }
+                headerSeen = true;
+                listSize += name.length() + value.length() + ENTRY_OVERHEAD;
+                if (listSize > maxHeaderListSize) {
+                    throw new ProtocolException("Header list too large");
+                }
+                headers.add(name);
+                headers.add(value);
+            }
+            return headers;
+        }
+
+        private String getName(int index) throws IOException {
+            if (index > 0 && index <= STATIC_TABLE_LENGTH) {
+                return STATIC_TABLE[(index - 1) * 2];
+            }
+            return table.get(index - STATIC_TABLE_LENGTH - 1, true);
+        }
+
+        private String getValue(int index) throws IOException {
+            if (index > 0 && index <= STATIC_TABLE_LENGTH) {
+                return STATIC_TABLE[(index - 1) * 2 + 1];
+            }
+            return table.get(index - STATIC_TABLE_LENGTH - 1, false);
+        }
+    }
+
+    static int readInteger(byte[] block, int[] position, int prefixBits) throws IOException {
+        int max = (1 << prefixBits) - 1;
+        int value = block[position[0]++] & max;
+        if (value < max) {
+            return value;
+        }
+        for (int shift = 0; ; shift += 7) {
+            if (position[0] >= block.length || shift > 21) {
+                throw new ProtocolException("Invalid HPACK integer");
+            }
+            int b = block[position[0]++] & 0xff;
+            value += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static String readString(byte[] block, int[] position) throws IOException {
+        if (position[0] >= block.length) {
+            throw new ProtocolException("Truncated HPACK string");
+        }
+        boolean huffman = (block[position[0]] & 0x80) != 0;
+        int length = readInteger(block, position, 7);
+        if (length > block.length - position[0]) {
+            throw new ProtocolException("Truncated HPACK string");
+        }
+        int start = position[0];
+        position[0] += length;
+        if (huffman) {
+            return huffmanDecode(block, start, length);
+        }
+        return new String(block, start, length, ISO_8859_1);
+    }
+
+    static String huffmanDecode(byte[] block, int offset, int length) throws IOException {
+        StringBuilder result = new StringBuilder(length * 8 / 5);
+        HuffmanNode node = HUFFMAN_ROOT;
+        int depth = 0;
+        boolean allOnes = true;
+        for (int i = offset; i < offset + length; i++) {
+            int b = block[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                int branch = (b >>> bit) & 1;
+                node = node.children[branch];
+                if (node == null) {
+                    throw new ProtocolException("Invalid Huffman code");
+                }
+                depth++;
+                allOnes &= branch == 1;
+                if (node.symbol != -1) {
+                    if (node.symbol == EOS) {
+                        throw new ProtocolException("Huffman string contains EOS");
+                    }
+                    result.append((char) node.symbol);
+                    node = HUFFMAN_ROOT;
+                    depth = 0;
+                    allOnes = true;
+                }
+            }
+        }
+        // The padding must be a prefix of EOS shorter than a byte
+        if (depth > 7 || !allOnes) {
+            throw new ProtocolException("Invalid Huffman padding");
+        }
+        return result.toString();
+    }
+
+    private static final class HuffmanNode {
+        final HuffmanNode[] children = new HuffmanNode[2];
+        int symbol = -1;
+    }
+
+    // Dynamic table
+    // *********************************************************************************************
+
+    /**
+     * The dynamic table of an encoder or decoder. Index 0 is the most recently added entry.
+     */
+    private static final class DynamicTable {
+        private String[] entries = new String[32]; // Circular buffer of names and values
+        private int head; // The slot of the newest entry
+        private int count;
+        private int size;
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(0);
+        }
+
+        void add(String name, String value) {
+            int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+            if (entrySize > maxSize) {
+                // An entry larger than the table empties it without being added
+                count = 0;
+                size = 0;
+                return;
+            }
+            evict(entrySize);
+            if (count * 2 == entries.length) {
+                String[] grown = new String[entries.length * 2];
+                for (int i = 0; i < count; i++) {
+                    grown[(count - 1 - i) * 2] = nameAt(i);
+                    grown[(count - 1 - i) * 2 + 1] = valueAt(i);
+                }
+                entries = grown;
+                head = count - 1;
+            }
+            head = (head + 1) % (entries.length / 2);
+            entries[head * 2] = name;
+            entries[head * 2 + 1] = value;
+            count++;
+            size += entrySize;
+        }
+
+        private void evict(int needed) {
+            while (count > 0 && size + needed > maxSize) {
+                int oldest = count - 1;
+                size -= nameAt(oldest).length() + valueAt(oldest).length() + ENTRY_OVERHEAD;
+                int slot = slot(oldest);
+                entries[slot * 2] = null;
+                entries[slot * 2 + 1] = null;
+                count--;
+            }
+        }
+
+        private int slot(int index) {
+            int slots = entries.length / 2;
+            return ((head - index) % slots + slots) % slots;
+        }
+
+        private String nameAt(int index) {
+            return entries[slot(index) * 2];
+        }
+
+        private String valueAt(int index) {
+            return entries[slot(index) * 2 + 1];
+        }
+
+        String get(int index, boolean name) throws IOException {
+            if (index < 0 || index >= count) {
+                throw new ProtocolException("Invalid HPACK index: " + (index + STATIC_TABLE_LENGTH + 1));
+            }
+            return name ? nameAt(index) : valueAt(index);
+        }
+
+        int indexOf(String name, String value) {
+            for (int i = 0; i < count; i++) {
+                if (nameAt(i).equals(name) && valueAt(i).equals(value)) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        int indexOfName(String name) {
+            for (int i = 0; i < count; i++) {
+                if (nameAt(i).equals(name)) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * A {@link StreamingResponseListener} which parses a JSON array in the response body as it is downloaded and passes its elements to {@link JSONStreamingResponseListener#onElement(int, Object)} one at a time.
+ * Unlike {@link HTTPResponse#toJSONArray()}, the body is never held in memory as a whole, so a feed of any length is processed with the memory of a single element, and the first elements can be shown before the download finishes.<br />
+ * <br />
+ * The array is either the whole body or is found by a path of keys separated by slashes, starting from the object which is the body, such as "data/items". The rest of the body is skipped.
+ * Elements are read into a {@link JSONObject}, a {@link JSONArray} or a primitive value by default. Override {@link JSONStreamingResponseListener#readElement(JsonReader)} to read them directly into your own objects instead.<br />
+ * <br />
+ * Like the other methods of {@link StreamingResponseListener}, {@link JSONStreamingResponseListener#onElement(int, Object)} is called on the background thread running the request, so post the elements to the main thread yourself, preferably in batches.
+ * The body of a response without a 2xx status code is not parsed. A body which is not valid JSON or lacks the array is reported to {@link HTTPResponseListener#onRequestError(HTTPRequestError)}.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPRequest.create("https://api.example.com/feed")
+ *     .setHTTPResponseListener(new JSONStreamingResponseListener("data/items") {
+ *         public void onElement(int index, Object element) {
+ *             feed.add(FeedItem.from((JSONObject) element));
+ *         }
+ *     })
+ *     .executeAsync();
+ * }
+ * </pre>
+ */
+public abstract class JSONStreamingResponseListener extends StreamingResponseListener {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String arrayPath;
+    private final String[] keys;
+
+    /**
+     * Creates a {@link JSONStreamingResponseListener} for a body which is a JSON array.
+     */
+    public JSONStreamingResponseListener() {
+        this(null);
+    }
+
+    /**
+     * Creates a {@link JSONStreamingResponseListener} for a JSON array inside the object which is the body.
+     *
+     * @param arrayPath The keys leading to the array, separated by slashes, such as "items" or "data/items". <strong>null</strong> or empty if the body is the array.
+     */
+    public JSONStreamingResponseListener(String arrayPath) {
+        this.arrayPath = arrayPath;
+        this.keys = arrayPath == null || arrayPath.isEmpty() ? new String[0] : arrayPath.split("/");
+    }
+
+    /**
+     * Called on the background thread for each element of the array, as soon as it has been read.
+     *
+     * @param index   The index of the element in the array.
+     * @param element The element as returned by {@link JSONStreamingResponseListener#readElement(JsonReader)}.
+     */
+    public abstract void onElement(int index, Object element);
+
+    /**
+     * Reads one element of the array. The default implementation returns a {@link JSONObject}, a {@link JSONArray}, a {@link String}, a {@link Boolean}, an {@link Integer}, a {@link Long}, a {@link Double} or {@link JSONObject#NULL}.
+     * Override this to build your own objects from the tokens without creating a {@link JSONObject} first. It must read exactly one value.
+     *
+     * @param reader The {@link JsonReader} positioned at the element.
+     * @return The element passed to {@link JSONStreamingResponseListener#onElement(int, Object)}.
+     * @throws IOException If the element can't be read.
+     */
+    protected Object readElement(JsonReader reader) throws IOException {
+        return readValue(reader);
+    }
+
+    @Override
+    public void onResponseStream(HTTPResponse response, InputStream stream) throws IOException {
+        if (!response.isSuccess()) {
+            return;
+        }
+        JsonReader reader = new JsonReader(new InputStreamReader(stream, getCharset(response)));
+
+        // Find the array
+        for (String key : keys) {
+            reader.beginObject();
+            boolean found = false;
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(key)) {
+                    found = true;
+                    break;
+                }
+                reader.skipValue();
+            }
+            if (!found) {
+                throw new IOException("No JSON array at " + arrayPath);
+            }
+        }
+
+        reader.beginArray();
+        int index = 0;
+        while (reader.hasNext()) {
+            onElement(index++, readElement(reader));
+        }
+        reader.endArray();
+
+        // Read to the end so the connection can be reused
+        for (int i = 0; i < keys.length; i++) {
+            while (reader.hasNext()) {
+                reader.nextName();
+                reader.skipValue();
+            }
+            reader.endObject();
+        }
+    }
+
+    /**
+     * Reads any JSON value into the types used by {@link JSONObject}.
+     *
+     * @param reader The {@link JsonReader} positioned at the value.
+     * @return The value.
+     * @throws IOException If the value can't be read.
+     */
+    public static Object readValue(JsonReader reader) throws IOException {
+        try {
+            switch (reader.peek()) {
+                case BEGIN_OBJECT:
+                    JSONObject object = new JSONObject();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        object.put(reader.nextName(), readValue(reader));
+                    }
+                    reader.endObject();
+                    return object;
+                case BEGIN_ARRAY:
+                    JSONArray array = new JSONArray();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        array.put(readValue(reader));
+                    }
+                    reader.endArray();
+                    return array;
+                case STRING:
+                    return reader.nextString();
+                case NUMBER:
+                    return parseNumber(reader.nextString());
+                case BOOLEAN:
+                    return reader.nextBoolean();
+                case NULL:
+                    reader.nextNull();
+                    return JSONObject.NULL;
+                default:
+                    throw new IOException("Unexpected JSON token " + reader.peek());
+            }
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Parses a number the way {@link JSONObject} does, into the smallest of {@link Integer} and {@link Long} which fits, or a {@link Double}.
+     */
+    private static Object parseNumber(String number) {
+        if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+            try {
+                long value = Long.parseLong(number);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                // Too large for a long
+            }
+        }
+        return Double.valueOf(number);
+    }
+
+    private static Charset getCharset(HTTPResponse response) {
+        String contentType = response.getHeaderField("Content-Type");
+        if (contentType != null) {
+            int index = contentType.toLowerCase(Locale.US).indexOf("charset=");
+            if (index != -1) {
+                String name = contentType.substring(index + 8).split(";")[0].trim().replace("\"", "");
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalArgumentException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return UTF_8;
+    }
+}
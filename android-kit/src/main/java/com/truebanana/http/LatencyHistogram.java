@@ -0,0 +1,212 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.util.Locale;
+
+/**
+ * A histogram of durations with log-scale buckets, so it takes a few kilobytes whatever the number of recorded values and percentiles are accurate to within about 6%.
+ * Durations from a microsecond to about 12 days are kept apart, longer ones are counted as the longest.<br />
+ * <br />
+ * All methods are thread-safe.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // Linear buckets within each power of two
+    private static final long MAX_VALUE = (1L << 40) - 1; // In microseconds
+    private static final int BUCKET_COUNT = getIndex(MAX_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Creates an empty {@link LatencyHistogram}.
+     */
+    public LatencyHistogram() {
+    }
+
+    private LatencyHistogram(LatencyHistogram histogram) {
+        System.arraycopy(histogram.counts, 0, counts, 0, BUCKET_COUNT);
+        count = histogram.count;
+        sum = histogram.sum;
+        min = histogram.min;
+        max = histogram.max;
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds, such as the difference between two values of {@link System#nanoTime()}.
+     */
+    public synchronized void record(long nanos) {
+        long value = Math.min(Math.max(nanos / 1000, 0), MAX_VALUE);
+        counts[getIndex(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     *
+     * @return The number of durations.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the recorded durations.
+     *
+     * @return The mean in milliseconds, or 0 if nothing has been recorded.
+     */
+    public synchronized double getMean() {
+        return count > 0 ? sum / 1000.0 / count : 0;
+    }
+
+    /**
+     * Returns the shortest recorded duration.
+     *
+     * @return The minimum in milliseconds, or 0 if nothing has been recorded.
+     */
+    public synchronized double getMin() {
+        return count > 0 ? min / 1000.0 : 0;
+    }
+
+    /**
+     * Returns the longest recorded duration.
+     *
+     * @return The maximum in milliseconds, or 0 if nothing has been recorded.
+     */
+    public synchronized double getMax() {
+        return max / 1000.0;
+    }
+
+    /**
+     * Returns the duration which the given percentage of the recorded durations don't exceed.
+     *
+     * @param percentile The percentile, from 0 to 100, such as 50 for the median or 99.
+     * @return The duration in milliseconds, or 0 if nothing has been recorded.
+     */
+    public synchronized double getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // The middle of the bucket, but never outside of what has actually been recorded
+                long value = (getLowerBound(i) + getLowerBound(i + 1) - 1) / 2;
+                return Math.min(Math.max(value, min), max) / 1000.0;
+            }
+        }
+        return max / 1000.0;
+    }
+
+    /**
+     * Adds all durations recorded by another {@link LatencyHistogram} to this one.
+     *
+     * @param histogram The {@link LatencyHistogram} to add.
+     */
+    public void add(LatencyHistogram histogram) {
+        if (histogram == null) {
+            throw new IllegalArgumentException("Histogram must not be null.");
+        }
+        LatencyHistogram other = histogram.copy();
+        synchronized (this) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    /**
+     * Returns a copy of this {@link LatencyHistogram} which is not affected by later recordings.
+     *
+     * @return The copy.
+     */
+    public synchronized LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    /**
+     * Forgets all recorded durations.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "count=%d mean=%.1fms p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+    }
+
+    // Helpers
+    // *********************************************************************************************
+
+    /**
+     * Returns the bucket of a value. Values below {@link LatencyHistogram#SUB_BUCKETS} have a bucket each, larger values share a bucket with those having the same highest bits.
+     */
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the smallest value of a bucket.
+     */
+    private static long getLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -29,8 +29,8 @@ import org.json.JSONObject;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -56,14 +56,28 @@ import java.util.Map;
  * </pre>
  */
 public class MockResponse extends HTTPResponse {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private long delay;
+
     private MockResponse() {
     }
 
+    /**
+     * Returns how long the request waits before it receives this response.
+     *
+     * @return The delay in milliseconds.
+     */
+    public long getDelay() {
+        return delay;
+    }
+
     public static class Builder {
         private byte[] content = new byte[0];
         private String stringContent;
         private int statusCode = 200;
-        private Map<String, String> headers = Collections.EMPTY_MAP;
+        private Map<String, String> headers = new HashMap<>();
+        private long delay = 1000;
 
         public Builder() {
         }
@@ -113,12 +127,27 @@ public class MockResponse extends HTTPResponse {
         }
 
         public Builder addHeaders(Map<String, String> headers) {
-            headers.putAll(headers);
+            this.headers.putAll(headers);
             return this;
         }
 
         public Builder setHeaders(Map<String, String> headers) {
-            this.headers = headers;
+            this.headers = new HashMap<>(headers);
+            return this;
+        }
+
+        /**
+         * Sets how long the request waits before it receives the response, without opening a connection. The default is 1 second.
+         * To simulate a realistic network, record real responses and replay them with a {@link ReplayHTTPEngine} instead.
+         *
+         * @param delay The delay in milliseconds.
+         * @return This {@link Builder} for chaining and convenience.
+         */
+        public Builder setDelay(long delay) {
+            if (delay < 0) {
+                throw new IllegalArgumentException("Delay must not be negative.");
+            }
+            this.delay = delay;
             return this;
         }
 
@@ -126,14 +155,15 @@ public class MockResponse extends HTTPResponse {
             MockResponse response = new MockResponse();
 
             if (stringContent != null) {
-                response.content = stringContent.getBytes();
+                response.content = stringContent.getBytes(UTF_8);
                 response.stringContent = stringContent;
             } else {
                 response.content = content;
-                response.stringContent = new String(content);
+                response.stringContent = new String(content, UTF_8);
             }
 
             response.statusCode = statusCode;
+            response.delay = delay;
             response.responseMessage = statusCode + " MOCK RESPONSE";
 
             response.headers = new HashMap<>();
@@ -25,8 +25,13 @@
 package com.truebanana.http;
 
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -34,9 +39,16 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Represents a multi-part content body with chainable setters for convenient building.
+ * Represents a multi-part content body with chainable setters for convenient building.<br />
+ * <br />
+ * Parts can be backed by a byte array, a {@link File}, a {@link FileChannel} or an {@link InputStream}. Files and streams are copied to the connection through a small buffer while the request is sent, so large uploads don't have to fit in memory.
+ * If the length of every part is known, the body is sent with a fixed Content-Length, otherwise it is sent in chunks.
  */
 public class MultiPartContent {
+    private static final String CRLF = "\r\n";
+    private static final String HYPHENS = "--";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
     private String boundary = "**********";
     private List<Part> parts = new ArrayList<>();
 
@@ -60,32 +72,78 @@ public class MultiPartContent {
      * @throws IOException
      */
     protected void write(OutputStream outputStream) throws IOException {
-        String crlf = "\r\n";
-        String hypens = "--";
-
         DataOutputStream os = new DataOutputStream(outputStream);
 
-        for (MultiPartContent.Part part : parts) {
-            os.writeBytes(hypens + boundary + crlf);
-            os.writeBytes("Content-Disposition: form-data; name=\"" + part.getName() + "\";filename=\"" + part.getFileName() + "\"" + crlf);
-            Iterator<Map.Entry<String, String>> iterator = part.getHeaders().entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, String> pair = (Map.Entry) iterator.next();
-                os.writeBytes(pair.getKey() + ": " + pair.getValue());
-                os.writeBytes(crlf);
+        byte[] buffer = null;
+        for (int i = 0; i < parts.size(); i++) {
+            Part part = parts.get(i);
+            if (i > 0) {
+                os.writeBytes(CRLF);
+            }
+            os.writeBytes(getPartHeader(part));
+            if (part.content != null) {
+                os.write(part.content);
+            } else {
+                if (buffer == null) {
+                    buffer = new byte[BUFFER_SIZE];
+                }
+                part.writeContent(os, buffer);
             }
-            os.writeBytes(crlf);
-
-            os.write(part.getContent());
         }
 
-        os.writeBytes(crlf);
-        os.writeBytes(hypens + boundary + hypens + crlf);
+        os.writeBytes(CRLF);
+        os.writeBytes(HYPHENS + boundary + HYPHENS + CRLF);
 
         os.flush();
         os.close();
     }
 
+    private String getPartHeader(Part part) {
+        StringBuilder header = new StringBuilder();
+        header.append(HYPHENS).append(boundary).append(CRLF);
+        header.append("Content-Disposition: form-data; name=\"").append(part.getName()).append("\";filename=\"").append(part.getFileName()).append("\"").append(CRLF);
+        Iterator<Map.Entry<String, String>> iterator = part.getHeaders().entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> pair = (Map.Entry) iterator.next();
+            header.append(pair.getKey()).append(": ").append(pair.getValue()).append(CRLF);
+        }
+        header.append(CRLF);
+        return header.toString();
+    }
+
+    /**
+     * Returns the number of bytes {@link MultiPartContent#write(OutputStream)} will write, used to send the body with a fixed Content-Length.
+     *
+     * @return The length in bytes or -1 if the length of a part is unknown.
+     */
+    public long getContentLength() {
+        long length = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            Part part = parts.get(i);
+            long partLength = part.getContentLength();
+            if (partLength < 0) {
+                return -1;
+            }
+            if (i > 0) {
+                length += CRLF.length();
+            }
+            length += getPartHeader(part).length() + partLength; // DataOutputStream.writeBytes writes one byte per char
+        }
+        return length + CRLF.length() + (HYPHENS + boundary + HYPHENS + CRLF).length();
+    }
+
+    /**
+     * Checks if this {@link MultiPartContent} can be written more than once, which is not the case if a part is backed by an {@link InputStream}.
+     */
+    boolean isRepeatable() {
+        for (Part part : parts) {
+            if (part.stream != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Adds a {@link Part} to this {@link MultiPartContent}.
      *
@@ -133,6 +191,11 @@ public class MultiPartContent {
     public static class Part {
         private String name, fileName;
         private byte[] content;
+        private File file;
+        private FileChannel channel;
+        private long channelPosition;
+        private InputStream stream;
+        private long length = -1;
         private Map<String, String> headers = new HashMap<>();
 
         private Part() {
@@ -152,10 +215,107 @@ public class MultiPartContent {
             part.name = name;
             part.fileName = fileName;
             part.content = content;
+            part.length = content.length;
+
+            return part;
+        }
+
+        /**
+         * Creates {@link MultiPartContent.Part} whose content is read from a file while the request is sent.
+         *
+         * @param name     The name of this {@link Part}.
+         * @param fileName The filename of this {@link Part}.
+         * @param file     The file containing the content of this {@link Part}. It must not change until the request completes.
+         * @return A {@link MultiPartContent.Part}
+         */
+        public static Part create(String name, String fileName, File file) {
+            if (file == null) {
+                throw new IllegalArgumentException("File must not be null.");
+            }
+            Part part = new Part();
+
+            part.name = name;
+            part.fileName = fileName;
+            part.file = file;
+            part.length = file.length();
+
+            return part;
+        }
+
+        /**
+         * Creates {@link MultiPartContent.Part} whose content is read from a {@link FileChannel} while the request is sent, from its current position to its end. The position of the channel is not changed and it is not closed.
+         *
+         * @param name     The name of this {@link Part}.
+         * @param fileName The filename of this {@link Part}.
+         * @param channel  The {@link FileChannel} containing the content of this {@link Part}.
+         * @return A {@link MultiPartContent.Part}
+         * @throws IOException If the position or size of the channel could not be read.
+         */
+        public static Part create(String name, String fileName, FileChannel channel) throws IOException {
+            if (channel == null) {
+                throw new IllegalArgumentException("Channel must not be null.");
+            }
+            Part part = new Part();
+
+            part.name = name;
+            part.fileName = fileName;
+            part.channel = channel;
+            part.channelPosition = channel.position();
+            part.length = channel.size() - part.channelPosition;
+
+            return part;
+        }
+
+        /**
+         * Creates {@link MultiPartContent.Part} whose content is read from an {@link InputStream} while the request is sent. The stream is read once and closed afterwards, so the request is not retried once it has been sent.
+         *
+         * @param name     The name of this {@link Part}.
+         * @param fileName The filename of this {@link Part}.
+         * @param stream   The {@link InputStream} containing the content of this {@link Part}.
+         * @param length   The number of bytes in the stream or -1 if unknown, in which case the body is sent in chunks.
+         * @return A {@link MultiPartContent.Part}
+         */
+        public static Part create(String name, String fileName, InputStream stream, long length) {
+            if (stream == null) {
+                throw new IllegalArgumentException("Stream must not be null.");
+            }
+            Part part = new Part();
+
+            part.name = name;
+            part.fileName = fileName;
+            part.stream = stream;
+            part.length = length;
 
             return part;
         }
 
+        private void writeContent(OutputStream os, byte[] buffer) throws IOException {
+            long written = 0;
+            if (channel != null) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                int read;
+                while (written < length && (read = channel.read(byteBuffer, channelPosition + written)) != -1) {
+                    os.write(buffer, 0, read);
+                    written += read;
+                    byteBuffer.clear();
+                }
+            } else {
+                InputStream is = file != null ? new FileInputStream(file) : stream;
+                try {
+                    int read;
+                    while ((read = is.read(buffer, 0, buffer.length)) != -1) {
+                        os.write(buffer, 0, read);
+                        written += read;
+                    }
+                } finally {
+                    is.close();
+                }
+            }
+            if (length >= 0 && written != length) {
+                throw new IOException("Part " + name + " has " + written + " bytes instead of " + length + ".");
+            }
+        }
+
         /**
          * Adds a header to this {@link Part}
          *
@@ -191,12 +351,30 @@ public class MultiPartContent {
         /**
          * Returns the content of this {@link Part}.
          *
-         * @return The content of this {@link Part}.
+         * @return The content of this {@link Part} or <strong>null</strong> if it is backed by a file or a stream.
          */
         public byte[] getContent() {
             return content;
         }
 
+        /**
+         * Returns the file backing the content of this {@link Part}.
+         *
+         * @return The file or <strong>null</strong> if the content is not backed by a file.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the length of the content of this {@link Part}.
+         *
+         * @return The length in bytes or -1 if unknown.
+         */
+        public long getContentLength() {
+            return length;
+        }
+
 
         /**
          * Returns the headers of this {@link Part}.
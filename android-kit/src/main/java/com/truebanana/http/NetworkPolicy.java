@@ -0,0 +1,431 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Adapts an {@link HTTPDispatcher} to the network the device is on. Each {@link NetworkClass} has its own limit on the number of running requests and on the bandwidth used by all requests together,
+ * {@link HTTPRequestPriority#LOW} requests are held back while the network is metered or slow, and images can be requested at a lower resolution on slow networks, see {@link com.truebanana.bitmap.BitmapLoader}.<br />
+ * <br />
+ * The class of the network is first guessed from the type of the connection, such as Wi-Fi or 3G. The policy then measures the throughput of the responses it sees, and once it has enough samples the measured throughput decides the class instead,
+ * so a crowded Wi-Fi network is treated as slow and a fast 3G network is not. The measurements are discarded whenever the connection changes.<br />
+ * <br />
+ * The policy doesn't watch the connection itself. Call {@link NetworkPolicy#update(Context)} when the app starts and whenever the connectivity changes, such as from a receiver of {@link ConnectivityManager#CONNECTIVITY_ACTION}.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * NetworkPolicy policy = new NetworkPolicy();
+ * policy.setMaxBytesPerSecond(NetworkPolicy.NetworkClass.SLOW, 32 * 1024);
+ * policy.update(context);
+ * HTTPRequest.getDefaultDispatcher().setNetworkPolicy(policy);
+ * }
+ * </pre>
+ */
+public class NetworkPolicy {
+    /**
+     * The speed class of a network.
+     */
+    public enum NetworkClass {
+        /**
+         * Wi-Fi, Ethernet or a measured throughput of at least 256 KB/s.
+         */
+        FAST,
+
+        /**
+         * 4G or an unknown mobile network, or a measured throughput of at least 48 KB/s.
+         */
+        MODERATE,
+
+        /**
+         * 2G and 3G, or a measured throughput below 48 KB/s.
+         */
+        SLOW,
+
+        /**
+         * No connection.
+         */
+        OFFLINE
+    }
+
+    private static final long FAST_THRESHOLD = 256 * 1024; // In bytes per second
+    private static final long SLOW_THRESHOLD = 48 * 1024;
+    private static final long MIN_SAMPLE_BYTES = 32 * 1024; // Smaller responses mostly measure the latency
+    private static final int MIN_SAMPLES = 3;
+    private static final double SAMPLE_WEIGHT = 0.3;
+    private static final long MAX_BURST = 100000000L; // How far the bandwidth cap lets transfers run ahead, in nanoseconds
+
+    private final Map<NetworkClass, Integer> maxRequests = new EnumMap<>(NetworkClass.class);
+    private final Map<NetworkClass, Long> maxBytesPerSecond = new EnumMap<>(NetworkClass.class);
+    private final Map<NetworkClass, Float> imageScales = new EnumMap<>(NetworkClass.class);
+    private boolean deferLowPriority = true;
+
+    private NetworkClass connectionClass = NetworkClass.FAST;
+    private boolean metered;
+    private double throughput; // Moving average in bytes per second
+    private int sampleCount;
+    private NetworkClass networkClass = NetworkClass.FAST;
+
+    private long nextTransferTime; // When the bandwidth used so far has been paid for, see reserve()
+
+    private final CopyOnWriteArrayList<HTTPDispatcher> dispatchers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a {@link NetworkPolicy} which runs up to 64 requests at a time on a fast network, 8 on a moderate one and 3 on a slow one, without a bandwidth cap, and requests images at half the resolution on a slow network.
+     * Until it is updated, the network is assumed to be fast and unmetered.
+     */
+    public NetworkPolicy() {
+        for (NetworkClass networkClass : NetworkClass.values()) {
+            maxBytesPerSecond.put(networkClass, 0L);
+            imageScales.put(networkClass, 1f);
+        }
+        maxRequests.put(NetworkClass.FAST, 64);
+        maxRequests.put(NetworkClass.MODERATE, 8);
+        maxRequests.put(NetworkClass.SLOW, 3);
+        maxRequests.put(NetworkClass.OFFLINE, 64); // Let the requests fail right away
+        imageScales.put(NetworkClass.SLOW, 0.5f);
+    }
+
+    // Settings
+    // *********************************************************************************************
+
+    /**
+     * Sets the maximum number of requests running at the same time on a class of network. The lower of this and {@link HTTPDispatcher#getMaxRequests()} applies.
+     *
+     * @param networkClass The {@link NetworkClass}.
+     * @param maxRequests  The maximum number of running requests.
+     * @return This {@link NetworkPolicy} for chaining and convenience.
+     */
+    public NetworkPolicy setMaxRequests(NetworkClass networkClass, int maxRequests) {
+        if (networkClass == null) {
+            throw new IllegalArgumentException("Network class must not be null.");
+        }
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests < 1");
+        }
+        synchronized (this) {
+            this.maxRequests.put(networkClass, maxRequests);
+        }
+        notifyDispatchers();
+        return this;
+    }
+
+    /**
+     * Returns the maximum number of requests running at the same time on a class of network.
+     *
+     * @param networkClass The {@link NetworkClass}.
+     * @return The maximum number of running requests.
+     */
+    public synchronized int getMaxRequests(NetworkClass networkClass) {
+        return maxRequests.get(networkClass);
+    }
+
+    /**
+     * Sets the bandwidth which all requests together may use on a class of network, counting both request and response bodies as they are sent over the network.
+     * Use it to leave room for a video call or to keep background syncing from using up a small data plan.
+     *
+     * @param networkClass      The {@link NetworkClass}.
+     * @param maxBytesPerSecond The maximum number of bytes per second, or 0 for no limit, which is the default.
+     * @return This {@link NetworkPolicy} for chaining and convenience.
+     */
+    public NetworkPolicy setMaxBytesPerSecond(NetworkClass networkClass, long maxBytesPerSecond) {
+        if (networkClass == null) {
+            throw new IllegalArgumentException("Network class must not be null.");
+        }
+        if (maxBytesPerSecond < 0) {
+            throw new IllegalArgumentException("maxBytesPerSecond < 0");
+        }
+        synchronized (this) {
+            this.maxBytesPerSecond.put(networkClass, maxBytesPerSecond);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the bandwidth which all requests together may use on a class of network.
+     *
+     * @param networkClass The {@link NetworkClass}.
+     * @return The maximum number of bytes per second, or 0 if there is no limit.
+     */
+    public synchronized long getMaxBytesPerSecond(NetworkClass networkClass) {
+        return maxBytesPerSecond.get(networkClass);
+    }
+
+    /**
+     * Sets the factor by which the size of the images requested on a class of network is scaled, see {@link com.truebanana.bitmap.BitmapLoader}.
+     *
+     * @param networkClass The {@link NetworkClass}.
+     * @param scale        The factor, from more than 0 to 1.
+     * @return This {@link NetworkPolicy} for chaining and convenience.
+     */
+    public NetworkPolicy setImageScale(NetworkClass networkClass, float scale) {
+        if (networkClass == null) {
+            throw new IllegalArgumentException("Network class must not be null.");
+        }
+        if (scale <= 0 || scale > 1) {
+            throw new IllegalArgumentException("Scale must be more than 0 and at most 1.");
+        }
+        synchronized (this) {
+            imageScales.put(networkClass, scale);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the factor by which the size of the images requested on the current network is scaled.
+     *
+     * @return The factor, 1 to request images at their full size.
+     */
+    public synchronized float getImageScale() {
+        return imageScales.get(networkClass);
+    }
+
+    /**
+     * Sets whether {@link HTTPRequestPriority#LOW} requests wait in the queue while the network is metered, slow or offline. They are started as soon as the device is on a better network. Enabled by default.
+     *
+     * @param deferLowPriority <strong>true</strong> to hold back low priority requests.
+     * @return This {@link NetworkPolicy} for chaining and convenience.
+     */
+    public NetworkPolicy setLowPriorityDeferred(boolean deferLowPriority) {
+        synchronized (this) {
+            this.deferLowPriority = deferLowPriority;
+        }
+        notifyDispatchers();
+        return this;
+    }
+
+    /**
+     * Checks whether {@link HTTPRequestPriority#LOW} requests are held back on a metered, slow or offline network.
+     *
+     * @return <strong>true</strong> if low priority requests are held back.
+     */
+    public synchronized boolean isLowPriorityDeferred() {
+        return deferLowPriority;
+    }
+
+    // Network state
+    // *********************************************************************************************
+
+    /**
+     * Reads the active connection using {@link ConnectivityManager}. Requires the ACCESS_NETWORK_STATE permission.
+     *
+     * @param context The {@link Context}.
+     */
+    public void update(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo ni = cm.getActiveNetworkInfo();
+        if (ni == null || !ni.isConnected()) {
+            setConnection(NetworkClass.OFFLINE, false);
+            return;
+        }
+        boolean metered;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            metered = cm.isActiveNetworkMetered();
+        } else {
+            metered = ni.getType() != ConnectivityManager.TYPE_WIFI && ni.getType() != ConnectivityManager.TYPE_ETHERNET;
+        }
+        setConnection(getNetworkClass(ni.getType(), ni.getSubtype()), metered);
+    }
+
+    /**
+     * Sets the active connection directly, such as when the app tracks the connectivity itself.
+     *
+     * @param networkClass The {@link NetworkClass} of the connection.
+     * @param metered      <strong>true</strong> if the connection is metered.
+     */
+    public void setConnection(NetworkClass networkClass, boolean metered) {
+        if (networkClass == null) {
+            throw new IllegalArgumentException("Network class must not be null.");
+        }
+        synchronized (this) {
+            if (networkClass == connectionClass && metered == this.metered) {
+                return;
+            }
+            this.connectionClass = networkClass;
+            this.metered = metered;
+            this.throughput = 0;
+            this.sampleCount = 0;
+            updateNetworkClass();
+        }
+        notifyDispatchers();
+    }
+
+    /**
+     * Returns the class of the current network, measured if there have been enough large responses since the connection changed or guessed from the connection type otherwise.
+     *
+     * @return The {@link NetworkClass}.
+     */
+    public synchronized NetworkClass getNetworkClass() {
+        return networkClass;
+    }
+
+    /**
+     * Checks whether the current connection is metered.
+     *
+     * @return <strong>true</strong> if the connection is metered.
+     */
+    public synchronized boolean isMetered() {
+        return metered;
+    }
+
+    /**
+     * Returns the measured throughput of the current connection.
+     *
+     * @return The moving average of the throughput in bytes per second, or 0 if nothing has been measured yet.
+     */
+    public synchronized long getThroughput() {
+        return (long) throughput;
+    }
+
+    /**
+     * Guesses the class of a connection from its type.
+     *
+     * @param type    The type, one of the types defined by {@link ConnectivityManager}.
+     * @param subtype For mobile connections, one of the network types defined by {@link TelephonyManager}.
+     * @return The {@link NetworkClass}.
+     */
+    public static NetworkClass getNetworkClass(int type, int subtype) {
+        if (type == ConnectivityManager.TYPE_WIFI || type == ConnectivityManager.TYPE_ETHERNET) {
+            return NetworkClass.FAST;
+        }
+        if (type != ConnectivityManager.TYPE_MOBILE) {
+            return NetworkClass.MODERATE;
+        }
+        switch (subtype) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+            case TelephonyManager.NETWORK_TYPE_HSDPA:
+            case TelephonyManager.NETWORK_TYPE_HSUPA:
+            case TelephonyManager.NETWORK_TYPE_HSPA:
+            case TelephonyManager.NETWORK_TYPE_EHRPD:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+                return NetworkClass.SLOW;
+            default:
+                return NetworkClass.MODERATE; // LTE and anything newer
+        }
+    }
+
+    private void updateNetworkClass() {
+        if (connectionClass == NetworkClass.OFFLINE || sampleCount < MIN_SAMPLES) {
+            networkClass = connectionClass;
+        } else if (throughput >= FAST_THRESHOLD) {
+            networkClass = NetworkClass.FAST;
+        } else if (throughput >= SLOW_THRESHOLD) {
+            networkClass = NetworkClass.MODERATE;
+        } else {
+            networkClass = NetworkClass.SLOW;
+        }
+    }
+
+    // Called by HTTPDispatcher and HTTPRequest
+    // *********************************************************************************************
+
+    void addDispatcher(HTTPDispatcher dispatcher) {
+        dispatchers.addIfAbsent(dispatcher);
+    }
+
+    void removeDispatcher(HTTPDispatcher dispatcher) {
+        dispatchers.remove(dispatcher);
+    }
+
+    synchronized int getMaxRequests() {
+        return maxRequests.get(networkClass);
+    }
+
+    /**
+     * Checks whether requests of a priority should wait in the queue on the current network.
+     */
+    synchronized boolean isDeferred(HTTPRequestPriority priority) {
+        return deferLowPriority && priority == HTTPRequestPriority.LOW && (metered || networkClass == NetworkClass.SLOW || networkClass == NetworkClass.OFFLINE);
+    }
+
+    /**
+     * Checks whether the bandwidth is capped on the current network.
+     */
+    synchronized boolean isThrottled() {
+        return maxBytesPerSecond.get(networkClass) > 0;
+    }
+
+    /**
+     * Reserves bandwidth for bytes about to be or just transferred.
+     *
+     * @return How long the caller must wait to stay under the cap, in nanoseconds.
+     */
+    synchronized long reserve(int byteCount) {
+        long rate = maxBytesPerSecond.get(networkClass);
+        if (rate <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        nextTransferTime = Math.max(nextTransferTime, now - MAX_BURST) + byteCount * 1000000000L / rate;
+        return Math.max(0, nextTransferTime - now - MAX_BURST);
+    }
+
+    /**
+     * Adds a measurement of the throughput of a response body.
+     *
+     * @param byteCount The size of the body as received.
+     * @param nanos     The time it took to receive the body, not counting the time spent waiting for the bandwidth cap.
+     */
+    void onResponseReceived(long byteCount, long nanos) {
+        if (byteCount < MIN_SAMPLE_BYTES || nanos <= 0) {
+            return;
+        }
+        boolean changed;
+        synchronized (this) {
+            double sample = byteCount * 1000000000.0 / nanos;
+            throughput = sampleCount == 0 ? sample : throughput + SAMPLE_WEIGHT * (sample - throughput);
+            sampleCount++;
+            NetworkClass previous = networkClass;
+            updateNetworkClass();
+            changed = networkClass != previous;
+        }
+        if (changed) {
+            notifyDispatchers();
+        }
+    }
+
+    private void notifyDispatchers() {
+        for (HTTPDispatcher dispatcher : dispatchers) {
+            dispatcher.onNetworkPolicyChanged();
+        }
+    }
+}
@@ -0,0 +1,565 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * An {@link HTTPEngine} which keeps a bounded pool of keep-alive connections per host so consecutive requests to the same host can skip the TCP connect and the TLS handshake.<br />
+ * <br />
+ * Idle connections are evicted once they have been unused for longer than the keep-alive duration. Requests through a proxy set in the system properties are handed to the platform {@link HttpURLConnection} instead.<br />
+ * <br />
+ * Host names are resolved using an {@link HTTPDns}, such as a {@link CachingDns}. When a host has several addresses, they are raced Happy Eyeballs style (RFC 8305): the addresses are tried alternating between IPv6 and IPv4,
+ * the next one is tried if the previous has not connected within 250ms, and the first connection to succeed is used. A broken IPv6 route or a dead address then costs a quarter of a second instead of a whole connect timeout.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * HTTPRequest.setDefaultHTTPEngine(new PooledHTTPEngine());
+ * }
+ * </pre>
+ */
+public class PooledHTTPEngine implements HTTPEngine {
+    private static final long CONNECTION_ATTEMPT_DELAY = 250;
+
+    private static final ExecutorService connectExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "PooledHTTPEngine Connect");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final int maxIdleConnectionsPerHost;
+    /**
+     * How long idle connections are kept by default. Shorter than the idle timeout of most servers, so a connection is rarely reused just as the server closes it.
+     */
+    static final long DEFAULT_KEEP_ALIVE_DURATION = 30 * 1000;
+
+    private final long keepAliveDuration;
+    private final HTTPDns dns;
+    private final Map<Address, Deque<PooledSocket>> idleConnections = new HashMap<>();
+
+    /**
+     * Creates a {@link PooledHTTPEngine} which keeps up to 5 idle connections per host for up to 30 seconds, or less if the server announces a shorter Keep-Alive timeout.
+     */
+    public PooledHTTPEngine() {
+        this(5, DEFAULT_KEEP_ALIVE_DURATION);
+    }
+
+    /**
+     * Creates a {@link PooledHTTPEngine}.
+     *
+     * @param maxIdleConnectionsPerHost The maximum number of idle connections to keep for each host.
+     * @param keepAliveDuration         How long an idle connection is kept in the pool, in milliseconds.
+     */
+    public PooledHTTPEngine(int maxIdleConnectionsPerHost, long keepAliveDuration) {
+        this(maxIdleConnectionsPerHost, keepAliveDuration, HTTPDns.SYSTEM);
+    }
+
+    /**
+     * Creates a {@link PooledHTTPEngine} which resolves host names using the specified {@link HTTPDns}.
+     *
+     * @param maxIdleConnectionsPerHost The maximum number of idle connections to keep for each host.
+     * @param keepAliveDuration         How long an idle connection is kept in the pool, in milliseconds.
+     * @param dns                       The {@link HTTPDns}.
+     */
+    public PooledHTTPEngine(int maxIdleConnectionsPerHost, long keepAliveDuration, HTTPDns dns) {
+        if (dns == null) {
+            throw new IllegalArgumentException("DNS must not be null.");
+        }
+        if (maxIdleConnectionsPerHost < 0) {
+            throw new IllegalArgumentException("maxIdleConnectionsPerHost < 0");
+        }
+        if (keepAliveDuration <= 0) {
+            throw new IllegalArgumentException("keepAliveDuration <= 0");
+        }
+        this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+        this.keepAliveDuration = keepAliveDuration;
+        this.dns = dns;
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        Proxy proxy = URLConnectionEngine.getSystemProxy();
+        if (proxy != Proxy.NO_PROXY) {
+            return (HttpURLConnection) url.openConnection(proxy);
+        }
+
+        String protocol = url.getProtocol();
+        if (!"http".equalsIgnoreCase(protocol) && !"https".equalsIgnoreCase(protocol)) {
+            throw new IOException("Unsupported protocol: " + protocol);
+        }
+        return new PooledURLConnection(this, url);
+    }
+
+    @Override
+    public void release(HttpURLConnection connection) {
+        if (connection instanceof PooledURLConnection) {
+            ((PooledURLConnection) connection).release();
+        } else {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Returns the maximum number of idle connections kept for each host.
+     *
+     * @return The maximum number of idle connections per host.
+     */
+    public int getMaxIdleConnectionsPerHost() {
+        return maxIdleConnectionsPerHost;
+    }
+
+    /**
+     * Returns how long an idle connection is kept in the pool.
+     *
+     * @return The keep-alive duration in milliseconds.
+     */
+    public long getKeepAliveDuration() {
+        return keepAliveDuration;
+    }
+
+    /**
+     * Returns the {@link HTTPDns} which resolves host names.
+     *
+     * @return The {@link HTTPDns}.
+     */
+    public HTTPDns getDns() {
+        return dns;
+    }
+
+    /**
+     * Returns the number of idle connections currently in the pool.
+     *
+     * @return The number of idle connections.
+     */
+    public synchronized int getIdleConnectionCount() {
+        evictExpiredConnections();
+        int count = 0;
+        for (Deque<PooledSocket> sockets : idleConnections.values()) {
+            count += sockets.size();
+        }
+        return count;
+    }
+
+    /**
+     * Closes and removes all idle connections from the pool.
+     */
+    public synchronized void evictAll() {
+        for (Deque<PooledSocket> sockets : idleConnections.values()) {
+            for (PooledSocket socket : sockets) {
+                socket.close();
+            }
+        }
+        idleConnections.clear();
+    }
+
+    /**
+     * Returns a healthy pooled connection to the address or opens a new one.
+     */
+    PooledSocket obtain(Address address, int connectTimeout, int readTimeout, boolean allowPooled, HTTPRequest request) throws IOException {
+        if (allowPooled) {
+            PooledSocket socket;
+            while ((socket = takeIdle(address)) != null) {
+                if (socket.isHealthy(true)) {
+                    return socket;
+                }
+                socket.close();
+            }
+        }
+        return connect(address, connectTimeout, readTimeout, null, request);
+    }
+
+    /**
+     * Returns a connection whose response has been fully read to the pool.
+     */
+    synchronized void recycle(PooledSocket socket) {
+        evictExpiredConnections();
+        Deque<PooledSocket> sockets = idleConnections.get(socket.address);
+        if (sockets == null) {
+            sockets = new ArrayDeque<>();
+            idleConnections.put(socket.address, sockets);
+        }
+        if (sockets.size() >= maxIdleConnectionsPerHost || !socket.isHealthy(false)) {
+            socket.close();
+            return;
+        }
+        socket.idleSince = System.currentTimeMillis();
+        socket.reused = true;
+        sockets.addFirst(socket);
+    }
+
+    private synchronized PooledSocket takeIdle(Address address) {
+        evictExpiredConnections();
+        Deque<PooledSocket> sockets = idleConnections.get(address);
+        return sockets != null ? sockets.pollFirst() : null;
+    }
+
+    /**
+     * Keeps a connection for a second less than the server says it would, so it is not reused just as the server closes it.
+     */
+    private long getKeepAliveDuration(PooledSocket socket) {
+        if (socket.keepAliveTimeout < 0) {
+            return keepAliveDuration;
+        }
+        return Math.min(keepAliveDuration, socket.keepAliveTimeout - 1000);
+    }
+
+    private void evictExpiredConnections() {
+        long now = System.currentTimeMillis();
+        Iterator<Deque<PooledSocket>> iterator = idleConnections.values().iterator();
+        while (iterator.hasNext()) {
+            Deque<PooledSocket> sockets = iterator.next();
+            Iterator<PooledSocket> socketIterator = sockets.iterator();
+            while (socketIterator.hasNext()) {
+                PooledSocket socket = socketIterator.next();
+                if (now - socket.idleSince > getKeepAliveDuration(socket)) {
+                    socketIterator.remove();
+                    socket.close();
+                }
+            }
+            if (sockets.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Opens a new connection. For HTTPS, the protocols are offered to the server using ALPN and the one it selected is kept in {@link PooledSocket#protocol}.
+     * The steps are reported to the {@link HTTPEventListener} of the request, if there is one.
+     */
+    PooledSocket connect(Address address, int connectTimeout, int readTimeout, String[] protocols, HTTPRequest request) throws IOException {
+        HTTPEventListener events = request != null ? request.getEventListener() : HTTPEventListener.NONE;
+        Socket socket = null;
+        try {
+            events.dnsStart(request, address.host);
+            List<InetAddress> addresses = dns.lookup(address.host);
+            if (addresses == null || addresses.isEmpty()) {
+                throw new UnknownHostException(dns + " returned no addresses for " + address.host);
+            }
+            events.dnsEnd(request, address.host, addresses);
+            socket = connectSocket(sortAddresses(addresses), address.port, connectTimeout, request, events);
+            socket.setSoTimeout(readTimeout);
+
+            SSLSession session = null;
+            String protocol = null;
+            if (address.sslSocketFactory != null) {
+                SSLSocket sslSocket = (SSLSocket) address.sslSocketFactory.createSocket(socket, address.host, address.port, true);
+                socket = sslSocket;
+                boolean negotiate = protocols != null && ALPN.setProtocols(sslSocket, protocols);
+                events.secureConnectStart(request);
+                sslSocket.startHandshake();
+                session = sslSocket.getSession();
+                if (!address.hostnameVerifier.verify(address.host, session)) {
+                    throw new SSLPeerUnverifiedException("Hostname " + address.host + " not verified");
+                }
+                if (negotiate) {
+                    protocol = ALPN.getSelectedProtocol(sslSocket);
+                }
+                events.secureConnectEnd(request, session);
+            }
+            PooledSocket pooledSocket = new PooledSocket(address, socket, session);
+            pooledSocket.protocol = protocol;
+            return pooledSocket;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Orders the addresses alternating between IPv6 and IPv4, starting with the family of the first address.
+     */
+    static List<InetAddress> sortAddresses(List<InetAddress> addresses) {
+        List<InetAddress> first = new ArrayList<>();
+        List<InetAddress> second = new ArrayList<>();
+        boolean firstIsIPv6 = !addresses.isEmpty() && addresses.get(0) instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == firstIsIPv6) {
+                first.add(address);
+            } else {
+                second.add(address);
+            }
+        }
+        List<InetAddress> sorted = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                sorted.add(first.get(i));
+            }
+            if (i < second.size()) {
+                sorted.add(second.get(i));
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Connects to the first address which answers, starting another attempt whenever the previous ones have not connected within {@link PooledHTTPEngine#CONNECTION_ATTEMPT_DELAY} or have failed.
+     */
+    private static Socket connectSocket(List<InetAddress> addresses, int port, final int connectTimeout, HTTPRequest request, HTTPEventListener events) throws IOException {
+        if (addresses.size() == 1) {
+            Socket socket = new Socket();
+            InetSocketAddress socketAddress = new InetSocketAddress(addresses.get(0), port);
+            events.connectStart(request, socketAddress);
+            try {
+                socket.connect(socketAddress, connectTimeout);
+                events.connectEnd(request, socketAddress);
+                return socket;
+            } catch (IOException e) {
+                closeQuietly(socket);
+                events.connectFailed(request, socketAddress, e);
+                throw e;
+            }
+        }
+
+        final BlockingQueue<Attempt> results = new LinkedBlockingQueue<>(); // Finished attempts, connected or failed
+        final List<Socket> attempts = new ArrayList<>();
+        long deadline = connectTimeout > 0 ? System.currentTimeMillis() + connectTimeout : Long.MAX_VALUE;
+        int started = 0;
+        int failed = 0;
+        boolean startNext = true;
+        try {
+            while (true) {
+                if (startNext && started < addresses.size()) {
+                    final Attempt attempt = new Attempt(new InetSocketAddress(addresses.get(started), port));
+                    synchronized (attempts) {
+                        attempts.add(attempt.socket);
+                    }
+                    events.connectStart(request, attempt.address);
+                    connectExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                attempt.socket.connect(attempt.address, connectTimeout);
+                            } catch (IOException e) {
+                                closeQuietly(attempt.socket);
+                                attempt.failure = e;
+                            }
+                            results.add(attempt);
+                        }
+                    });
+                    started++;
+                    startNext = false;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Connect timed out");
+                }
+                Attempt result = results.poll(started < addresses.size() ? Math.min(CONNECTION_ATTEMPT_DELAY, remaining) : remaining, TimeUnit.MILLISECONDS);
+                if (result != null && result.failure == null) {
+                    synchronized (attempts) {
+                        attempts.remove(result.socket);
+                    }
+                    events.connectEnd(request, result.address);
+                    return result.socket;
+                }
+                if (result != null) {
+                    events.connectFailed(request, result.address, result.failure);
+                    if (++failed == addresses.size()) {
+                        throw result.failure;
+                    }
+                }
+                // Either an attempt failed or the attempt delay elapsed
+                startNext = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketTimeoutException("Connect interrupted");
+        } finally {
+            // Abort the losing attempts, a socket connecting right now is closed by its close()
+            synchronized (attempts) {
+                for (Socket socket : attempts) {
+                    closeQuietly(socket);
+                }
+                attempts.clear();
+            }
+        }
+    }
+
+    /**
+     * One connection attempt of {@link PooledHTTPEngine#connectSocket(List, int, int, HTTPRequest, HTTPEventListener)}. The failure is written by the connecting thread before the attempt is queued.
+     */
+    private static final class Attempt {
+        final InetSocketAddress address;
+        final Socket socket = new Socket();
+        IOException failure;
+
+        Attempt(InetSocketAddress address) {
+            this.address = address;
+        }
+    }
+
+    static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Identifies connections which can be shared. HTTPS connections are only shared between requests using the same socket factory and hostname verifier.
+     */
+    static final class Address {
+        final boolean secure;
+        final String host;
+        final int port;
+        final SSLSocketFactory sslSocketFactory;
+        final HostnameVerifier hostnameVerifier;
+
+        Address(URL url, SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
+            this.secure = "https".equalsIgnoreCase(url.getProtocol());
+            String host = url.getHost();
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1); // IPv6 literal
+            }
+            this.host = host;
+            this.port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+            this.sslSocketFactory = secure ? sslSocketFactory : null;
+            this.hostnameVerifier = secure ? hostnameVerifier : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Address)) {
+                return false;
+            }
+            Address other = (Address) o;
+            return secure == other.secure
+                    && port == other.port
+                    && host.equalsIgnoreCase(other.host)
+                    && sslSocketFactory == other.sslSocketFactory
+                    && hostnameVerifier == other.hostnameVerifier;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = host.toLowerCase().hashCode();
+            result = 31 * result + port;
+            result = 31 * result + System.identityHashCode(sslSocketFactory);
+            result = 31 * result + System.identityHashCode(hostnameVerifier);
+            return result;
+        }
+    }
+
+    /**
+     * A connected socket with its buffered streams.
+     */
+    static final class PooledSocket {
+        final Address address;
+        final Socket socket;
+        final SSLSession session;
+        final InputStream in;
+        final OutputStream out;
+        String protocol; // Negotiated using ALPN, if any
+        long idleSince;
+        long keepAliveTimeout = -1; // Announced by the server in a Keep-Alive header, if any
+        boolean reused;
+
+        PooledSocket(Address address, Socket socket, SSLSession session) throws IOException {
+            this.address = address;
+            this.socket = socket;
+            this.session = session;
+            this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        }
+
+        /**
+         * Checks that the connection can carry a new exchange.
+         *
+         * @param probe Whether to also wait up to 1 ms for the server to close the connection, which is the only way to notice that it did while the connection was idle.
+         */
+        boolean isHealthy(boolean probe) {
+            if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+                return false;
+            }
+            try {
+                if (in.available() > 0) {
+                    return false; // Unsolicited bytes mean the server isn't waiting for a request
+                }
+                if (!probe) {
+                    return true;
+                }
+                int timeout = socket.getSoTimeout();
+                try {
+                    socket.setSoTimeout(1);
+                    in.mark(1);
+                    if (in.read() == -1) {
+                        return false; // Closed by the server
+                    }
+                    in.reset();
+                    return false;
+                } catch (SocketTimeoutException e) {
+                    return true; // Nothing to read, the server is waiting for a request
+                } finally {
+                    socket.setSoTimeout(timeout);
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            closeQuietly(socket);
+        }
+    }
+}
@@ -0,0 +1,969 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * An HTTP/1.1 {@link java.net.HttpURLConnection} which borrows its socket from a {@link PooledHTTPEngine} and returns it to the pool once the response body has been fully read.
+ * It extends {@link HttpsURLConnection} so the socket factory and hostname verifier can be set for HTTPS URLs; they are ignored for plain HTTP.
+ */
+class PooledURLConnection extends HttpsURLConnection {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int MAX_REDIRECTS = 20;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    static final Comparator<String> FIELD_NAME_COMPARATOR = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            if (a == b) {
+                return 0;
+            } else if (a == null) {
+                return -1; // The status line is stored with a null key
+            } else if (b == null) {
+                return 1;
+            }
+            return String.CASE_INSENSITIVE_ORDER.compare(a, b);
+        }
+    };
+
+    private final PooledHTTPEngine engine;
+    private final Map<String, List<String>> requestProperties = new TreeMap<>(FIELD_NAME_COMPARATOR);
+    private ByteArrayOutputStream requestBody;
+    private long fixedLength = -1;
+    private RequestBodyOutputStream streamingBody;
+
+    private PooledHTTPEngine.PooledSocket socket;
+    private SSLSession session;
+    private String statusLine;
+    private boolean keepAlive;
+    private long keepAliveTimeout = -1;
+    private final List<String> responseHeaderKeys = new ArrayList<>();
+    private final List<String> responseHeaderValues = new ArrayList<>();
+    private Map<String, List<String>> responseHeaders;
+    private BodyInputStream responseBody;
+    private HTTPRequest request;
+
+    PooledURLConnection(PooledHTTPEngine engine, URL url) {
+        super(url);
+        this.engine = engine;
+    }
+
+    /**
+     * Sets the request whose {@link HTTPEventListener} is told about the connection being opened and the request being sent.
+     */
+    void setRequest(HTTPRequest request) {
+        this.request = request;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        connect(true);
+    }
+
+    private void connect(boolean allowPooled) throws IOException {
+        if (connected) {
+            return;
+        }
+        PooledHTTPEngine.Address address = new PooledHTTPEngine.Address(url, getSSLSocketFactory(), getHostnameVerifier());
+        PooledHTTPEngine.PooledSocket socket = engine.obtain(address, getConnectTimeout(), getReadTimeout(), allowPooled, request);
+        synchronized (this) {
+            this.socket = socket;
+        }
+        connected = true;
+    }
+
+    /**
+     * Closes the socket immediately. Any ongoing read or write on another thread will fail.
+     */
+    @Override
+    public void disconnect() {
+        closeSocket();
+    }
+
+    /**
+     * Closes the response body so a fully read connection goes back to the pool, or closes the socket otherwise.
+     */
+    void release() {
+        if (responseBody != null) {
+            responseBody.close();
+        }
+        closeSocket();
+    }
+
+    private synchronized PooledHTTPEngine.PooledSocket takeSocket() {
+        PooledHTTPEngine.PooledSocket s = socket;
+        socket = null;
+        return s;
+    }
+
+    private void closeSocket() {
+        PooledHTTPEngine.PooledSocket s = takeSocket();
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    private synchronized PooledHTTPEngine.PooledSocket requireSocket() throws IOException {
+        if (socket == null) {
+            throw new IOException("Connection closed");
+        }
+        return socket;
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    // Request
+    // *********************************************************************************************
+
+    @Override
+    public void setRequestProperty(String field, String newValue) {
+        checkNotConnected(field);
+        List<String> values = new ArrayList<>();
+        values.add(newValue);
+        requestProperties.put(field, values);
+    }
+
+    @Override
+    public void addRequestProperty(String field, String newValue) {
+        checkNotConnected(field);
+        List<String> values = requestProperties.get(field);
+        if (values == null) {
+            values = new ArrayList<>();
+            requestProperties.put(field, values);
+        }
+        values.add(newValue);
+    }
+
+    @Override
+    public String getRequestProperty(String field) {
+        List<String> values = field != null ? requestProperties.get(field) : null;
+        return values != null && !values.isEmpty() ? values.get(values.size() - 1) : null;
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        return Collections.unmodifiableMap(requestProperties);
+    }
+
+    private void checkNotConnected(String field) {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        if (field == null) {
+            throw new NullPointerException("field == null");
+        }
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(int contentLength) {
+        super.setFixedLengthStreamingMode(contentLength);
+        fixedLength = contentLength;
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(long contentLength) {
+        super.setFixedLengthStreamingMode(contentLength);
+        fixedLength = contentLength;
+    }
+
+    /**
+     * Returns a stream for the request body. In fixed-length or chunked streaming mode the request headers are sent right away and the body is written straight to the socket,
+     * otherwise the body is buffered so it can be sent with its length and sent again if a pooled connection turns out to be stale.
+     */
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput) {
+            throw new ProtocolException("Cannot write request body: doOutput is false");
+        }
+        if (responseBody != null) {
+            throw new ProtocolException("Cannot write request body after the response has been read");
+        }
+        if (fixedLength != -1 || chunkLength > 0) {
+            if (streamingBody == null) {
+                streamingBody = openStreamingBody();
+            }
+            return streamingBody;
+        }
+        if (requestBody == null) {
+            requestBody = new ByteArrayOutputStream();
+        }
+        return requestBody;
+    }
+
+    private RequestBodyOutputStream openStreamingBody() throws IOException {
+        connect();
+        PooledHTTPEngine.PooledSocket s = requireSocket();
+        try {
+            s.socket.setSoTimeout(getReadTimeout());
+            writeHead(s.out, fixedLength, chunkLength > 0);
+            s.out.flush(); // A stale pooled connection fails here, while the request can still be sent again
+        } catch (IOException e) {
+            closeSocket();
+            if (!s.reused || e instanceof SocketTimeoutException) {
+                throw e;
+            }
+            connected = false;
+            connect(false);
+            s = requireSocket();
+            try {
+                writeHead(s.out, fixedLength, chunkLength > 0);
+                s.out.flush();
+            } catch (IOException retryException) {
+                closeSocket();
+                throw retryException;
+            }
+        }
+        onRequestSent();
+        return chunkLength > 0 ? new ChunkedOutputStream(s.out, chunkLength) : new FixedLengthOutputStream(s.out, fixedLength);
+    }
+
+    private void writeRequest(OutputStream out) throws IOException {
+        byte[] body = requestBody != null ? requestBody.toByteArray() : null;
+        writeHead(out, body != null ? body.length : -1, false);
+        if (body != null) {
+            out.write(body);
+        }
+        out.flush();
+    }
+
+    private void writeHead(OutputStream out, long contentLength, boolean chunked) throws IOException {
+        StringBuilder head = new StringBuilder(256);
+        String path = url.getFile();
+        head.append(method).append(' ').append(path.isEmpty() ? "/" : path).append(" HTTP/1.1\r\n");
+
+        if (getRequestProperty("Host") == null) {
+            int port = url.getPort();
+            appendHeader(head, "Host", port == -1 || port == url.getDefaultPort() ? url.getHost() : url.getHost() + ":" + port);
+        }
+        if (getRequestProperty("User-Agent") == null) {
+            String agent = System.getProperty("http.agent");
+            if (agent != null) {
+                appendHeader(head, "User-Agent", agent);
+            }
+        }
+        if (chunked) {
+            appendHeader(head, "Transfer-Encoding", "chunked");
+        } else if (getRequestProperty("Content-Length") == null) {
+            if (contentLength >= 0) {
+                appendHeader(head, "Content-Length", Long.toString(contentLength));
+            } else if ("POST".equals(method) || "PUT".equals(method)) {
+                appendHeader(head, "Content-Length", "0");
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : requestProperties.entrySet()) {
+            for (String value : entry.getValue()) {
+                appendHeader(head, entry.getKey(), value);
+            }
+        }
+        head.append("\r\n");
+
+        out.write(head.toString().getBytes(ISO_8859_1));
+    }
+
+    private void onRequestSent() {
+        if (request != null) {
+            request.getEventListener().requestHeadersEnd(request);
+        }
+    }
+
+    private static void appendHeader(StringBuilder head, String key, String value) {
+        head.append(key).append(": ").append(value).append("\r\n");
+    }
+
+    // Response
+    // *********************************************************************************************
+
+    private void getResponse() throws IOException {
+        if (responseBody != null) {
+            return;
+        }
+
+        for (int redirects = 0; ; redirects++) {
+            exchange();
+
+            URL location = getRedirectLocation();
+            if (location == null) {
+                return;
+            }
+            if (redirects >= MAX_REDIRECTS) {
+                throw new ProtocolException("Too many redirects: " + (redirects + 1));
+            }
+
+            responseBody.discard();
+            responseBody = null;
+            responseCode = -1;
+            responseMessage = null;
+            connected = false;
+            if (!isSameOrigin(url, location)) {
+                // Credentials and cookies are only meant for the server they were set for
+                requestProperties.remove("Authorization");
+                requestProperties.remove("Proxy-Authorization");
+                requestProperties.remove("Cookie");
+            }
+            url = location;
+        }
+    }
+
+    private static boolean isSameOrigin(URL a, URL b) {
+        return a.getHost().equalsIgnoreCase(b.getHost()) && getPort(a) == getPort(b);
+    }
+
+    private static int getPort(URL url) {
+        return url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+    }
+
+    private void exchange() throws IOException {
+        if (streamingBody != null) {
+            exchangeStreamed();
+            return;
+        }
+
+        connect();
+        PooledHTTPEngine.PooledSocket s = requireSocket();
+        boolean requestSent = false;
+        try {
+            s.socket.setSoTimeout(getReadTimeout());
+            writeRequest(s.out);
+            requestSent = true;
+            onRequestSent();
+            readResponseHeaders(s.in);
+        } catch (IOException e) {
+            closeSocket();
+            if (!s.reused || e instanceof SocketTimeoutException || requestSent && !isRetryable()) {
+                throw e; // The server may have received the request and acted on it
+            }
+
+            // The pooled connection went stale while idle, try once more on a fresh one
+            connected = false;
+            connect(false);
+            s = requireSocket();
+            try {
+                writeRequest(s.out);
+                onRequestSent();
+                readResponseHeaders(s.in);
+            } catch (IOException retryException) {
+                closeSocket();
+                throw retryException;
+            }
+        }
+        session = s.session;
+        responseBody = openResponseBody(s.in);
+    }
+
+    /**
+     * Ends a request whose body was streamed and reads the response. The body is gone, so unlike a buffered request it can't be sent again on a fresh connection.
+     */
+    private void exchangeStreamed() throws IOException {
+        RequestBodyOutputStream body = streamingBody;
+        streamingBody = null;
+        PooledHTTPEngine.PooledSocket s = requireSocket();
+        try {
+            body.close();
+            readResponseHeaders(s.in);
+        } catch (IOException e) {
+            closeSocket();
+            throw e;
+        }
+        session = s.session;
+        responseBody = openResponseBody(s.in);
+    }
+
+    /**
+     * Returns true if the request can be sent again after it may have reached the server, which is only the case for idempotent methods without a body.
+     */
+    private boolean isRetryable() {
+        if (requestBody != null) {
+            return false;
+        }
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+            case "TRACE":
+            case "DELETE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void readResponseHeaders(InputStream in) throws IOException {
+        do {
+            statusLine = readLine(in);
+            responseHeaderKeys.clear();
+            responseHeaderValues.clear();
+
+            // HTTP/1.1 200 OK
+            if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12 || statusLine.charAt(8) != ' ') {
+                throw new ProtocolException("Unexpected status line: " + statusLine);
+            }
+            try {
+                responseCode = Integer.parseInt(statusLine.substring(9, 12));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Unexpected status line: " + statusLine);
+            }
+            responseMessage = statusLine.length() > 13 ? statusLine.substring(13) : "";
+
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    throw new ProtocolException("Unexpected header: " + line);
+                }
+                responseHeaderKeys.add(line.substring(0, colon).trim());
+                responseHeaderValues.add(line.substring(colon + 1).trim());
+            }
+        } while (responseCode >= 100 && responseCode < 200); // Skip interim responses such as 100 Continue
+
+        Map<String, List<String>> headers = new TreeMap<>(FIELD_NAME_COMPARATOR);
+        headers.put(null, Collections.singletonList(statusLine));
+        for (int i = 0; i < responseHeaderKeys.size(); i++) {
+            List<String> values = headers.get(responseHeaderKeys.get(i));
+            if (values == null) {
+                values = new ArrayList<>();
+                headers.put(responseHeaderKeys.get(i), values);
+            }
+            values.add(responseHeaderValues.get(i));
+        }
+        responseHeaders = Collections.unmodifiableMap(headers);
+
+        String connection = getHeaderField("Connection");
+        if (statusLine.startsWith("HTTP/1.0")) {
+            keepAlive = "keep-alive".equalsIgnoreCase(connection);
+        } else {
+            keepAlive = !"close".equalsIgnoreCase(connection);
+        }
+        keepAliveTimeout = parseKeepAliveTimeout(getHeaderField("Keep-Alive"));
+    }
+
+    /**
+     * Reads the timeout parameter of a Keep-Alive header such as {@code timeout=5, max=100}.
+     *
+     * @return The timeout in milliseconds, or -1 if there isn't a valid one.
+     */
+    static long parseKeepAliveTimeout(String keepAlive) {
+        if (keepAlive == null) {
+            return -1;
+        }
+        for (String parameter : keepAlive.split(",")) {
+            String[] pair = parameter.trim().split("=", 2);
+            if (pair.length == 2 && "timeout".equalsIgnoreCase(pair[0].trim())) {
+                try {
+                    long seconds = Long.parseLong(pair[1].trim());
+                    return seconds >= 0 ? seconds * 1000 : -1;
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private BodyInputStream openResponseBody(InputStream in) throws IOException {
+        if ("HEAD".equals(method) || responseCode == HTTP_NO_CONTENT || responseCode == HTTP_NOT_MODIFIED) {
+            return new FixedLengthInputStream(in, 0);
+        }
+        if ("chunked".equalsIgnoreCase(getHeaderField("Transfer-Encoding"))) {
+            return new ChunkedInputStream(in);
+        }
+        String contentLength = getHeaderField("Content-Length");
+        if (contentLength != null) {
+            try {
+                return new FixedLengthInputStream(in, Long.parseLong(contentLength));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Unexpected Content-Length: " + contentLength);
+            }
+        }
+        keepAlive = false;
+        return new UntilCloseInputStream(in);
+    }
+
+    private URL getRedirectLocation() throws IOException {
+        if (!getInstanceFollowRedirects()) {
+            return null;
+        }
+        switch (responseCode) {
+            case HTTP_MULT_CHOICE:
+            case HTTP_MOVED_PERM:
+            case HTTP_MOVED_TEMP:
+            case HTTP_SEE_OTHER:
+            case 307:
+            case 308:
+                break;
+            default:
+                return null;
+        }
+        String location = getHeaderField("Location");
+        if (location == null) {
+            return null;
+        }
+        URL next = new URL(url, location);
+        if (!next.getProtocol().equalsIgnoreCase(url.getProtocol())) {
+            return null; // Just like HttpURLConnection, don't follow redirects across protocols
+        }
+
+        boolean bodyless = "GET".equals(method) || "HEAD".equals(method);
+        if (responseCode == 307 || responseCode == 308) {
+            if (!bodyless) {
+                return null;
+            }
+        } else if (!bodyless) {
+            method = "GET";
+            requestBody = null;
+            fixedLength = -1;
+            chunkLength = -1;
+        }
+        return next;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(80);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException("Unexpected end of stream");
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new ProtocolException("Line too long");
+            }
+            line.append((char) c);
+        }
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+            line.setLength(length - 1);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!doInput) {
+            throw new ProtocolException("Cannot read response: doInput is false");
+        }
+        getResponse();
+        if (responseCode >= HTTP_BAD_REQUEST) {
+            throw new FileNotFoundException(url.toString());
+        }
+        return responseBody;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return responseBody != null && responseCode >= HTTP_BAD_REQUEST ? responseBody : null;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        getResponse();
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        getResponse();
+        return responseMessage;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        try {
+            getResponse();
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+        return responseHeaders;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        Map<String, List<String>> headers = responseHeaders;
+        if (headers == null) {
+            headers = getHeaderFields();
+        }
+        List<String> values = headers.get(name);
+        return values != null && !values.isEmpty() ? values.get(values.size() - 1) : null;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        getHeaderFields();
+        if (n == 0) {
+            return statusLine;
+        }
+        return n > 0 && n <= responseHeaderValues.size() ? responseHeaderValues.get(n - 1) : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        getHeaderFields();
+        return n > 0 && n <= responseHeaderKeys.size() ? responseHeaderKeys.get(n - 1) : null;
+    }
+
+    // TLS
+    // *********************************************************************************************
+
+    private SSLSession getSession() {
+        if (session == null) {
+            throw new IllegalStateException("No TLS session available");
+        }
+        return session;
+    }
+
+    @Override
+    public String getCipherSuite() {
+        return getSession().getCipherSuite();
+    }
+
+    @Override
+    public Certificate[] getLocalCertificates() {
+        return getSession().getLocalCertificates();
+    }
+
+    @Override
+    public Certificate[] getServerCertificates() throws SSLPeerUnverifiedException {
+        return getSession().getPeerCertificates();
+    }
+
+    // Request body
+    // *********************************************************************************************
+
+    /**
+     * Base class of streamed request bodies, which write to the socket with the framing of the streaming mode. Closing one ends the body but leaves the socket open for the response.
+     */
+    private abstract static class RequestBodyOutputStream extends OutputStream {
+        protected final OutputStream out;
+        protected boolean closed;
+
+        RequestBodyOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        protected void checkNotClosed() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+    }
+
+    private static final class FixedLengthOutputStream extends RequestBodyOutputStream {
+        private long remaining;
+
+        FixedLengthOutputStream(OutputStream out, long length) {
+            super(out);
+            remaining = length;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            checkNotClosed();
+            if (count > remaining) {
+                throw new ProtocolException("Request body exceeds its Content-Length by " + (count - remaining) + " bytes");
+            }
+            out.write(buffer, offset, count);
+            remaining -= count;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (remaining > 0) {
+                throw new ProtocolException("Request body is " + remaining + " bytes shorter than its Content-Length");
+            }
+            out.flush();
+        }
+    }
+
+    private static final class ChunkedOutputStream extends RequestBodyOutputStream {
+        private static final byte[] CRLF = {'\r', '\n'};
+        private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+        private final byte[] buffer;
+        private int count;
+
+        ChunkedOutputStream(OutputStream out, int chunkLength) {
+            super(out);
+            buffer = new byte[chunkLength];
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            checkNotClosed();
+            if (count == 0 && length >= buffer.length) {
+                writeChunk(data, offset, length); // Large writes become a chunk as they are, without a copy
+                return;
+            }
+            while (length > 0) {
+                int n = Math.min(length, buffer.length - count);
+                System.arraycopy(data, offset, buffer, count, n);
+                count += n;
+                offset += n;
+                length -= n;
+                if (count == buffer.length) {
+                    writeChunk(buffer, 0, count);
+                    count = 0;
+                }
+            }
+        }
+
+        private void writeChunk(byte[] data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return; // A chunk of 0 bytes would end the body
+            }
+            out.write(Integer.toHexString(length).getBytes(ISO_8859_1));
+            out.write(CRLF);
+            out.write(data, offset, length);
+            out.write(CRLF);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed) {
+                writeChunk(buffer, 0, count);
+                count = 0;
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeChunk(buffer, 0, count);
+            count = 0;
+            out.write(LAST_CHUNK);
+            out.flush();
+        }
+    }
+
+    // Response body
+    // *********************************************************************************************
+
+    /**
+     * Base class of response bodies. Once a body has been read to the end, its socket is returned to the pool if the server allows it.
+     */
+    private abstract class BodyInputStream extends InputStream {
+        protected final InputStream in;
+        protected boolean done;
+
+        BodyInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        protected void endOfInput(boolean reusable) {
+            done = true;
+            PooledHTTPEngine.PooledSocket s = takeSocket();
+            if (s != null) {
+                if (reusable && keepAlive) {
+                    s.keepAliveTimeout = keepAliveTimeout;
+                    engine.recycle(s);
+                } else {
+                    s.close();
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        /**
+         * Reads the rest of the body so the connection can be reused.
+         */
+        void discard() throws IOException {
+            byte[] buffer = new byte[4096];
+            while (read(buffer, 0, buffer.length) != -1) {
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                done = true;
+                closeSocket(); // Unread data left, the connection can't be reused
+            }
+        }
+    }
+
+    private class FixedLengthInputStream extends BodyInputStream {
+        private long remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            super(in);
+            remaining = length;
+            if (remaining == 0) {
+                endOfInput(true);
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            if (done) {
+                throw new IOException("Stream closed");
+            }
+            int read = in.read(buffer, offset, (int) Math.min(count, remaining));
+            if (read == -1) {
+                closeSocket();
+                throw new ProtocolException("Unexpected end of stream");
+            }
+            remaining -= read;
+            if (remaining == 0) {
+                endOfInput(true);
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return done ? 0 : (int) Math.min(in.available(), remaining);
+        }
+    }
+
+    private class ChunkedInputStream extends BodyInputStream {
+        private long remainingInChunk = -1;
+        private boolean hasMoreChunks = true;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (!hasMoreChunks) {
+                return -1;
+            }
+            if (done) {
+                throw new IOException("Stream closed");
+            }
+            if (remainingInChunk == 0 || remainingInChunk == -1) {
+                readChunkSize();
+                if (!hasMoreChunks) {
+                    return -1;
+                }
+            }
+            int read = in.read(buffer, offset, (int) Math.min(count, remainingInChunk));
+            if (read == -1) {
+                closeSocket();
+                throw new ProtocolException("Unexpected end of stream");
+            }
+            remainingInChunk -= read;
+            return read;
+        }
+
+        private void readChunkSize() throws IOException {
+            if (remainingInChunk != -1) {
+                readLine(in); // The CRLF after the previous chunk
+            }
+            String line = readLine(in);
+            int extension = line.indexOf(';');
+            if (extension != -1) {
+                line = line.substring(0, extension);
+            }
+            try {
+                remainingInChunk = Long.parseLong(line.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Unexpected chunk size: " + line);
+            }
+            if (remainingInChunk == 0) {
+                hasMoreChunks = false;
+                while (!readLine(in).isEmpty()) {
+                    // Ignore trailers
+                }
+                endOfInput(true);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return done || remainingInChunk <= 0 ? 0 : (int) Math.min(in.available(), remainingInChunk);
+        }
+    }
+
+    private class UntilCloseInputStream extends BodyInputStream {
+        UntilCloseInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (done) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, count);
+            if (read == -1) {
+                endOfInput(false);
+            }
+            return read;
+        }
+    }
+}
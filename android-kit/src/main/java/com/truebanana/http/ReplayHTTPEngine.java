@@ -0,0 +1,565 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An {@link HTTPEngine} which records real responses to a directory and replays them later without a network, so the scheduling of requests and the listeners can be tested and load-tested deterministically, such as on a CI machine.<br />
+ * <br />
+ * Responses are keyed by a signature of the request made of its method, its URL, its body and the headers chosen with {@link ReplayHTTPEngine#setMatchedHeaders(String...)}.
+ * When the same request is made several times, each response is recorded separately and they are replayed in the same order, the last one being repeated. Use {@link ReplayHTTPEngine#rewind()} to start over.<br />
+ * <br />
+ * Replayed responses go through the whole request flow like real ones, including the {@link HTTPCache}, decompression, streaming and the {@link HTTPEventListener}.
+ * They can be delayed and slowed down using a {@link Distribution} of latencies and of bandwidths, and can fail at random. The values are drawn from a generator seeded by the request signature, so a run is repeatable whatever the order the requests run in.
+ * A latency longer than the read timeout of the request times out like a real server would.<br />
+ * <br />
+ * Example:
+ * <pre>
+ * {@code
+ * // Once, against the real server
+ * HTTPRequest.setDefaultHTTPEngine(new ReplayHTTPEngine(dir, ReplayHTTPEngine.Mode.RECORD, new PooledHTTPEngine()));
+ *
+ * // In the tests
+ * HTTPRequest.setDefaultHTTPEngine(new ReplayHTTPEngine(dir)
+ *     .setLatency(ReplayHTTPEngine.Distribution.logNormal(120, 0.5))
+ *     .setBandwidth(ReplayHTTPEngine.Distribution.uniform(50 * 1024, 500 * 1024))
+ *     .setFailureRate(0.02));
+ * }
+ * </pre>
+ */
+public class ReplayHTTPEngine implements HTTPEngine {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String FILE_EXTENSION = ".http";
+
+    /**
+     * What a {@link ReplayHTTPEngine} does with each request.
+     */
+    public enum Mode {
+        /**
+         * Makes every request using the real engine and records its response, replacing any previous recording.
+         */
+        RECORD,
+
+        /**
+         * Replays the recorded responses. Requests without a recording fail.
+         */
+        REPLAY,
+
+        /**
+         * Replays the recorded responses, and makes and records the requests without a recording.
+         */
+        REPLAY_OR_RECORD
+    }
+
+    private final File directory;
+    private final Mode mode;
+    private final HTTPEngine delegate;
+
+    private final Set<String> matchedHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private volatile Distribution latency = Distribution.constant(0);
+    private volatile Distribution bandwidth = Distribution.constant(0);
+    private volatile double failureRate;
+    private volatile long seed;
+
+    private final Map<String, Integer> occurrences = new HashMap<>();
+
+    /**
+     * Creates a {@link ReplayHTTPEngine} which only replays the responses recorded in a directory.
+     *
+     * @param directory The directory of the recordings.
+     */
+    public ReplayHTTPEngine(File directory) {
+        this(directory, Mode.REPLAY, null);
+    }
+
+    /**
+     * Creates a {@link ReplayHTTPEngine}.
+     *
+     * @param directory The directory of the recordings.
+     * @param mode      The {@link Mode}.
+     * @param delegate  The {@link HTTPEngine} which makes the real requests. Only needed for recording.
+     */
+    public ReplayHTTPEngine(File directory, Mode mode, HTTPEngine delegate) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory must not be null.");
+        }
+        if (mode == null) {
+            throw new IllegalArgumentException("Mode must not be null.");
+        }
+        if (mode != Mode.REPLAY && delegate == null) {
+            throw new IllegalArgumentException("Delegate must not be null when recording.");
+        }
+        this.directory = directory;
+        this.mode = mode;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Sets the request headers which are part of the signature of a request, such as "Accept" or "Authorization". No header is matched by default.
+     *
+     * @param headers The header names.
+     * @return This {@link ReplayHTTPEngine} for chaining and convenience.
+     */
+    public ReplayHTTPEngine setMatchedHeaders(String... headers) {
+        synchronized (matchedHeaders) {
+            matchedHeaders.clear();
+            Collections.addAll(matchedHeaders, headers);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the time between sending a request and receiving the response headers of a replayed response. There is no latency by default.
+     *
+     * @param latency A {@link Distribution} of latencies in milliseconds.
+     * @return This {@link ReplayHTTPEngine} for chaining and convenience.
+     */
+    public ReplayHTTPEngine setLatency(Distribution latency) {
+        if (latency == null) {
+            throw new IllegalArgumentException("Latency must not be null.");
+        }
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * Sets the speed at which the body of a replayed response is received. The body is received at once by default.
+     *
+     * @param bandwidth A {@link Distribution} of bandwidths in bytes per second, where 0 means no limit.
+     * @return This {@link ReplayHTTPEngine} for chaining and convenience.
+     */
+    public ReplayHTTPEngine setBandwidth(Distribution bandwidth) {
+        if (bandwidth == null) {
+            throw new IllegalArgumentException("Bandwidth must not be null.");
+        }
+        this.bandwidth = bandwidth;
+        return this;
+    }
+
+    /**
+     * Sets the share of replayed requests which fail with an {@link IOException} after their latency instead of receiving their response. None fail by default.
+     *
+     * @param failureRate The share of failing requests, from 0 to 1.
+     * @return This {@link ReplayHTTPEngine} for chaining and convenience.
+     */
+    public ReplayHTTPEngine setFailureRate(double failureRate) {
+        if (failureRate < 0 || failureRate > 1) {
+            throw new IllegalArgumentException("Failure rate must be between 0 and 1.");
+        }
+        this.failureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * Sets the seed of the simulated latencies, bandwidths and failures. Runs with the same seed and the same requests simulate the same network.
+     *
+     * @param seed The seed.
+     * @return This {@link ReplayHTTPEngine} for chaining and convenience.
+     */
+    public ReplayHTTPEngine setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Starts replaying and recording the responses to repeated requests from the first one again.
+     */
+    public void rewind() {
+        synchronized (occurrences) {
+            occurrences.clear();
+        }
+    }
+
+    /**
+     * Returns the {@link Mode} of this engine.
+     *
+     * @return The {@link Mode}.
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        return new ReplayURLConnection(this, url);
+    }
+
+    @Override
+    public void release(HttpURLConnection connection) {
+        connection.disconnect();
+    }
+
+    // Called by ReplayURLConnection
+    // *********************************************************************************************
+
+    HTTPEngine getDelegate() {
+        return delegate;
+    }
+
+    Distribution getLatency() {
+        return latency;
+    }
+
+    Distribution getBandwidth() {
+        return bandwidth;
+    }
+
+    double getFailureRate() {
+        return failureRate;
+    }
+
+    /**
+     * Computes the signature of a request.
+     *
+     * @return The signature as a hexadecimal SHA-1 digest.
+     */
+    String getSignature(String method, URL url, Map<String, List<String>> requestProperties, byte[] body) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update((method + " " + url + "\n").getBytes(UTF_8));
+            synchronized (matchedHeaders) {
+                for (String header : matchedHeaders) {
+                    List<String> values = requestProperties.get(header);
+                    if (values != null) {
+                        digest.update((header.toLowerCase(Locale.US) + ": " + values + "\n").getBytes(UTF_8));
+                    }
+                }
+            }
+            if (body != null) {
+                digest.update(body);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(String.format(Locale.US, "%02x", b));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Counts a request with the signature.
+     *
+     * @return The number of earlier requests with the signature since the last rewind.
+     */
+    int nextOccurrence(String signature) {
+        synchronized (occurrences) {
+            Integer count = occurrences.get(signature);
+            int occurrence = count != null ? count : 0;
+            occurrences.put(signature, occurrence + 1);
+            return occurrence;
+        }
+    }
+
+    /**
+     * Returns the generator of the simulated network for a request, seeded so the same request gets the same values in every run.
+     */
+    Random getRandom(String signature, int occurrence) {
+        long x = seed + signature.hashCode() * 0x9E3779B97F4A7C15L + occurrence;
+        // Scramble the bits since generators with close seeds start with close values
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return new Random(x ^ (x >>> 31));
+    }
+
+    /**
+     * Reads the recording of a request.
+     *
+     * @return The {@link Recording}, or <strong>null</strong> if the request has not been recorded.
+     */
+    Recording read(String signature, int occurrence) throws IOException {
+        File file = new File(directory, signature + "-" + occurrence + FILE_EXTENSION);
+        while (!file.exists() && occurrence > 0) {
+            file = new File(directory, signature + "-" + --occurrence + FILE_EXTENSION); // Repeat the last response
+        }
+        return file.exists() ? Recording.read(file) : null;
+    }
+
+    void write(String signature, int occurrence, Recording recording) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File file = new File(directory, signature + "-" + occurrence + FILE_EXTENSION);
+        File temp = new File(directory, file.getName() + ".tmp");
+        recording.write(temp);
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not write " + file);
+            }
+        }
+    }
+
+    /**
+     * A recorded response. The file starts with the request line, the status line and the headers, one per line, followed by an empty line and the body as received.
+     */
+    static final class Recording {
+        String requestLine;
+        String statusLine;
+        int responseCode;
+        String responseMessage;
+        final List<String> headerKeys = new ArrayList<>();
+        final List<String> headerValues = new ArrayList<>();
+        byte[] body = new byte[0];
+
+        void addHeader(String key, String value) {
+            headerKeys.add(key);
+            headerValues.add(value);
+        }
+
+        /**
+         * Returns the headers with the status line under the <strong>null</strong> key, like {@link HttpURLConnection#getHeaderFields()}.
+         */
+        Map<String, List<String>> getHeaderFields() {
+            Map<String, List<String>> headers = new TreeMap<>(PooledURLConnection.FIELD_NAME_COMPARATOR);
+            headers.put(null, Collections.singletonList(statusLine));
+            for (int i = 0; i < headerKeys.size(); i++) {
+                List<String> values = headers.get(headerKeys.get(i));
+                if (values == null) {
+                    values = new ArrayList<>();
+                    headers.put(headerKeys.get(i), values);
+                }
+                values.add(headerValues.get(i));
+            }
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+            return Collections.unmodifiableMap(headers);
+        }
+
+        void write(File file) throws IOException {
+            StringBuilder head = new StringBuilder();
+            head.append(requestLine).append('\n').append(statusLine).append('\n');
+            for (int i = 0; i < headerKeys.size(); i++) {
+                head.append(headerKeys.get(i)).append(": ").append(headerValues.get(i)).append('\n');
+            }
+            head.append('\n');
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(head.toString().getBytes(UTF_8));
+                out.write(body);
+            } finally {
+                out.close();
+            }
+        }
+
+        static Recording read(File file) throws IOException {
+            byte[] data = new byte[(int) file.length()];
+            InputStream in = new FileInputStream(file);
+            try {
+                int offset = 0;
+                int read;
+                while (offset < data.length && (read = in.read(data, offset, data.length - offset)) != -1) {
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+
+            Recording recording = new Recording();
+            int start = 0;
+            int line = 0;
+            while (true) {
+                int end = indexOf(data, (byte) '\n', start);
+                if (end == -1) {
+                    throw new IOException("Invalid recording " + file);
+                }
+                String text = new String(data, start, end - start, UTF_8);
+                start = end + 1;
+                if (line == 0) {
+                    recording.requestLine = text;
+                } else if (line == 1) {
+                    recording.setStatusLine(text);
+                } else if (text.isEmpty()) {
+                    break;
+                } else {
+                    int colon = text.indexOf(": ");
+                    if (colon == -1) {
+                        throw new IOException("Invalid recording " + file);
+                    }
+                    recording.addHeader(text.substring(0, colon), text.substring(colon + 2));
+                }
+                line++;
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream(data.length - start);
+            body.write(data, start, data.length - start);
+            recording.body = body.toByteArray();
+            return recording;
+        }
+
+        void setStatusLine(String statusLine) throws IOException {
+            // HTTP/1.1 200 OK
+            String[] parts = statusLine.split(" ", 3);
+            try {
+                this.statusLine = statusLine;
+                this.responseCode = Integer.parseInt(parts[1]);
+                this.responseMessage = parts.length > 2 ? parts[2] : "";
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid status line " + statusLine);
+            }
+        }
+
+        private static int indexOf(byte[] data, byte b, int start) {
+            for (int i = start; i < data.length; i++) {
+                if (data[i] == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A distribution of simulated values, such as latencies or bandwidths.
+     */
+    public abstract static class Distribution {
+        /**
+         * Draws a value.
+         *
+         * @param random The generator to draw with.
+         * @return The value, at least 0.
+         */
+        public abstract long sample(Random random);
+
+        /**
+         * Returns a {@link Distribution} which is always the same value.
+         *
+         * @param value The value.
+         * @return The {@link Distribution}.
+         */
+        public static Distribution constant(final long value) {
+            checkNotNegative(value);
+            return new Distribution() {
+                @Override
+                public long sample(Random random) {
+                    return value;
+                }
+            };
+        }
+
+        /**
+         * Returns a {@link Distribution} of values spread evenly between two bounds.
+         *
+         * @param min The lowest value.
+         * @param max The highest value.
+         * @return The {@link Distribution}.
+         */
+        public static Distribution uniform(final long min, final long max) {
+            checkNotNegative(min);
+            if (max < min) {
+                throw new IllegalArgumentException("max < min");
+            }
+            return new Distribution() {
+                @Override
+                public long sample(Random random) {
+                    return min + (long) (random.nextDouble() * (max - min + 1));
+                }
+            };
+        }
+
+        /**
+         * Returns a normal {@link Distribution}. Negative values are drawn as 0.
+         *
+         * @param mean              The mean.
+         * @param standardDeviation The standard deviation.
+         * @return The {@link Distribution}.
+         */
+        public static Distribution normal(final double mean, final double standardDeviation) {
+            checkNotNegative(standardDeviation);
+            return new Distribution() {
+                @Override
+                public long sample(Random random) {
+                    return Math.max(0, Math.round(mean + random.nextGaussian() * standardDeviation));
+                }
+            };
+        }
+
+        /**
+         * Returns a log-normal {@link Distribution}, which resembles the latencies of real networks with most values close to the median and a long tail of slow ones.
+         *
+         * @param median The median.
+         * @param sigma  The standard deviation of the logarithm of the values. 0.5 puts the 99th percentile at about 3 times the median.
+         * @return The {@link Distribution}.
+         */
+        public static Distribution logNormal(final double median, final double sigma) {
+            checkNotNegative(median);
+            checkNotNegative(sigma);
+            return new Distribution() {
+                @Override
+                public long sample(Random random) {
+                    return Math.round(median * Math.exp(random.nextGaussian() * sigma));
+                }
+            };
+        }
+
+        /**
+         * Returns a {@link Distribution} which follows durations measured in production, such as {@link HTTPMetrics.HostMetrics#getLatency()}.
+         *
+         * @param histogram The {@link LatencyHistogram}. It is copied, so later recordings don't change the distribution.
+         * @return The {@link Distribution} in milliseconds.
+         */
+        public static Distribution from(LatencyHistogram histogram) {
+            if (histogram == null) {
+                throw new IllegalArgumentException("Histogram must not be null.");
+            }
+            final LatencyHistogram copy = histogram.copy();
+            return new Distribution() {
+                @Override
+                public long sample(Random random) {
+                    return Math.round(copy.getPercentile(random.nextDouble() * 100));
+                }
+            };
+        }
+
+        private static void checkNotNegative(double value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Value must not be negative.");
+            }
+        }
+    }
+}
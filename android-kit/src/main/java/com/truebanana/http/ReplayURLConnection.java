@@ -0,0 +1,438 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * A {@link java.net.HttpURLConnection} which serves a response recorded by a {@link ReplayHTTPEngine}, or makes the request using its delegate engine and records the response.
+ * It extends {@link HttpsURLConnection} so the socket factory and hostname verifier of HTTPS URLs can be passed on to the real connection when recording.
+ */
+class ReplayURLConnection extends HttpsURLConnection {
+    private static final int CHUNK_SIZE = 8192;
+
+    private final ReplayHTTPEngine engine;
+    private final Map<String, List<String>> requestProperties = new TreeMap<>(PooledURLConnection.FIELD_NAME_COMPARATOR);
+    private ByteArrayOutputStream requestBody;
+
+    private ReplayHTTPEngine.Recording recording;
+    private Map<String, List<String>> responseHeaders;
+    private InputStream responseBody;
+    private IOException failure;
+    private HttpURLConnection realConnection;
+    private boolean disconnected;
+
+    ReplayURLConnection(ReplayHTTPEngine engine, URL url) {
+        super(url);
+        this.engine = engine;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        connected = true; // The response is only looked up once the request body has been written
+    }
+
+    /**
+     * Aborts the simulated latency or bandwidth, or the real request while recording.
+     */
+    @Override
+    public void disconnect() {
+        HttpURLConnection realConnection;
+        synchronized (this) {
+            disconnected = true;
+            realConnection = this.realConnection;
+            notifyAll();
+        }
+        if (realConnection != null) {
+            realConnection.disconnect();
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    // Request
+    // *********************************************************************************************
+
+    @Override
+    public void setRequestProperty(String field, String newValue) {
+        checkNotConnected(field);
+        List<String> values = new ArrayList<>();
+        values.add(newValue);
+        requestProperties.put(field, values);
+    }
+
+    @Override
+    public void addRequestProperty(String field, String newValue) {
+        checkNotConnected(field);
+        List<String> values = requestProperties.get(field);
+        if (values == null) {
+            values = new ArrayList<>();
+            requestProperties.put(field, values);
+        }
+        values.add(newValue);
+    }
+
+    @Override
+    public String getRequestProperty(String field) {
+        List<String> values = field != null ? requestProperties.get(field) : null;
+        return values != null && !values.isEmpty() ? values.get(values.size() - 1) : null;
+    }
+
+    @Override
+    public Map<String, List<String>> getRequestProperties() {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        return Collections.unmodifiableMap(requestProperties);
+    }
+
+    private void checkNotConnected(String field) {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        if (field == null) {
+            throw new NullPointerException("field == null");
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (!doOutput) {
+            throw new ProtocolException("Cannot write request body: doOutput is false");
+        }
+        if (recording != null) {
+            throw new ProtocolException("Cannot write request body after the response has been read");
+        }
+        connected = true;
+        if (requestBody == null) {
+            requestBody = new ByteArrayOutputStream();
+        }
+        return requestBody;
+    }
+
+    // Response
+    // *********************************************************************************************
+
+    /**
+     * Looks up the response of the request, recording it first if needed, then waits for the simulated latency.
+     */
+    private void getResponse() throws IOException {
+        if (recording != null) {
+            return;
+        }
+        if (failure != null) {
+            throw failure; // Don't look up the response again when asked for the headers after a failure
+        }
+        try {
+            lookUpResponse();
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private void lookUpResponse() throws IOException {
+        connected = true;
+        byte[] body = requestBody != null ? requestBody.toByteArray() : null;
+        String signature = engine.getSignature(method, url, requestProperties, body);
+        int occurrence = engine.nextOccurrence(signature);
+
+        ReplayHTTPEngine.Recording recording = null;
+        if (engine.getMode() != ReplayHTTPEngine.Mode.RECORD) {
+            recording = engine.read(signature, occurrence);
+        }
+        if (recording != null) {
+            Random random = engine.getRandom(signature, occurrence);
+            long latency = engine.getLatency().sample(random);
+            long bandwidth = engine.getBandwidth().sample(random);
+            boolean failed = random.nextDouble() < engine.getFailureRate();
+            if (getReadTimeout() > 0 && latency > getReadTimeout()) {
+                pause(getReadTimeout());
+                throw new SocketTimeoutException("Simulated timeout");
+            }
+            pause(latency);
+            if (failed) {
+                throw new SocketException("Simulated failure");
+            }
+            this.responseBody = new SimulatedInputStream(recording.body, bandwidth);
+        } else if (engine.getMode() == ReplayHTTPEngine.Mode.REPLAY) {
+            throw new FileNotFoundException("No recorded response for " + method + " " + url);
+        } else {
+            recording = record(body);
+            engine.write(signature, occurrence, recording);
+            this.responseBody = new ByteArrayInputStream(recording.body);
+        }
+        this.recording = recording;
+        this.responseHeaders = recording.getHeaderFields();
+    }
+
+    /**
+     * Makes the request using the delegate engine and reads the whole response.
+     */
+    private ReplayHTTPEngine.Recording record(byte[] body) throws IOException {
+        HTTPEngine delegate = engine.getDelegate();
+        HttpURLConnection connection = delegate.open(url);
+        synchronized (this) {
+            if (disconnected) {
+                delegate.release(connection);
+                throw new SocketException("Socket closed");
+            }
+            realConnection = connection;
+        }
+        try {
+            connection.setRequestMethod(method);
+            connection.setDoInput(doInput);
+            connection.setDoOutput(doOutput);
+            connection.setConnectTimeout(getConnectTimeout());
+            connection.setReadTimeout(getReadTimeout());
+            connection.setInstanceFollowRedirects(getInstanceFollowRedirects());
+            if (connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(getSSLSocketFactory());
+                ((HttpsURLConnection) connection).setHostnameVerifier(getHostnameVerifier());
+            }
+            for (Map.Entry<String, List<String>> entry : requestProperties.entrySet()) {
+                for (String value : entry.getValue()) {
+                    connection.addRequestProperty(entry.getKey(), value);
+                }
+            }
+            if (body != null) {
+                connection.setFixedLengthStreamingMode(body.length);
+                OutputStream out = connection.getOutputStream();
+                out.write(body);
+                out.close();
+            }
+
+            ReplayHTTPEngine.Recording recording = new ReplayHTTPEngine.Recording();
+            recording.requestLine = method + " " + url;
+            int responseCode = connection.getResponseCode();
+            String statusLine = connection.getHeaderField(0);
+            if (statusLine == null || !statusLine.startsWith("HTTP/")) {
+                String message = connection.getResponseMessage();
+                statusLine = "HTTP/1.1 " + responseCode + (message != null ? " " + message : "");
+            }
+            recording.setStatusLine(statusLine);
+            for (int i = 1; connection.getHeaderField(i) != null; i++) {
+                String key = connection.getHeaderFieldKey(i);
+                if (key != null && !key.equalsIgnoreCase("Transfer-Encoding")) { // The body is stored without its framing
+                    recording.addHeader(key, connection.getHeaderField(i));
+                }
+            }
+
+            InputStream in;
+            try {
+                in = connection.getInputStream();
+            } catch (IOException e) {
+                in = connection.getErrorStream();
+            }
+            if (in != null) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] data = new byte[CHUNK_SIZE];
+                int read;
+                while ((read = in.read(data)) != -1) {
+                    buffer.write(data, 0, read);
+                }
+                in.close();
+                recording.body = buffer.toByteArray();
+            }
+            return recording;
+        } finally {
+            synchronized (this) {
+                realConnection = null;
+            }
+            delegate.release(connection);
+        }
+    }
+
+    /**
+     * Waits for a simulated delay, ending early if the connection is disconnected.
+     */
+    private synchronized void pause(long millis) throws IOException {
+        long end = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (!disconnected && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                throw new SocketException("Interrupted");
+            }
+            remaining = end - System.currentTimeMillis();
+        }
+        if (disconnected) {
+            throw new SocketException("Socket closed");
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (!doInput) {
+            throw new ProtocolException("Cannot read response: doInput is false");
+        }
+        getResponse();
+        if (recording.responseCode >= HTTP_BAD_REQUEST) {
+            throw new FileNotFoundException(url.toString());
+        }
+        return responseBody;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return recording != null && recording.responseCode >= HTTP_BAD_REQUEST ? responseBody : null;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        getResponse();
+        return recording.responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        getResponse();
+        return recording.responseMessage;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        try {
+            getResponse();
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+        return responseHeaders;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        List<String> values = getHeaderFields().get(name);
+        return values != null && !values.isEmpty() ? values.get(values.size() - 1) : null;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        getHeaderFields();
+        if (recording == null) {
+            return null;
+        }
+        if (n == 0) {
+            return recording.statusLine;
+        }
+        return n > 0 && n <= recording.headerValues.size() ? recording.headerValues.get(n - 1) : null;
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        getHeaderFields();
+        return recording != null && n > 0 && n <= recording.headerKeys.size() ? recording.headerKeys.get(n - 1) : null;
+    }
+
+    // TLS
+    // *********************************************************************************************
+
+    @Override
+    public String getCipherSuite() {
+        throw new IllegalStateException("No TLS session available");
+    }
+
+    @Override
+    public Certificate[] getLocalCertificates() {
+        throw new IllegalStateException("No TLS session available");
+    }
+
+    @Override
+    public Certificate[] getServerCertificates() throws SSLPeerUnverifiedException {
+        throw new SSLPeerUnverifiedException("No TLS session available");
+    }
+
+    // Response body
+    // *********************************************************************************************
+
+    /**
+     * Serves a recorded body at a simulated bandwidth.
+     */
+    private class SimulatedInputStream extends InputStream {
+        private final byte[] data;
+        private final long bandwidth;
+        private final long start = System.currentTimeMillis();
+        private int position;
+
+        SimulatedInputStream(byte[] data, long bandwidth) {
+            this.data = data;
+            this.bandwidth = bandwidth;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (disconnected) {
+                throw new SocketException("Socket closed");
+            }
+            if (position >= data.length) {
+                return -1;
+            }
+            count = Math.min(count, data.length - position);
+            if (bandwidth > 0) {
+                count = Math.min(count, CHUNK_SIZE);
+                // Wait until the chunk would have arrived at the simulated speed
+                pause(start + (position + count) * 1000L / bandwidth - System.currentTimeMillis());
+            }
+            System.arraycopy(data, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return bandwidth > 0 ? 0 : data.length - position;
+        }
+    }
+}
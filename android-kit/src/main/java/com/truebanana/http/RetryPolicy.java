@@ -0,0 +1,53 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+/**
+ * Decides whether and when a failed attempt of an {@link HTTPRequest} is retried. Retries are queued in the {@link HTTPDispatcher} again after the delay, so waiting does not take up a slot.<br />
+ * <br />
+ * {@link HTTPResponseListener#onPreExecute()} and {@link HTTPResponseListener#onPostExecute()} are called for every attempt, while {@link HTTPResponseListener#onRequestCompleted(HTTPResponse)} or {@link HTTPResponseListener#onRequestError(HTTPRequestError)} is only called for the last one.
+ * See {@link ExponentialBackoffRetryPolicy} for the default implementation.
+ */
+public interface RetryPolicy {
+    /**
+     * Called when an attempt fails without a response.
+     *
+     * @param request The {@link HTTPRequest}.
+     * @param attempt The number of the attempt which failed, starting at 1.
+     * @param error   The error which describes the cause of failure.
+     * @return The delay before the next attempt in milliseconds or a negative value to report the error.
+     */
+    long getRetryDelay(HTTPRequest request, int attempt, HTTPRequestError error);
+
+    /**
+     * Called when an attempt gets a client or server error response, such as 429 Too Many Requests or 503 Service Unavailable.
+     *
+     * @param request  The {@link HTTPRequest}.
+     * @param attempt  The number of the attempt which got the response, starting at 1.
+     * @param response The response. Its content may not be available if the response is streamed or downloaded to a file.
+     * @return The delay before the next attempt in milliseconds or a negative value to deliver the response.
+     */
+    long getRetryDelay(HTTPRequest request, int attempt, HTTPResponse response);
+}
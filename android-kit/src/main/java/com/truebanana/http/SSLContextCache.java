@@ -0,0 +1,204 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import com.truebanana.crypto.Crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Keeps the initialized {@link SSLContext}s used by {@link HTTPRequest}s, keyed by a fingerprint of the trust store, key store and their passwords.<br />
+ * <br />
+ * Requests with the same trust and key material share one {@link SSLContext}, so the stores are only loaded once and TLS sessions can be resumed across requests instead of doing a full handshake each time.
+ */
+public class SSLContextCache {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Map<String, SSLSocketFactory> socketFactories = new HashMap<>();
+    private static int sessionCacheSize = 64;
+    private static int sessionTimeout = 24 * 60 * 60;
+
+    private SSLContextCache() {
+    }
+
+    /**
+     * Returns the shared {@link SSLSocketFactory} for the given trust and key material, initializing it on first use.
+     */
+    static SSLSocketFactory getSocketFactory(byte[] trustStore, String trustStorePassword, byte[] keyStore, String keyStorePassword, boolean trustAll) throws GeneralSecurityException, IOException {
+        String key = fingerprint(trustStore, trustStorePassword, keyStore, keyStorePassword, trustAll);
+        synchronized (socketFactories) {
+            SSLSocketFactory factory = socketFactories.get(key);
+            if (factory != null) {
+                return factory;
+            }
+        }
+
+        // Loading the stores is slow, don't hold up requests which use other contexts meanwhile
+        SSLSocketFactory factory = new FlexibleSSLSocketFactory(createContext(trustStore, trustStorePassword, keyStore, keyStorePassword, trustAll));
+        synchronized (socketFactories) {
+            SSLSocketFactory existing = socketFactories.get(key);
+            if (existing != null) {
+                return existing; // Created by another thread in the meantime, keep the one whose sessions may already be in use
+            }
+            socketFactories.put(key, factory);
+            return factory;
+        }
+    }
+
+    /**
+     * Removes all cached {@link SSLContext}s along with their TLS sessions. Call this if a trust store or key store has been revoked.
+     */
+    public static void clear() {
+        synchronized (socketFactories) {
+            socketFactories.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached {@link SSLContext}s.
+     *
+     * @return The number of cached {@link SSLContext}s.
+     */
+    public static int size() {
+        synchronized (socketFactories) {
+            return socketFactories.size();
+        }
+    }
+
+    /**
+     * Sets the number of TLS sessions each {@link SSLContext} keeps for resumption. Only affects contexts created afterwards. The default is 64.
+     *
+     * @param size The session cache size or 0 for no limit.
+     */
+    public static void setSessionCacheSize(int size) {
+        SSLContextCache.sessionCacheSize = size;
+    }
+
+    /**
+     * Sets how long a TLS session can be resumed after it was established. Only affects contexts created afterwards. The default is 24 hours.
+     *
+     * @param seconds The session timeout in seconds or 0 for no limit.
+     */
+    public static void setSessionTimeout(int seconds) {
+        SSLContextCache.sessionTimeout = seconds;
+    }
+
+    private static SSLContext createContext(byte[] trustStoreData, String trustStorePassword, byte[] keyStoreData, String keyStorePassword, boolean trustAll) throws GeneralSecurityException, IOException {
+        TrustManager[] trustManagers = null;
+        KeyManager[] keyManagers = null;
+
+        if (trustAll) {
+            trustManagers = new TrustManager[]{new NoVerifyTrustManager()};
+        } else if (trustStoreData != null) {
+            // Load trust store certificate
+            KeyStore trustStore = KeyStore.getInstance("BKS");
+            trustStore.load(new ByteArrayInputStream(trustStoreData), trustStorePassword.toCharArray());
+
+            // Initialize trust manager factory with the trust store
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(trustStore);
+
+            trustManagers = tmf.getTrustManagers();
+        }
+
+        if (keyStoreData != null) {
+            // Load client certificate
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(new ByteArrayInputStream(keyStoreData), keyStorePassword.toCharArray());
+
+            // Initialize key manager factory with the client certificate
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, keyStorePassword.toCharArray());
+
+            keyManagers = kmf.getKeyManagers();
+        }
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers, trustManagers, null);
+
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeout);
+        }
+        return sslContext;
+    }
+
+    /**
+     * Returns the SHA-256 fingerprint of the given trust and key material, which identifies the {@link SSLContext} it is used for.
+     */
+    static String fingerprint(byte[] trustStore, String trustStorePassword, byte[] keyStore, String keyStorePassword, boolean trustAll) throws GeneralSecurityException {
+        // Passwords are part of the key since the same store opened with a different password is a different configuration
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update((byte) (trustAll ? 1 : 0));
+        update(digest, trustStore);
+        update(digest, trustStorePassword != null ? trustStorePassword.getBytes(UTF_8) : null);
+        update(digest, keyStore);
+        update(digest, keyStorePassword != null ? keyStorePassword.getBytes(UTF_8) : null);
+        return Crypto.toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, byte[] data) {
+        if (data == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        int length = data.length;
+        digest.update(new byte[]{1, (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        digest.update(data);
+    }
+
+    private static class NoVerifyTrustManager implements X509TrustManager {
+        public X509Certificate[] getAcceptedIssuers() {
+            return null;
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {
+        }
+    }
+}
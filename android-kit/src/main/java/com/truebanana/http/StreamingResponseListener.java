@@ -0,0 +1,127 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link HTTPResponseListener} which receives the response body as a stream instead of a fully buffered byte array.
+ * Use this for large downloads so memory usage stays at the size of the read buffer no matter how big the response is.<br />
+ * <br />
+ * {@link StreamingResponseListener#onResponseStream(HTTPResponse, InputStream)} and {@link StreamingResponseListener#onChunk(byte[], int)} are called on the background thread running the request.
+ * The connection is only read as fast as they consume the data. The {@link HTTPResponse} passed to {@link HTTPResponseListener#onRequestCompleted(HTTPResponse)} has no content.
+ */
+public abstract class StreamingResponseListener implements HTTPResponseListener {
+    private final int bufferSize;
+
+    /**
+     * Creates a {@link StreamingResponseListener} with a 16KB read buffer.
+     */
+    public StreamingResponseListener() {
+        this(16 * 1024);
+    }
+
+    /**
+     * Creates a {@link StreamingResponseListener}.
+     *
+     * @param bufferSize The size of the read buffer, in bytes.
+     */
+    public StreamingResponseListener(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize <= 0");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Returns the size of the read buffer.
+     *
+     * @return The buffer size, in bytes.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Called on the background thread once the response headers are available. The default implementation reads the stream using a buffer of {@link StreamingResponseListener#getBufferSize()} bytes and passes each chunk to {@link StreamingResponseListener#onChunk(byte[], int)}.
+     * Override this to consume the {@link InputStream} directly. The stream is closed by the {@link HTTPRequest} afterwards.
+     *
+     * @param response The response status and headers, without content.
+     * @param stream   The response body.
+     * @throws IOException If reading the response fails. This will be reported to {@link HTTPResponseListener#onRequestError(HTTPRequestError)}.
+     */
+    public void onResponseStream(HTTPResponse response, InputStream stream) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        int read;
+        while ((read = stream.read(buffer, 0, buffer.length)) != -1) {
+            if (read > 0) {
+                onChunk(buffer, read);
+            }
+        }
+    }
+
+    /**
+     * Called on the background thread for each chunk of the response body read by the default {@link StreamingResponseListener#onResponseStream(HTTPResponse, InputStream)}.
+     * The buffer is reused for the next chunk so copy anything you need to keep.
+     *
+     * @param buffer The buffer containing the chunk.
+     * @param length The number of bytes read into the buffer.
+     */
+    public void onChunk(byte[] buffer, int length) {
+    }
+
+    /**
+     * Called right before the connection initializes.
+     */
+    @Override
+    public void onPreExecute() {
+    }
+
+    /**
+     * Called right after the request flow finishes regardless if it succeeds or not.
+     */
+    @Override
+    public void onPostExecute() {
+    }
+
+    /**
+     * Called when the whole response body has been streamed.
+     *
+     * @param response The remote host response, without content.
+     */
+    @Override
+    public void onRequestCompleted(HTTPResponse response) {
+    }
+
+    /**
+     * Called when a problem has occurred during the request flow causing it to fail.
+     *
+     * @param error The error which describes the cause of failure
+     */
+    @Override
+    public void onRequestError(HTTPRequestError error) {
+    }
+}
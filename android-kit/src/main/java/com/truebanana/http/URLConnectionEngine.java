@@ -0,0 +1,66 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import android.os.Build;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * The default {@link HTTPEngine} which uses the platform {@link HttpURLConnection} and disconnects it as soon as the request is done.
+ */
+public class URLConnectionEngine implements HTTPEngine {
+    @Override
+    public HttpURLConnection open(URL url) throws IOException {
+        return (HttpURLConnection) url.openConnection(getSystemProxy());
+    }
+
+    @Override
+    public void release(HttpURLConnection connection) {
+        connection.disconnect();
+    }
+
+    /**
+     * Returns the HTTP proxy set in the system properties, if any.
+     *
+     * @return The {@link Proxy} or {@link Proxy#NO_PROXY} if there is none.
+     */
+    static Proxy getSystemProxy() {
+        if (Build.VERSION.SDK_INT > Build.VERSION_CODES.HONEYCOMB_MR1) {
+            String host = System.getProperty("http.proxyHost");
+            if (host != null && !host.isEmpty()) {
+                String port = System.getProperty("http.proxyPort");
+                if (port != null && !port.isEmpty()) {
+                    return new Proxy(Proxy.Type.HTTP, new InetSocketAddress(host, Integer.parseInt(port)));
+                }
+            }
+        }
+        return Proxy.NO_PROXY;
+    }
+}
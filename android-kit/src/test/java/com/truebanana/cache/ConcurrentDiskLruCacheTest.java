@@ -0,0 +1,217 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.cache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link ConcurrentDiskLruCache} under concurrent reads, edits and removals, then checks what is left on disk and what survives a reopen.
+ */
+public class ConcurrentDiskLruCacheTest {
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 2000;
+    private static final int KEYS = 100;
+    private static final long MAX_SIZE = 200 * 1024; // Small enough for evictions to run all the time
+
+    private File directory;
+    private ConcurrentDiskLruCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("ConcurrentDiskLruCacheTest", "");
+        assertTrue(directory.delete() && directory.mkdir());
+        cache = ConcurrentDiskLruCache.open(directory, 1, 2, MAX_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+        DiskLruCache.deleteContents(directory);
+        directory.delete();
+    }
+
+    @Test
+    public void snapshotsAreNeverTorn() throws Exception {
+        assertEquals(0, stress(0));
+    }
+
+    @Test
+    public void noFilesAreLeaked() throws Exception {
+        stress(1);
+        cache.flush();
+        assertFilesMatchEntries();
+        assertTrue(cache.size() <= MAX_SIZE);
+    }
+
+    @Test
+    public void sizeAndEntriesSurviveReopen() throws Exception {
+        stress(2);
+        cache.flush();
+        Set<String> keys = getKeys();
+        long size = cache.size();
+        assertFalse(keys.isEmpty());
+        cache.close();
+
+        cache = ConcurrentDiskLruCache.open(directory, 1, 2, MAX_SIZE);
+        assertEquals(keys, getKeys());
+        assertEquals(size, cache.size());
+        assertFilesMatchEntries();
+    }
+
+    @Test
+    public void tornJournalTailIsIgnored() throws Exception {
+        stress(3);
+        cache.flush();
+        Set<String> keys = getKeys();
+        long size = cache.size();
+        cache.close();
+
+        // A write cut short by a crash leaves a partial record at the end of the journal
+        File journal = new File(directory, ConcurrentDiskLruCache.JOURNAL_FILE);
+        long length = journal.length();
+        RandomAccessFile file = new RandomAccessFile(journal, "rw");
+        try {
+            file.seek(length);
+            file.write(new byte[]{3, 40, 'k', '1'});
+        } finally {
+            file.close();
+        }
+
+        cache = ConcurrentDiskLruCache.open(directory, 1, 2, MAX_SIZE);
+        assertEquals(keys, getKeys());
+        assertEquals(size, cache.size());
+        assertEquals(length, journal.length());
+    }
+
+    /**
+     * Runs the threads to completion. The first value of each commit starts with its second value, so a snapshot mixing two commits is detected.
+     *
+     * @return The number of torn snapshots read.
+     */
+    private int stress(final int seed) throws Exception {
+        final AtomicInteger torn = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(seed * THREADS + t);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        String key = "k" + random.nextInt(KEYS);
+                        int operation = random.nextInt(100);
+                        if (operation < 25) {
+                            ConcurrentDiskLruCache.Editor editor = cache.edit(key);
+                            if (editor != null) {
+                                String value = Integer.toString(random.nextInt());
+                                char[] padding = new char[random.nextInt(3000)];
+                                Arrays.fill(padding, 'x');
+                                editor.set(0, value + new String(padding));
+                                editor.set(1, value);
+                                editor.commit();
+                            }
+                        } else if (operation < 27) {
+                            cache.remove(key);
+                        } else {
+                            ConcurrentDiskLruCache.Snapshot snapshot = cache.get(key);
+                            if (snapshot != null) {
+                                String first = snapshot.getString(0);
+                                String second = snapshot.getString(1);
+                                if (!first.startsWith(second) || first.length() != snapshot.getLength(0)) {
+                                    torn.incrementAndGet();
+                                }
+                                snapshot.close();
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        return torn.get();
+    }
+
+    private Set<String> getKeys() throws IOException {
+        Set<String> keys = new TreeSet<>();
+        for (int i = 0; i < KEYS; i++) {
+            if (cache.contains("k" + i)) {
+                keys.add("k" + i);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Checks that every value file belongs to an entry, that every entry has all of its files and that the size of the cache is the size of those files.
+     */
+    private void assertFilesMatchEntries() throws IOException {
+        Set<String> keys = getKeys();
+        Set<String> found = new TreeSet<>();
+        long total = 0;
+        String[] names = directory.list();
+        assertNotNull(names);
+        for (String name : names) {
+            if (name.startsWith(ConcurrentDiskLruCache.JOURNAL_FILE) || name.startsWith(ConcurrentDiskLruCache.CHECKPOINT_FILE)) {
+                continue;
+            }
+            assertTrue("Leaked file " + name, name.endsWith(".0") || name.endsWith(".1"));
+            String key = name.substring(0, name.length() - 2);
+            assertTrue("Leaked file " + name, keys.contains(key));
+            found.add(key);
+            total += new File(directory, name).length();
+        }
+        assertEquals(keys, found);
+        for (String key : keys) {
+            assertTrue(new File(directory, key + ".0").exists() && new File(directory, key + ".1").exists());
+        }
+        assertEquals(total, cache.size());
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.cache.tools;
+
+import com.truebanana.cache.EvictionPolicy;
+import com.truebanana.cache.EvictionSimulator;
+import com.truebanana.cache.LruPolicy;
+import com.truebanana.cache.SegmentedLruPolicy;
+import com.truebanana.cache.TinyLfuPolicy;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the policies of the cache package on a trace file with the {@link EvictionSimulator}. Not part of the library, run it from a computer:
+ * <pre>
+ * {@code
+ * java com.truebanana.cache.tools.EvictionSimulatorMain journal 10485760
+ * }
+ * </pre>
+ */
+public class EvictionSimulatorMain {
+    private EvictionSimulatorMain() {
+    }
+
+    /**
+     * @param args The path of the trace and one or more cache sizes.
+     * @throws IOException If the trace can't be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: EvictionSimulatorMain <trace> <size>...");
+            return;
+        }
+        for (int i = 1; i < args.length; i++) {
+            long maximumWeight = Long.parseLong(args[i]);
+            for (EvictionPolicy<String> policy : createPolicies()) {
+                Reader trace = new FileReader(args[0]);
+                try {
+                    System.out.println(EvictionSimulator.simulate(trace, policy, maximumWeight));
+                } finally {
+                    trace.close();
+                }
+            }
+        }
+    }
+
+    private static List<EvictionPolicy<String>> createPolicies() {
+        List<EvictionPolicy<String>> policies = new ArrayList<>();
+        policies.add(new LruPolicy<String>());
+        policies.add(new SegmentedLruPolicy<String>());
+        policies.add(new TinyLfuPolicy<String>());
+        return policies;
+    }
+}
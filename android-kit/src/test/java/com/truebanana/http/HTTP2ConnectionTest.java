@@ -0,0 +1,468 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link HTTP2Engine} against an in-process peer which speaks cleartext HTTP/2 frame by frame, so each test controls exactly what the server sends and when.
+ */
+public class HTTP2ConnectionTest {
+    private static final String PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n";
+    private static final int TIMEOUT = 5000;
+
+    private ServerSocket server;
+    private HTTP2Engine engine;
+    private ExecutorService executor;
+    private final List<Peer> peers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        server.setSoTimeout(TIMEOUT);
+        engine = new HTTP2Engine(5, 60 * 1000, HTTPDns.SYSTEM, true);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        engine.evictAll();
+        for (Peer peer : peers) {
+            peer.socket.close();
+        }
+        server.close();
+    }
+
+    // SETTINGS
+    // *********************************************************************************************
+
+    @Test
+    public void settingsAreExchangedAndApplied() throws Exception {
+        Future<String> first = get("/first");
+        Peer peer = accept(HTTP2Connection.SETTINGS_MAX_CONCURRENT_STREAMS, 1);
+
+        assertEquals(0, peer.clientSettings.getSetting(HTTP2Connection.SETTINGS_ENABLE_PUSH));
+        assertEquals(HTTP2Connection.STREAM_WINDOW_SIZE, peer.clientSettings.getSetting(HTTP2Connection.SETTINGS_INITIAL_WINDOW_SIZE));
+        assertEquals(HTTP2Connection.FLAG_ACK, peer.next(HTTP2Connection.TYPE_SETTINGS, 0).flags);
+        Frame firstHeaders = peer.next(HTTP2Connection.TYPE_HEADERS, 1);
+        assertEquals(Arrays.asList(":method", "GET", ":scheme", "http"), peer.decode(firstHeaders).subList(0, 4));
+
+        // Only one stream at a time, so the second request waits for the first response
+        Future<String> second = get("/second");
+        assertNull(peer.poll(HTTP2Connection.TYPE_HEADERS, 3, 300));
+        peer.respond(1, "one");
+        assertEquals("200 one", first.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        peer.next(HTTP2Connection.TYPE_HEADERS, 3);
+        peer.respond(3, "two");
+        assertEquals("200 two", second.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    // WINDOW_UPDATE
+    // *********************************************************************************************
+
+    @Test
+    public void requestBodyWaitsForWindowUpdate() throws Exception {
+        final byte[] body = new byte[HTTP2Connection.DEFAULT_WINDOW_SIZE + 10000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        Future<String> result = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                HttpURLConnection connection = open("/upload");
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(body.length);
+                OutputStream out = connection.getOutputStream();
+                out.write(body);
+                out.close();
+                return exchange(connection);
+            }
+        });
+        Peer peer = accept();
+        List<String> headers = peer.decode(peer.next(HTTP2Connection.TYPE_HEADERS, 1));
+        assertTrue(headers.containsAll(Arrays.asList("content-length", Integer.toString(body.length))));
+
+        // The client may only send what the default connection window allows
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        while (received.size() < HTTP2Connection.DEFAULT_WINDOW_SIZE) {
+            Frame data = peer.next(HTTP2Connection.TYPE_DATA, 1);
+            assertTrue(data.payload.length <= HTTP2Connection.DEFAULT_MAX_FRAME_SIZE);
+            received.write(data.payload);
+        }
+        assertEquals(HTTP2Connection.DEFAULT_WINDOW_SIZE, received.size());
+        assertNull(peer.poll(HTTP2Connection.TYPE_DATA, 1, 300));
+
+        peer.writeWindowUpdate(0, 10000);
+        peer.writeWindowUpdate(1, 10000);
+        Frame last;
+        do {
+            last = peer.next(HTTP2Connection.TYPE_DATA, 1);
+            received.write(last.payload);
+        } while ((last.flags & HTTP2Connection.FLAG_END_STREAM) == 0);
+        assertArrayEquals(body, received.toByteArray());
+
+        peer.respond(1, "ok");
+        assertEquals("200 ok", result.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void responseBodyIsAcknowledgedWithWindowUpdate() throws Exception {
+        Future<String> result = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                HttpURLConnection connection = open("/download");
+                InputStream in = connection.getInputStream();
+                byte[] buffer = new byte[8192];
+                long total = 0;
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    total += count;
+                }
+                in.close();
+                engine.release(connection);
+                return connection.getResponseCode() + " " + total;
+            }
+        });
+        Peer peer = accept();
+        peer.next(HTTP2Connection.TYPE_HEADERS, 1);
+        peer.writeHeaders(1, false, ":status", "200");
+
+        // Fill the stream window the client advertised, then wait for the client to open it again
+        int window = HTTP2Connection.STREAM_WINDOW_SIZE;
+        byte[] chunk = new byte[HTTP2Connection.DEFAULT_MAX_FRAME_SIZE];
+        for (int sent = 0; sent < window; sent += chunk.length) {
+            peer.writeData(1, false, chunk, Math.min(chunk.length, window - sent));
+        }
+        Frame update = peer.next(HTTP2Connection.TYPE_WINDOW_UPDATE, 1);
+        assertTrue(update.readInt(0) >= HTTP2Connection.STREAM_WINDOW_SIZE / 2);
+        peer.writeData(1, true, chunk, chunk.length);
+
+        assertEquals("200 " + (window + chunk.length), result.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    // RST_STREAM and GOAWAY
+    // *********************************************************************************************
+
+    @Test
+    public void refusedStreamIsRetried() throws Exception {
+        Future<String> result = get("/refused");
+        Peer peer = accept();
+        peer.next(HTTP2Connection.TYPE_HEADERS, 1);
+        peer.writeRstStream(1, HTTP2Connection.ERROR_REFUSED_STREAM);
+
+        // The connection is still usable, so the request is sent again on the next stream
+        peer.next(HTTP2Connection.TYPE_HEADERS, 3);
+        peer.respond(3, "retried");
+        assertEquals("200 retried", result.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void resetStreamIsNotRetried() throws Exception {
+        Future<String> result = get("/reset");
+        Peer peer = accept();
+        peer.next(HTTP2Connection.TYPE_HEADERS, 1);
+        peer.writeRstStream(1, HTTP2Connection.ERROR_CANCEL);
+
+        assertTrue(result.get(TIMEOUT, TimeUnit.MILLISECONDS).startsWith("IOException"));
+        assertNull(peer.poll(HTTP2Connection.TYPE_HEADERS, 3, 300));
+    }
+
+    @Test
+    public void goAwayRetriesUnprocessedStreamsOnNewConnection() throws Exception {
+        Future<String> result = get("/goaway");
+        Peer first = accept();
+        first.next(HTTP2Connection.TYPE_HEADERS, 1);
+        first.writeGoAway(0, HTTP2Connection.ERROR_NO_ERROR);
+
+        Peer second = accept();
+        second.next(HTTP2Connection.TYPE_HEADERS, 1);
+        second.respond(1, "moved");
+        assertEquals("200 moved", result.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(1, engine.getHTTP2ConnectionCount());
+    }
+
+    @Test
+    public void goAwayLetsProcessedStreamsFinish() throws Exception {
+        Future<String> result = get("/draining");
+        Peer peer = accept();
+        peer.next(HTTP2Connection.TYPE_HEADERS, 1);
+        peer.writeGoAway(1, HTTP2Connection.ERROR_NO_ERROR);
+        peer.respond(1, "done");
+
+        assertEquals("200 done", result.get(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(0, engine.getHTTP2ConnectionCount());
+    }
+
+    // Client
+    // *********************************************************************************************
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = engine.open(new URL("http://127.0.0.1:" + server.getLocalPort() + path));
+        assertTrue(connection instanceof HTTP2URLConnection);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        return connection;
+    }
+
+    private Future<String> get(final String path) {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return exchange(open(path));
+            }
+        });
+    }
+
+    /**
+     * Returns the status code and body of the response, or the name of the exception if the request failed.
+     */
+    private String exchange(HttpURLConnection connection) {
+        try {
+            int code = connection.getResponseCode();
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                body.write(buffer, 0, count);
+            }
+            in.close();
+            return code + " " + body.toString("UTF-8");
+        } catch (IOException e) {
+            return e.getClass().getSimpleName() + ": " + e.getMessage();
+        } finally {
+            engine.release(connection);
+        }
+    }
+
+    // Peer
+    // *********************************************************************************************
+
+    /**
+     * Accepts the next connection, checks the client preface and sends the given settings.
+     */
+    private Peer accept(int... settings) throws IOException {
+        Peer peer = new Peer(server.accept());
+        peers.add(peer);
+        byte[] preface = new byte[PREFACE.length()];
+        peer.in.readFully(preface);
+        assertEquals(PREFACE, new String(preface, "ISO-8859-1"));
+        peer.clientSettings = peer.readFrame();
+        assertEquals(HTTP2Connection.TYPE_SETTINGS, peer.clientSettings.type);
+
+        byte[] payload = new byte[settings.length * 3];
+        for (int i = 0; i < settings.length; i += 2) {
+            int offset = i * 3;
+            payload[offset] = (byte) (settings[i] >>> 8);
+            payload[offset + 1] = (byte) settings[i];
+            writeInt(payload, offset + 2, settings[i + 1]);
+        }
+        peer.writeFrame(HTTP2Connection.TYPE_SETTINGS, 0, 0, payload, payload.length);
+        return peer;
+    }
+
+    private static final class Peer {
+        final Socket socket;
+        final DataInputStream in;
+        final OutputStream out;
+        final Hpack.Encoder encoder = new Hpack.Encoder();
+        final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 64 * 1024);
+        final List<Frame> skipped = new ArrayList<>();
+        Frame clientSettings;
+
+        Peer(Socket socket) throws IOException {
+            this.socket = socket;
+            socket.setSoTimeout(TIMEOUT);
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        Frame readFrame() throws IOException {
+            byte[] header = new byte[9];
+            in.readFully(header);
+            Frame frame = new Frame();
+            int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+            frame.type = header[3] & 0xff;
+            frame.flags = header[4] & 0xff;
+            frame.streamId = readInt(header, 5) & 0x7fffffff;
+            frame.payload = new byte[length];
+            in.readFully(frame.payload);
+            return frame;
+        }
+
+        /**
+         * Returns the next frame of a type on a stream. Other frames are kept for later calls.
+         */
+        Frame next(int type, int streamId) throws IOException {
+            for (Iterator<Frame> iterator = skipped.iterator(); iterator.hasNext(); ) {
+                Frame frame = iterator.next();
+                if (frame.type == type && frame.streamId == streamId) {
+                    iterator.remove();
+                    return frame;
+                }
+            }
+            while (true) {
+                Frame frame = readFrame();
+                if (frame.type == type && frame.streamId == streamId) {
+                    return frame;
+                }
+                skipped.add(frame);
+            }
+        }
+
+        /**
+         * Like {@link #next(int, int)}, but returns <strong>null</strong> if no such frame arrives in time.
+         */
+        Frame poll(int type, int streamId, int timeout) throws IOException {
+            socket.setSoTimeout(timeout);
+            try {
+                return next(type, streamId);
+            } catch (SocketTimeoutException e) {
+                return null; // Only used when no frame is expected, and the client writes each frame at once
+            } finally {
+                socket.setSoTimeout(TIMEOUT);
+            }
+        }
+
+        List<String> decode(Frame headers) throws IOException {
+            assertTrue((headers.flags & HTTP2Connection.FLAG_END_HEADERS) != 0);
+            int offset = (headers.flags & HTTP2Connection.FLAG_PRIORITY) != 0 ? 5 : 0;
+            return decoder.decode(Arrays.copyOfRange(headers.payload, offset, headers.payload.length));
+        }
+
+        void respond(int streamId, String body) throws IOException {
+            byte[] bytes = body.getBytes("UTF-8");
+            writeHeaders(streamId, false, ":status", "200", "content-length", Integer.toString(bytes.length));
+            writeData(streamId, true, bytes, bytes.length);
+        }
+
+        void writeHeaders(int streamId, boolean endStream, String... headers) throws IOException {
+            ByteArrayOutputStream block = new ByteArrayOutputStream();
+            encoder.encode(Arrays.asList(headers), block);
+            int flags = HTTP2Connection.FLAG_END_HEADERS | (endStream ? HTTP2Connection.FLAG_END_STREAM : 0);
+            writeFrame(HTTP2Connection.TYPE_HEADERS, flags, streamId, block.toByteArray(), block.size());
+        }
+
+        void writeData(int streamId, boolean endStream, byte[] data, int length) throws IOException {
+            writeFrame(HTTP2Connection.TYPE_DATA, endStream ? HTTP2Connection.FLAG_END_STREAM : 0, streamId, data, length);
+        }
+
+        void writeWindowUpdate(int streamId, int increment) throws IOException {
+            byte[] payload = new byte[4];
+            writeInt(payload, 0, increment);
+            writeFrame(HTTP2Connection.TYPE_WINDOW_UPDATE, 0, streamId, payload, 4);
+        }
+
+        void writeRstStream(int streamId, int errorCode) throws IOException {
+            byte[] payload = new byte[4];
+            writeInt(payload, 0, errorCode);
+            writeFrame(HTTP2Connection.TYPE_RST_STREAM, 0, streamId, payload, 4);
+        }
+
+        void writeGoAway(int lastStreamId, int errorCode) throws IOException {
+            byte[] payload = new byte[8];
+            writeInt(payload, 0, lastStreamId);
+            writeInt(payload, 4, errorCode);
+            writeFrame(HTTP2Connection.TYPE_GOAWAY, 0, 0, payload, 8);
+        }
+
+        void writeFrame(int type, int flags, int streamId, byte[] payload, int length) throws IOException {
+            byte[] header = new byte[9];
+            header[0] = (byte) (length >>> 16);
+            header[1] = (byte) (length >>> 8);
+            header[2] = (byte) length;
+            header[3] = (byte) type;
+            header[4] = (byte) flags;
+            writeInt(header, 5, streamId);
+            out.write(header);
+            out.write(payload, 0, length);
+            out.flush();
+        }
+    }
+
+    private static final class Frame {
+        int type;
+        int flags;
+        int streamId;
+        byte[] payload;
+
+        int readInt(int offset) {
+            return HTTP2ConnectionTest.readInt(payload, offset);
+        }
+
+        /**
+         * Returns the value of a setting in a SETTINGS frame, or -1 if it is absent.
+         */
+        int getSetting(int id) {
+            for (int i = 0; i + 6 <= payload.length; i += 6) {
+                if ((((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff)) == id) {
+                    return readInt(i + 2);
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16) | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
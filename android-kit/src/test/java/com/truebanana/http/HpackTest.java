@@ -0,0 +1,232 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link Hpack} against the examples of RFC 7541 Appendix C.
+ */
+public class HpackTest {
+    private static final int MAX_HEADER_LIST_SIZE = 64 * 1024;
+
+    // C.1 Integer representation
+    // *********************************************************************************************
+
+    @Test
+    public void integers() throws IOException {
+        assertInteger("0a", 5, 10);
+        assertInteger("1f9a0a", 5, 1337);
+        assertInteger("2a", 8, 42);
+    }
+
+    private static void assertInteger(String hex, int prefixBits, int value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hpack.writeInteger(out, 0, prefixBits, value);
+        assertArrayEquals(bytes(hex), out.toByteArray());
+        assertEquals(value, Hpack.readInteger(bytes(hex), new int[]{0}, prefixBits));
+    }
+
+    // C.2 Header field representation
+    // *********************************************************************************************
+
+    @Test
+    public void literalWithIndexing() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+        assertHeaders(decoder, "400a637573746f6d2d6b65790d637573746f6d2d686561646572",
+                "custom-key", "custom-header");
+        assertHeaders(decoder, "be", "custom-key", "custom-header"); // Now the first entry of the dynamic table
+    }
+
+    @Test
+    public void literalWithoutIndexing() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+        assertHeaders(decoder, "040c2f73616d706c652f70617468", ":path", "/sample/path");
+        assertInvalid(decoder, "be"); // Nothing has been added to the dynamic table
+    }
+
+    @Test
+    public void literalNeverIndexed() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+        assertHeaders(decoder, "100870617373776f726406736563726574", "password", "secret");
+        assertInvalid(decoder, "be");
+    }
+
+    @Test
+    public void indexed() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+        assertHeaders(decoder, "82", ":method", "GET");
+    }
+
+    // C.3 and C.4 Requests
+    // *********************************************************************************************
+
+    private static final String[] REQUEST_1 = {":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"};
+    private static final String[] REQUEST_2 = {":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com", "cache-control", "no-cache"};
+    private static final String[] REQUEST_3 = {":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com", "custom-key", "custom-value"};
+
+    @Test
+    public void decodeRequestsWithoutHuffman() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+        assertHeaders(decoder, "828684410f7777772e6578616d706c652e636f6d", REQUEST_1);
+        assertHeaders(decoder, "828684be58086e6f2d6361636865", REQUEST_2);
+        assertHeaders(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565", REQUEST_3);
+    }
+
+    @Test
+    public void decodeRequestsWithHuffman() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+        assertHeaders(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff", REQUEST_1);
+        assertHeaders(decoder, "828684be5886a8eb10649cbf", REQUEST_2);
+        assertHeaders(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf", REQUEST_3);
+    }
+
+    @Test
+    public void encodeRequests() {
+        // The encoder picks the same representations as the examples, and Huffman coding whenever it is shorter
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        assertEncoded(encoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff", REQUEST_1);
+        assertEncoded(encoder, "828684be5886a8eb10649cbf", REQUEST_2);
+        assertEncoded(encoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf", REQUEST_3);
+    }
+
+    @Test
+    public void huffman() throws IOException {
+        assertHuffman("f1e3c2e5f23a6ba0ab90f4ff", "www.example.com");
+        assertHuffman("a8eb10649cbf", "no-cache");
+        assertHuffman("25a849e95ba97d7f", "custom-key");
+        assertHuffman("25a849e95bb8e8b4bf", "custom-value");
+        assertHuffman("6402", "302");
+        assertHuffman("aec3771a4b", "private");
+        assertHuffman("d07abe941054d444a8200595040b8166e082a62d1bff", "Mon, 21 Oct 2013 20:13:21 GMT");
+        assertHuffman("9d29ad171863c78f0b97c8e9ae82ae43d3", "https://www.example.com");
+    }
+
+    private static void assertHuffman(String hex, String string) throws IOException {
+        byte[] data = string.getBytes("ISO-8859-1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Hpack.huffmanEncode(data, out);
+        assertArrayEquals(bytes(hex), out.toByteArray());
+        assertEquals(bytes(hex).length, Hpack.huffmanEncodedLength(data));
+        assertEquals(string, Hpack.huffmanDecode(bytes(hex), 0, bytes(hex).length));
+    }
+
+    // C.5 and C.6 Responses, with a 256 byte table which forces evictions
+    // *********************************************************************************************
+
+    private static final String[] RESPONSE_1 = {":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com"};
+    private static final String[] RESPONSE_2 = {":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "location", "https://www.example.com"};
+    private static final String[] RESPONSE_3 = {":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT", "location", "https://www.example.com",
+            "content-encoding", "gzip", "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"};
+
+    @Test
+    public void decodeResponsesWithoutHuffman() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(256, MAX_HEADER_LIST_SIZE);
+        assertHeaders(decoder, "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032303a31333a323120474d54"
+                + "6e1768747470733a2f2f7777772e6578616d706c652e636f6d", RESPONSE_1);
+        assertHeaders(decoder, "4803333037c1c0bf", RESPONSE_2);
+        assertHeaders(decoder, "88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54c05a04677a69707738666f6f3d"
+                + "4153444a4b48514b425a584f5157454f50495541585157454f49553b206d61782d6167653d333630303b2076657273696f6e3d31", RESPONSE_3);
+    }
+
+    @Test
+    public void decodeResponsesWithHuffman() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(256, MAX_HEADER_LIST_SIZE);
+        assertHeaders(decoder, "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8e9ae82ae43d3",
+                RESPONSE_1);
+        assertHeaders(decoder, "4883640effc1c0bf", RESPONSE_2);
+        assertHeaders(decoder, "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b"
+                + "3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007", RESPONSE_3);
+    }
+
+    @Test
+    public void responsesRoundTrip() throws IOException {
+        Hpack.Encoder encoder = new Hpack.Encoder();
+        encoder.setMaxTableSize(256);
+        Hpack.Decoder decoder = new Hpack.Decoder(256, MAX_HEADER_LIST_SIZE);
+        for (String[] response : new String[][]{RESPONSE_1, RESPONSE_2, RESPONSE_3, RESPONSE_1}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            encoder.encode(Arrays.asList(response), out);
+            assertEquals(Arrays.asList(response), decoder.decode(out.toByteArray()));
+        }
+    }
+
+    // Errors
+    // *********************************************************************************************
+
+    @Test
+    public void rejectsTableSizeAboveSettings() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(256, MAX_HEADER_LIST_SIZE);
+        assertInvalid(decoder, "3fe201"); // Table size update to 257
+        assertHeaders(decoder, "3fe101"); // Table size update to 256
+        assertInvalid(decoder, "823fe101"); // Table size update after a header
+    }
+
+    @Test
+    public void rejectsHeaderListAboveLimit() throws IOException {
+        Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE, 40);
+        assertInvalid(decoder, "400a637573746f6d2d6b65790d637573746f6d2d686561646572");
+    }
+
+    // Helpers
+    // *********************************************************************************************
+
+    private static void assertHeaders(Hpack.Decoder decoder, String hex, String... headers) throws IOException {
+        assertEquals(Arrays.asList(headers), decoder.decode(bytes(hex)));
+    }
+
+    private static void assertEncoded(Hpack.Encoder encoder, String hex, String... headers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(Arrays.asList(headers), out);
+        assertArrayEquals(bytes(hex), out.toByteArray());
+    }
+
+    private static void assertInvalid(Hpack.Decoder decoder, String hex) throws IOException {
+        try {
+            List<String> headers = decoder.decode(bytes(hex));
+            fail("Decoded an invalid block: " + headers);
+        } catch (ProtocolException e) {
+            // Expected
+        }
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2016 Aldrin Clemente
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.truebanana.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link PooledURLConnection} against in-process HTTP/1.1 servers which answer a single request each and record the headers they received.
+ */
+public class PooledURLConnectionTest {
+    private static final int TIMEOUT = 5000;
+
+    private ServerSocket origin;
+    private ServerSocket other;
+    private PooledHTTPEngine engine;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        origin = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        origin.setSoTimeout(TIMEOUT);
+        other = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        other.setSoTimeout(TIMEOUT);
+        engine = new PooledHTTPEngine();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        engine.evictAll();
+        origin.close();
+        other.close();
+    }
+
+    // Redirects
+    // *********************************************************************************************
+
+    @Test
+    public void crossOriginRedirectDropsCredentials() throws Exception {
+        Future<List<List<String>>> first = serve(origin, "HTTP/1.1 302 Found\r\nLocation: " + getURL(other, "/target") + "\r\nContent-Length: 0\r\n\r\n");
+        Future<List<List<String>>> second = serve(other, "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+
+        HttpURLConnection connection = openWithCredentials(getURL(origin, "/source"));
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("ok", read(connection));
+
+        List<String> sent = first.get(TIMEOUT, TimeUnit.MILLISECONDS).get(0);
+        assertTrue(sent.contains("authorization: Bearer secret"));
+        assertTrue(sent.contains("cookie: session=1"));
+        List<String> redirected = second.get(TIMEOUT, TimeUnit.MILLISECONDS).get(0);
+        assertEquals("GET /target HTTP/1.1", redirected.get(0));
+        assertFalse(hasHeader(redirected, "authorization"));
+        assertFalse(hasHeader(redirected, "proxy-authorization"));
+        assertFalse(hasHeader(redirected, "cookie"));
+        assertTrue(redirected.contains("x-custom: kept"));
+    }
+
+    @Test
+    public void sameOriginRedirectKeepsCredentials() throws Exception {
+        Future<List<List<String>>> requests = serve(origin, "HTTP/1.1 302 Found\r\nLocation: /target\r\nContent-Length: 0\r\n\r\n", "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok");
+
+        HttpURLConnection connection = openWithCredentials(getURL(origin, "/source"));
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("ok", read(connection));
+
+        List<String> redirected = requests.get(TIMEOUT, TimeUnit.MILLISECONDS).get(1);
+        assertEquals("GET /target HTTP/1.1", redirected.get(0));
+        assertTrue(redirected.contains("authorization: Bearer secret"));
+        assertTrue(redirected.contains("cookie: session=1"));
+    }
+
+    // Keep-Alive
+    // *********************************************************************************************
+
+    @Test
+    public void keepAliveTimeoutIsParsed() {
+        assertEquals(5000, PooledURLConnection.parseKeepAliveTimeout("timeout=5, max=100"));
+        assertEquals(2000, PooledURLConnection.parseKeepAliveTimeout("max=100,Timeout = 2"));
+        assertEquals(-1, PooledURLConnection.parseKeepAliveTimeout("max=100"));
+        assertEquals(-1, PooledURLConnection.parseKeepAliveTimeout("timeout=soon"));
+        assertEquals(-1, PooledURLConnection.parseKeepAliveTimeout(null));
+    }
+
+    // Helpers
+    // *********************************************************************************************
+
+    private HttpURLConnection openWithCredentials(String url) throws IOException {
+        HttpURLConnection connection = engine.open(new URL(url));
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setRequestProperty("Authorization", "Bearer secret");
+        connection.setRequestProperty("Proxy-Authorization", "Basic c2VjcmV0");
+        connection.setRequestProperty("Cookie", "session=1");
+        connection.setRequestProperty("X-Custom", "kept");
+        return connection;
+    }
+
+    private static String getURL(ServerSocket server, String path) {
+        return "http://127.0.0.1:" + server.getLocalPort() + path;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        Scanner scanner = new Scanner(connection.getInputStream(), "UTF-8").useDelimiter("\\A");
+        try {
+            return scanner.hasNext() ? scanner.next() : "";
+        } finally {
+            scanner.close();
+        }
+    }
+
+    private static boolean hasHeader(List<String> lines, String name) {
+        for (String line : lines) {
+            if (line.startsWith(name + ":")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Accepts one connection and answers each request head read from it with the next of the given responses.
+     *
+     * @return For each request, the request line followed by the header lines, with the header names in lowercase.
+     */
+    private Future<List<List<String>>> serve(final ServerSocket server, final String... responses) {
+        return executor.submit(new Callable<List<List<String>>>() {
+            @Override
+            public List<List<String>> call() throws Exception {
+                Socket socket = server.accept();
+                try {
+                    socket.setSoTimeout(TIMEOUT);
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    OutputStream out = socket.getOutputStream();
+                    List<List<String>> requests = new ArrayList<>();
+                    for (String response : responses) {
+                        List<String> lines = new ArrayList<>();
+                        lines.add(readLine(in));
+                        String line;
+                        while (!(line = readLine(in)).isEmpty()) {
+                            int colon = line.indexOf(':');
+                            lines.add(line.substring(0, colon).toLowerCase() + line.substring(colon));
+                        }
+                        requests.add(lines);
+                        out.write(response.getBytes("ISO-8859-1"));
+                        out.flush();
+                    }
+                    return requests;
+                } finally {
+                    socket.shutdownOutput();
+                }
+            }
+        });
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+}